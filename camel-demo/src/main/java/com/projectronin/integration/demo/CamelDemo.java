@@ -1,39 +1,58 @@
 package com.projectronin.integration.demo;
 
-import static org.springframework.test.web.client.ExpectedCount.manyTimes;
-import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
-import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
-import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
-import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
-import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
-
-import java.net.URI;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Collections;
 
 import org.apache.camel.component.hl7.HL7MLLPNettyDecoderFactory;
 import org.apache.camel.component.hl7.HL7MLLPNettyEncoderFactory;
+import org.apache.camel.component.micrometer.routepolicy.MicrometerRoutePolicyFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.support.ConversionServiceFactoryBean;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.retry.annotation.EnableRetry;
-import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.RestTemplate;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.guava.GuavaModule;
+import com.projectronin.integration.demo.configuration.FhirServerConfiguration;
+import com.projectronin.integration.demo.configuration.HttpClientConfiguration;
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
 import com.projectronin.integration.demo.configuration.MdaOcConfiguration;
+import com.projectronin.integration.demo.configuration.MdaOcSimulatorConfiguration;
+import com.projectronin.integration.demo.configuration.MetricsConfiguration;
+import com.projectronin.integration.demo.configuration.QuarantineConfiguration;
+import com.projectronin.integration.demo.configuration.QueueConfiguration;
+import com.projectronin.integration.demo.configuration.SpoolConfiguration;
+import com.projectronin.integration.demo.configuration.TenantConfiguration;
+import com.projectronin.integration.demo.http.PooledHttpClientFactory;
+import com.projectronin.integration.demo.http.TimingRequestInterceptor;
+import com.projectronin.integration.demo.mdaoc.simulator.MdaOcSimulator;
+import com.projectronin.integration.demo.metrics.PipelineMetrics;
+import com.projectronin.integration.demo.spool.MessageSpool;
 import com.projectronin.integration.demo.spring.converter.NettyChannelHandlerConverter;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.IParser;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 
 /**
  * Setup the Spring Boot Application.
@@ -41,7 +60,10 @@ import ca.uhn.fhir.parser.IParser;
  * @author Josh Smith
  */
 @SpringBootApplication
-@EnableConfigurationProperties({ MdaOcConfiguration.class })
+@EnableConfigurationProperties({ MdaOcConfiguration.class, IngestConfiguration.class, HttpClientConfiguration.class,
+		FhirServerConfiguration.class, QueueConfiguration.class, TenantConfiguration.class,
+		SpoolConfiguration.class, MetricsConfiguration.class, QuarantineConfiguration.class,
+		MdaOcSimulatorConfiguration.class })
 @EnableRetry
 public class CamelDemo {
 	public static void main(final String[] args) {
@@ -49,12 +71,58 @@ public class CamelDemo {
 	}
 
 	@Bean
-	public IParser fhirJsonParser() {
-		return FhirContext.forR4().newJsonParser();
+	public FhirContext fhirContext() {
+		return FhirContext.forR4();
+	}
+
+	@Bean(destroyMethod = "close")
+	public CloseableHttpClient httpClient(final HttpClientConfiguration httpClientConfiguration) {
+		return PooledHttpClientFactory.createHttpClient(httpClientConfiguration);
+	}
+
+	@Bean(destroyMethod = "close")
+	public CloseableHttpAsyncClient httpAsyncClient(final HttpClientConfiguration httpClientConfiguration)
+			throws IOReactorException {
+		return PooledHttpClientFactory.createHttpAsyncClient(httpClientConfiguration);
+	}
+
+	@Bean(destroyMethod = "close")
+	public MessageSpool messageSpool(final SpoolConfiguration spoolConfiguration) throws IOException {
+		return new MessageSpool(Paths.get(spoolConfiguration.getDirectory()), spoolConfiguration.getSegmentBytes(),
+				spoolConfiguration.getFlushDelayMillis());
 	}
 
 	@Bean
-	public RestTemplate restTemplate() {
+	public PrometheusMeterRegistry meterRegistry() {
+		PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+		// Publish histogram buckets for the latency timers, so percentiles can be aggregated across instances.
+		meterRegistry.config().meterFilter(new MeterFilter() {
+			@Override
+			public DistributionStatisticConfig configure(final Meter.Id id, final DistributionStatisticConfig config) {
+				if (id.getName().equals(PipelineMetrics.STAGE_TIMER) || id.getName().equals(PipelineMetrics.HTTP_TIMER)
+						|| id.getName().startsWith("CamelRoutePolicy")) {
+					return DistributionStatisticConfig.builder().percentilesHistogram(true).build().merge(config);
+				}
+				return config;
+			}
+		});
+		new JvmMemoryMetrics().bindTo(meterRegistry);
+		new JvmGcMetrics().bindTo(meterRegistry);
+		new JvmThreadMetrics().bindTo(meterRegistry);
+		new ProcessorMetrics().bindTo(meterRegistry);
+		return meterRegistry;
+	}
+
+	// Times every route, by route ID.
+	@Bean
+	public MicrometerRoutePolicyFactory micrometerRoutePolicyFactory(final PrometheusMeterRegistry meterRegistry) {
+		MicrometerRoutePolicyFactory routePolicyFactory = new MicrometerRoutePolicyFactory();
+		routePolicyFactory.setMeterRegistry(meterRegistry);
+		return routePolicyFactory;
+	}
+
+	@Bean
+	public RestTemplate restTemplate(final CloseableHttpClient httpClient, final PipelineMetrics pipelineMetrics) {
 		// None of this should be needed, but something has either changed or things are
 		// just loading incorrectly, and the default Jackson converter is not getting
 		// the appropriate modules set.
@@ -62,8 +130,9 @@ public class CamelDemo {
 				.featuresToDisable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES).build();
 		MappingJackson2HttpMessageConverter jacksonConverter = new MappingJackson2HttpMessageConverter(objectMapper);
 
-		RestTemplate restTemplate = new RestTemplate();
+		RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
 		restTemplate.getMessageConverters().add(jacksonConverter);
+		restTemplate.getInterceptors().add(new TimingRequestInterceptor(pipelineMetrics));
 		return restTemplate;
 	}
 
@@ -85,124 +154,11 @@ public class CamelDemo {
 		return conversionServiceFactoryBean;
 	}
 
-	// Create a Mock rest server to mimic MDAOC.
-	@Bean
-	public MockRestServiceServer mockRestServiceServer(final RestTemplate restTemplate) throws Exception {
-		MockRestServiceServer server = MockRestServiceServer.createServer(restTemplate);
-
-		//@formatter:off
-		// Mock Bearer token
-		server.expect(manyTimes(), requestTo(new URI("http://localhost:8080/auth/token")))
-				.andExpect(method(HttpMethod.POST))
-				.andExpect(content().string("{ \"Username\": \"username\", \"Password\": \"password\", \"AppName\": \"AppName\", \"AppKey\": \"AppKey\", \"scope\": \"read\" }"))
-				.andRespond(withStatus(HttpStatus.OK)
-								.body("AuthToken"));
-
-		// Mock patient identifier lookup
-		server.expect(manyTimes(), requestTo(new URI("http://localhost:8080/api/oc/patient/0MRN123/identifiers/type/MRN")))
-				.andExpect(method(HttpMethod.GET))
-				.andExpect(header("Authorization", "Bearer AuthToken"))
-				.andExpect(header("Content-Type", "application/json"))
-				.andExpect(header("Accept", "application/json"))
-				.andRespond(withStatus(HttpStatus.OK)
-								.contentType(MediaType.APPLICATION_JSON)
-								.body("{ \"historicalIdentifiers\": [], \"identifiers\": [ { \"id\": \"MRN123\", \"idType\": \"MRN\" }, { \"id\": \"fhir12345\", \"idType\": \"FHIR STU3\" } ] }"));
-
-		// Mock encounters
-		server.expect(manyTimes(), requestTo(new URI("http://localhost:8080/api/oc/api/FHIR/STU3/Encounter?patient=fhir12345&date=ge2021-07-01&date=le2021-07-08")))
-				.andExpect(method(HttpMethod.GET))
-				.andExpect(header("Authorization", "Bearer AuthToken"))
-				.andExpect(header("Content-Type", "application/json"))
-				.andExpect(header("Accept", "application/json"))
-				.andRespond(withStatus(HttpStatus.OK)
-								.contentType(MediaType.APPLICATION_JSON)
-								.body(encounterPage1));
-
-		server.expect(manyTimes(), requestTo(new URI("http://localhost:8080/api/oc/api/FHIR/STU3?_getpages=6bba9175-c09b-4565-b86f-b4d9174c2695&_getpagesoffset=2&_count=2&_pretty=true&_bundletype=searchset")))
-		.andExpect(method(HttpMethod.GET))
-		.andExpect(header("Authorization", "Bearer AuthToken"))
-		.andExpect(header("Content-Type", "application/json"))
-		.andExpect(header("Accept", "application/json"))
-		.andRespond(withStatus(HttpStatus.OK)
-						.contentType(MediaType.APPLICATION_JSON)
-						.body(encounterPage2));
-		//@formatter:on
-
-		return server;
+	// Stands in for MDAOC when there isn't one to talk to.
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(prefix = "ronin.mdaoc-simulator", name = "enabled")
+	public MdaOcSimulator mdaOcSimulator(final MdaOcSimulatorConfiguration mdaOcSimulatorConfiguration)
+			throws IOException {
+		return new MdaOcSimulator(mdaOcSimulatorConfiguration);
 	}
-
-	// These responses were generated based off data in the HAPI FHIR server :) but
-	// edited to have our fake URLs for the links.
-	private final String encounterPage1 = "{\n" + "  \"resourceType\": \"Bundle\",\n"
-			+ "  \"id\": \"6bba9175-c09b-4565-b86f-b4d9174c2695\",\n" + "  \"meta\": {\n"
-			+ "    \"lastUpdated\": \"2021-07-08T22:21:36.224+00:00\"\n" + "  },\n" + "  \"type\": \"searchset\",\n"
-			+ "  \"link\": [ {\n" + "    \"relation\": \"self\",\n"
-			+ "    \"url\": \"http://localhost:8080/api/oc/api/FHIR/STU3/Encounter?patient=fhir12345&date=ge2021-07-01&date=le2021-07-08\"\n"
-			+ "  }, {\n" + "    \"relation\": \"next\",\n"
-			+ "    \"url\": \"http://localhost:8080/api/oc/api/FHIR/STU3?_getpages=6bba9175-c09b-4565-b86f-b4d9174c2695&_getpagesoffset=2&_count=2&_pretty=true&_bundletype=searchset\"\n"
-			+ "  } ],\n" + "  \"entry\": [ {\n"
-			+ "    \"fullUrl\": \"http://hapi.fhir.org/baseR4/Encounter/1366573\",\n" + "    \"resource\": {\n"
-			+ "      \"resourceType\": \"Encounter\",\n" + "      \"id\": \"1366573\",\n" + "      \"meta\": {\n"
-			+ "        \"versionId\": \"1\",\n" + "        \"lastUpdated\": \"2020-07-04T07:27:51.428+00:00\",\n"
-			+ "        \"source\": \"#666y0aXuBm4PVYu7\"\n" + "      },\n" + "      \"identifier\": [ {\n"
-			+ "        \"type\": {\n" + "          \"coding\": [ {\n"
-			+ "            \"system\": \"http://terminology.hl7.org/CodeSystem/v2-0203\"\n" + "          } ],\n"
-			+ "          \"text\": \"visit number\"\n" + "        },\n" + "        \"value\": \"VISIT101\"\n"
-			+ "      } ],\n" + "      \"status\": \"unknown\",\n" + "      \"class\": {\n"
-			+ "        \"system\": \"http://terminology.hl7.org/CodeSystem/v3-ActCode\",\n"
-			+ "        \"code\": \"IMP\",\n" + "        \"display\": \"inpatient encounter\"\n" + "      },\n"
-			+ "      \"type\": [ {\n" + "        \"coding\": [ {\n"
-			+ "          \"system\": \"http://terminology.hl7.org/CodeSystem/v2-0007\",\n"
-			+ "          \"code\": \"R\",\n" + "          \"display\": \"Routine\"\n" + "        } ]\n" + "      } ],\n"
-			+ "      \"subject\": {\n" + "        \"reference\": \"Patient/1366572\"\n" + "      },\n"
-			+ "      \"period\": {\n" + "        \"start\": \"2000-08-21T11:56:23.000Z\"\n" + "      },\n"
-			+ "      \"reasonCode\": [ {\n" + "        \"coding\": [ {\n" + "          \"code\": \"Anxiety Disorder\"\n"
-			+ "        } ]\n" + "      } ],\n" + "      \"location\": [ {\n" + "        \"status\": \"active\"\n"
-			+ "      } ]\n" + "    },\n" + "    \"search\": {\n" + "      \"mode\": \"match\"\n" + "    }\n"
-			+ "  }, {\n" + "    \"fullUrl\": \"http://hapi.fhir.org/baseR4/Encounter/1366488\",\n"
-			+ "    \"resource\": {\n" + "      \"resourceType\": \"Encounter\",\n" + "      \"id\": \"1366488\",\n"
-			+ "      \"meta\": {\n" + "        \"versionId\": \"1\",\n"
-			+ "        \"lastUpdated\": \"2020-07-04T07:10:50.343+00:00\",\n"
-			+ "        \"source\": \"#OTwUCgIpLDe1xGf5\"\n" + "      },\n" + "      \"identifier\": [ {\n"
-			+ "        \"type\": {\n" + "          \"coding\": [ {\n"
-			+ "            \"system\": \"http://terminology.hl7.org/CodeSystem/v2-0203\"\n" + "          } ],\n"
-			+ "          \"text\": \"visit number\"\n" + "        },\n" + "        \"value\": \"VISIT101\"\n"
-			+ "      } ],\n" + "      \"status\": \"unknown\",\n" + "      \"class\": {\n"
-			+ "        \"system\": \"http://terminology.hl7.org/CodeSystem/v3-ActCode\",\n"
-			+ "        \"code\": \"IMP\",\n" + "        \"display\": \"inpatient encounter\"\n" + "      },\n"
-			+ "      \"type\": [ {\n" + "        \"coding\": [ {\n"
-			+ "          \"system\": \"http://terminology.hl7.org/CodeSystem/v2-0007\",\n"
-			+ "          \"code\": \"R\",\n" + "          \"display\": \"Routine\"\n" + "        } ]\n" + "      } ],\n"
-			+ "      \"subject\": {\n" + "        \"reference\": \"Patient/1366487\"\n" + "      },\n"
-			+ "      \"period\": {\n" + "        \"start\": \"2000-08-21T11:56:23.000Z\"\n" + "      },\n"
-			+ "      \"location\": [ {\n" + "        \"status\": \"active\"\n" + "      } ]\n" + "    },\n"
-			+ "    \"search\": {\n" + "      \"mode\": \"match\"\n" + "    }\n" + "  } ]\n" + "}";
-
-	private final String encounterPage2 = "{\n" + "  \"resourceType\": \"Bundle\",\n"
-			+ "  \"id\": \"6bba9175-c09b-4565-b86f-b4d9174c2695\",\n" + "  \"meta\": {\n"
-			+ "    \"lastUpdated\": \"2021-07-08T22:21:36.224+00:00\"\n" + "  },\n" + "  \"type\": \"searchset\",\n"
-			+ "  \"link\": [ {\n" + "    \"relation\": \"self\",\n"
-			+ "    \"url\": \"http://localhost:8080/api/oc/api/FHIR/STU3?_getpages=6bba9175-c09b-4565-b86f-b4d9174c2695&_getpagesoffset=2&_count=2&_pretty=true&_bundletype=searchset\"\n"
-			+ "  }, {\n" + "    \"relation\": \"previous\",\n"
-			+ "    \"url\": \"http://localhost:8080/api/oc/api/FHIR/STU3?_getpages=6bba9175-c09b-4565-b86f-b4d9174c2695&_getpagesoffset=0&_count=2&_pretty=true&_bundletype=searchset\"\n"
-			+ "  } ],\n" + "  \"entry\": [ {\n"
-			+ "    \"fullUrl\": \"http://hapi.fhir.org/baseR4/Encounter/1366483\",\n" + "    \"resource\": {\n"
-			+ "      \"resourceType\": \"Encounter\",\n" + "      \"id\": \"1366483\",\n" + "      \"meta\": {\n"
-			+ "        \"versionId\": \"1\",\n" + "        \"lastUpdated\": \"2020-07-04T07:08:21.234+00:00\",\n"
-			+ "        \"source\": \"#ObELNRdCRUTqwM3h\"\n" + "      },\n" + "      \"identifier\": [ {\n"
-			+ "        \"type\": {\n" + "          \"coding\": [ {\n"
-			+ "            \"system\": \"http://terminology.hl7.org/CodeSystem/v2-0203\"\n" + "          } ],\n"
-			+ "          \"text\": \"visit number\"\n" + "        },\n" + "        \"value\": \"VISIT101\"\n"
-			+ "      } ],\n" + "      \"status\": \"unknown\",\n" + "      \"class\": {\n"
-			+ "        \"system\": \"http://terminology.hl7.org/CodeSystem/v3-ActCode\",\n"
-			+ "        \"code\": \"IMP\",\n" + "        \"display\": \"inpatient encounter\"\n" + "      },\n"
-			+ "      \"type\": [ {\n" + "        \"coding\": [ {\n"
-			+ "          \"system\": \"http://terminology.hl7.org/CodeSystem/v2-0007\",\n"
-			+ "          \"code\": \"R\",\n" + "          \"display\": \"Routine\"\n" + "        } ]\n" + "      } ],\n"
-			+ "      \"subject\": {\n" + "        \"reference\": \"Patient/1366482\"\n" + "      },\n"
-			+ "      \"period\": {\n" + "        \"start\": \"2000-08-21T11:56:23.000Z\"\n" + "      },\n"
-			+ "      \"reasonCode\": [ {\n" + "        \"coding\": [ {\n" + "          \"code\": \"Anxiety Disorder\"\n"
-			+ "        } ]\n" + "      } ],\n" + "      \"location\": [ {\n" + "        \"status\": \"active\"\n"
-			+ "      } ]\n" + "    },\n" + "    \"search\": {\n" + "      \"mode\": \"match\"\n" + "    }\n" + "  } ]\n"
-			+ "}";
 }
@@ -1,9 +1,10 @@
 package com.projectronin.integration.demo.camel.extractor;
 
 import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Expression;
@@ -13,98 +14,107 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.common.base.Strings;
+import com.projectronin.integration.demo.configuration.MdaOcConfiguration;
 import com.projectronin.integration.demo.mdaoc.MdaOcClient;
 import com.projectronin.integration.demo.mdaoc.model.PatientIdentifier;
 import com.projectronin.integration.demo.mdaoc.model.PatientIdentifiers;
 
-import ca.uhn.hl7v2.HL7Exception;
-import ca.uhn.hl7v2.model.GenericSegment;
-import ca.uhn.hl7v2.model.Message;
-import ca.uhn.hl7v2.model.Type;
-import ca.uhn.hl7v2.model.Varies;
-import ca.uhn.hl7v2.util.Terser;
-
+/**
+ * Extracts the FHIR ID of the message's patient, looking up its MRN in MDAOC.
+ * ADT feeds send the same patient many times a day, so lookups are cached per
+ * tenant and MRN, including MRNs MDAOC does not know. Concurrent misses for the
+ * same patient share one MDAOC request.
+ */
 @Component
 public class FhirIdExtractor implements Expression {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FhirIdExtractor.class);
 	private final MdaOcClient mdaOcClient;
+	private final HeaderExtractor headerExtractor;
+	private final LoadingCache<String, Optional<String>> fhirIdsByMrn;
 
 	@Autowired
-	public FhirIdExtractor(final MdaOcClient mdaOcClient) {
+	public FhirIdExtractor(final MdaOcClient mdaOcClient, final HeaderExtractor headerExtractor,
+			final MdaOcConfiguration mdaOcConfiguration) {
 		this.mdaOcClient = mdaOcClient;
+		this.headerExtractor = headerExtractor;
+
+		long ttlNanos = TimeUnit.SECONDS.toNanos(mdaOcConfiguration.getFhirIdCacheTtlSeconds());
+		long negativeTtlNanos = TimeUnit.SECONDS.toNanos(mdaOcConfiguration.getFhirIdCacheNegativeTtlSeconds());
+		this.fhirIdsByMrn = Caffeine.newBuilder().maximumSize(mdaOcConfiguration.getFhirIdCacheSize())
+				.expireAfter(new Expiry<String, Optional<String>>() {
+					@Override
+					public long expireAfterCreate(final String key, final Optional<String> fhirId,
+							final long currentTime) {
+						return fhirId.isPresent() ? ttlNanos : negativeTtlNanos;
+					}
+
+					@Override
+					public long expireAfterUpdate(final String key, final Optional<String> fhirId,
+							final long currentTime, final long currentDuration) {
+						return expireAfterCreate(key, fhirId, currentTime);
+					}
+
+					@Override
+					public long expireAfterRead(final String key, final Optional<String> fhirId,
+							final long currentTime, final long currentDuration) {
+						return currentDuration;
+					}
+				}).recordStats().build(this::loadFhirId);
 	}
 
 	@Override
 	public <T> T evaluate(final Exchange exchange, final Class<T> type) {
-		try {
-			// Just a small delay from demo purposes.
-			Thread.sleep(1000);
-			Map<String, String> identifiersByType = getIdentifiersByType(exchange.getIn().getBody(Message.class));
-			LOGGER.info("Loaded {} identifiers", identifiersByType.size());
-
-			String mrn = identifiersByType.get("MR");
-			LOGGER.info("Loaded MRN {}", mrn);
-			String fhirId = getFhirID(mrn).orElse(null);
-			LOGGER.info("Loaded FHIR STU3 ID {}", fhirId);
-
-			return exchange.getContext().getTypeConverter().convertTo(type, fhirId);
-		} catch (HL7Exception | RestClientException | URISyntaxException | InterruptedException e) {
-			throw new RuntimeException(e);
-		}
-	}
-
-	private Map<String, String> getIdentifiersByType(final Message message) throws HL7Exception {
-		Map<String, String> identifiersByType = new HashMap<>();
-
-		GenericSegment pid = (GenericSegment) message.get("PID");
-
-		// Patient ID
-		Varies pid2 = (Varies) pid.getField(2, 0);
-		addIdentifier(pid2, identifiersByType);
-
-		// Patient IDs
-		for (Type pid3 : pid.getField(3)) {
-			addIdentifier((Varies) pid3, identifiersByType);
-		}
-
-		// Alternate Patient IDs
-		for (Type pid4 : pid.getField(4)) {
-			addIdentifier((Varies) pid4, identifiersByType);
-		}
+		Map<String, String> identifiersByType = headerExtractor.getHeaders(exchange).getIdentifiersByType();
+		LOGGER.info("Loaded {} identifiers", identifiersByType.size());
 
-		// Patient Account Number
-		Varies pid18 = (Varies) pid.getField(18, 0);
-		addIdentifier(pid18, identifiersByType);
+		String mrn = identifiersByType.get("MR");
+		LOGGER.info("Loaded MRN {}", mrn);
+		String fhirId = getFhirID(exchange.getIn().getHeader("tenant", String.class), mrn).orElse(null);
+		LOGGER.info("Loaded FHIR STU3 ID {}", fhirId);
 
-		return identifiersByType;
+		return exchange.getContext().getTypeConverter().convertTo(type, fhirId);
 	}
 
-	private void addIdentifier(final Varies identifierObject, final Map<String, String> identifiersByType) {
-		String type = Terser.getPrimitive(identifierObject, 5, 1).getValue();
-		if (type == null) {
-			// If we don't know a type, it's of no use to us.
-			return;
-		}
-		if (identifiersByType.containsKey(type)) {
-			LOGGER.info("Received second id for type {}", type);
-		}
-
-		String identifier = Terser.getPrimitive(identifierObject, 1, 1).getValue();
-		identifiersByType.put(type, identifier);
+	/**
+	 * Hit, miss, load and eviction counts for the FHIR ID cache.
+	 */
+	public CacheStats getCacheStats() {
+		return fhirIdsByMrn.stats();
 	}
 
-	private Optional<String> getFhirID(final String mrn) throws RestClientException, URISyntaxException {
+	private Optional<String> getFhirID(final String tenant, final String mrn) {
 		if (mrn == null) {
-			return null;
+			return Optional.empty();
 		}
 
 		String paddedMrn = Strings.padStart(mrn, 7, '0');
+		try {
+			return fhirIdsByMrn.get(String.format("%s:%s", tenant, paddedMrn));
+		} catch (CompletionException e) {
+			// Failed lookups are not cached, so the next message for this patient tries again.
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private Optional<String> loadFhirId(final String key) throws RestClientException, URISyntaxException {
+		String paddedMrn = key.substring(key.indexOf(':') + 1);
 		String path = String.format("/oc/patient/%s/identifiers/type/MRN", paddedMrn);
 
-		ResponseEntity<PatientIdentifiers> response = mdaOcClient.get(path, PatientIdentifiers.class);
+		ResponseEntity<PatientIdentifiers> response;
+		try {
+			response = mdaOcClient.get(path, PatientIdentifiers.class);
+		} catch (HttpClientErrorException.NotFound e) {
+			LOGGER.info("MRN {} is not known to MDAOC", paddedMrn);
+			return Optional.empty();
+		}
 		if (response.getStatusCode() != HttpStatus.OK) {
 			throw new IllegalStateException(String.format(
 					"Unable to validate MRN and retrieve FHIR ID. Server returned %s", response.getStatusCodeValue()));
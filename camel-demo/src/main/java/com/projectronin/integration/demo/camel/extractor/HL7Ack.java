@@ -0,0 +1,162 @@
+package com.projectronin.integration.demo.camel.extractor;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds an ACK straight from the MSH segment of a raw ER7 message, for
+ * messages that are acknowledged without otherwise being processed. Unlike
+ * HAPI's {@code generateACK} this does not parse the message, so it also works
+ * for message types and versions HAPI has no model for, and for messages that
+ * are malformed past the MSH.
+ *
+ * The ACK mirrors HAPI's: the sending and receiving applications and
+ * facilities are swapped, MSH-9 is {@code ACK^<trigger>^ACK}, MSH-11 and MSH-12
+ * are copied, and MSA-2 echoes the message's control ID. The message's own
+ * encoding characters are used, so copied fields need no re-escaping. As the
+ * ACK keeps the message's version, an error goes in ERR-1 for versions before
+ * 2.5, which have no ERR-3.
+ */
+public final class HL7Ack {
+	private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss.SSSZ");
+	private static final AtomicLong CONTROL_IDS = new AtomicLong(System.currentTimeMillis());
+	private static final int MSH_FIELDS = 12;
+
+	private HL7Ack() {
+	}
+
+	/**
+	 * @param code the acknowledgment code, such as AA or AE
+	 * @throws IllegalArgumentException if the message does not start with an MSH
+	 *                                  segment
+	 */
+	public static String ack(final String er7, final String code) {
+		return ack(er7, code, null);
+	}
+
+	/**
+	 * @param errorText if not null, added to an ERR segment as an application
+	 *                  internal error. It must not contain any of the message's
+	 *                  encoding characters.
+	 */
+	public static String ack(final String er7, final String code, final String errorText) {
+		if (er7 == null || er7.length() < 8 || !er7.startsWith("MSH")) {
+			throw new IllegalArgumentException("Message does not start with an MSH segment");
+		}
+
+		char fieldSeparator = er7.charAt(3);
+		char componentSeparator = er7.charAt(4);
+		String[] msh = mshFields(er7, fieldSeparator);
+
+		StringBuilder ack = new StringBuilder(128 + (errorText == null ? 0 : errorText.length()));
+		ack.append("MSH").append(fieldSeparator).append(msh[2]);
+		// The receiver of the message is the sender of the ACK.
+		appendField(ack, fieldSeparator, msh[5]);
+		appendField(ack, fieldSeparator, msh[6]);
+		appendField(ack, fieldSeparator, msh[3]);
+		appendField(ack, fieldSeparator, msh[4]);
+		appendField(ack, fieldSeparator, ZonedDateTime.now().format(TIMESTAMP));
+		appendField(ack, fieldSeparator, "");
+		ack.append(fieldSeparator).append("ACK");
+		String triggerEvent = component(msh[9], componentSeparator, 1);
+		if (triggerEvent != null) {
+			ack.append(componentSeparator).append(triggerEvent).append(componentSeparator).append("ACK");
+		}
+		appendField(ack, fieldSeparator, Long.toString(CONTROL_IDS.incrementAndGet()));
+		appendField(ack, fieldSeparator, msh[11]);
+		appendField(ack, fieldSeparator, msh[12]);
+		ack.append('\r');
+
+		ack.append("MSA").append(fieldSeparator).append(code);
+		appendField(ack, fieldSeparator, msh[10]);
+		ack.append('\r');
+
+		if (errorText != null) {
+			ack.append("ERR").append(fieldSeparator);
+			if (hasErrorLocationOnly(component(msh[12], componentSeparator, 0))) {
+				// ERR-1 is the location and code of the error, the code's text carrying the error.
+				char subcomponentSeparator = er7.length() > 7 ? er7.charAt(7) : '&';
+				for (int i = 0; i < 3; i++) {
+					ack.append(componentSeparator);
+				}
+				ack.append("207").append(subcomponentSeparator).append(errorText).append(subcomponentSeparator)
+						.append("HL70357");
+			} else {
+				ack.append(fieldSeparator).append(fieldSeparator).append("207").append(componentSeparator)
+						.append("Application internal error").append(componentSeparator).append("HL70357")
+						.append(fieldSeparator).append('E');
+				for (int i = 0; i < 4; i++) {
+					ack.append(fieldSeparator);
+				}
+				ack.append(errorText);
+			}
+			ack.append('\r');
+		}
+		return ack.toString();
+	}
+
+	/**
+	 * @return true for versions 2.1 to 2.4, whose ERR segment only has ERR-1
+	 */
+	private static boolean hasErrorLocationOnly(final String version) {
+		if (version == null || !version.startsWith("2.")) {
+			return false;
+		}
+		int end = version.indexOf('.', 2);
+		try {
+			return Integer.parseInt(version.substring(2, end < 0 ? version.length() : end)) < 5;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Splits MSH-2 to MSH-12 out of the first segment, indexed by field number.
+	 * Absent fields are empty.
+	 */
+	private static String[] mshFields(final String er7, final char fieldSeparator) {
+		String[] fields = new String[MSH_FIELDS + 1];
+		int segmentEnd = er7.length();
+		for (int i = 0; i < er7.length(); i++) {
+			char c = er7.charAt(i);
+			if (c == '\r' || c == '\n') {
+				segmentEnd = i;
+				break;
+			}
+		}
+
+		// MSH-1 is the field separator itself, so the text after it is MSH-2.
+		int fieldStart = 4;
+		for (int field = 2; field <= MSH_FIELDS; field++) {
+			if (fieldStart > segmentEnd) {
+				fields[field] = "";
+				continue;
+			}
+			int fieldEnd = er7.indexOf(fieldSeparator, fieldStart);
+			if (fieldEnd < 0 || fieldEnd > segmentEnd) {
+				fieldEnd = segmentEnd;
+			}
+			fields[field] = er7.substring(fieldStart, fieldEnd);
+			fieldStart = fieldEnd + 1;
+		}
+		return fields;
+	}
+
+	private static String component(final String field, final char componentSeparator, final int index) {
+		int start = 0;
+		for (int i = 0; i < index; i++) {
+			start = field.indexOf(componentSeparator, start) + 1;
+			if (start == 0) {
+				return null;
+			}
+		}
+		int end = field.indexOf(componentSeparator, start);
+		String value = end < 0 ? field.substring(start) : field.substring(start, end);
+		return value.isEmpty() ? null : value;
+	}
+
+	private static void appendField(final StringBuilder ack, final char fieldSeparator, final String value) {
+		ack.append(fieldSeparator).append(value);
+	}
+}
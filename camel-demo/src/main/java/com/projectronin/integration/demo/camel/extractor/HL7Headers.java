@@ -0,0 +1,220 @@
+package com.projectronin.integration.demo.camel.extractor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.hl7v2.parser.EncodingCharacters;
+import ca.uhn.hl7v2.parser.Escape;
+
+/**
+ * The MSH and PID values the routes care about, read from a raw ER7 message in
+ * a single pass and without building the HAPI object model.
+ */
+public final class HL7Headers {
+	private static final Logger LOGGER = LoggerFactory.getLogger(HL7Headers.class);
+
+	private final String sendingFacility;
+	private final String messageCode;
+	private final String triggerEvent;
+	private final Map<String, String> identifiersByType;
+
+	private HL7Headers(final String sendingFacility, final String messageCode, final String triggerEvent,
+			final Map<String, String> identifiersByType) {
+		this.sendingFacility = sendingFacility;
+		this.messageCode = messageCode;
+		this.triggerEvent = triggerEvent;
+		this.identifiersByType = Collections.unmodifiableMap(identifiersByType);
+	}
+
+	/**
+	 * MSH-4.1, the namespace ID of the sending facility.
+	 */
+	public String getSendingFacility() {
+		return sendingFacility;
+	}
+
+	/**
+	 * MSH-9.1 and MSH-9.2 joined as {@code code^trigger}, for example
+	 * {@code ADT^A01}. Just the code if there is no trigger event, and null if
+	 * MSH-9 is empty.
+	 */
+	public String getMessageType() {
+		if (messageCode == null) {
+			return null;
+		}
+		return triggerEvent == null ? messageCode : messageCode + '^' + triggerEvent;
+	}
+
+	/**
+	 * Identifier values from PID-2, PID-3, PID-4 and PID-18 keyed by their
+	 * identifier type code (component 5). Identifiers without a type are ignored,
+	 * and later identifiers of the same type replace earlier ones.
+	 */
+	public Map<String, String> getIdentifiersByType() {
+		return identifiersByType;
+	}
+
+	/**
+	 * Scans the ER7 encoded message once, stopping after the PID segment.
+	 *
+	 * @throws IllegalArgumentException if the message does not start with an MSH
+	 *                                  segment
+	 */
+	public static HL7Headers parse(final String er7) {
+		if (er7 == null || er7.length() < 8 || !er7.startsWith("MSH")) {
+			throw new IllegalArgumentException("Message does not start with an MSH segment");
+		}
+
+		Scanner scanner = new Scanner(er7);
+		String sendingFacility = null;
+		String messageCode = null;
+		String triggerEvent = null;
+		Map<String, String> identifiersByType = new HashMap<>();
+
+		int segmentStart = 0;
+		while (segmentStart < er7.length()) {
+			int segmentEnd = scanner.segmentEnd(segmentStart);
+
+			if (er7.startsWith("MSH", segmentStart)) {
+				// MSH-1 is the field separator itself, so the text after it is MSH-2.
+				int field = 2;
+				int fieldStart = segmentStart + 4;
+				while (fieldStart <= segmentEnd && field <= 9) {
+					int fieldEnd = scanner.indexOf(scanner.fieldSeparator, fieldStart, segmentEnd);
+					if (field == 4) {
+						sendingFacility = scanner.component(fieldStart, fieldEnd, 1);
+					} else if (field == 9) {
+						messageCode = scanner.component(fieldStart, fieldEnd, 1);
+						triggerEvent = scanner.component(fieldStart, fieldEnd, 2);
+					}
+					field++;
+					fieldStart = fieldEnd + 1;
+				}
+			} else if (er7.startsWith("PID", segmentStart)) {
+				int field = 1;
+				int fieldStart = segmentStart + 4;
+				while (fieldStart <= segmentEnd && field <= 18) {
+					int fieldEnd = scanner.indexOf(scanner.fieldSeparator, fieldStart, segmentEnd);
+					if (field == 3 || field == 4) {
+						int repetitionStart = fieldStart;
+						while (repetitionStart <= fieldEnd) {
+							int repetitionEnd = scanner.indexOf(scanner.repetitionSeparator, repetitionStart, fieldEnd);
+							addIdentifier(scanner, repetitionStart, repetitionEnd, identifiersByType);
+							repetitionStart = repetitionEnd + 1;
+						}
+					} else if (field == 2 || field == 18) {
+						// Only the first repetition is meaningful for these.
+						int repetitionEnd = scanner.indexOf(scanner.repetitionSeparator, fieldStart, fieldEnd);
+						addIdentifier(scanner, fieldStart, repetitionEnd, identifiersByType);
+					}
+					field++;
+					fieldStart = fieldEnd + 1;
+				}
+
+				// Nothing we need comes after the PID.
+				break;
+			}
+
+			segmentStart = scanner.nextSegmentStart(segmentEnd);
+		}
+
+		return new HL7Headers(sendingFacility, messageCode, triggerEvent, identifiersByType);
+	}
+
+	private static void addIdentifier(final Scanner scanner, final int start, final int end,
+			final Map<String, String> identifiersByType) {
+		String type = scanner.component(start, end, 5);
+		if (type == null) {
+			// If we don't know a type, it's of no use to us.
+			return;
+		}
+
+		String identifier = scanner.component(start, end, 1);
+		if (identifiersByType.put(type, identifier) != null) {
+			LOGGER.info("Received second id for type {}", type);
+		}
+	}
+
+	/**
+	 * Index arithmetic over the raw message using the encoding characters declared
+	 * in MSH-1 and MSH-2.
+	 */
+	private static final class Scanner {
+		private final String er7;
+		private final char fieldSeparator;
+		private final char componentSeparator;
+		private final char repetitionSeparator;
+		private final char escapeCharacter;
+		private final char subcomponentSeparator;
+
+		Scanner(final String er7) {
+			this.er7 = er7;
+			this.fieldSeparator = er7.charAt(3);
+			this.componentSeparator = er7.charAt(4);
+			this.repetitionSeparator = er7.charAt(5);
+			this.escapeCharacter = er7.charAt(6);
+			this.subcomponentSeparator = er7.charAt(7);
+		}
+
+		int segmentEnd(final int segmentStart) {
+			for (int i = segmentStart; i < er7.length(); i++) {
+				char c = er7.charAt(i);
+				if (c == '\r' || c == '\n') {
+					return i;
+				}
+			}
+			return er7.length();
+		}
+
+		int nextSegmentStart(final int segmentEnd) {
+			int i = segmentEnd;
+			while (i < er7.length() && (er7.charAt(i) == '\r' || er7.charAt(i) == '\n')) {
+				i++;
+			}
+			return i;
+		}
+
+		/**
+		 * Returns the index of the separator in [start, end), or end if there is none.
+		 */
+		int indexOf(final char separator, final int start, final int end) {
+			for (int i = start; i < end; i++) {
+				if (er7.charAt(i) == separator) {
+					return i;
+				}
+			}
+			return end;
+		}
+
+		/**
+		 * Returns the first subcomponent of the given 1-based component within
+		 * [start, end), or null if it is absent or empty.
+		 */
+		String component(final int start, final int end, final int component) {
+			int componentStart = start;
+			for (int i = 1; i < component; i++) {
+				componentStart = indexOf(componentSeparator, componentStart, end) + 1;
+				if (componentStart > end) {
+					return null;
+				}
+			}
+
+			int componentEnd = indexOf(componentSeparator, componentStart, end);
+			int valueEnd = indexOf(subcomponentSeparator, componentStart, componentEnd);
+			if (valueEnd == componentStart) {
+				return null;
+			}
+
+			String value = er7.substring(componentStart, valueEnd);
+			if (value.indexOf(escapeCharacter) >= 0) {
+				value = Escape.unescape(value, new EncodingCharacters(fieldSeparator, componentSeparator,
+						repetitionSeparator, escapeCharacter, subcomponentSeparator));
+			}
+			return value;
+		}
+	}
+}
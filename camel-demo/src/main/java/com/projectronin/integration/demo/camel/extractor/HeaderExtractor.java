@@ -0,0 +1,35 @@
+package com.projectronin.integration.demo.camel.extractor;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the MSH and PID values used for routing from the raw message once and
+ * stores them on the exchange, so the later extractors and route steps do not
+ * each need a fully parsed HAPI message. Running this as the first step of a
+ * route is optional; the extractors will populate the header on demand.
+ */
+@Component
+public class HeaderExtractor implements Processor {
+	public static final String HL7_HEADERS = "hl7Headers";
+
+	@Override
+	public void process(final Exchange exchange) {
+		getHeaders(exchange);
+	}
+
+	/**
+	 * Returns the headers stored on the exchange, scanning the message body for
+	 * them if an earlier step has not already done so. The object does not survive
+	 * a trip through JMS, so routes consuming from a queue will scan again.
+	 */
+	public HL7Headers getHeaders(final Exchange exchange) {
+		HL7Headers headers = exchange.getIn().getHeader(HL7_HEADERS, HL7Headers.class);
+		if (headers == null) {
+			headers = HL7Headers.parse(exchange.getIn().getBody(String.class));
+			exchange.getIn().setHeader(HL7_HEADERS, headers);
+		}
+		return headers;
+	}
+}
@@ -0,0 +1,31 @@
+package com.projectronin.integration.demo.camel.extractor;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Extracts the key that messages for one patient share, {@code tenant:MRN},
+ * falling back to just the tenant when there is no MRN. Used as the JMS
+ * message group so concurrent consumers still see each patient's messages in
+ * order. Expects the {@code tenant} header to already be set.
+ */
+@Component
+public class PartitionKeyExtractor implements Expression {
+	private final HeaderExtractor headerExtractor;
+
+	@Autowired
+	public PartitionKeyExtractor(final HeaderExtractor headerExtractor) {
+		this.headerExtractor = headerExtractor;
+	}
+
+	@Override
+	public <T> T evaluate(final Exchange exchange, final Class<T> type) {
+		String tenant = exchange.getIn().getHeader("tenant", String.class);
+		String mrn = headerExtractor.getHeaders(exchange).getIdentifiersByType().get("MR");
+
+		String partitionKey = mrn == null ? tenant : String.format("%s:%s", tenant, mrn);
+		return exchange.getContext().getTypeConverter().convertTo(type, partitionKey);
+	}
+}
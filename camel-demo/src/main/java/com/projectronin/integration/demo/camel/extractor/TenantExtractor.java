@@ -7,13 +7,7 @@ import org.apache.camel.Expression;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.projectronin.integration.demo.dao.TenantDAO;
-
-import ca.uhn.hl7v2.HL7Exception;
-import ca.uhn.hl7v2.model.GenericSegment;
-import ca.uhn.hl7v2.model.Message;
-import ca.uhn.hl7v2.model.Varies;
-import ca.uhn.hl7v2.util.Terser;
+import com.projectronin.integration.demo.tenant.TenantRegistry;
 
 /**
  * Extracts a Tenant from an Exchange.
@@ -22,30 +16,21 @@ import ca.uhn.hl7v2.util.Terser;
  */
 @Component
 public class TenantExtractor implements Expression {
-	private TenantDAO tenantDAO;
+	private final TenantRegistry tenantRegistry;
+	private final HeaderExtractor headerExtractor;
 
 	@Autowired
-	public TenantExtractor(TenantDAO tenantDAO) {
-		this.tenantDAO = tenantDAO;
+	public TenantExtractor(TenantRegistry tenantRegistry, HeaderExtractor headerExtractor) {
+		this.tenantRegistry = tenantRegistry;
+		this.headerExtractor = headerExtractor;
 	}
 
 	@Override
 	public <T> T evaluate(Exchange exchange, Class<T> type) {
-		try {
-			String hl7FacilityId = getHL7Facility(exchange.getIn().getBody(Message.class));
-
-			Optional<Integer> tenantId = tenantDAO.getTenantId(hl7FacilityId);
-			String tenantIdString = tenantId.map(i -> Integer.toString(i)).orElse(null);
-			return exchange.getContext().getTypeConverter().convertTo(type, tenantIdString);
-		} catch (HL7Exception e) {
-			throw new RuntimeException(e);
-		}
-	}
-
-	private String getHL7Facility(Message message) throws HL7Exception {
-		GenericSegment msh = (GenericSegment) message.get("MSH");
-		Varies messageType = (Varies) msh.getField(4)[0];
+		String hl7FacilityId = headerExtractor.getHeaders(exchange).getSendingFacility();
 
-		return Terser.getPrimitive(messageType.getData(), 1, 1).getValue();
+		Optional<Integer> tenantId = tenantRegistry.getTenantId(hl7FacilityId);
+		String tenantIdString = tenantId.map(i -> Integer.toString(i)).orElse(null);
+		return exchange.getContext().getTypeConverter().convertTo(type, tenantIdString);
 	}
 }
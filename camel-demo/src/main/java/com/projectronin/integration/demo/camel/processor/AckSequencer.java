@@ -0,0 +1,145 @@
+package com.projectronin.integration.demo.camel.processor;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.component.netty.DefaultChannelHandlerFactory;
+import org.apache.camel.component.netty.NettyConstants;
+import org.springframework.stereotype.Component;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * Returns a connection's ACKs in the order its messages arrived, however the
+ * messages complete. Messages that are ACKed straight away, such as those from
+ * unknown tenants, of unsupported types or quarantined, would otherwise
+ * overtake earlier messages still waiting to be spooled or for their batch to
+ * be committed.
+ *
+ * {@link #assign(Exchange)} numbers each message as it arrives on the
+ * connection, and {@link #wrap(Exchange)} tags the response with that number
+ * just before the consumer writes it. The channel handler this factory creates
+ * sits in front of the MLLP encoder and holds back each ACK until every earlier
+ * one on the connection has been written.
+ */
+@Component("hl7AckSequencer")
+public class AckSequencer extends DefaultChannelHandlerFactory {
+	private static final AttributeKey<AtomicLong> NEXT_SEQUENCE = AttributeKey.valueOf("hl7AckNextSequence");
+	private static final String SEQUENCE_PROPERTY = "hl7AckSequence";
+
+	/**
+	 * Numbers the exchange. This must be the first step of the route, which runs
+	 * in arrival order on the connection's own thread.
+	 */
+	public void assign(final Exchange exchange) {
+		Channel channel = getChannel(exchange);
+		if (channel == null) {
+			return;
+		}
+		Attribute<AtomicLong> attribute = channel.attr(NEXT_SEQUENCE);
+		AtomicLong nextSequence = attribute.get();
+		if (nextSequence == null) {
+			nextSequence = new AtomicLong();
+			AtomicLong existing = attribute.setIfAbsent(nextSequence);
+			if (existing != null) {
+				nextSequence = existing;
+			}
+		}
+		exchange.setProperty(SEQUENCE_PROPERTY, nextSequence.getAndIncrement());
+	}
+
+	/**
+	 * Tags the response with the exchange's number. Run on completion, before
+	 * the consumer, so every path through the route is covered. An exchange
+	 * with no body is not ACKed, but its number is still written, so it does not
+	 * hold up every later ACK on the connection.
+	 *
+	 * The route must handle its own failures. Camel clears the exception while
+	 * on-completion steps run and the consumer then writes it as the response,
+	 * which would leave the number unwritten and the exception unsequenced.
+	 */
+	public void wrap(final Exchange exchange) {
+		Long sequence = exchange.getProperty(SEQUENCE_PROPERTY, Long.class);
+		if (sequence != null) {
+			exchange.getMessage().setBody(new SequencedAck(sequence, exchange.getMessage().getBody()));
+		}
+	}
+
+	@Override
+	public ChannelHandler newChannelHandler() {
+		return new ReorderingHandler();
+	}
+
+	private static Channel getChannel(final Exchange exchange) {
+		ChannelHandlerContext context = exchange.getIn().getHeader(NettyConstants.NETTY_CHANNEL_HANDLER_CONTEXT,
+				ChannelHandlerContext.class);
+		return context == null ? null : context.channel();
+	}
+
+	static final class SequencedAck {
+		private final long sequence;
+		private final Object ack;
+
+		SequencedAck(final long sequence, final Object ack) {
+			this.sequence = sequence;
+			this.ack = ack;
+		}
+	}
+
+	/**
+	 * Writes each connection's ACKs in sequence. Netty calls it on the
+	 * connection's event loop, so it needs no locking.
+	 */
+	static final class ReorderingHandler extends ChannelOutboundHandlerAdapter {
+		private final Map<Long, PendingWrite> waiting = new HashMap<>();
+		private long next;
+
+		@Override
+		public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+			if (!(msg instanceof SequencedAck)) {
+				ctx.write(msg, promise);
+				return;
+			}
+
+			SequencedAck sequencedAck = (SequencedAck) msg;
+			waiting.put(sequencedAck.sequence, new PendingWrite(sequencedAck.ack, promise));
+			PendingWrite ready;
+			while ((ready = waiting.remove(next)) != null) {
+				next++;
+				if (ready.ack == null) {
+					ready.promise.trySuccess();
+				} else {
+					ctx.write(ready.ack, ready.promise);
+				}
+			}
+		}
+
+		@Override
+		public void close(final ChannelHandlerContext ctx, final ChannelPromise promise) throws Exception {
+			for (PendingWrite pendingWrite : waiting.values()) {
+				pendingWrite.promise.tryFailure(new ClosedChannelException());
+			}
+			waiting.clear();
+			super.close(ctx, promise);
+		}
+	}
+
+	private static final class PendingWrite {
+		private final Object ack;
+		private final ChannelPromise promise;
+
+		PendingWrite(final Object ack, final ChannelPromise promise) {
+			this.ack = ack;
+			this.promise = promise;
+		}
+	}
+}
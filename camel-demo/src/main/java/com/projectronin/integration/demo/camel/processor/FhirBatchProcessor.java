@@ -0,0 +1,245 @@
+package com.projectronin.integration.demo.camel.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.component.jms.JmsComponent;
+import org.apache.camel.component.netty.NettyConstants;
+import org.apache.camel.support.AsyncProcessorSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Groups exchanges into small batches and places each batch on the FHIR queue
+ * in a single JMS transaction. Exchanges are completed asynchronously, in the
+ * order they were received, once their batch has been committed, so an ACK is
+ * never returned for a message that has not reached the broker.
+ *
+ * When the queue of exchanges waiting to be batched is full, the caller is
+ * held until there is room, and a Netty connection it came from stops reading
+ * in the meantime, so senders are slowed down rather than having their
+ * messages rejected.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ronin.ingest", name = "batch-enabled", havingValue = "true")
+public class FhirBatchProcessor extends AsyncProcessorSupport {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FhirBatchProcessor.class);
+	private static final String QUEUE_NAME = "fhir";
+
+	private final CamelContext camelContext;
+	private final int batchSize;
+	private final long batchTimeoutNanos;
+	private final BlockingQueue<PendingExchange> pending;
+
+	private volatile boolean running;
+	private Thread drainer;
+	private JmsTemplate jmsTemplate;
+
+	@Autowired
+	public FhirBatchProcessor(final CamelContext camelContext, final IngestConfiguration ingestConfiguration) {
+		this.camelContext = camelContext;
+		this.batchSize = ingestConfiguration.getBatchSize();
+		this.batchTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ingestConfiguration.getBatchTimeoutMillis());
+		this.pending = new ArrayBlockingQueue<>(ingestConfiguration.getQueueCapacity());
+	}
+
+	@PostConstruct
+	public void startDraining() {
+		running = true;
+		drainer = new Thread(this::drain, "fhir-batch-drainer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	@PreDestroy
+	public void stopDraining() throws InterruptedException {
+		running = false;
+		drainer.interrupt();
+		drainer.join(TimeUnit.SECONDS.toMillis(10));
+
+		// Anything left never reached the broker, so it must not be ACKed.
+		List<PendingExchange> remaining = new ArrayList<>();
+		pending.drainTo(remaining);
+		for (PendingExchange pendingExchange : remaining) {
+			pendingExchange.exchange.setException(new RejectedExecutionException("FHIR batch processor stopped"));
+			pendingExchange.callback.done(false);
+		}
+	}
+
+	@Override
+	public boolean process(final Exchange exchange, final AsyncCallback callback) {
+		PendingExchange pendingExchange = new PendingExchange(exchange, callback);
+		if (pending.offer(pendingExchange)) {
+			return false;
+		}
+
+		Channel channel = getChannel(exchange);
+		if (channel != null) {
+			channel.config().setAutoRead(false);
+		}
+		try {
+			while (!pending.offer(pendingExchange, 100, TimeUnit.MILLISECONDS)) {
+				if (!running) {
+					exchange.setException(new RejectedExecutionException("FHIR batch processor stopped"));
+					callback.done(true);
+					return true;
+				}
+			}
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			exchange.setException(e);
+			callback.done(true);
+			return true;
+		} finally {
+			if (channel != null) {
+				channel.config().setAutoRead(true);
+			}
+		}
+	}
+
+	private static Channel getChannel(final Exchange exchange) {
+		ChannelHandlerContext context = exchange.getIn().getHeader(NettyConstants.NETTY_CHANNEL_HANDLER_CONTEXT,
+				ChannelHandlerContext.class);
+		return context == null ? null : context.channel();
+	}
+
+	private void drain() {
+		List<PendingExchange> batch = new ArrayList<>(batchSize);
+		while (running) {
+			try {
+				PendingExchange first = pending.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+
+				long deadline = System.nanoTime() + batchTimeoutNanos;
+				while (batch.size() < batchSize) {
+					if (pending.drainTo(batch, batchSize - batch.size()) > 0) {
+						continue;
+					}
+
+					long remainingNanos = deadline - System.nanoTime();
+					if (remainingNanos <= 0) {
+						break;
+					}
+
+					PendingExchange next = pending.poll(remainingNanos, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+
+			if (!batch.isEmpty()) {
+				send(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void send(final List<PendingExchange> batch) {
+		try {
+			getJmsTemplate().execute((Session session) -> {
+				MessageProducer producer = session.createProducer(session.createQueue(QUEUE_NAME));
+				try {
+					for (PendingExchange pendingExchange : batch) {
+						producer.send(createMessage(session, pendingExchange.exchange));
+					}
+					session.commit();
+				} finally {
+					producer.close();
+				}
+				return null;
+			}, true);
+			LOGGER.debug("Committed batch of {} messages to {}", batch.size(), QUEUE_NAME);
+		} catch (RuntimeException e) {
+			LOGGER.error("Unable to commit batch of {} messages to {}", batch.size(), QUEUE_NAME, e);
+			for (PendingExchange pendingExchange : batch) {
+				pendingExchange.exchange.setException(e);
+			}
+		}
+
+		// Completing in receipt order keeps ACKs in order on each connection.
+		for (PendingExchange pendingExchange : batch) {
+			pendingExchange.callback.done(false);
+		}
+	}
+
+	private TextMessage createMessage(final Session session, final Exchange exchange) throws JMSException {
+		TextMessage message = session.createTextMessage(exchange.getIn().getBody(String.class));
+		for (Map.Entry<String, Object> header : exchange.getIn().getHeaders().entrySet()) {
+			String name = header.getKey();
+			Object value = header.getValue();
+			if (name.startsWith("Camel") || !isValidPropertyName(name)) {
+				continue;
+			}
+			if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+				message.setObjectProperty(name, value);
+			}
+		}
+		return message;
+	}
+
+	private boolean isValidPropertyName(final String name) {
+		if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private JmsTemplate getJmsTemplate() {
+		if (jmsTemplate == null) {
+			// Reuse the connection factory of the activemq component so batches go to the
+			// same broker, over the same pooled connections, as the rest of the routes.
+			JmsComponent activemq = camelContext.getComponent("activemq", JmsComponent.class);
+			jmsTemplate = new JmsTemplate(activemq.getConfiguration().getOrCreateTemplateConnectionFactory());
+			jmsTemplate.setSessionTransacted(true);
+		}
+		return jmsTemplate;
+	}
+
+	private static class PendingExchange {
+		private final Exchange exchange;
+		private final AsyncCallback callback;
+
+		PendingExchange(final Exchange exchange, final AsyncCallback callback) {
+			this.exchange = exchange;
+			this.callback = callback;
+		}
+	}
+}
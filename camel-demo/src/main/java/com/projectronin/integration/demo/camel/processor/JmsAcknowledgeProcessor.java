@@ -0,0 +1,51 @@
+package com.projectronin.integration.demo.camel.processor;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.apache.activemq.ActiveMQSession;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedExchange;
+import org.apache.camel.Processor;
+import org.apache.camel.component.jms.JmsMessage;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Acknowledges the JMS message an exchange was consumed from once the exchange
+ * has completed, rather than once the consumer has handed it on. Use it on
+ * consumers whose sessions use
+ * {@link ActiveMQSession#INDIVIDUAL_ACKNOWLEDGE}, which leaves each message to
+ * be acknowledged on its own.
+ *
+ * A message whose exchange fails is left unacknowledged, so the broker
+ * redelivers it once its consumer's session closes, as it does any message
+ * still being processed when the application stops.
+ */
+@Component
+public class JmsAcknowledgeProcessor implements Processor {
+	private static final Logger LOGGER = LoggerFactory.getLogger(JmsAcknowledgeProcessor.class);
+
+	@Override
+	public void process(final Exchange exchange) {
+		if (!(exchange.getIn() instanceof JmsMessage)) {
+			return;
+		}
+		// Held on to here, as the exchange's message may have been replaced by the time it completes.
+		Message message = ((JmsMessage) exchange.getIn()).getJmsMessage();
+		exchange.adapt(ExtendedExchange.class).addOnCompletion(new SynchronizationAdapter() {
+			@Override
+			public void onComplete(final Exchange completed) {
+				try {
+					message.acknowledge();
+				} catch (JMSException e) {
+					// The session has gone, so the broker has already taken the message back to redeliver.
+					LOGGER.warn("Unable to acknowledge message {}. It will be redelivered",
+							completed.getIn().getMessageId(), e);
+				}
+			}
+		});
+	}
+}
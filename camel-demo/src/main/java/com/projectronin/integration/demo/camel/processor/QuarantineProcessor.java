@@ -0,0 +1,135 @@
+package com.projectronin.integration.demo.camel.processor;
+
+import static org.apache.camel.component.jms.JmsConstants.JMS_DESTINATION_NAME;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Queue;
+
+import org.apache.activemq.ScheduledMessage;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.camel.route.QuarantineRouter;
+import com.projectronin.integration.demo.configuration.QuarantineConfiguration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Decides where a message that failed processing goes next. A message that
+ * failed on a queue has already been retried there by the
+ * {@link QuarantineRouter#quarantine quarantine} error handler, so it is sent
+ * to the dead-letter queue. One that failed before reaching a queue, such as
+ * on an MLLP listener, is sent to the FHIR queue after the initial backoff, to
+ * be retried from there. Either way the failure is recorded in the message's
+ * headers.
+ *
+ * Run this on the original message of a failed exchange, then send it to the
+ * {@code activemq} endpoint, which delivers it to the destination chosen here.
+ */
+@Component
+public class QuarantineProcessor implements Processor {
+	public static final String ATTEMPTS = "quarantineAttempts";
+	public static final String QUEUE = "quarantineQueue";
+	public static final String REASON = "quarantineReason";
+	public static final String ROUTE = "quarantineRoute";
+	public static final String FAILED_AT = "quarantineFailedAt";
+
+	/**
+	 * Where messages that fail before reaching a queue, such as on the MLLP
+	 * listener, would have gone.
+	 */
+	public static final String ENTRY_QUEUE = "fhir";
+	/**
+	 * The exchange property the {@link QuarantineRouter#quarantine quarantine}
+	 * error handler counts its retries in.
+	 */
+	public static final String REDELIVERIES = "quarantineRedeliveries";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(QuarantineProcessor.class);
+	private static final int MAX_REASON_LENGTH = 1000;
+
+	private final QuarantineConfiguration quarantineConfiguration;
+	private final MeterRegistry meterRegistry;
+
+	@Autowired
+	public QuarantineProcessor(final QuarantineConfiguration quarantineConfiguration,
+			final MeterRegistry meterRegistry) {
+		this.quarantineConfiguration = quarantineConfiguration;
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public void process(final Exchange exchange) throws JMSException {
+		Throwable cause = exchange.getProperty(Exchange.EXCEPTION_CAUGHT, Throwable.class);
+		String routeId = exchange.getProperty(Exchange.FAILURE_ROUTE_ID, String.class);
+		String queue = getQueue(exchange);
+
+		// Counted on the exchange, as the original message does not carry the error handler's own count.
+		int attempts = 1 + exchange.getProperty(REDELIVERIES, 0, Integer.class);
+		exchange.getIn().setHeader(ATTEMPTS, attempts);
+		exchange.getIn().setHeader(QUEUE, queue == null ? ENTRY_QUEUE : queue);
+		exchange.getIn().setHeader(REASON, describe(cause));
+		exchange.getIn().setHeader(ROUTE, routeId);
+		exchange.getIn().setHeader(FAILED_AT, System.currentTimeMillis());
+		// The broker sends a message carrying the ID of an earlier schedule straight away.
+		exchange.getIn().removeHeader(ScheduledMessage.AMQ_SCHEDULED_ID);
+
+		if (queue == null) {
+			long delayMillis = getDelayMillis(attempts);
+			LOGGER.warn("Message {} failed in route {} before reaching a queue. Retrying on {} in {} ms",
+					exchange.getIn().getMessageId(), routeId, ENTRY_QUEUE, delayMillis, cause);
+			exchange.getIn().setHeader(ScheduledMessage.AMQ_SCHEDULED_DELAY, delayMillis);
+			exchange.getIn().setHeader(JMS_DESTINATION_NAME, ENTRY_QUEUE);
+			count(ENTRY_QUEUE, "retry");
+		} else {
+			LOGGER.error("Attempt {} for message {} on {} failed in route {}. Moving it to {}", attempts,
+					exchange.getIn().getMessageId(), queue, routeId, quarantineConfiguration.getDeadLetterQueue(),
+					cause);
+			exchange.getIn().removeHeader(ScheduledMessage.AMQ_SCHEDULED_DELAY);
+			exchange.getIn().setHeader(JMS_DESTINATION_NAME, quarantineConfiguration.getDeadLetterQueue());
+			count(queue, "deadLetter");
+		}
+	}
+
+	/**
+	 * @return how long to wait before redelivering a message that has failed
+	 *         {@code attempts} times
+	 */
+	long getDelayMillis(final int attempts) {
+		double delayMillis = quarantineConfiguration.getInitialDelayMillis()
+				* Math.pow(quarantineConfiguration.getBackoffMultiplier(), attempts - 1);
+		return (long) Math.min(delayMillis, quarantineConfiguration.getMaxDelayMillis());
+	}
+
+	/**
+	 * @return the queue the message failed on, or null if it failed before
+	 *         reaching one
+	 */
+	private static String getQueue(final Exchange exchange) throws JMSException {
+		Destination destination = exchange.getIn().getHeader("JMSDestination", Destination.class);
+		if (destination instanceof Queue) {
+			return ((Queue) destination).getQueueName();
+		}
+		return null;
+	}
+
+	private static String describe(final Throwable cause) {
+		if (cause == null) {
+			return "unknown";
+		}
+		String reason = cause.getMessage() == null ? cause.getClass().getName()
+				: String.format("%s: %s", cause.getClass().getName(), cause.getMessage());
+		return reason.length() > MAX_REASON_LENGTH ? reason.substring(0, MAX_REASON_LENGTH) : reason;
+	}
+
+	private void count(final String queue, final String outcome) {
+		Counter.builder("hl7.quarantined").description("Messages that failed processing, by what happened next")
+				.tag("queue", queue).tag("outcome", outcome).register(meterRegistry).increment();
+	}
+}
@@ -0,0 +1,76 @@
+package com.projectronin.integration.demo.camel.processor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProducer;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.support.AsyncProcessorSupport;
+import org.apache.camel.support.service.ServiceHelper;
+
+import com.projectronin.integration.demo.sequencing.SequencingExecutor;
+
+/**
+ * Hands each exchange to {@code endpointUri} on a {@link SequencingExecutor},
+ * keyed by {@code keyExpression}. Exchanges with different keys are processed
+ * in parallel, while each key's exchanges are processed one at a time in the
+ * order they arrived here. The exchange completes once the endpoint has
+ * finished with it.
+ */
+public class SequencingProcessor extends AsyncProcessorSupport {
+	private final CamelContext camelContext;
+	private final SequencingExecutor sequencingExecutor;
+	private final Expression keyExpression;
+	private final String endpointUri;
+
+	private AsyncProducer producer;
+
+	public SequencingProcessor(final CamelContext camelContext, final SequencingExecutor sequencingExecutor,
+			final Expression keyExpression, final String endpointUri) {
+		this.camelContext = camelContext;
+		this.sequencingExecutor = sequencingExecutor;
+		this.keyExpression = keyExpression;
+		this.endpointUri = endpointUri;
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		producer = camelContext.getEndpoint(endpointUri).createAsyncProducer();
+		ServiceHelper.startService(producer);
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		ServiceHelper.stopService(producer);
+	}
+
+	@Override
+	public boolean process(final Exchange exchange, final AsyncCallback callback) {
+		String key = keyExpression.evaluate(exchange, String.class);
+		try {
+			// Messages without a key can't be ordered against anything, so they share one.
+			sequencingExecutor.submit(key == null ? "" : key, () -> {
+				CompletableFuture<Void> processed = new CompletableFuture<>();
+				producer.process(exchange, doneSync -> {
+					// Release the key before completing, so its next exchange isn't held up.
+					processed.complete(null);
+					callback.done(false);
+				});
+				return processed;
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			exchange.setException(e);
+			callback.done(true);
+			return true;
+		} catch (RejectedExecutionException e) {
+			exchange.setException(e);
+			callback.done(true);
+			return true;
+		}
+		return false;
+	}
+}
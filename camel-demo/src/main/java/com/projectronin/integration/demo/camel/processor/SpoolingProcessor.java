@@ -0,0 +1,63 @@
+package com.projectronin.integration.demo.camel.processor;
+
+import static org.apache.camel.component.jms.JmsConstants.JMS_X_GROUP_ID;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.support.AsyncProcessorSupport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.spool.MessageSpool;
+import com.projectronin.integration.demo.spool.SpooledMessage;
+import com.projectronin.integration.demo.spool.SpoolDrainer;
+
+/**
+ * Journals each exchange to the {@link MessageSpool}, from which the
+ * {@link SpoolDrainer} forwards it to the FHIR queue. The exchange completes
+ * asynchronously once its record is on disk, so an ACK is never returned for a
+ * message that could be lost, and a slow or unavailable broker does not hold
+ * up the listener.
+ */
+@Component
+public class SpoolingProcessor extends AsyncProcessorSupport {
+	/** The headers the FHIR queue's consumers rely on. */
+	private static final String[] SPOOLED_HEADERS = { "messageType", "tenant", JMS_X_GROUP_ID };
+
+	private final MessageSpool messageSpool;
+
+	@Autowired
+	public SpoolingProcessor(final MessageSpool messageSpool) {
+		this.messageSpool = messageSpool;
+	}
+
+	@Override
+	public boolean process(final Exchange exchange, final AsyncCallback callback) {
+		Map<String, String> headers = new LinkedHashMap<>();
+		for (String name : SPOOLED_HEADERS) {
+			String value = exchange.getIn().getHeader(name, String.class);
+			if (value != null) {
+				headers.put(name, value);
+			}
+		}
+
+		try {
+			byte[] record = new SpooledMessage(headers, exchange.getIn().getBody(String.class)).encode();
+			messageSpool.append(record).whenComplete((result, e) -> {
+				if (e != null) {
+					exchange.setException(e);
+				}
+				callback.done(false);
+			});
+			return false;
+		} catch (IOException | RuntimeException e) {
+			exchange.setException(e);
+			callback.done(true);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.projectronin.integration.demo.camel.route;
+
+import static org.apache.camel.builder.PredicateBuilder.not;
+import static org.apache.camel.component.jms.JmsConstants.JMS_X_GROUP_ID;
+
+import org.apache.camel.LoggingLevel;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.hl7.HL7;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.camel.extractor.HL7Ack;
+import com.projectronin.integration.demo.camel.extractor.HeaderExtractor;
+import com.projectronin.integration.demo.camel.extractor.MessageTypeExtractor;
+import com.projectronin.integration.demo.camel.extractor.PartitionKeyExtractor;
+import com.projectronin.integration.demo.camel.extractor.TenantExtractor;
+import com.projectronin.integration.demo.camel.processor.AckSequencer;
+import com.projectronin.integration.demo.camel.processor.FhirBatchProcessor;
+import com.projectronin.integration.demo.camel.service.UnknownMessageService;
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
+
+/**
+ * High-throughput MLLP listener for senders replaying a backlog, such as after
+ * an interface outage. Frames are decoded on the Netty worker threads, each
+ * connection is processed on its own ordered executor so multiple connections
+ * run in parallel, and messages are placed on the FHIR queue in batches. A
+ * message is only ACKed once its batch has been committed, and ACKs for a
+ * connection are always returned in the order its messages arrived, including
+ * those ACKed without being batched. When the batch queue is full, reading from
+ * the sender pauses until there is room.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ronin.ingest", name = "batch-enabled", havingValue = "true")
+public class HL7BatchIngestRouter extends RouteBuilder {
+	private static final String ACK_PROPERTY = "hl7Ack";
+
+	private final HeaderExtractor headerExtractor;
+	private final MessageTypeExtractor messageTypeExtractor;
+	private final TenantExtractor tenantExtractor;
+	private final PartitionKeyExtractor partitionKeyExtractor;
+	private final FhirBatchProcessor fhirBatchProcessor;
+	private final UnknownMessageService unknownMessageService;
+	private final AckSequencer ackSequencer;
+	private final IngestConfiguration ingestConfiguration;
+
+	@Autowired
+	public HL7BatchIngestRouter(final HeaderExtractor headerExtractor,
+			final MessageTypeExtractor messageTypeExtractor, final TenantExtractor tenantExtractor,
+			final PartitionKeyExtractor partitionKeyExtractor, final FhirBatchProcessor fhirBatchProcessor,
+			final UnknownMessageService unknownMessageService, final AckSequencer ackSequencer,
+			final IngestConfiguration ingestConfiguration) {
+		this.headerExtractor = headerExtractor;
+		this.messageTypeExtractor = messageTypeExtractor;
+		this.tenantExtractor = tenantExtractor;
+		this.partitionKeyExtractor = partitionKeyExtractor;
+		this.fhirBatchProcessor = fhirBatchProcessor;
+		this.unknownMessageService = unknownMessageService;
+		this.ackSequencer = ackSequencer;
+		this.ingestConfiguration = ingestConfiguration;
+	}
+
+	@Override
+	public void configure() throws Exception {
+		String nettyUri = String.format(
+				"netty:tcp://%s:%d?sync=true&usingExecutorService=true&workerCount=%d&decoders=#hl7Decoder"
+						+ "&encoders=#hl7Encoder,#hl7AckSequencer",
+				ingestConfiguration.getBatchHost(), ingestConfiguration.getBatchPort(),
+				ingestConfiguration.getWorkerCount());
+
+		//@formatter:off
+		from(nettyUri)
+			.routeId("netty-hl7-batch")
+			// Quarantine and ACK messages that can't be processed, so the sender moves on past them.
+			.onException(RuntimeException.class)
+				.handled(true)
+				.useOriginalMessage()
+				.to(QuarantineRouter.QUARANTINE_URI)
+				// Built from the MSH alone, as the rest of the message may be what is broken.
+				.transform().body(String.class, body -> HL7Ack.ack(body, "AE", "Message quarantined"))
+				.end()
+			// A message whose batch could not be committed is not ACKed, so the sender resends it. It is still
+			// handled, with no body, so the ACKs behind it on the connection are not held up.
+			.onException(Exception.class)
+				.handled(true)
+				.log(LoggingLevel.ERROR, "Batch not committed. Leaving the message for the sender to resend: ${exception}")
+				.setBody(constant(null))
+				.end()
+			// Runs on every path, including the ones that stop early, just before the ACK is written.
+			.onCompletion().modeBeforeConsumer()
+				.process(ackSequencer::wrap)
+				.end()
+			.process(ackSequencer::assign)
+			.process(headerExtractor)
+			.setHeader("messageType", messageTypeExtractor)
+			.setHeader("tenant", tenantExtractor)
+			// Types the pipeline has no use for are ACKed here, without being parsed or spooled, and counted
+			// whether or not their tenant is known.
+			.filter(not(method(unknownMessageService, "isSupported")))
+				.bean(unknownMessageService, "process")
+				.stop()
+				.end()
+			.filter(header("tenant").isNull())
+				.log("Unknown tenant. Acknowledging request and ending processing")
+				.transform().body(String.class, body -> HL7Ack.ack(body, "AA"))
+				.stop()
+				.end()
+			// Build the ACK here, on the connection's own thread, rather than serializing every ACK
+			// behind the single thread that commits the batches.
+			.setProperty(ACK_PROPERTY, HL7.ack())
+			.setHeader(JMS_X_GROUP_ID, partitionKeyExtractor)
+			.process(fhirBatchProcessor) // Completes asynchronously once the batch is committed.
+			.setBody(exchangeProperty(ACK_PROPERTY));
+		//@formatter:on
+	}
+}
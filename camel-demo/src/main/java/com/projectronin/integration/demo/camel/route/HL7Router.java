@@ -1,16 +1,46 @@
 package com.projectronin.integration.demo.camel.route;
 
 import static org.apache.camel.ExchangePattern.InOnly;
+import static org.apache.camel.builder.PredicateBuilder.not;
+import static org.apache.camel.component.jms.JmsConstants.JMS_X_GROUP_ID;
 
+import org.apache.activemq.ActiveMQSession;
+import org.apache.camel.LoggingLevel;
+import org.apache.camel.builder.AggregationStrategies;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.hl7.HL7;
+import org.apache.camel.component.hl7.HL7DataFormat;
+import org.apache.camel.component.jms.JmsEndpoint;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.spi.RoutePolicy;
+import org.apache.camel.throttling.ThrottlingInflightRoutePolicy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.projectronin.integration.demo.camel.extractor.FhirIdExtractor;
+import com.projectronin.integration.demo.camel.extractor.HL7Ack;
+import com.projectronin.integration.demo.camel.extractor.HeaderExtractor;
 import com.projectronin.integration.demo.camel.extractor.MessageTypeExtractor;
+import com.projectronin.integration.demo.camel.extractor.PartitionKeyExtractor;
 import com.projectronin.integration.demo.camel.extractor.TenantExtractor;
+import com.projectronin.integration.demo.camel.processor.AckSequencer;
+import com.projectronin.integration.demo.camel.processor.JmsAcknowledgeProcessor;
+import com.projectronin.integration.demo.camel.processor.SequencingProcessor;
+import com.projectronin.integration.demo.camel.processor.SpoolingProcessor;
+import com.projectronin.integration.demo.camel.service.AdmitService;
 import com.projectronin.integration.demo.camel.service.EncounterService;
+import com.projectronin.integration.demo.camel.service.UnknownMessageService;
+import com.projectronin.integration.demo.configuration.FhirServerConfiguration;
+import com.projectronin.integration.demo.configuration.QuarantineConfiguration;
+import com.projectronin.integration.demo.configuration.QueueConfiguration;
+import com.projectronin.integration.demo.metrics.PipelineMetrics;
+import com.projectronin.integration.demo.sequencing.QueueSequencers;
+import com.projectronin.integration.demo.sequencing.SequencingExecutor;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.parser.CanonicalModelClassFactory;
+import ca.uhn.hl7v2.validation.impl.ValidationContextFactory;
 
 /**
  * Router for handling HL7 requests
@@ -19,70 +49,200 @@ import com.projectronin.integration.demo.camel.service.EncounterService;
  */
 @Component
 public class HL7Router extends RouteBuilder {
+	private static final String ACK_PROPERTY = "hl7Ack";
+
+	private final HeaderExtractor headerExtractor;
 	private final MessageTypeExtractor messageTypeExtractor;
 	private final TenantExtractor tenantExtractor;
+	private final PartitionKeyExtractor partitionKeyExtractor;
 	private final FhirIdExtractor fhirIdExtractor;
+	private final SpoolingProcessor spoolingProcessor;
+	private final AckSequencer ackSequencer;
+	private final JmsAcknowledgeProcessor jmsAcknowledgeProcessor;
+	private final AdmitService admitService;
 	private final EncounterService encounterService;
+	private final UnknownMessageService unknownMessageService;
+	private final FhirServerConfiguration fhirServerConfiguration;
+	private final QuarantineConfiguration quarantineConfiguration;
+	private final QueueConfiguration queueConfiguration;
+	private final QueueSequencers queueSequencers;
+	private final PipelineMetrics pipelineMetrics;
 
 	@Autowired
-	public HL7Router(final MessageTypeExtractor messageTypeExtractor, final TenantExtractor tenantExtractor,
-			final FhirIdExtractor fhirIdExtractor, final EncounterService encounterService) {
+	public HL7Router(final HeaderExtractor headerExtractor, final MessageTypeExtractor messageTypeExtractor,
+			final TenantExtractor tenantExtractor, final PartitionKeyExtractor partitionKeyExtractor,
+			final FhirIdExtractor fhirIdExtractor, final SpoolingProcessor spoolingProcessor,
+			final AckSequencer ackSequencer, final JmsAcknowledgeProcessor jmsAcknowledgeProcessor,
+			final AdmitService admitService, final EncounterService encounterService,
+			final UnknownMessageService unknownMessageService, final FhirServerConfiguration fhirServerConfiguration,
+			final QuarantineConfiguration quarantineConfiguration, final QueueConfiguration queueConfiguration,
+			final QueueSequencers queueSequencers, final PipelineMetrics pipelineMetrics) {
+		this.headerExtractor = headerExtractor;
 		this.messageTypeExtractor = messageTypeExtractor;
 		this.tenantExtractor = tenantExtractor;
+		this.partitionKeyExtractor = partitionKeyExtractor;
 		this.fhirIdExtractor = fhirIdExtractor;
+		this.spoolingProcessor = spoolingProcessor;
+		this.ackSequencer = ackSequencer;
+		this.jmsAcknowledgeProcessor = jmsAcknowledgeProcessor;
+		this.admitService = admitService;
 		this.encounterService = encounterService;
+		this.unknownMessageService = unknownMessageService;
+		this.fhirServerConfiguration = fhirServerConfiguration;
+		this.quarantineConfiguration = quarantineConfiguration;
+		this.queueConfiguration = queueConfiguration;
+		this.queueSequencers = queueSequencers;
+		this.pipelineMetrics = pipelineMetrics;
 	}
 
 	@Override
 	public void configure() throws Exception {
-		/*
+		// A message that fails is retried in place after a backoff, holding up only its own patient's messages.
+		errorHandler(QuarantineRouter.quarantine(quarantineConfiguration));
+
 		//@formatter:off
-		from("netty:tcp://localhost:8888")
+		// ACKs for messages that are not spooled would otherwise overtake earlier ones still waiting for the spool.
+		from("netty:tcp://localhost:8888?encoders=#hl7Encoder,#hl7AckSequencer")
 			.routeId("netty-hl7")
-			.setHeader("messageType", messageTypeExtractor)
-			.setHeader("tenant", tenantExtractor)
-			.filter(header("tenant").isNull())
-				.log("Unknown tenant. Acknowledging request and ending processing")
-				.transform(HL7.ack())
+			// Failures other than spooling are quarantined and ACKed, rather than left for the sender to resend
+			// forever. A message that could not be spooled is not ACKed, so the sender does resend it.
+			.errorHandler(defaultErrorHandler())
+			.onException(RuntimeException.class)
+				.handled(true)
+				.useOriginalMessage()
+				.to(QuarantineRouter.QUARANTINE_URI)
+				// Built from the MSH alone, as the rest of the message may be what is broken.
+				.transform().body(String.class, body -> HL7Ack.ack(body, "AE", "Message quarantined"))
+				.end()
+			// Still handled, with no body, so the ACKs behind it on the connection are not held up.
+			.onException(Exception.class)
+				.handled(true)
+				.log(LoggingLevel.ERROR, "Message not spooled. Leaving it for the sender to resend: ${exception}")
+				.setBody(constant(null))
+				.end()
+			// Runs on every path, including the ones that stop early, just before the ACK is written.
+			.onCompletion().modeBeforeConsumer()
+				.process(ackSequencer::wrap)
+				.end()
+			.process(ackSequencer::assign)
+			.process(pipelineMetrics.timed("parse", headerExtractor))
+			.setHeader("messageType", pipelineMetrics.timed("messageType", messageTypeExtractor))
+			.setHeader("tenant", pipelineMetrics.timed("tenant", tenantExtractor))
+			// Types the pipeline has no use for are ACKed here, without being parsed or spooled, and counted
+			// whether or not their tenant is known.
+			.filter(not(method(unknownMessageService, "isSupported")))
+				.bean(unknownMessageService, "process")
 				.stop()
 				.end()
-			.log("Processing ${header.messageType} for tenant ${header.tenant}")
-			.choice()
-				.when(header("messageType").isEqualTo("ADT^A01"))
-					.bean(AdmitService.class)
-				.otherwise()
-					.bean(UnknownMessageService.class)
-			.endChoice();
-		//@formatter:on
-		*/
-
-		//@formatter:off
-		from("netty:tcp://localhost:8888")
-			.routeId("netty-hl7")
-			.setHeader("messageType", messageTypeExtractor)
-			.setHeader("tenant", tenantExtractor)
 			.filter(header("tenant").isNull())
 				.log("Unknown tenant. Acknowledging request and ending processing")
+				.transform().body(String.class, body -> HL7Ack.ack(body, "AA"))
 				.stop()
 				.end()
 			.log("Processing ${header.messageType} for tenant ${header.tenant}.")
-			.to(InOnly, "activemq:fhir") // "InOnly" allows us to place the message on the queue and continue processing.
-			.transform(HL7.ack());
+			// Build the ACK on the connection's thread rather than the spool's flush thread.
+			.setProperty(ACK_PROPERTY, HL7.ack())
+			// Keeps each patient's messages in order across consumers.
+			.setHeader(JMS_X_GROUP_ID, pipelineMetrics.timed("partitionKey", partitionKeyExtractor))
+			// Completes once the message is on local disk, from where it is forwarded.
+			.process(pipelineMetrics.timed("spool", spoolingProcessor))
+			.setBody(exchangeProperty(ACK_PROPERTY));
 
-		from("activemq:fhir")
-			.routeId("fhirLookup")
-			.setHeader("fhirId", fhirIdExtractor)
+		// Queue consumers hand each message off and take the next, while the sequencers process different
+		// patients in parallel and each patient's messages in order. Their timers include the time a message waits
+		// behind its patient's earlier ones. A message is only acknowledged once its sequenced exchange completes, so
+		// the ones still waiting in a sequencer are redelivered if the application stops.
+		from(consumer("fhir", queueConfiguration.getFhir()))
+			.routeId("fhirQueue")
+			.routePolicy(routePolicies(queueConfiguration.getFhir()))
+			.process(jmsAcknowledgeProcessor)
+			.process(pipelineMetrics.timed("parse", headerExtractor))
+			.process(pipelineMetrics.timed("fhirQueue", sequenced(queueSequencers.getFhir(), "direct:fhirLookup")));
+
+		RouteDefinition fhirLookup = from("direct:fhirLookup")
+			.routeId("fhirLookup");
+		if (fhirServerConfiguration.isAdmitEnabled()) {
+			// Admitted Patients are written to the FHIR server before anything else is done for the message. The
+			// Patient is written from a copy of the exchange, so the message carries on unchanged, and a failed write
+			// fails the exchange, which is quarantined and retried.
+			fhirLookup
+				.filter(header("messageType").isEqualTo("ADT^A01"))
+					.enrich("direct:admit", AggregationStrategies.useOriginal())
+					.end();
+
+			from("direct:admit")
+				.routeId("admit")
+				.errorHandler(noErrorHandler())
+				.unmarshal(admitDataFormat())
+				// Completes once the Bundle holding the Patient has been committed.
+				.bean(admitService, "process");
+		}
+		fhirLookup
+			.setHeader("fhirId", pipelineMetrics.timed("fhirId", fhirIdExtractor))
 			.filter(header("fhirId").isNull())
 				.log("No FHIR ID present for patient")
 				.stop()
 				.end()
 			.log("FHIR STU3 ID extracted and adding to queue")
+			.setHeader(JMS_X_GROUP_ID, partitionKeyExtractor)
 			.to(InOnly, "activemq:encounter");
 
-		from("activemq:encounter")
+		from(consumer("encounter", queueConfiguration.getEncounter()))
+			.routeId("encounterQueue")
+			.routePolicy(routePolicies(queueConfiguration.getEncounter()))
+			.process(jmsAcknowledgeProcessor)
+			.process(pipelineMetrics.timed("parse", headerExtractor))
+			.process(pipelineMetrics.timed("encounterQueue",
+					sequenced(queueSequencers.getEncounter(), "direct:encounterLookup")));
+
+		from("direct:encounterLookup")
 			.routeId("encounterLookup")
 			.log("Received message for FHIR STU3 ID ${header.fhirId}")
-			.bean(encounterService);
+			.process(pipelineMetrics.timed("loadEncounters",
+					exchange -> encounterService.loadEncounters(exchange.getIn().getHeader("fhirId", String.class))));
 		//@formatter:on
 	}
-}
\ No newline at end of file
+
+	/**
+	 * A consumer that hands each message on without waiting for it to be
+	 * processed, leaving it to {@link JmsAcknowledgeProcessor} to acknowledge.
+	 */
+	private JmsEndpoint consumer(final String queue, final QueueConfiguration.Consumer consumer) {
+		JmsEndpoint endpoint = getContext().getEndpoint(String.format(
+				"activemq:%s?concurrentConsumers=%d&maxConcurrentConsumers=%d&destination.consumer.prefetchSize=%d"
+						+ "&asyncConsumer=true",
+				queue, consumer.getConcurrentConsumers(), consumer.getMaxConcurrentConsumers(),
+				consumer.getPrefetch()), JmsEndpoint.class);
+		// Not one of the JMS modes the URI accepts. Unlike CLIENT_ACKNOWLEDGE, the listener container does not
+		// acknowledge these messages itself when the consumer returns, and acknowledging one leaves the others.
+		endpoint.setAcknowledgementMode(ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+		return endpoint;
+	}
+
+	/**
+	 * Parses into the v2.6 model {@link AdmitService} is written against,
+	 * whichever version the sender used.
+	 */
+	private static HL7DataFormat admitDataFormat() {
+		HapiContext hapiContext = new DefaultHapiContext(new CanonicalModelClassFactory("2.6"));
+		hapiContext.setValidationContext(ValidationContextFactory.noValidation());
+		HL7DataFormat dataFormat = new HL7DataFormat();
+		dataFormat.setHapiContext(hapiContext);
+		return dataFormat;
+	}
+
+	private SequencingProcessor sequenced(final SequencingExecutor sequencingExecutor, final String endpointUri) {
+		return new SequencingProcessor(getContext(), sequencingExecutor, partitionKeyExtractor, endpointUri);
+	}
+
+	private RoutePolicy[] routePolicies(final QueueConfiguration.Consumer consumer) {
+		if (consumer.getMaxInFlight() <= 0) {
+			return new RoutePolicy[0];
+		}
+
+		// Suspends the consumers once this many exchanges are in flight, and resumes them as they drain.
+		ThrottlingInflightRoutePolicy inflightRoutePolicy = new ThrottlingInflightRoutePolicy();
+		inflightRoutePolicy.setMaxInflightExchanges(consumer.getMaxInFlight());
+		return new RoutePolicy[] { inflightRoutePolicy };
+	}
+}
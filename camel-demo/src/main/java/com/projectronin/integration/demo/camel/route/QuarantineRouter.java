@@ -0,0 +1,67 @@
+package com.projectronin.integration.demo.camel.route;
+
+import static org.apache.camel.ExchangePattern.InOnly;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.LoggingLevel;
+import org.apache.camel.builder.DeadLetterChannelBuilder;
+import org.apache.camel.builder.RouteBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.camel.processor.QuarantineProcessor;
+import com.projectronin.integration.demo.camel.processor.SequencingProcessor;
+import com.projectronin.integration.demo.configuration.QuarantineConfiguration;
+
+/**
+ * Takes messages that failed processing off the path of healthy traffic. A
+ * message that fails on a queue is retried in place after a backoff, without
+ * holding a thread, and only its patient's later messages wait behind it. Once
+ * it has failed too often it is sent to the dead-letter queue, where it waits
+ * to be replayed. A message that fails before reaching a queue is sent to the
+ * FHIR queue to be retried there.
+ */
+@Component
+public class QuarantineRouter extends RouteBuilder {
+	public static final String QUARANTINE_URI = "direct:quarantine";
+
+	private final QuarantineProcessor quarantineProcessor;
+
+	@Autowired
+	public QuarantineRouter(final QuarantineProcessor quarantineProcessor) {
+		this.quarantineProcessor = quarantineProcessor;
+	}
+
+	/**
+	 * An error handler that retries a failed exchange in place with an
+	 * exponential backoff, then quarantines its original message. The exchange is
+	 * not complete until then, so a {@link SequencingProcessor} holds back the
+	 * rest of its key's exchanges. If the message cannot be quarantined the
+	 * exchange still fails, so it is not lost.
+	 */
+	public static DeadLetterChannelBuilder quarantine(final QuarantineConfiguration quarantineConfiguration) {
+		DeadLetterChannelBuilder builder = new DeadLetterChannelBuilder(QUARANTINE_URI);
+		builder.useOriginalMessage().deadLetterHandleNewException(false)
+				.maximumRedeliveries(quarantineConfiguration.getMaxAttempts() - 1)
+				.redeliveryDelay(quarantineConfiguration.getInitialDelayMillis()).useExponentialBackOff()
+				.backOffMultiplier(quarantineConfiguration.getBackoffMultiplier())
+				.maximumRedeliveryDelay(quarantineConfiguration.getMaxDelayMillis())
+				// Waits on a scheduler rather than the thread processing the exchange.
+				.asyncDelayedRedelivery().retryAttemptedLogLevel(LoggingLevel.WARN)
+				.onRedelivery(exchange -> exchange.setProperty(QuarantineProcessor.REDELIVERIES,
+						exchange.getIn().getHeader(Exchange.REDELIVERY_COUNTER)));
+		return builder;
+	}
+
+	@Override
+	public void configure() throws Exception {
+		//@formatter:off
+		from(QUARANTINE_URI)
+			.routeId("quarantine")
+			.errorHandler(noErrorHandler())
+			.process(quarantineProcessor)
+			// The processor sets the destination, overriding this one.
+			.to(InOnly, "activemq:quarantine");
+		//@formatter:on
+	}
+}
@@ -2,82 +2,139 @@ package com.projectronin.integration.demo.camel.service;
 
 import java.net.URISyntaxException;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
 
 import org.apache.camel.Header;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r4.model.Encounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClientException;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.projectronin.integration.demo.configuration.QueueConfiguration;
 import com.projectronin.integration.demo.mdaoc.MdaOcClient;
 
-import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.context.FhirContext;
 
 @Component
 public class EncounterService {
 	private static final Logger LOGGER = LoggerFactory.getLogger(EncounterService.class);
+
 	private final MdaOcClient mdaOcClient;
-	private final IParser jsonParser;
+	private final FhirContext fhirContext;
+	private final ExecutorService prefetchExecutor;
 
 	@Autowired
-	public EncounterService(final MdaOcClient mdaOcClient, final IParser jsonParser) {
+	public EncounterService(final MdaOcClient mdaOcClient, final FhirContext fhirContext,
+			final QueueConfiguration queueConfiguration) {
 		this.mdaOcClient = mdaOcClient;
-		this.jsonParser = jsonParser;
+		this.fhirContext = fhirContext;
+
+		// Each lookup runs on an encounter sequencer thread and prefetches at most one
+		// page at a time, so one prefetch thread per sequencer thread never holds a
+		// lookup up. The threads are only started as they are needed.
+		int prefetchThreads = queueConfiguration.getEncounter().getSequencerThreads();
+		AtomicInteger threadCount = new AtomicInteger();
+		this.prefetchExecutor = Executors.newFixedThreadPool(prefetchThreads, runnable -> {
+			Thread thread = new Thread(runnable, "encounter-prefetch-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
 
-	public void loadEncounters(@Header("fhirId") final String fhirId)
-			throws RestClientException, URISyntaxException, InterruptedException {
-		// Just a small delay from demo purposes.
-		Thread.sleep(1000);
+	@PreDestroy
+	public void shutdown() {
+		prefetchExecutor.shutdownNow();
+	}
 
+	public void loadEncounters(@Header("fhirId") final String fhirId) throws RestClientException, URISyntaxException {
 		// We're going to load encounters for the last week.
 		LocalDate today = LocalDate.of(2021, 7, 8); // LocalDate.now();
 		LocalDate lastWeek = today.minusDays(7);
 
 		String encounterUrl = String.format("/oc/api/FHIR/STU3/Encounter?patient=%s&date=ge%s&date=le%s", fhirId,
 				lastWeek.toString(), today.toString());
-		List<Encounter> encounters = loadEncountersFromUrl(encounterUrl);
-		LOGGER.info("Found {} encounters", encounters.size());
 
-		for (Encounter encounter : encounters) {
-			LOGGER.info("Encounter {} occurred at {}", encounter.getId(), encounter.getPeriod().getStart().toString());
-		}
+		AtomicInteger count = new AtomicInteger();
+		loadEncountersFromUrl(encounterUrl, encounter -> {
+			count.incrementAndGet();
+			LOGGER.info("Encounter {} occurred at {}", encounter.getIdElement().toUnqualified().getValue(),
+					encounter.getPeriod().getStart().toString());
+		});
+		LOGGER.info("Found {} encounters", count.get());
 	}
 
-	private List<Encounter> loadEncountersFromUrl(final String url) throws RestClientException, URISyntaxException {
-		ResponseEntity<JsonNode> response = mdaOcClient.get(url, JsonNode.class);
-		if (response.getStatusCode() != HttpStatus.OK) {
-			throw new RuntimeException(
-					String.format("Unable to retrieve Encounters. Status code = %s", response.getStatusCodeValue()));
-		}
+	/**
+	 * Follows the {@code next} links from {@code url}, handing each Encounter to
+	 * {@code consumer} as its page arrives. Each page is parsed straight from the
+	 * response stream. The first page is read on the calling thread, and each
+	 * following page is requested in the background before the current one is
+	 * handed off, so only about two pages are ever held in memory.
+	 */
+	public void loadEncountersFromUrl(final String url, final Consumer<Encounter> consumer)
+			throws RestClientException, URISyntaxException {
+		Bundle page = fetch(url);
+		while (page != null) {
+			String nextUrl = page.getLink(Bundle.LINK_NEXT) == null ? null : page.getLink(Bundle.LINK_NEXT).getUrl();
+			Future<Bundle> nextPage = nextUrl == null ? null : prefetch(nextUrl);
 
-		List<Encounter> encounters = new ArrayList<>();
-		JsonNode root = response.getBody();
-		JsonNode entries = root.get("entry");
-		for (JsonNode entry : entries) {
-			JsonNode resource = entry.get("resource");
-			Encounter encounter = jsonParser.parseResource(Encounter.class, resource.toString());
-			encounters.add(encounter);
+			try {
+				for (BundleEntryComponent entry : page.getEntry()) {
+					if (entry.getResource() instanceof Encounter) {
+						consumer.accept((Encounter) entry.getResource());
+					}
+				}
+			} catch (RuntimeException e) {
+				if (nextPage != null) {
+					nextPage.cancel(true);
+				}
+				throw e;
+			}
+			page = nextPage == null ? null : await(nextPage);
 		}
+	}
+
+	private Future<Bundle> prefetch(final String url) {
+		return prefetchExecutor.submit(() -> fetch(url));
+	}
 
-		JsonNode links = root.get("link");
-		for (JsonNode link : links) {
-			String relation = link.get("relation").textValue();
-			if ("next".equals(relation)) {
-				String nextUrl = link.get("url").textValue();
-				encounters.addAll(loadEncountersFromUrl(nextUrl));
+	private Bundle fetch(final String url) throws RestClientException, URISyntaxException {
+		return mdaOcClient.get(url, response -> {
+			if (response.getStatusCode() != HttpStatus.OK) {
+				throw new RuntimeException(String.format("Unable to retrieve Encounters. Status code = %s",
+						response.getRawStatusCode()));
+			}
+			// Parsers are not thread-safe, so each page gets its own.
+			return fhirContext.newJsonParser().parseResource(Bundle.class, response.getBody());
+		});
+	}
 
-				// There should only be 1 next.
-				break;
+	private Bundle await(final Future<Bundle> page) throws RestClientException, URISyntaxException {
+		try {
+			return page.get();
+		} catch (InterruptedException e) {
+			page.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading Encounters", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof URISyntaxException) {
+				throw (URISyntaxException) cause;
 			}
+			throw new IllegalStateException("Unable to retrieve Encounters", cause);
 		}
-		return encounters;
 	}
 }
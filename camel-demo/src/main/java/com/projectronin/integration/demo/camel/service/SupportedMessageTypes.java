@@ -0,0 +1,47 @@
+package com.projectronin.integration.demo.camel.service;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
+
+/**
+ * The message types the pipeline processes, as configured by
+ * {@code ronin.ingest.supported-message-types}. A type is either a
+ * {@code code^trigger} pair or {@code code^*}, which matches every trigger
+ * event for the code.
+ */
+@Component
+public class SupportedMessageTypes {
+	private final Set<String> supportedTypes = new HashSet<>();
+	private final Set<String> supportedCodes = new HashSet<>();
+
+	@Autowired
+	public SupportedMessageTypes(final IngestConfiguration ingestConfiguration) {
+		for (String type : ingestConfiguration.getSupportedMessageTypes()) {
+			if (type.endsWith("^*")) {
+				supportedCodes.add(type.substring(0, type.length() - 2));
+			} else {
+				supportedTypes.add(type);
+			}
+		}
+	}
+
+	/**
+	 * @param messageType the {@code code^trigger} type of a message
+	 * @return true if the pipeline processes messages of this type
+	 */
+	public boolean isSupported(final String messageType) {
+		if (messageType == null) {
+			return false;
+		}
+		if (supportedTypes.contains(messageType)) {
+			return true;
+		}
+		int separator = messageType.indexOf('^');
+		return separator > 0 && supportedCodes.contains(messageType.substring(0, separator));
+	}
+}
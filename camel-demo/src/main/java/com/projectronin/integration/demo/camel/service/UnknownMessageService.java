@@ -1,22 +1,105 @@
 package com.projectronin.integration.demo.camel.service;
 
-import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.camel.Body;
+import org.apache.camel.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import ca.uhn.hl7v2.HL7Exception;
-import ca.uhn.hl7v2.model.Message;
+import com.projectronin.integration.demo.camel.extractor.HL7Ack;
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 
 /**
- * Service for handling unknown messages.
- * 
+ * Service for handling message types the pipeline does not process. They are
+ * ACKed from their MSH segment without being parsed, counted by type and
+ * tenant, and a sample of each type is logged now and then so new feeds can be
+ * spotted without logging every message.
+ *
  * @author Josh Smith
  */
 @Component
 public class UnknownMessageService {
-	public Message process(Message input) throws IOException, HL7Exception {
-		System.out.println("Received unknown input: ");
-		System.out.println(input);
-		return input.generateACK();
+	private static final Logger LOGGER = LoggerFactory.getLogger(UnknownMessageService.class);
+	/** Samples go to their own logger, so they can be routed or silenced separately. */
+	private static final Logger SAMPLES = LoggerFactory.getLogger(UnknownMessageService.class.getName() + ".samples");
+	/** Bounds the meters and samplers a sender making up message types could create. */
+	private static final int MAX_TRACKED = 200;
+	private static final String OTHER = "other";
+
+	private final MeterRegistry meterRegistry;
+	private final SupportedMessageTypes supportedMessageTypes;
+	private final long sampleIntervalNanos;
+	private final ConcurrentHashMap<String, AtomicLong> lastSampledNanos = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+	@Autowired
+	public UnknownMessageService(MeterRegistry meterRegistry, IngestConfiguration ingestConfiguration,
+			SupportedMessageTypes supportedMessageTypes) {
+		this.meterRegistry = meterRegistry;
+		this.supportedMessageTypes = supportedMessageTypes;
+		this.sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(ingestConfiguration.getUnknownSampleIntervalMillis());
+	}
+
+	/**
+	 * @param messageType the {@code code^trigger} type of a message
+	 * @return true if the pipeline processes messages of this type
+	 */
+	public boolean isSupported(@Header("messageType") String messageType) {
+		return supportedMessageTypes.isSupported(messageType);
+	}
+
+	/**
+	 * @return an AA ACK for the message
+	 */
+	public String process(@Body String input, @Header("messageType") String messageType,
+			@Header("tenant") String tenant) {
+		String type = messageType == null ? OTHER : messageType;
+		counter(type, tenant).increment();
+
+		if (shouldSample(type)) {
+			int mshEnd = input.indexOf('\r');
+			SAMPLES.info("Received unsupported {} for tenant {}: {}", type, tenant,
+					mshEnd < 0 ? input : input.substring(0, mshEnd));
+		}
+		LOGGER.debug("Received unknown input: {}", input);
+
+		return HL7Ack.ack(input, "AA");
+	}
+
+	private Counter counter(final String type, final String tenant) {
+		String tenantTag = tenant == null ? "unknown" : tenant;
+		String key = type + '|' + tenantTag;
+		Counter counter = counters.get(key);
+		if (counter != null) {
+			return counter;
+		}
+		String typeTag = counters.size() < MAX_TRACKED ? type : OTHER;
+		return counters.computeIfAbsent(typeTag + '|' + tenantTag,
+				k -> Counter.builder("hl7.unknown.messages").description("Messages of types the pipeline skips")
+						.tag("messageType", typeTag).tag("tenant", tenantTag).register(meterRegistry));
+	}
+
+	/**
+	 * @return true at most once per sample interval for each type
+	 */
+	private boolean shouldSample(final String type) {
+		long now = System.nanoTime();
+		AtomicLong last = lastSampledNanos.get(type);
+		if (last == null) {
+			if (lastSampledNanos.size() >= MAX_TRACKED) {
+				return false;
+			}
+			return lastSampledNanos.putIfAbsent(type, new AtomicLong(now)) == null;
+		}
+		long previous = last.get();
+		return now - previous >= sampleIntervalNanos && last.compareAndSet(previous, now);
 	}
 }
@@ -0,0 +1,72 @@
+package com.projectronin.integration.demo.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "ronin.fhir")
+public class FhirServerConfiguration {
+	private boolean admitEnabled = false;
+	private String baseUrl;
+	private String username;
+	private String password;
+	private int batchSize = 50;
+	private long batchWindowMillis = 50;
+
+	/**
+	 * Whether ADT^A01 Patients are written to the FHIR server as their messages
+	 * are taken off the FHIR queue.
+	 */
+	public boolean isAdmitEnabled() {
+		return admitEnabled;
+	}
+
+	public void setAdmitEnabled(boolean admitEnabled) {
+		this.admitEnabled = admitEnabled;
+	}
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	public void setBaseUrl(String baseUrl) {
+		this.baseUrl = baseUrl;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	/**
+	 * The most Patients written per transaction Bundle.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * How long the first Patient of a tenant's Bundle waits for others to join it
+	 * before the Bundle is written anyway.
+	 */
+	public long getBatchWindowMillis() {
+		return batchWindowMillis;
+	}
+
+	public void setBatchWindowMillis(long batchWindowMillis) {
+		this.batchWindowMillis = batchWindowMillis;
+	}
+}
@@ -0,0 +1,124 @@
+package com.projectronin.integration.demo.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "ronin.http")
+public class HttpClientConfiguration {
+	private int maxConnections = 200;
+	private int maxConnectionsPerHost = 20;
+	private int connectTimeoutMillis = 2000;
+	private int socketTimeoutMillis = 30000;
+	private int connectionRequestTimeoutMillis = 5000;
+	private long keepAliveMillis = 30000;
+	private int ioThreads = 0;
+	private int requestBufferPoolSize = 64;
+	private int requestBufferInitialBytes = 16384;
+	private int requestBufferMaxRetainedBytes = 1048576;
+
+	/**
+	 * Total pooled connections across all hosts.
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Pooled connections to any single host. Requests beyond this wait for a free
+	 * connection rather than opening a new one.
+	 */
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	/**
+	 * Maximum time to wait between packets of a response.
+	 */
+	public int getSocketTimeoutMillis() {
+		return socketTimeoutMillis;
+	}
+
+	public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+		this.socketTimeoutMillis = socketTimeoutMillis;
+	}
+
+	/**
+	 * Maximum time to wait for a connection from the pool.
+	 */
+	public int getConnectionRequestTimeoutMillis() {
+		return connectionRequestTimeoutMillis;
+	}
+
+	public void setConnectionRequestTimeoutMillis(int connectionRequestTimeoutMillis) {
+		this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+	}
+
+	/**
+	 * How long an idle connection is kept open for reuse when the server does not
+	 * say otherwise.
+	 */
+	public long getKeepAliveMillis() {
+		return keepAliveMillis;
+	}
+
+	public void setKeepAliveMillis(long keepAliveMillis) {
+		this.keepAliveMillis = keepAliveMillis;
+	}
+
+	/**
+	 * I/O threads for non-blocking requests. Defaults to the number of processors.
+	 */
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	public void setIoThreads(int ioThreads) {
+		this.ioThreads = ioThreads;
+	}
+
+	/**
+	 * Request body buffers kept for reuse once their requests complete.
+	 */
+	public int getRequestBufferPoolSize() {
+		return requestBufferPoolSize;
+	}
+
+	public void setRequestBufferPoolSize(int requestBufferPoolSize) {
+		this.requestBufferPoolSize = requestBufferPoolSize;
+	}
+
+	public int getRequestBufferInitialBytes() {
+		return requestBufferInitialBytes;
+	}
+
+	public void setRequestBufferInitialBytes(int requestBufferInitialBytes) {
+		this.requestBufferInitialBytes = requestBufferInitialBytes;
+	}
+
+	/**
+	 * Buffers that grew beyond this for an unusually large body are dropped rather
+	 * than returned to the pool, so one large request does not pin its memory.
+	 */
+	public int getRequestBufferMaxRetainedBytes() {
+		return requestBufferMaxRetainedBytes;
+	}
+
+	public void setRequestBufferMaxRetainedBytes(int requestBufferMaxRetainedBytes) {
+		this.requestBufferMaxRetainedBytes = requestBufferMaxRetainedBytes;
+	}
+}
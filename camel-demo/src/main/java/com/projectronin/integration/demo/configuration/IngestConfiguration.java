@@ -0,0 +1,99 @@
+package com.projectronin.integration.demo.configuration;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "ronin.ingest")
+public class IngestConfiguration {
+	private boolean batchEnabled = false;
+	private String batchHost = "localhost";
+	private int batchPort = 8889;
+	private int workerCount = 0;
+	private int batchSize = 50;
+	private long batchTimeoutMillis = 25;
+	private int queueCapacity = 10000;
+	private List<String> supportedMessageTypes = Arrays.asList("ADT^*");
+	private long unknownSampleIntervalMillis = 60000;
+
+	public boolean isBatchEnabled() {
+		return batchEnabled;
+	}
+
+	public void setBatchEnabled(boolean batchEnabled) {
+		this.batchEnabled = batchEnabled;
+	}
+
+	public String getBatchHost() {
+		return batchHost;
+	}
+
+	public void setBatchHost(String batchHost) {
+		this.batchHost = batchHost;
+	}
+
+	public int getBatchPort() {
+		return batchPort;
+	}
+
+	public void setBatchPort(int batchPort) {
+		this.batchPort = batchPort;
+	}
+
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getBatchTimeoutMillis() {
+		return batchTimeoutMillis;
+	}
+
+	public void setBatchTimeoutMillis(long batchTimeoutMillis) {
+		this.batchTimeoutMillis = batchTimeoutMillis;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * The message types processed by the pipeline, such as {@code ADT^A01}, or
+	 * {@code ADT^*} for every ADT trigger event. Others are counted and ACKed
+	 * without further processing.
+	 */
+	public List<String> getSupportedMessageTypes() {
+		return supportedMessageTypes;
+	}
+
+	public void setSupportedMessageTypes(List<String> supportedMessageTypes) {
+		this.supportedMessageTypes = supportedMessageTypes;
+	}
+
+	/**
+	 * How often to log a sample of each unsupported message type.
+	 */
+	public long getUnknownSampleIntervalMillis() {
+		return unknownSampleIntervalMillis;
+	}
+
+	public void setUnknownSampleIntervalMillis(long unknownSampleIntervalMillis) {
+		this.unknownSampleIntervalMillis = unknownSampleIntervalMillis;
+	}
+}
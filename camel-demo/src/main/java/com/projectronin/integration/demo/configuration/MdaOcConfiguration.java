@@ -11,6 +11,11 @@ public class MdaOcConfiguration {
 	private String apiEndpoint;
 	private String stsEndpoint;
 	private String pdfEndpoint;
+	private long tokenLifetimeSeconds = 3600;
+	private long tokenRefreshSkewSeconds = 60;
+	private long fhirIdCacheSize = 100_000;
+	private long fhirIdCacheTtlSeconds = 3600;
+	private long fhirIdCacheNegativeTtlSeconds = 300;
 
 	public String getUsername() {
 		return username;
@@ -68,4 +73,57 @@ public class MdaOcConfiguration {
 		this.pdfEndpoint = pdfEndpoint;
 	}
 
+	/**
+	 * How long a bearer token is assumed to be valid when the STS does not return
+	 * a JWT carrying its own expiry.
+	 */
+	public long getTokenLifetimeSeconds() {
+		return tokenLifetimeSeconds;
+	}
+
+	public void setTokenLifetimeSeconds(long tokenLifetimeSeconds) {
+		this.tokenLifetimeSeconds = tokenLifetimeSeconds;
+	}
+
+	/**
+	 * How long before expiry a bearer token is refreshed in the background.
+	 */
+	public long getTokenRefreshSkewSeconds() {
+		return tokenRefreshSkewSeconds;
+	}
+
+	public void setTokenRefreshSkewSeconds(long tokenRefreshSkewSeconds) {
+		this.tokenRefreshSkewSeconds = tokenRefreshSkewSeconds;
+	}
+
+	/**
+	 * The most MRN to FHIR ID lookups kept in memory.
+	 */
+	public long getFhirIdCacheSize() {
+		return fhirIdCacheSize;
+	}
+
+	public void setFhirIdCacheSize(long fhirIdCacheSize) {
+		this.fhirIdCacheSize = fhirIdCacheSize;
+	}
+
+	public long getFhirIdCacheTtlSeconds() {
+		return fhirIdCacheTtlSeconds;
+	}
+
+	public void setFhirIdCacheTtlSeconds(long fhirIdCacheTtlSeconds) {
+		this.fhirIdCacheTtlSeconds = fhirIdCacheTtlSeconds;
+	}
+
+	/**
+	 * How long an MRN that MDAOC has no FHIR ID for is remembered. Kept shorter
+	 * than the TTL so newly registered patients are picked up quickly.
+	 */
+	public long getFhirIdCacheNegativeTtlSeconds() {
+		return fhirIdCacheNegativeTtlSeconds;
+	}
+
+	public void setFhirIdCacheNegativeTtlSeconds(long fhirIdCacheNegativeTtlSeconds) {
+		this.fhirIdCacheNegativeTtlSeconds = fhirIdCacheNegativeTtlSeconds;
+	}
 }
@@ -0,0 +1,133 @@
+package com.projectronin.integration.demo.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "ronin.mdaoc-simulator")
+public class MdaOcSimulatorConfiguration {
+	private boolean enabled;
+	private String host = "localhost";
+	private int port = 8080;
+	private int threads = 50;
+	private long latencyMillis;
+	private long latencyJitterMillis;
+	private double errorRate;
+	private int pageSize = 2;
+	private int patientCount = 1000;
+	private int encountersPerPatient = 3;
+	private long tokenLifetimeSeconds = 3600;
+
+	/**
+	 * Whether to run the simulator inside the application, in place of a real
+	 * MDAOC.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * How many requests may be served at once, including those waiting out
+	 * their latency.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * The least time each response is delayed by.
+	 */
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * The most extra time, chosen at random, each response is delayed by.
+	 */
+	public long getLatencyJitterMillis() {
+		return latencyJitterMillis;
+	}
+
+	public void setLatencyJitterMillis(long latencyJitterMillis) {
+		this.latencyJitterMillis = latencyJitterMillis;
+	}
+
+	/**
+	 * The fraction of API requests, from 0 to 1, answered with a 500.
+	 */
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * The most Encounters in each page of search results.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * How many patients exist. Patient {@code n} has the MRN {@code MRN<n>} or
+	 * just {@code <n>}; any other MRN is not found.
+	 */
+	public int getPatientCount() {
+		return patientCount;
+	}
+
+	public void setPatientCount(int patientCount) {
+		this.patientCount = patientCount;
+	}
+
+	/**
+	 * How many Encounters each patient has in any searched date range.
+	 */
+	public int getEncountersPerPatient() {
+		return encountersPerPatient;
+	}
+
+	public void setEncountersPerPatient(int encountersPerPatient) {
+		this.encountersPerPatient = encountersPerPatient;
+	}
+
+	public long getTokenLifetimeSeconds() {
+		return tokenLifetimeSeconds;
+	}
+
+	public void setTokenLifetimeSeconds(long tokenLifetimeSeconds) {
+		this.tokenLifetimeSeconds = tokenLifetimeSeconds;
+	}
+}
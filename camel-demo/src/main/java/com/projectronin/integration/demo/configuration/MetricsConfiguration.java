@@ -0,0 +1,37 @@
+package com.projectronin.integration.demo.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "ronin.metrics")
+public class MetricsConfiguration {
+	private String host = "localhost";
+	private int port = 9404;
+	private String path = "/metrics";
+
+	/**
+	 * The address the Prometheus scrape endpoint listens on.
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+}
@@ -0,0 +1,75 @@
+package com.projectronin.integration.demo.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "ronin.quarantine")
+public class QuarantineConfiguration {
+	private int maxAttempts = 5;
+	private long initialDelayMillis = 1000;
+	private double backoffMultiplier = 4;
+	private long maxDelayMillis = 300000;
+	private String deadLetterQueue = "hl7.dlq";
+	private String replayToken;
+
+	/**
+	 * How many times a message may fail, including the first, before it is
+	 * dead-lettered.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * How long after its first failure a message is retried.
+	 */
+	public long getInitialDelayMillis() {
+		return initialDelayMillis;
+	}
+
+	public void setInitialDelayMillis(long initialDelayMillis) {
+		this.initialDelayMillis = initialDelayMillis;
+	}
+
+	/**
+	 * What the delay is multiplied by after each further failure.
+	 */
+	public double getBackoffMultiplier() {
+		return backoffMultiplier;
+	}
+
+	public void setBackoffMultiplier(double backoffMultiplier) {
+		this.backoffMultiplier = backoffMultiplier;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	public void setMaxDelayMillis(long maxDelayMillis) {
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	public String getDeadLetterQueue() {
+		return deadLetterQueue;
+	}
+
+	public void setDeadLetterQueue(String deadLetterQueue) {
+		this.deadLetterQueue = deadLetterQueue;
+	}
+
+	/**
+	 * The bearer token replays must present. Replays are refused while it is
+	 * unset.
+	 */
+	public String getReplayToken() {
+		return replayToken;
+	}
+
+	public void setReplayToken(String replayToken) {
+		this.replayToken = replayToken;
+	}
+}
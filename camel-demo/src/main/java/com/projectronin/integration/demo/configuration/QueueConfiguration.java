@@ -0,0 +1,102 @@
+package com.projectronin.integration.demo.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "ronin.queues")
+public class QueueConfiguration {
+	private Consumer fhir = new Consumer();
+	private Consumer encounter = new Consumer();
+
+	public Consumer getFhir() {
+		return fhir;
+	}
+
+	public void setFhir(Consumer fhir) {
+		this.fhir = fhir;
+	}
+
+	public Consumer getEncounter() {
+		return encounter;
+	}
+
+	public void setEncounter(Consumer encounter) {
+		this.encounter = encounter;
+	}
+
+	/**
+	 * Consumer settings for a single queue.
+	 */
+	public static class Consumer {
+		private int concurrentConsumers = 4;
+		private int maxConcurrentConsumers = 8;
+		private int prefetch = 10;
+		private int maxInFlight = 0;
+		private int sequencerThreads = 16;
+		private int sequencerMaxPending = 1000;
+
+		public int getConcurrentConsumers() {
+			return concurrentConsumers;
+		}
+
+		public void setConcurrentConsumers(int concurrentConsumers) {
+			this.concurrentConsumers = concurrentConsumers;
+		}
+
+		public int getMaxConcurrentConsumers() {
+			return maxConcurrentConsumers;
+		}
+
+		public void setMaxConcurrentConsumers(int maxConcurrentConsumers) {
+			this.maxConcurrentConsumers = maxConcurrentConsumers;
+		}
+
+		/**
+		 * How many messages the broker pushes to each consumer ahead of time. Keep it
+		 * low so a slow consumer does not sit on messages others could process.
+		 */
+		public int getPrefetch() {
+			return prefetch;
+		}
+
+		public void setPrefetch(int prefetch) {
+			this.prefetch = prefetch;
+		}
+
+		/**
+		 * The most exchanges the route processes at once before its consumers are
+		 * suspended. Zero leaves it bounded only by the sequencer max pending.
+		 */
+		public int getMaxInFlight() {
+			return maxInFlight;
+		}
+
+		public void setMaxInFlight(int maxInFlight) {
+			this.maxInFlight = maxInFlight;
+		}
+
+		/**
+		 * Threads processing the queue's messages once consumed. Messages for
+		 * different patients run in parallel; each patient's run one at a time, in
+		 * order.
+		 */
+		public int getSequencerThreads() {
+			return sequencerThreads;
+		}
+
+		public void setSequencerThreads(int sequencerThreads) {
+			this.sequencerThreads = sequencerThreads;
+		}
+
+		/**
+		 * The most consumed messages waiting for or being processed before the
+		 * consumers block.
+		 */
+		public int getSequencerMaxPending() {
+			return sequencerMaxPending;
+		}
+
+		public void setSequencerMaxPending(int sequencerMaxPending) {
+			this.sequencerMaxPending = sequencerMaxPending;
+		}
+	}
+}
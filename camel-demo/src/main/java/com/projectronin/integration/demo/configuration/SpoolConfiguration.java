@@ -0,0 +1,69 @@
+package com.projectronin.integration.demo.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "ronin.spool")
+public class SpoolConfiguration {
+	private String directory = "spool";
+	private int segmentBytes = 64 * 1024 * 1024;
+	private long flushDelayMillis = 0;
+	private int drainBatchSize = 100;
+	private long retryIntervalMillis = 1000;
+
+	/**
+	 * Where received messages are journaled before they are ACKed.
+	 */
+	public String getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(String directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * The size of each journal file. No message may be larger.
+	 */
+	public int getSegmentBytes() {
+		return segmentBytes;
+	}
+
+	public void setSegmentBytes(int segmentBytes) {
+		this.segmentBytes = segmentBytes;
+	}
+
+	/**
+	 * How long to hold a flush to disk so more messages can share it. Zero
+	 * flushes as soon as the previous flush finishes, which still groups the
+	 * messages that arrived during it.
+	 */
+	public long getFlushDelayMillis() {
+		return flushDelayMillis;
+	}
+
+	public void setFlushDelayMillis(long flushDelayMillis) {
+		this.flushDelayMillis = flushDelayMillis;
+	}
+
+	/**
+	 * The most journaled messages forwarded to the broker in one transaction.
+	 */
+	public int getDrainBatchSize() {
+		return drainBatchSize;
+	}
+
+	public void setDrainBatchSize(int drainBatchSize) {
+		this.drainBatchSize = drainBatchSize;
+	}
+
+	/**
+	 * How long to wait before forwarding again after the broker fails.
+	 */
+	public long getRetryIntervalMillis() {
+		return retryIntervalMillis;
+	}
+
+	public void setRetryIntervalMillis(long retryIntervalMillis) {
+		this.retryIntervalMillis = retryIntervalMillis;
+	}
+}
@@ -0,0 +1,29 @@
+package com.projectronin.integration.demo.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "ronin.tenants")
+public class TenantConfiguration {
+	private String file;
+	private long reloadIntervalMillis = 5000;
+
+	/**
+	 * Properties file mapping sending facility to tenant ID. When unset, the
+	 * bundled tenants.properties is used and never reloaded.
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	public long getReloadIntervalMillis() {
+		return reloadIntervalMillis;
+	}
+
+	public void setReloadIntervalMillis(long reloadIntervalMillis) {
+		this.reloadIntervalMillis = reloadIntervalMillis;
+	}
+}
@@ -0,0 +1,193 @@
+package com.projectronin.integration.demo.fhir;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.Patient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.FhirServerConfiguration;
+import com.projectronin.integration.demo.http.AsyncRestClient;
+import com.projectronin.integration.demo.http.RequestBufferPool;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Writes Patients to the FHIR server in transaction Bundles rather than one
+ * request each. Patients are grouped per tenant until either the batch size is
+ * reached or the batch window has passed since the first one arrived. Each
+ * Patient's future completes only once the server has committed the
+ * transaction containing it, so callers can hold their ACK until then.
+ */
+@Component
+public class PatientBundleWriter {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientBundleWriter.class);
+
+	private final AsyncRestClient asyncRestClient;
+	private final RequestBufferPool requestBufferPool;
+	private final FhirContext fhirContext;
+	private final URI transactionUri;
+	private final HttpHeaders httpHeaders;
+	private final int batchSize;
+	private final long batchWindowMillis;
+
+	private final Map<Integer, Batch> batchesByTenant = new HashMap<>();
+	private final ScheduledExecutorService windowTimer;
+
+	@Autowired
+	public PatientBundleWriter(final AsyncRestClient asyncRestClient, final RequestBufferPool requestBufferPool,
+			final FhirContext fhirContext, final FhirServerConfiguration fhirServerConfiguration) {
+		this.asyncRestClient = asyncRestClient;
+		this.requestBufferPool = requestBufferPool;
+		this.fhirContext = fhirContext;
+		this.transactionUri = URI.create(fhirServerConfiguration.getBaseUrl());
+		this.batchSize = fhirServerConfiguration.getBatchSize();
+		this.batchWindowMillis = fhirServerConfiguration.getBatchWindowMillis();
+
+		httpHeaders = new HttpHeaders();
+		httpHeaders.setBasicAuth(fhirServerConfiguration.getUsername(), fhirServerConfiguration.getPassword(),
+				StandardCharsets.US_ASCII);
+		httpHeaders.setContentType(MediaType.valueOf("application/fhir+json"));
+		httpHeaders.setAccept(asList(MediaType.valueOf("application/fhir+json"), MediaType.APPLICATION_JSON));
+
+		windowTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "patient-bundle-window");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		windowTimer.shutdownNow();
+
+		List<Batch> remaining;
+		synchronized (batchesByTenant) {
+			remaining = new ArrayList<>(batchesByTenant.values());
+			batchesByTenant.clear();
+		}
+		// Nothing left here was written, so none of it may be ACKed.
+		for (Batch batch : remaining) {
+			batch.fail(new IllegalStateException("Patient bundle writer stopped"));
+		}
+	}
+
+	/**
+	 * Adds the Patient to its tenant's next transaction Bundle.
+	 *
+	 * @return a future completing once the Bundle has been committed
+	 */
+	public CompletableFuture<Void> write(final int tenantId, final Patient patient) {
+		CompletableFuture<Void> committed = new CompletableFuture<>();
+
+		Batch full = null;
+		synchronized (batchesByTenant) {
+			Batch batch = batchesByTenant.get(tenantId);
+			if (batch == null) {
+				batch = new Batch(tenantId);
+				batchesByTenant.put(tenantId, batch);
+
+				Batch windowed = batch;
+				batch.window = windowTimer.schedule(() -> flush(windowed), batchWindowMillis, TimeUnit.MILLISECONDS);
+			}
+
+			batch.patients.add(patient);
+			batch.futures.add(committed);
+			if (batch.patients.size() >= batchSize) {
+				batchesByTenant.remove(tenantId);
+				batch.window.cancel(false);
+				full = batch;
+			}
+		}
+
+		if (full != null) {
+			send(full);
+		}
+		return committed;
+	}
+
+	private void flush(final Batch batch) {
+		synchronized (batchesByTenant) {
+			// The batch may already have been sent because it filled up.
+			if (!batchesByTenant.remove(batch.tenantId, batch)) {
+				return;
+			}
+		}
+		send(batch);
+	}
+
+	private void send(final Batch batch) {
+		Bundle bundle = new Bundle().setType(BundleType.TRANSACTION);
+		for (Patient patient : batch.patients) {
+			bundle.addEntry().setFullUrl("urn:uuid:" + UUID.randomUUID()).setResource(patient).getRequest()
+					.setMethod(HTTPVerb.POST).setUrl("Patient");
+		}
+
+		RequestBufferPool.Buffer body = requestBufferPool.acquire();
+		try {
+			// Encoded straight into the request buffer rather than a String. Parsers are
+			// not thread-safe, and this runs on both caller and timer threads.
+			Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+			fhirContext.newJsonParser().encodeResourceToWriter(bundle, writer);
+			writer.flush();
+		} catch (IOException | RuntimeException e) {
+			body.release();
+			batch.fail(e);
+			return;
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Transaction Bundle for tenant {}: {}", batch.tenantId,
+					new String(body.array(), 0, body.size(), StandardCharsets.UTF_8));
+		}
+
+		asyncRestClient.post(transactionUri, body, httpHeaders).whenComplete((response, e) -> {
+			if (e != null) {
+				LOGGER.error("Unable to write {} Patients for tenant {}", batch.patients.size(), batch.tenantId, e);
+				batch.fail(e);
+			} else {
+				LOGGER.info("Wrote {} Patients for tenant {}", batch.patients.size(), batch.tenantId);
+				batch.futures.forEach(future -> future.complete(null));
+			}
+		});
+	}
+
+	private static class Batch {
+		private final int tenantId;
+		private final List<Patient> patients = new ArrayList<>();
+		private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+		private ScheduledFuture<?> window;
+
+		Batch(final int tenantId) {
+			this.tenantId = tenantId;
+		}
+
+		void fail(final Throwable e) {
+			futures.forEach(future -> future.completeExceptionally(e));
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.projectronin.integration.demo.fhir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.StringType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.fhir.model.IdentifierType;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.v26.datatype.CX;
+import ca.uhn.hl7v2.model.v26.datatype.DTM;
+import ca.uhn.hl7v2.model.v26.datatype.XPN;
+import ca.uhn.hl7v2.model.v26.segment.PID;
+
+/**
+ * Maps an HL7 PID segment to a FHIR Patient. This runs for every admit, so it
+ * avoids the garbage the obvious mapping creates: repetitions are read by index
+ * rather than copied into arrays, identifiers are resolved into a per-thread
+ * scratch buffer first so the final list can be sized exactly, and empty HL7
+ * components are skipped rather than becoming empty FHIR elements. Each
+ * identifier gets its own type concept from {@link IdentifierType}, so mapped
+ * Patients share no model objects.
+ */
+@Component
+public class PatientMapper {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientMapper.class);
+	private static final String TENANT_SYSTEM = "http://projectronin.com/fhir/tenant";
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	public Patient map(final PID pid, final int tenantId) throws HL7Exception {
+		Patient patient = new Patient();
+		patient.setIdentifier(createIdentifiers(pid, tenantId));
+		patient.setName(createNames(pid));
+		patient.setActive(true);
+
+		// TODO: address, birth date, communication, deceased, gender, marital status,
+		// multiple birth, telecom and extensions
+		return patient;
+	}
+
+	private List<Identifier> createIdentifiers(final PID pid, final int tenantId) {
+		Scratch scratch = SCRATCH.get();
+		try {
+			// TODO: handle duplicates. Identifier doesn't define hashCode or equals so a
+			// Set doesn't affect uniqueness.
+			scratch.add(pid.getPatientID());
+			for (int i = 0; i < pid.getPatientIdentifierListReps(); i++) {
+				scratch.add(pid.getPatientIdentifierList(i));
+			}
+			for (int i = 0; i < pid.getAlternatePatientIDPIDReps(); i++) {
+				scratch.add(pid.getAlternatePatientIDPID(i));
+			}
+			scratch.add(pid.getPatientAccountNumber());
+
+			// TODO: SSN
+			// TODO: Driver's License
+
+			List<Identifier> identifiers = new ArrayList<>(scratch.size + 1);
+			for (int i = 0; i < scratch.size; i++) {
+				IdentifierType type = scratch.types[i];
+				identifiers.add(new Identifier().setSystem(type.getSystem())
+						.setValue(scratch.identifiers[i].getIDNumber().getValue()).setType(type.createCodeableConcept()));
+			}
+
+			// For multi-tenancy purposes, we need to include the tenant ID as an identifier
+			// for this patient.
+			identifiers.add(new Identifier().setSystem(TENANT_SYSTEM).setValue(Integer.toString(tenantId)));
+			return identifiers;
+		} finally {
+			scratch.clear();
+		}
+	}
+
+	private List<HumanName> createNames(final PID pid) throws HL7Exception {
+		int reps = pid.getPatientNameReps();
+		List<HumanName> fhirNames = new ArrayList<>(reps);
+		for (int i = 0; i < reps; i++) {
+			XPN hl7Name = pid.getPatientName(i);
+
+			// TODO: Use Name Type Code to map "use"
+			HumanName fhirName = new HumanName();
+			fhirName.setFamily(hl7Name.getFamilyName().getSurname().getValue());
+			fhirName.setGiven(strings(hl7Name.getGivenName().getValue(),
+					hl7Name.getSecondAndFurtherGivenNamesOrInitialsThereof().getValue()));
+			fhirName.setPrefix(strings(hl7Name.getPrefixEgDR().getValue(), null));
+			fhirName.setSuffix(
+					strings(hl7Name.getSuffixEgJRorIII().getValue(), hl7Name.getProfessionalSuffix().getValue()));
+
+			DTM effectiveDate = hl7Name.getEffectiveDate();
+			if (!effectiveDate.isEmpty()) {
+				// TODO: map the effective and expiration dates
+				fhirName.setPeriod(new Period());
+			}
+
+			fhirNames.add(fhirName);
+		}
+		return fhirNames;
+	}
+
+	/**
+	 * @return an exactly sized list of the non-null values, or null if there are
+	 *         none so HAPI creates the list only if something asks for it
+	 */
+	private static List<StringType> strings(final String first, final String second) {
+		int count = (first == null ? 0 : 1) + (second == null ? 0 : 1);
+		if (count == 0) {
+			return null;
+		}
+
+		List<StringType> strings = new ArrayList<>(count);
+		if (first != null) {
+			strings.add(new StringType(first));
+		}
+		if (second != null) {
+			strings.add(new StringType(second));
+		}
+		return strings;
+	}
+
+	/**
+	 * Reusable buffer of the identifiers in a PID that have a mapped type.
+	 */
+	private static final class Scratch {
+		private CX[] identifiers = new CX[8];
+		private IdentifierType[] types = new IdentifierType[8];
+		private int size;
+
+		void add(final CX identifier) {
+			String typeCode = identifier.getIdentifierTypeCode().getValue();
+			IdentifierType type = IdentifierType.forCode(typeCode);
+			if (type == null) {
+				if (typeCode != null) {
+					LOGGER.info("Unrecognized identifier: {}", typeCode);
+				}
+				return;
+			}
+
+			if (size == identifiers.length) {
+				identifiers = Arrays.copyOf(identifiers, size * 2);
+				types = Arrays.copyOf(types, size * 2);
+			}
+			identifiers[size] = identifier;
+			types[size] = type;
+			size++;
+		}
+
+		void clear() {
+			// Don't hold on to the message until this thread maps the next one.
+			Arrays.fill(identifiers, 0, size, null);
+			size = 0;
+		}
+	}
+}
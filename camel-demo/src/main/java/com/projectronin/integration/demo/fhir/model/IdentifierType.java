@@ -0,0 +1,71 @@
+package com.projectronin.integration.demo.fhir.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+
+/**
+ * The HL7 v2 identifier types (table 0203) that are mapped to FHIR
+ * identifiers. Only each type's code, display and system are kept here. HAPI
+ * model objects are mutable, so every Identifier is given a concept of its own
+ * by {@link #createCodeableConcept()}.
+ */
+public enum IdentifierType {
+	MRN("MR", "Medical Record Number", null), SSN("SS", "Social Security Number", IdentifierType.SS_SYSTEM),
+	DRIVERS_LICENSE("DL", "Driver's License", null), PASSPORT("PPN", "Passport Number", null),
+	ACCOUNT_NUMBER("AN", "Account Number", null), PERSON_NUMBER("PN", "Person Number", null);
+
+	public static final String SS_SYSTEM = "http://hl7.org/fhir/sid/us-ssn";
+	private static final String IDENTIFIER_TYPE_CODE_SYSTEM = "http://terminology.hl7.org/CodeSystem/v2-0203";
+
+	private static final Map<String, IdentifierType> TYPES_BY_CODE = new HashMap<>();
+
+	static {
+		for (IdentifierType type : values()) {
+			TYPES_BY_CODE.put(type.code, type);
+		}
+	}
+
+	private final String code;
+	private final String display;
+	private final String system;
+
+	IdentifierType(final String code, final String display, final String system) {
+		this.code = code;
+		this.display = display;
+		this.system = system;
+	}
+
+	/**
+	 * @return the type for the HL7 identifier type code, or null if it is not
+	 *         mapped
+	 */
+	public static IdentifierType forCode(final String code) {
+		return code == null ? null : TYPES_BY_CODE.get(code);
+	}
+
+	public String getCode() {
+		return code;
+	}
+
+	/**
+	 * @return the system of identifiers of this type, or null if it varies by
+	 *         assigning authority
+	 */
+	public String getSystem() {
+		return system;
+	}
+
+	/**
+	 * @return a new type concept for an identifier of this type
+	 */
+	public CodeableConcept createCodeableConcept() {
+		List<Coding> coding = new ArrayList<>(1);
+		coding.add(new Coding(IDENTIFIER_TYPE_CODE_SYSTEM, code, display));
+		return new CodeableConcept().setText(display).setCoding(coding);
+	}
+}
@@ -0,0 +1,75 @@
+package com.projectronin.integration.demo.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.MetricsConfiguration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server for operational endpoints, such as metrics scrapes and
+ * quarantine replays. The application runs no servlet container, so this uses
+ * the JDK's HTTP server on its own port.
+ */
+@Component
+public class AdminServer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdminServer.class);
+
+	private final HttpServer server;
+
+	@Autowired
+	public AdminServer(final MetricsConfiguration metricsConfiguration) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(metricsConfiguration.getHost(), metricsConfiguration.getPort()),
+				0);
+		server.start();
+		LOGGER.info("Admin endpoints listening on {}:{}", metricsConfiguration.getHost(),
+				server.getAddress().getPort());
+	}
+
+	/**
+	 * Serves requests for {@code path} and anything below it with
+	 * {@code handler}.
+	 */
+	public void register(final String path, final HttpHandler handler) {
+		server.createContext(path, exchange -> {
+			try {
+				handler.handle(exchange);
+			} catch (IOException | RuntimeException e) {
+				LOGGER.error("Request to {} failed", exchange.getRequestURI(), e);
+				respond(exchange, 500, "text/plain", String.valueOf(e.getMessage()));
+			} finally {
+				exchange.close();
+			}
+		});
+	}
+
+	/**
+	 * Writes a complete response. The exchange is closed after the handler
+	 * returns.
+	 */
+	public static void respond(final HttpExchange exchange, final int status, final String contentType,
+			final String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,150 @@
+package com.projectronin.integration.demo.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
+
+import com.projectronin.integration.demo.metrics.PipelineMetrics;
+
+/**
+ * Non-blocking counterpart to {@code RestTemplate}. Requests return
+ * immediately and their futures complete on the HTTP client's I/O threads,
+ * so a slow server does not hold a caller's thread for the whole round trip.
+ * Error responses fail the future with the same exceptions
+ * {@code RestTemplate} throws.
+ *
+ * Only the FHIR server writes for admitted Patients use it, so it sits idle
+ * unless {@code ronin.fhir.admit-enabled} is set.
+ */
+@Component
+public class AsyncRestClient {
+	private final CloseableHttpAsyncClient httpAsyncClient;
+	private final PipelineMetrics pipelineMetrics;
+
+	@Autowired
+	public AsyncRestClient(final CloseableHttpAsyncClient httpAsyncClient, final PipelineMetrics pipelineMetrics) {
+		this.httpAsyncClient = httpAsyncClient;
+		this.pipelineMetrics = pipelineMetrics;
+	}
+
+	public CompletableFuture<ResponseEntity<String>> get(final URI uri, final HttpHeaders headers) {
+		return execute(new HttpGet(uri), headers);
+	}
+
+	public CompletableFuture<ResponseEntity<String>> post(final URI uri, final String body,
+			final HttpHeaders headers) {
+		HttpPost post = new HttpPost(uri);
+		post.setEntity(new StringEntity(body, StandardCharsets.UTF_8));
+		return execute(post, headers);
+	}
+
+	/**
+	 * Posts the buffer's contents without copying them, releasing the buffer once
+	 * the request has completed.
+	 */
+	public CompletableFuture<ResponseEntity<String>> post(final URI uri, final RequestBufferPool.Buffer body,
+			final HttpHeaders headers) {
+		HttpPost post = new HttpPost(uri);
+		post.setEntity(new ByteArrayEntity(body.array(), 0, body.size()));
+
+		CompletableFuture<ResponseEntity<String>> response;
+		try {
+			response = execute(post, headers);
+		} catch (RuntimeException e) {
+			body.release();
+			throw e;
+		}
+		// Completes only after the release, so callers may reuse the pool straight away.
+		return response.whenComplete((result, e) -> body.release());
+	}
+
+	private CompletableFuture<ResponseEntity<String>> execute(final HttpUriRequest request,
+			final HttpHeaders headers) {
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			for (String value : header.getValue()) {
+				request.addHeader(header.getKey(), value);
+			}
+		}
+
+		CompletableFuture<ResponseEntity<String>> future = new CompletableFuture<>();
+		PipelineMetrics.HttpSample sample = pipelineMetrics.startHttp(request.getURI().getHost(),
+				request.getMethod());
+		httpAsyncClient.execute(request, new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(final HttpResponse response) {
+				sample.stop(response.getStatusLine().getStatusCode());
+				try {
+					future.complete(toResponseEntity(response));
+				} catch (IOException e) {
+					future.completeExceptionally(new ResourceAccessException(
+							String.format("I/O error reading response from %s", request.getURI()), e));
+				} catch (RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			}
+
+			@Override
+			public void failed(final Exception e) {
+				sample.stop(null);
+				if (e instanceof IOException) {
+					future.completeExceptionally(new ResourceAccessException(
+							String.format("I/O error on %s request for %s", request.getMethod(), request.getURI()),
+							(IOException) e));
+				} else {
+					future.completeExceptionally(e);
+				}
+			}
+
+			@Override
+			public void cancelled() {
+				future.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	private static ResponseEntity<String> toResponseEntity(final HttpResponse response) throws IOException {
+		HttpHeaders headers = new HttpHeaders();
+		for (Header header : response.getAllHeaders()) {
+			headers.add(header.getName(), header.getValue());
+		}
+
+		byte[] body = response.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(response.getEntity());
+		int statusCode = response.getStatusLine().getStatusCode();
+		String reason = response.getStatusLine().getReasonPhrase();
+
+		HttpStatus status = HttpStatus.resolve(statusCode);
+		if (status == null) {
+			throw new UnknownHttpStatusCodeException(statusCode, reason, headers, body, StandardCharsets.UTF_8);
+		} else if (status.is4xxClientError()) {
+			throw HttpClientErrorException.create(status, reason, headers, body, StandardCharsets.UTF_8);
+		} else if (status.is5xxServerError()) {
+			throw HttpServerErrorException.create(status, reason, headers, body, StandardCharsets.UTF_8);
+		}
+
+		return new ResponseEntity<>(new String(body, StandardCharsets.UTF_8), headers, status);
+	}
+}
@@ -0,0 +1,78 @@
+package com.projectronin.integration.demo.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+
+import com.projectronin.integration.demo.configuration.HttpClientConfiguration;
+
+/**
+ * Builds the blocking and non-blocking HTTP clients from the same pool and
+ * timeout settings, so both keep connections alive and cap how many are open
+ * to any one host.
+ */
+public final class PooledHttpClientFactory {
+	private PooledHttpClientFactory() {
+	}
+
+	public static CloseableHttpClient createHttpClient(final HttpClientConfiguration configuration) {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(configuration.getMaxConnections());
+		connectionManager.setDefaultMaxPerRoute(configuration.getMaxConnectionsPerHost());
+
+		return HttpClients.custom().setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(createRequestConfig(configuration))
+				.setKeepAliveStrategy(createKeepAliveStrategy(configuration)).evictExpiredConnections()
+				.evictIdleConnections(configuration.getKeepAliveMillis(), TimeUnit.MILLISECONDS).build();
+	}
+
+	/**
+	 * Returns a started client. Requests run on its I/O threads, and the caller is
+	 * only notified once the response has arrived.
+	 */
+	public static CloseableHttpAsyncClient createHttpAsyncClient(final HttpClientConfiguration configuration)
+			throws IOReactorException {
+		int ioThreads = configuration.getIoThreads() > 0 ? configuration.getIoThreads()
+				: Runtime.getRuntime().availableProcessors();
+		IOReactorConfig ioReactorConfig = IOReactorConfig.custom().setIoThreadCount(ioThreads)
+				.setConnectTimeout(configuration.getConnectTimeoutMillis())
+				.setSoTimeout(configuration.getSocketTimeoutMillis()).setTcpNoDelay(true).build();
+
+		PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+				new DefaultConnectingIOReactor(ioReactorConfig));
+		connectionManager.setMaxTotal(configuration.getMaxConnections());
+		connectionManager.setDefaultMaxPerRoute(configuration.getMaxConnectionsPerHost());
+
+		CloseableHttpAsyncClient client = HttpAsyncClients.custom().setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(createRequestConfig(configuration))
+				.setKeepAliveStrategy(createKeepAliveStrategy(configuration)).build();
+		client.start();
+		return client;
+	}
+
+	private static RequestConfig createRequestConfig(final HttpClientConfiguration configuration) {
+		return RequestConfig.custom().setConnectTimeout(configuration.getConnectTimeoutMillis())
+				.setSocketTimeout(configuration.getSocketTimeoutMillis())
+				.setConnectionRequestTimeout(configuration.getConnectionRequestTimeoutMillis()).build();
+	}
+
+	private static ConnectionKeepAliveStrategy createKeepAliveStrategy(final HttpClientConfiguration configuration) {
+		return (response, context) -> {
+			// Honor a shorter Keep-Alive timeout from the server, but never hold longer than configured.
+			long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return serverKeepAlive > 0 ? Math.min(serverKeepAlive, configuration.getKeepAliveMillis())
+					: configuration.getKeepAliveMillis();
+		};
+	}
+}
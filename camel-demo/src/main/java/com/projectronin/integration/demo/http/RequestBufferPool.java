@@ -0,0 +1,90 @@
+package com.projectronin.integration.demo.http;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.HttpClientConfiguration;
+
+/**
+ * Reusable buffers for request bodies. Callers encode straight into a
+ * {@link Buffer}, and {@link AsyncRestClient} sends its bytes as they are and
+ * returns it here once the request completes. Large bodies are never copied
+ * into an intermediate String or exactly-sized array, and their buffers do not
+ * become garbage after every request.
+ *
+ * {@link com.projectronin.integration.demo.fhir.PatientBundleWriter} is the
+ * only user, so buffers are only taken when admits are enabled.
+ */
+@Component
+public class RequestBufferPool {
+	private final BlockingQueue<Buffer> buffers;
+	private final int initialBytes;
+	private final int maxRetainedBytes;
+
+	@Autowired
+	public RequestBufferPool(final HttpClientConfiguration httpClientConfiguration) {
+		this.buffers = new ArrayBlockingQueue<>(Math.max(1, httpClientConfiguration.getRequestBufferPoolSize()));
+		this.initialBytes = httpClientConfiguration.getRequestBufferInitialBytes();
+		this.maxRetainedBytes = httpClientConfiguration.getRequestBufferMaxRetainedBytes();
+	}
+
+	/**
+	 * @return an empty buffer, which must be {@link Buffer#release() released}
+	 *         once its contents are no longer needed
+	 */
+	public Buffer acquire() {
+		Buffer buffer = buffers.poll();
+		if (buffer == null) {
+			buffer = new Buffer(this, initialBytes);
+		}
+		buffer.inUse = true;
+		return buffer;
+	}
+
+	private void release(final Buffer buffer) {
+		if (buffer.capacity() <= maxRetainedBytes) {
+			buffer.reset();
+			// When the pool is already full the buffer is simply left to the GC.
+			buffers.offer(buffer);
+		}
+	}
+
+	public static final class Buffer extends ByteArrayOutputStream {
+		private final RequestBufferPool pool;
+		private boolean inUse;
+
+		private Buffer(final RequestBufferPool pool, final int initialBytes) {
+			super(initialBytes);
+			this.pool = pool;
+		}
+
+		/**
+		 * The backing array, valid up to {@link #size()}. Unlike
+		 * {@link #toByteArray()} this does not copy.
+		 */
+		public synchronized byte[] array() {
+			return buf;
+		}
+
+		synchronized int capacity() {
+			return buf.length;
+		}
+
+		/**
+		 * Returns the buffer to its pool. Calling this more than once has no effect.
+		 */
+		public void release() {
+			synchronized (this) {
+				if (!inUse) {
+					return;
+				}
+				inUse = false;
+			}
+			pool.release(this);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.projectronin.integration.demo.http;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import com.projectronin.integration.demo.metrics.PipelineMetrics;
+
+/**
+ * Records the latency of each {@code RestTemplate} request. Responses may be
+ * streamed, so this is the time until the response headers arrive rather than
+ * until the body has been read.
+ */
+public class TimingRequestInterceptor implements ClientHttpRequestInterceptor {
+	private final PipelineMetrics pipelineMetrics;
+
+	public TimingRequestInterceptor(final PipelineMetrics pipelineMetrics) {
+		this.pipelineMetrics = pipelineMetrics;
+	}
+
+	@Override
+	public ClientHttpResponse intercept(final HttpRequest request, final byte[] body,
+			final ClientHttpRequestExecution execution) throws IOException {
+		PipelineMetrics.HttpSample sample = pipelineMetrics.startHttp(request.getURI().getHost(),
+				request.getMethodValue());
+		Integer status = null;
+		try {
+			ClientHttpResponse response = execution.execute(request, body);
+			status = response.getRawStatusCode();
+			return response;
+		} finally {
+			sample.stop(status);
+		}
+	}
+}
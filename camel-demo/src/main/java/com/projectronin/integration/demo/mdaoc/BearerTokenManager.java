@@ -0,0 +1,311 @@
+package com.projectronin.integration.demo.mdaoc;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.projectronin.integration.demo.configuration.MdaOcConfiguration;
+
+/**
+ * Owns the MDAOC bearer token. Concurrent callers that find the token missing
+ * or expired share a single in-flight STS request, and the token is refreshed
+ * on a background thread shortly before it expires so requests rarely have to
+ * wait on the STS at all.
+ */
+@Component
+public class BearerTokenManager {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BearerTokenManager.class);
+	private static final long RETRY_DELAY_MILLIS = 2000;
+	private static final long MIN_REFRESH_DELAY_MILLIS = 1000;
+
+	private final RestTemplate restTemplate;
+	private final MdaOcConfiguration mdaOcConfiguration;
+	private final Clock clock;
+	private final RetryTemplate retryTemplate;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final AtomicReference<CompletableFuture<BearerToken>> inFlight = new AtomicReference<>();
+	private volatile BearerToken current;
+
+	private ScheduledExecutorService scheduler;
+	private volatile ScheduledFuture<?> scheduledRefresh;
+
+	private final LongAdder refreshCount = new LongAdder();
+	private final LongAdder refreshFailureCount = new LongAdder();
+	private final LongAdder refreshNanos = new LongAdder();
+	private volatile long lastRefreshNanos;
+
+	@Autowired
+	public BearerTokenManager(final RestTemplate restTemplate, final MdaOcConfiguration mdaOcConfiguration) {
+		this(restTemplate, mdaOcConfiguration, Clock.systemUTC(), RETRY_DELAY_MILLIS);
+	}
+
+	BearerTokenManager(final RestTemplate restTemplate, final MdaOcConfiguration mdaOcConfiguration,
+			final Clock clock, final long retryDelayMillis) {
+		this.restTemplate = restTemplate;
+		this.mdaOcConfiguration = mdaOcConfiguration;
+		this.clock = clock;
+		this.retryTemplate = RetryTemplate.builder().maxAttempts(5).fixedBackoff(retryDelayMillis)
+				.retryOn(ResourceAccessException.class).retryOn(HttpServerErrorException.class).build();
+	}
+
+	@PostConstruct
+	public void startRefreshing() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "mdaoc-token-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void stopRefreshing() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns a bearer token that has not yet expired, fetching one if needed.
+	 */
+	public String getToken() {
+		BearerToken token = current;
+		if (token != null && !token.isExpired(clock.millis())) {
+			return token.getValue();
+		}
+		return await(refresh(token)).getValue();
+	}
+
+	/**
+	 * Returns a token to use after MDAOC rejected {@code rejectedToken}. If
+	 * another caller has already replaced the rejected token, that replacement is
+	 * returned rather than asking the STS again.
+	 */
+	public String refreshAfterRejection(final String rejectedToken) {
+		BearerToken token = current;
+		if (token != null && !token.getValue().equals(rejectedToken) && !token.isExpired(clock.millis())) {
+			return token.getValue();
+		}
+		return await(refresh(token)).getValue();
+	}
+
+	/**
+	 * The number of successful STS requests.
+	 */
+	public long getRefreshCount() {
+		return refreshCount.sum();
+	}
+
+	/**
+	 * The number of STS requests that failed after all retries.
+	 */
+	public long getRefreshFailureCount() {
+		return refreshFailureCount.sum();
+	}
+
+	/**
+	 * How long the most recent refresh took, including retries.
+	 */
+	public double getLastRefreshMillis() {
+		return lastRefreshNanos / 1_000_000.0;
+	}
+
+	/**
+	 * The mean refresh time, including retries, across every refresh attempt.
+	 */
+	public double getAverageRefreshMillis() {
+		long attempts = refreshCount.sum() + refreshFailureCount.sum();
+		return attempts == 0 ? 0 : refreshNanos.sum() / 1_000_000.0 / attempts;
+	}
+
+	/**
+	 * Starts a refresh to replace {@code stale}, or joins the one already in
+	 * flight. Only the caller that wins the race talks to the STS.
+	 */
+	private CompletableFuture<BearerToken> refresh(final BearerToken stale) {
+		while (true) {
+			CompletableFuture<BearerToken> existing = inFlight.get();
+			if (existing != null) {
+				return existing;
+			}
+
+			// A refresh may have completed between reading the stale token and getting here.
+			BearerToken latest = current;
+			if (latest != null && latest != stale && !latest.isExpired(clock.millis())) {
+				return CompletableFuture.completedFuture(latest);
+			}
+
+			CompletableFuture<BearerToken> future = new CompletableFuture<>();
+			if (!inFlight.compareAndSet(null, future)) {
+				continue;
+			}
+
+			try {
+				BearerToken token = fetchToken();
+				current = token;
+				scheduleRefresh(token);
+				future.complete(token);
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			} finally {
+				inFlight.set(null);
+			}
+			return future;
+		}
+	}
+
+	private BearerToken fetchToken() {
+		long start = System.nanoTime();
+		try {
+			String value = retryTemplate.execute(context -> requestToken());
+			BearerToken token = new BearerToken(value, getExpiresAt(value));
+			refreshCount.increment();
+			LOGGER.info("Loaded bearer token expiring at {}", token.getExpiresAtMillis());
+			return token;
+		} catch (RuntimeException e) {
+			refreshFailureCount.increment();
+			throw e;
+		} finally {
+			lastRefreshNanos = System.nanoTime() - start;
+			refreshNanos.add(lastRefreshNanos);
+		}
+	}
+
+	private String requestToken() {
+		String authParams = String.format(
+				"{ \"Username\": \"%s\", \"Password\": \"%s\", \"AppName\": \"%s\", \"AppKey\": \"%s\", \"scope\": \"read\" }",
+				mdaOcConfiguration.getUsername(), mdaOcConfiguration.getPassword(), mdaOcConfiguration.getAppName(),
+				mdaOcConfiguration.getAppKey());
+
+		ResponseEntity<String> entity = restTemplate.postForEntity(mdaOcConfiguration.getStsEndpoint(), authParams,
+				String.class);
+		if (entity.getStatusCode() != HttpStatus.OK) {
+			throw new IllegalStateException(
+					String.format("Unable to get bearer token. Server returned %s", entity.getStatusCodeValue()));
+		}
+		return entity.getBody();
+	}
+
+	/**
+	 * Uses the {@code exp} claim when the token is a JWT, and the configured
+	 * lifetime otherwise.
+	 */
+	private long getExpiresAt(final String value) {
+		String[] parts = value.split("\\.");
+		if (parts.length == 3) {
+			try {
+				JsonNode claims = objectMapper
+						.readTree(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8));
+				if (claims.has("exp")) {
+					return TimeUnit.SECONDS.toMillis(claims.get("exp").asLong());
+				}
+			} catch (Exception e) {
+				LOGGER.debug("Bearer token is not a readable JWT, using the configured lifetime", e);
+			}
+		}
+		return clock.millis() + TimeUnit.SECONDS.toMillis(mdaOcConfiguration.getTokenLifetimeSeconds());
+	}
+
+	private void scheduleRefresh(final BearerToken token) {
+		if (scheduler == null) {
+			return;
+		}
+
+		ScheduledFuture<?> previous = scheduledRefresh;
+		if (previous != null) {
+			previous.cancel(false);
+		}
+
+		long lifetimeMillis = token.getExpiresAtMillis() - clock.millis();
+		if (lifetimeMillis <= 0) {
+			// Already expired, so the next request refreshes it in the foreground.
+			return;
+		}
+		scheduledRefresh = scheduler.schedule(() -> refreshInBackground(token), getRefreshDelayMillis(lifetimeMillis),
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Refreshes {@code tokenRefreshSkewSeconds} before expiry, but never before
+	 * half the token's lifetime has passed or within a second of it being
+	 * issued, so tokens that live no longer than the skew are not refreshed in
+	 * a tight loop.
+	 */
+	long getRefreshDelayMillis(final long lifetimeMillis) {
+		long beforeExpiry = lifetimeMillis - TimeUnit.SECONDS.toMillis(mdaOcConfiguration.getTokenRefreshSkewSeconds());
+		return Math.max(MIN_REFRESH_DELAY_MILLIS, Math.max(lifetimeMillis / 2, beforeExpiry));
+	}
+
+	private void refreshInBackground(final BearerToken token) {
+		try {
+			await(refresh(token));
+		} catch (RuntimeException e) {
+			// Keep trying while the current token is still usable. Once it expires, the
+			// next request refreshes it in the foreground instead.
+			if (current == token && !token.isExpired(clock.millis() + RETRY_DELAY_MILLIS)) {
+				LOGGER.warn("Unable to refresh bearer token, retrying in {}ms", RETRY_DELAY_MILLIS, e);
+				scheduledRefresh = scheduler.schedule(() -> refreshInBackground(token), RETRY_DELAY_MILLIS,
+						TimeUnit.MILLISECONDS);
+			} else {
+				LOGGER.warn("Unable to refresh bearer token", e);
+			}
+		}
+	}
+
+	private static BearerToken await(final CompletableFuture<BearerToken> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static final class BearerToken {
+		private final String value;
+		private final long expiresAtMillis;
+
+		BearerToken(final String value, final long expiresAtMillis) {
+			this.value = value;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+
+		String getValue() {
+			return value;
+		}
+
+		long getExpiresAtMillis() {
+			return expiresAtMillis;
+		}
+
+		boolean isExpired(final long nowMillis) {
+			return nowMillis >= expiresAtMillis;
+		}
+	}
+}
@@ -4,6 +4,7 @@ import static java.util.Arrays.asList;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,32 +12,32 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
-import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.retry.annotation.Backoff;
-import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.HttpServerErrorException;
-import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import com.projectronin.integration.demo.configuration.MdaOcConfiguration;
+import com.projectronin.integration.demo.metrics.PipelineMetrics;
 
 @Component
 public class MdaOcClient {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MdaOcClient.class);
 	private final RestTemplate restTemplate;
-	private final MdaOcConfiguration mdaOcConfiguration;
+	private final BearerTokenManager bearerTokenManager;
+	private final PipelineMetrics pipelineMetrics;
 
 	private String apiEndpoint;
-	private HttpHeaders mdaOcHeaders;
 
 	@Autowired
-	public MdaOcClient(final RestTemplate restTemplate, final MdaOcConfiguration mdaOcConfiguration) {
+	public MdaOcClient(final RestTemplate restTemplate, final BearerTokenManager bearerTokenManager,
+			final MdaOcConfiguration mdaOcConfiguration, final PipelineMetrics pipelineMetrics) {
 		this.restTemplate = restTemplate;
-		this.mdaOcConfiguration = mdaOcConfiguration;
+		this.bearerTokenManager = bearerTokenManager;
+		this.pipelineMetrics = pipelineMetrics;
 
 		this.apiEndpoint = mdaOcConfiguration.getApiEndpoint();
 		if (apiEndpoint.endsWith("/")) {
@@ -44,9 +45,38 @@ public class MdaOcClient {
 		}
 	}
 
-	public <T> ResponseEntity<T> get(String path, final Class<T> outputClass)
+	public <T> ResponseEntity<T> get(final String path, final Class<T> outputClass)
 			throws RestClientException, URISyntaxException {
 		LOGGER.info("GET request to {} expecting transformation to {}", path, outputClass.getName());
+		long start = System.nanoTime();
+		try {
+			URI uri = getUri(path);
+			return withBearerToken(uri, bearerToken -> restTemplate.exchange(uri, HttpMethod.GET,
+					new HttpEntity<>(getHeaders(bearerToken)), outputClass));
+		} finally {
+			pipelineMetrics.recordStage("mdaocGet", start);
+		}
+	}
+
+	/**
+	 * Issues a GET and hands the open response to {@code responseExtractor}, so
+	 * the body can be read straight from the stream rather than buffered first.
+	 */
+	public <T> T get(final String path, final ResponseExtractor<T> responseExtractor)
+			throws RestClientException, URISyntaxException {
+		LOGGER.info("GET request to {} streaming the response", path);
+		long start = System.nanoTime();
+		try {
+			URI uri = getUri(path);
+			return withBearerToken(uri, bearerToken -> restTemplate.execute(uri, HttpMethod.GET,
+					request -> request.getHeaders().addAll(getHeaders(bearerToken)), responseExtractor));
+		} finally {
+			// Includes reading the streamed body, as the extractor runs before this returns.
+			pipelineMetrics.recordStage("mdaocGet", start);
+		}
+	}
+
+	private URI getUri(String path) throws URISyntaxException {
 		if (path.startsWith("/")) {
 			path = path.substring(1);
 		}
@@ -57,40 +87,25 @@ public class MdaOcClient {
 		} else {
 			requestUrl = String.format("%s/%s", apiEndpoint, path);
 		}
-
-		HttpEntity<String> request = new HttpEntity<>(getHeaders());
-		return restTemplate.exchange(new URI(requestUrl), HttpMethod.GET, request, outputClass);
+		return new URI(requestUrl);
 	}
 
-	private HttpHeaders getHeaders() {
-		if (mdaOcHeaders == null) {
-			mdaOcHeaders = new HttpHeaders();
-			mdaOcHeaders.setContentType(MediaType.APPLICATION_JSON);
-			mdaOcHeaders.setAccept(asList(MediaType.APPLICATION_JSON));
-
-			String bearerToken = getBearerToken(restTemplate, mdaOcConfiguration);
-			LOGGER.info("Loaded bearer token {}", bearerToken);
-			String authorizationHeader = String.format("Bearer %s", bearerToken);
-			mdaOcHeaders.add("Authorization", authorizationHeader);
+	private <T> T withBearerToken(final URI uri, final Function<String, T> request) {
+		String bearerToken = bearerTokenManager.getToken();
+		try {
+			return request.apply(bearerToken);
+		} catch (HttpClientErrorException.Unauthorized e) {
+			// The token may have been revoked or expired early. Try once more with a new one.
+			LOGGER.info("Bearer token rejected for {}, retrying with a new token", uri);
+			return request.apply(bearerTokenManager.refreshAfterRejection(bearerToken));
 		}
-
-		return mdaOcHeaders;
 	}
 
-	@Retryable(value = { ResourceAccessException.class,
-			HttpServerErrorException.class }, maxAttempts = 5, backoff = @Backoff(2000))
-	private String getBearerToken(final RestTemplate restTemplate, final MdaOcConfiguration mdaOcConfiguration) {
-		String authParams = String.format(
-				"{ \"Username\": \"%s\", \"Password\": \"%s\", \"AppName\": \"%s\", \"AppKey\": \"%s\", \"scope\": \"read\" }",
-				mdaOcConfiguration.getUsername(), mdaOcConfiguration.getPassword(), mdaOcConfiguration.getAppName(),
-				mdaOcConfiguration.getAppKey());
-
-		ResponseEntity<String> entity = restTemplate.postForEntity(mdaOcConfiguration.getStsEndpoint(), authParams,
-				String.class);
-		if (entity.getStatusCode() != HttpStatus.OK) {
-			throw new IllegalStateException(
-					String.format("Unable to get bearer token. Server returned %s", entity.getStatusCodeValue()));
-		}
-		return entity.getBody();
+	private HttpHeaders getHeaders(final String bearerToken) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.setAccept(asList(MediaType.APPLICATION_JSON));
+		headers.setBearerAuth(bearerToken);
+		return headers;
 	}
 }
@@ -0,0 +1,388 @@
+package com.projectronin.integration.demo.mdaoc.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.projectronin.integration.demo.configuration.MdaOcSimulatorConfiguration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for MDAOC that generates its data, so the MRN lookups and
+ * Encounter searches can be load tested without a live EHR. It serves the
+ * token endpoint, the patient identifier lookup and paged STU3 Encounter
+ * searches, each after a configurable delay and failing at a configurable
+ * rate.
+ *
+ * Everything is derived from the request, so the same patient always has the
+ * same FHIR ID and the same Encounters for a date range, however many
+ * simulators are running.
+ *
+ * It can run inside the application (see
+ * {@link MdaOcSimulatorConfiguration#isEnabled()}) or on its own:
+ *
+ * <pre>
+ * MdaOcSimulator [--port 8080] [--latency-millis 50] [--latency-jitter-millis 100]
+ *                [--error-rate 0.01] [--page-size 10] [--patient-count 100000]
+ *                [--encounters-per-patient 25]
+ * </pre>
+ */
+public class MdaOcSimulator implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MdaOcSimulator.class);
+
+	static final String TOKEN_PATH = "/auth/token";
+	static final String IDENTIFIERS_PATH = "/api/oc/patient/";
+	static final String FHIR_PATH = "/api/oc/api/FHIR/STU3";
+
+	private static final Pattern MRN_PATTERN = Pattern.compile("0*(?:MRN)?0*(\\d+)/identifiers/type/MRN");
+	private static final Pattern FHIR_ID_PATTERN = Pattern.compile("fhir(\\d+)");
+	private static final int SEARCH_DAYS = 7;
+
+	private final MdaOcSimulatorConfiguration configuration;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final ExecutorService executor;
+	private final HttpServer server;
+
+	public MdaOcSimulator(final MdaOcSimulatorConfiguration configuration) throws IOException {
+		this.configuration = configuration;
+
+		// Requests sleep out their latency on these threads, so they are sized for
+		// the concurrency being simulated rather than for the CPUs.
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(configuration.getThreads(), runnable -> {
+			Thread thread = new Thread(runnable, "mdaoc-simulator-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.server = HttpServer.create(new InetSocketAddress(configuration.getHost(), configuration.getPort()), 0);
+		server.setExecutor(executor);
+		server.createContext(TOKEN_PATH, handler(false, this::token));
+		server.createContext(IDENTIFIERS_PATH, handler(true, this::identifiers));
+		server.createContext(FHIR_PATH, handler(true, this::encounters));
+		server.start();
+		LOGGER.info("MDAOC simulator listening on {}:{} with {} patients", configuration.getHost(), getPort(),
+				configuration.getPatientCount());
+	}
+
+	public static void main(final String[] args) throws IOException {
+		Map<String, String> properties = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			properties.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+		}
+		MdaOcSimulatorConfiguration configuration = new MdaOcSimulatorConfiguration();
+		new Binder(new MapConfigurationPropertySource(properties)).bind("",
+				Bindable.ofInstance(configuration));
+
+		MdaOcSimulator simulator = new MdaOcSimulator(configuration);
+		Runtime.getRuntime().addShutdownHook(new Thread(simulator::close));
+	}
+
+	/**
+	 * @return the port being listened on, which is only chosen here when the
+	 *         configured port is 0
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private HttpHandler handler(final boolean authenticated, final Handler handler) {
+		return exchange -> {
+			try {
+				delay();
+				if (authenticated && !String.valueOf(exchange.getRequestHeaders().getFirst("Authorization"))
+						.startsWith("Bearer ")) {
+					respond(exchange, 401, "{ \"error\": \"Missing bearer token\" }");
+				} else if (authenticated && ThreadLocalRandom.current().nextDouble() < configuration.getErrorRate()) {
+					respond(exchange, 500, "{ \"error\": \"Simulated failure\" }");
+				} else {
+					handler.handle(exchange);
+				}
+			} catch (IOException | RuntimeException e) {
+				LOGGER.error("Request to {} failed", exchange.getRequestURI(), e);
+				respond(exchange, 500, "{ \"error\": \"Simulator failure\" }");
+			} finally {
+				exchange.close();
+			}
+		};
+	}
+
+	private void delay() {
+		long delayMillis = configuration.getLatencyMillis();
+		if (configuration.getLatencyJitterMillis() > 0) {
+			delayMillis += ThreadLocalRandom.current().nextLong(configuration.getLatencyJitterMillis() + 1);
+		}
+		if (delayMillis > 0) {
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Issues an unsigned JWT, so clients read its lifetime from {@code exp}.
+	 */
+	private void token(final HttpExchange exchange) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			respond(exchange, 405, "");
+			return;
+		}
+		long expiresAt = Instant.now().getEpochSecond() + configuration.getTokenLifetimeSeconds();
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		String header = encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8));
+		String claims = encoder.encodeToString(
+				String.format("{\"sub\":\"simulator\",\"exp\":%d}", expiresAt).getBytes(StandardCharsets.UTF_8));
+		respond(exchange, 200, String.format("%s.%s.simulated", header, claims));
+	}
+
+	private void identifiers(final HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath().substring(IDENTIFIERS_PATH.length());
+		Matcher matcher = MRN_PATTERN.matcher(path);
+		Integer patient = matcher.matches() ? patient(matcher.group(1)) : null;
+		if (patient == null) {
+			respond(exchange, 404, "{ \"error\": \"Patient not found\" }");
+			return;
+		}
+
+		ObjectNode response = objectMapper.createObjectNode();
+		response.putArray("historicalIdentifiers");
+		ArrayNode identifiers = response.putArray("identifiers");
+		identifiers.addObject().put("id", "MRN" + patient).put("idType", "MRN");
+		identifiers.addObject().put("id", "fhir" + patient).put("idType", "FHIR STU3");
+		respond(exchange, 200, objectMapper.writeValueAsString(response));
+	}
+
+	/**
+	 * Serves the first page of {@code Encounter?patient=&date=ge&date=le} and the
+	 * {@code ?_getpages=} pages its {@code next} links point at. The page token
+	 * carries the search, so nothing is kept between requests.
+	 */
+	private void encounters(final HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		Map<String, List<String>> query = parseQuery(exchange.getRequestURI().getRawQuery());
+		String base = String.format("http://%s%s", exchange.getRequestHeaders().getFirst("Host"), FHIR_PATH);
+
+		Search search;
+		int offset;
+		if (path.equals(FHIR_PATH + "/Encounter")) {
+			search = Search.fromQuery(query);
+			offset = 0;
+		} else if (path.equals(FHIR_PATH) && query.containsKey("_getpages")) {
+			search = Search.fromToken(first(query, "_getpages"));
+			offset = Integer.parseInt(first(query, "_getpagesoffset"));
+		} else {
+			respond(exchange, 404, "{ \"error\": \"Not found\" }");
+			return;
+		}
+		if (search == null) {
+			respond(exchange, 400, "{ \"error\": \"Unsupported search\" }");
+			return;
+		}
+
+		Matcher matcher = FHIR_ID_PATTERN.matcher(search.patientId);
+		Integer patient = matcher.matches() ? patient(matcher.group(1)) : null;
+		int total = patient == null ? 0 : configuration.getEncountersPerPatient();
+		int pageSize = Math.max(1, configuration.getPageSize());
+
+		ObjectNode bundle = objectMapper.createObjectNode();
+		bundle.put("resourceType", "Bundle");
+		bundle.put("id", search.token());
+		bundle.putObject("meta").put("lastUpdated", Instant.now().toString());
+		bundle.put("type", "searchset");
+		bundle.put("total", total);
+
+		ArrayNode links = bundle.putArray("link");
+		links.addObject().put("relation", "self").put("url", base + exchange.getRequestURI().toString()
+				.substring(FHIR_PATH.length()));
+		if (offset + pageSize < total) {
+			links.addObject().put("relation", "next").put("url", pageUrl(base, search, offset + pageSize, pageSize));
+		}
+		if (offset > 0) {
+			links.addObject().put("relation", "previous").put("url",
+					pageUrl(base, search, Math.max(0, offset - pageSize), pageSize));
+		}
+
+		ArrayNode entries = bundle.putArray("entry");
+		for (int i = offset; i < Math.min(total, offset + pageSize); i++) {
+			ObjectNode entry = entries.addObject();
+			ObjectNode encounter = encounter(patient, i, search);
+			entry.put("fullUrl", String.format("%s/Encounter/%s", base, encounter.get("id").asText()));
+			entry.set("resource", encounter);
+			entry.putObject("search").put("mode", "match");
+		}
+		respond(exchange, 200, objectMapper.writeValueAsString(bundle));
+	}
+
+	/**
+	 * Generates the {@code index}th Encounter for {@code patient} in the searched
+	 * range. Only elements with the same shape in STU3 and R4 are used, so it
+	 * reads as either.
+	 */
+	private ObjectNode encounter(final int patient, final int index, final Search search) {
+		Random random = new Random(((long) patient << 20) + index);
+		long days = Math.max(1, ChronoUnit.DAYS.between(search.from, search.to) + 1);
+		Instant start = search.from.plusDays(random.nextInt((int) days)).atStartOfDay(ZoneOffset.UTC).toInstant()
+				.plusSeconds(random.nextInt(24 * 60 * 60));
+		boolean inpatient = random.nextInt(4) == 0;
+
+		ObjectNode encounter = objectMapper.createObjectNode();
+		encounter.put("resourceType", "Encounter");
+		encounter.put("id", String.format("%d-%d", patient, index));
+		encounter.putObject("meta").put("versionId", "1").put("lastUpdated", start.toString());
+
+		ObjectNode identifier = encounter.putArray("identifier").addObject();
+		identifier.putObject("type").put("text", "visit number");
+		identifier.put("value", String.format("VISIT%d-%d", patient, index));
+
+		encounter.put("status", "finished");
+		encounter.putObject("class").put("system", "http://terminology.hl7.org/CodeSystem/v3-ActCode")
+				.put("code", inpatient ? "IMP" : "AMB")
+				.put("display", inpatient ? "inpatient encounter" : "ambulatory");
+		encounter.putArray("type").addObject().putArray("coding").addObject()
+				.put("system", "http://terminology.hl7.org/CodeSystem/v2-0007").put("code", "R")
+				.put("display", "Routine");
+		encounter.putObject("subject").put("reference", "Patient/fhir" + patient);
+		encounter.putObject("period").put("start", start.toString()).put("end",
+				start.plus(inpatient ? 1 + random.nextInt(72) : 1, ChronoUnit.HOURS).toString());
+		encounter.putArray("location").addObject().put("status", "completed");
+		return encounter;
+	}
+
+	private static String pageUrl(final String base, final Search search, final int offset, final int count) {
+		return String.format("%s?_getpages=%s&_getpagesoffset=%d&_count=%d&_bundletype=searchset", base,
+				search.token(), offset, count);
+	}
+
+	/**
+	 * @return the patient with the number {@code digits}, or null if there is no
+	 *         such patient
+	 */
+	private Integer patient(final String digits) {
+		try {
+			int patient = Integer.parseInt(digits);
+			return patient < configuration.getPatientCount() ? patient : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static void respond(final HttpExchange exchange, final int status, final String body)
+			throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		if (bytes.length > 0) {
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		}
+	}
+
+	private static Map<String, List<String>> parseQuery(final String query) throws UnsupportedEncodingException {
+		Map<String, List<String>> parameters = new HashMap<>();
+		if (query == null) {
+			return parameters;
+		}
+		for (String parameter : query.split("&")) {
+			int equals = parameter.indexOf('=');
+			String name = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), "UTF-8");
+			String value = equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+			parameters.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+		}
+		return parameters;
+	}
+
+	private static String first(final Map<String, List<String>> query, final String name) {
+		List<String> values = query.get(name);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	@FunctionalInterface
+	private interface Handler {
+		void handle(HttpExchange exchange) throws IOException;
+	}
+
+	/**
+	 * An Encounter search for a patient over a range of dates. Without date
+	 * parameters it covers the last week.
+	 */
+	private static final class Search {
+		private final String patientId;
+		private final LocalDate from;
+		private final LocalDate to;
+
+		Search(final String patientId, final LocalDate from, final LocalDate to) {
+			this.patientId = patientId;
+			this.from = from;
+			this.to = to;
+		}
+
+		static Search fromQuery(final Map<String, List<String>> query) {
+			String patientId = first(query, "patient");
+			if (patientId == null) {
+				return null;
+			}
+			LocalDate to = LocalDate.now(ZoneOffset.UTC);
+			LocalDate from = to.minusDays(SEARCH_DAYS);
+			for (String date : query.getOrDefault("date", new ArrayList<>())) {
+				if (date.startsWith("ge")) {
+					from = LocalDate.parse(date.substring(2, 12));
+				} else if (date.startsWith("le")) {
+					to = LocalDate.parse(date.substring(2, 12));
+				}
+			}
+			return new Search(patientId, from, to);
+		}
+
+		static Search fromToken(final String token) {
+			String[] parts = token == null ? new String[0] : token.split("_");
+			if (parts.length != 3) {
+				return null;
+			}
+			return new Search(parts[0], LocalDate.parse(parts[1]), LocalDate.parse(parts[2]));
+		}
+
+		String token() {
+			return String.join("_", patientId, from.toString(), to.toString());
+		}
+	}
+}
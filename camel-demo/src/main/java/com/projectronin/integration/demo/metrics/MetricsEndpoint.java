@@ -0,0 +1,23 @@
+package com.projectronin.integration.demo.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.MetricsConfiguration;
+import com.projectronin.integration.demo.http.AdminServer;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * Serves the registry in the Prometheus text format.
+ */
+@Component
+public class MetricsEndpoint {
+	@Autowired
+	public MetricsEndpoint(final PrometheusMeterRegistry meterRegistry, final MetricsConfiguration metricsConfiguration,
+			final AdminServer adminServer) {
+		adminServer.register(metricsConfiguration.getPath(), exchange -> AdminServer.respond(exchange, 200,
+				TextFormat.CONTENT_TYPE_004, meterRegistry.scrape()));
+	}
+}
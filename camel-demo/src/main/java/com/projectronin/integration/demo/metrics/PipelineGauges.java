@@ -0,0 +1,87 @@
+package com.projectronin.integration.demo.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.projectronin.integration.demo.camel.extractor.FhirIdExtractor;
+import com.projectronin.integration.demo.mdaoc.BearerTokenManager;
+import com.projectronin.integration.demo.sequencing.QueueSequencers;
+import com.projectronin.integration.demo.sequencing.SequencingExecutor;
+import com.projectronin.integration.demo.spool.MessageSpool;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+
+/**
+ * Publishes the counters and queue depths the pipeline's components already
+ * keep. Each is read when the registry is scraped, so none of them costs
+ * anything on the message path.
+ */
+@Component
+public class PipelineGauges {
+	@Autowired
+	public PipelineGauges(final MeterRegistry meterRegistry, final QueueSequencers queueSequencers,
+			final MessageSpool messageSpool, final FhirIdExtractor fhirIdExtractor,
+			final BearerTokenManager bearerTokenManager) {
+		bindSequencer(meterRegistry, "fhir", queueSequencers.getFhir());
+		bindSequencer(meterRegistry, "encounter", queueSequencers.getEncounter());
+
+		Gauge.builder("spool.backlog.records", messageSpool, MessageSpool::getBacklogRecords)
+				.description("Messages ACKed but not yet forwarded to the FHIR queue").register(meterRegistry);
+		Gauge.builder("spool.backlog.bytes", messageSpool, MessageSpool::getBacklogBytes).baseUnit("bytes")
+				.register(meterRegistry);
+
+		FunctionCounter.builder("cache.gets", fhirIdExtractor, extractor -> extractor.getCacheStats().hitCount())
+				.tag("cache", "fhirId").tag("result", "hit").register(meterRegistry);
+		FunctionCounter.builder("cache.gets", fhirIdExtractor, extractor -> extractor.getCacheStats().missCount())
+				.tag("cache", "fhirId").tag("result", "miss").register(meterRegistry);
+		FunctionCounter
+				.builder("cache.evictions", fhirIdExtractor, extractor -> extractor.getCacheStats().evictionCount())
+				.tag("cache", "fhirId").register(meterRegistry);
+		FunctionCounter
+				.builder("cache.load.failures", fhirIdExtractor,
+						extractor -> extractor.getCacheStats().loadFailureCount())
+				.tag("cache", "fhirId").register(meterRegistry);
+		TimeGauge.builder("cache.load.average", fhirIdExtractor, TimeUnit.NANOSECONDS,
+				extractor -> averageLoadNanos(extractor.getCacheStats())).tag("cache", "fhirId")
+				.register(meterRegistry);
+
+		FunctionCounter.builder("mdaoc.token.refreshes", bearerTokenManager, BearerTokenManager::getRefreshCount)
+				.register(meterRegistry);
+		FunctionCounter.builder("mdaoc.token.refresh.failures", bearerTokenManager,
+				BearerTokenManager::getRefreshFailureCount).register(meterRegistry);
+		TimeGauge.builder("mdaoc.token.refresh.last", bearerTokenManager, TimeUnit.MILLISECONDS,
+				BearerTokenManager::getLastRefreshMillis).register(meterRegistry);
+		TimeGauge.builder("mdaoc.token.refresh.average", bearerTokenManager, TimeUnit.MILLISECONDS,
+				BearerTokenManager::getAverageRefreshMillis).register(meterRegistry);
+	}
+
+	private static void bindSequencer(final MeterRegistry meterRegistry, final String queue,
+			final SequencingExecutor sequencer) {
+		Gauge.builder("sequencer.keys.active", sequencer, SequencingExecutor::getActiveKeys).tag("queue", queue)
+				.description("Patients with messages running or waiting").register(meterRegistry);
+		Gauge.builder("sequencer.tasks.pending", sequencer, SequencingExecutor::getPendingTasks).tag("queue", queue)
+				.register(meterRegistry);
+		Gauge.builder("sequencer.queue.depth.max", sequencer, SequencingExecutor::getMaxQueueDepth)
+				.tag("queue", queue).description("Messages running or waiting for the busiest patient")
+				.register(meterRegistry);
+		FunctionCounter.builder("sequencer.tasks.started", sequencer, SequencingExecutor::getStartedTasks)
+				.tag("queue", queue).register(meterRegistry);
+		TimeGauge.builder("sequencer.waiting.oldest", sequencer, TimeUnit.MILLISECONDS,
+				SequencingExecutor::getOldestWaitingMillis).tag("queue", queue).register(meterRegistry);
+		TimeGauge.builder("sequencer.lag.average", sequencer, TimeUnit.MILLISECONDS,
+				SequencingExecutor::getAverageLagMillis).tag("queue", queue).register(meterRegistry);
+		TimeGauge.builder("sequencer.lag.max", sequencer, TimeUnit.MILLISECONDS, SequencingExecutor::getMaxLagMillis)
+				.tag("queue", queue).register(meterRegistry);
+	}
+
+	private static double averageLoadNanos(final CacheStats stats) {
+		long loads = stats.loadCount();
+		return loads == 0 ? 0 : stats.totalLoadTime() / (double) loads;
+	}
+}
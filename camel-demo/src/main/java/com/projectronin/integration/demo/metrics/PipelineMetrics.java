@@ -0,0 +1,221 @@
+package com.projectronin.integration.demo.metrics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.Processor;
+import org.apache.camel.support.AsyncProcessorSupport;
+import org.apache.camel.support.service.ServiceHelper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.camel.extractor.HL7Headers;
+import com.projectronin.integration.demo.camel.extractor.HeaderExtractor;
+import com.projectronin.integration.demo.camel.service.SupportedMessageTypes;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times the stages messages pass through and the HTTP requests made for them,
+ * tagged by tenant and message type so a slow stage can be traced to the
+ * feeds that exercise it. Types the pipeline does not support, and any
+ * supported types beyond the first {@value #MAX_MESSAGE_TYPES}, are tagged
+ * {@code other}, so a sender making up types cannot create timers without
+ * bound.
+ *
+ * Route steps are timed by wrapping them with one of the {@code timed}
+ * methods. While a wrapped step runs, the tenant and message type of its
+ * exchange are also attached to any HTTP request it makes on the same thread.
+ */
+@Component
+public class PipelineMetrics {
+	public static final String STAGE_TIMER = "hl7.stage";
+	public static final String HTTP_TIMER = "http.client.requests";
+	static final int MAX_MESSAGE_TYPES = 100;
+	private static final String UNKNOWN = "unknown";
+	private static final String OTHER = "other";
+
+	private static final ThreadLocal<String[]> CURRENT_MESSAGE = new ThreadLocal<>();
+
+	private final MeterRegistry meterRegistry;
+	private final SupportedMessageTypes supportedMessageTypes;
+	private final ConcurrentHashMap<String, Timer> stageTimers = new ConcurrentHashMap<>();
+	private final Set<String> messageTypeTags = ConcurrentHashMap.newKeySet();
+
+	@Autowired
+	public PipelineMetrics(final MeterRegistry meterRegistry, final SupportedMessageTypes supportedMessageTypes) {
+		this.meterRegistry = meterRegistry;
+		this.supportedMessageTypes = supportedMessageTypes;
+	}
+
+	public Processor timed(final String stage, final Processor processor) {
+		return exchange -> {
+			long start = System.nanoTime();
+			String[] previous = enter(exchange);
+			try {
+				processor.process(exchange);
+			} finally {
+				CURRENT_MESSAGE.set(previous);
+				record(stage, exchange, start);
+			}
+		};
+	}
+
+	/**
+	 * Times {@code processor} until it completes, which may be after this returns.
+	 * The wrapped processor is started and stopped along with the route.
+	 */
+	public AsyncProcessor timed(final String stage, final AsyncProcessor processor) {
+		return new AsyncProcessorSupport() {
+			@Override
+			protected void doStart() throws Exception {
+				ServiceHelper.startService(processor);
+			}
+
+			@Override
+			protected void doStop() throws Exception {
+				ServiceHelper.stopService(processor);
+			}
+
+			@Override
+			public boolean process(final Exchange exchange, final AsyncCallback callback) {
+				long start = System.nanoTime();
+				return processor.process(exchange, doneSync -> {
+					record(stage, exchange, start);
+					callback.done(doneSync);
+				});
+			}
+		};
+	}
+
+	public Expression timed(final String stage, final Expression expression) {
+		return new Expression() {
+			@Override
+			public void init(final CamelContext context) {
+				expression.init(context);
+			}
+
+			@Override
+			public <T> T evaluate(final Exchange exchange, final Class<T> type) {
+				long start = System.nanoTime();
+				String[] previous = enter(exchange);
+				try {
+					return expression.evaluate(exchange, type);
+				} finally {
+					CURRENT_MESSAGE.set(previous);
+					record(stage, exchange, start);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the timer for {@code stage}, for stages timed outside a route
+	 */
+	public Timer stageTimer(final String stage, final String tenant, final String messageType) {
+		String tenantTag = tenant == null ? UNKNOWN : tenant;
+		String messageTypeTag = messageTypeTag(messageType);
+		return stageTimers.computeIfAbsent(String.join("|", stage, tenantTag, messageTypeTag),
+				key -> Timer.builder(STAGE_TIMER).description("Time spent in each stage of HL7 processing")
+						.tag("stage", stage).tag("tenant", tenantTag).tag("messageType", messageTypeTag)
+						.register(meterRegistry));
+	}
+
+	/**
+	 * Records a stage that started at {@code startNanos}, tagged with the message
+	 * being processed on this thread, if there is one.
+	 */
+	public void recordStage(final String stage, final long startNanos) {
+		String[] message = CURRENT_MESSAGE.get();
+		stageTimer(stage, message == null ? null : message[0], message == null ? null : message[1])
+				.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Starts timing an HTTP request. It is tagged with the message being
+	 * processed on this thread, if there is one, even when it completes on
+	 * another.
+	 */
+	public HttpSample startHttp(final String host, final String method) {
+		return new HttpSample(host, method, CURRENT_MESSAGE.get());
+	}
+
+	/**
+	 * An HTTP request being timed.
+	 */
+	public final class HttpSample {
+		private final long start = System.nanoTime();
+		private final String host;
+		private final String method;
+		private final String[] message;
+
+		private HttpSample(final String host, final String method, final String[] message) {
+			this.host = host;
+			this.method = method;
+			this.message = message;
+		}
+
+		/**
+		 * @param status the response status, or null if no response was received
+		 */
+		public void stop(final Integer status) {
+			Timer.builder(HTTP_TIMER).description("Outbound HTTP requests")
+					.tag("host", host == null ? UNKNOWN : host).tag("method", method)
+					.tag("status", status == null ? "IO_ERROR" : status.toString())
+					.tag("tenant", message == null ? UNKNOWN : message[0])
+					.tag("messageType", messageTypeTag(message == null ? null : message[1]))
+					.register(meterRegistry)
+					.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private String messageTypeTag(final String messageType) {
+		if (messageType == null || messageType.equals(UNKNOWN)) {
+			return UNKNOWN;
+		}
+		if (!supportedMessageTypes.isSupported(messageType)) {
+			return OTHER;
+		}
+		// A code^* type still lets a sender make up trigger events.
+		if (!messageTypeTags.contains(messageType)) {
+			if (messageTypeTags.size() >= MAX_MESSAGE_TYPES) {
+				return OTHER;
+			}
+			messageTypeTags.add(messageType);
+		}
+		return messageType;
+	}
+
+	private String[] enter(final Exchange exchange) {
+		String[] previous = CURRENT_MESSAGE.get();
+		CURRENT_MESSAGE.set(new String[] { tenant(exchange), messageType(exchange) });
+		return previous;
+	}
+
+	private void record(final String stage, final Exchange exchange, final long start) {
+		// Tags are read afterwards, so the stages that work them out are tagged too.
+		stageTimer(stage, tenant(exchange), messageType(exchange)).record(System.nanoTime() - start,
+				TimeUnit.NANOSECONDS);
+	}
+
+	private static String tenant(final Exchange exchange) {
+		String tenant = exchange.getIn().getHeader("tenant", String.class);
+		return tenant == null ? UNKNOWN : tenant;
+	}
+
+	private static String messageType(final Exchange exchange) {
+		String messageType = exchange.getIn().getHeader("messageType", String.class);
+		if (messageType == null) {
+			HL7Headers headers = exchange.getIn().getHeader(HeaderExtractor.HL7_HEADERS, HL7Headers.class);
+			messageType = headers == null ? null : headers.getMessageType();
+		}
+		return messageType == null ? UNKNOWN : messageType;
+	}
+}
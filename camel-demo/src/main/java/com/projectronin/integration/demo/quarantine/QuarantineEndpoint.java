@@ -0,0 +1,102 @@
+package com.projectronin.integration.demo.quarantine;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.QuarantineConfiguration;
+import com.projectronin.integration.demo.http.AdminServer;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * The operator commands for the dead-letter queue:
+ *
+ * <ul>
+ * <li>{@code GET /quarantine[?queue=fhir]} counts the dead-lettered
+ * messages.</li>
+ * <li>{@code POST /quarantine/replay[?queue=fhir][&limit=100]} replays
+ * them. It must carry {@code ronin.quarantine.replay-token} as a bearer token,
+ * and is refused while no token is configured.</li>
+ * </ul>
+ */
+@Component
+public class QuarantineEndpoint {
+	private static final int DEFAULT_LIMIT = 100;
+	private static final String BEARER = "Bearer ";
+
+	private final QuarantineReplayer quarantineReplayer;
+	private final byte[] replayToken;
+
+	@Autowired
+	public QuarantineEndpoint(final QuarantineReplayer quarantineReplayer,
+			final QuarantineConfiguration quarantineConfiguration, final AdminServer adminServer) {
+		this.quarantineReplayer = quarantineReplayer;
+		String token = quarantineConfiguration.getReplayToken();
+		this.replayToken = token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+		adminServer.register("/quarantine", this::handle);
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = getParameters(exchange);
+		String path = exchange.getRequestURI().getPath();
+		String method = exchange.getRequestMethod();
+
+		try {
+			if (path.equals("/quarantine") && method.equals("GET")) {
+				int count = quarantineReplayer.count(parameters.get("queue"));
+				AdminServer.respond(exchange, 200, "text/plain", String.format("%d%n", count));
+			} else if (path.equals("/quarantine/replay") && method.equals("POST")) {
+				if (replayToken == null) {
+					AdminServer.respond(exchange, 403, "text/plain",
+							"Replays are disabled until ronin.quarantine.replay-token is set\n");
+					return;
+				}
+				if (!isAuthorized(exchange)) {
+					exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+					AdminServer.respond(exchange, 401, "text/plain", "Unauthorized\n");
+					return;
+				}
+				int limit = parameters.containsKey("limit") ? Integer.parseInt(parameters.get("limit")) : DEFAULT_LIMIT;
+				int replayed = quarantineReplayer.replay(parameters.get("queue"), limit);
+				AdminServer.respond(exchange, 200, "text/plain", String.format("Replayed %d messages%n", replayed));
+			} else {
+				AdminServer.respond(exchange, 404, "text/plain", "Not found\n");
+			}
+		} catch (IllegalArgumentException e) {
+			AdminServer.respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+		}
+	}
+
+	private boolean isAuthorized(final HttpExchange exchange) {
+		String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		if (authorization == null || !authorization.startsWith(BEARER)) {
+			return false;
+		}
+		// Compared in constant time, so the token can't be guessed from how long a refusal takes.
+		return MessageDigest.isEqual(replayToken,
+				authorization.substring(BEARER.length()).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Map<String, String> getParameters(final HttpExchange exchange) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return parameters;
+		}
+		for (String parameter : query.split("&")) {
+			int equals = parameter.indexOf('=');
+			if (equals > 0) {
+				parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8.name()),
+						URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8.name()));
+			}
+		}
+		return parameters;
+	}
+}
@@ -0,0 +1,149 @@
+package com.projectronin.integration.demo.quarantine;
+
+import static org.apache.camel.component.jms.JmsConstants.JMS_X_GROUP_ID;
+
+import java.util.Enumeration;
+import java.util.regex.Pattern;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ScheduledMessage;
+import org.apache.camel.CamelContext;
+import org.apache.camel.component.jms.JmsComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.camel.processor.QuarantineProcessor;
+import com.projectronin.integration.demo.configuration.QuarantineConfiguration;
+
+/**
+ * Moves dead-lettered messages back to the queues they failed on, for example
+ * once the bug or outage that broke them has been fixed. Replayed messages get
+ * a fresh set of attempts, and keep the headers describing their last failure.
+ */
+@Component
+public class QuarantineReplayer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(QuarantineReplayer.class);
+	private static final Pattern QUEUE_NAME = Pattern.compile("[\\w.-]+");
+	private static final long RECEIVE_TIMEOUT_MILLIS = 500;
+
+	private final CamelContext camelContext;
+	private final String deadLetterQueue;
+
+	private JmsTemplate jmsTemplate;
+
+	@Autowired
+	public QuarantineReplayer(final CamelContext camelContext, final QuarantineConfiguration quarantineConfiguration) {
+		this.camelContext = camelContext;
+		this.deadLetterQueue = quarantineConfiguration.getDeadLetterQueue();
+	}
+
+	/**
+	 * Moves up to {@code limit} messages, in one transaction. Messages that are
+	 * not text cannot be replayed, so they are put back in the dead-letter queue
+	 * and skipped, counting towards the limit.
+	 *
+	 * @param queue only replay messages that failed on this queue, or null for
+	 *              all of them
+	 * @return the number of messages replayed
+	 */
+	public int replay(final String queue, final int limit) {
+		String selector = getSelector(queue);
+		int[] skipped = new int[1];
+		int replayed = getJmsTemplate().execute((Session session) -> {
+			MessageConsumer consumer = session.createConsumer(session.createQueue(deadLetterQueue), selector);
+			MessageProducer producer = session.createProducer(null);
+			try {
+				int count = 0;
+				Message message;
+				// Messages put back are not seen again before the commit, so this ends.
+				while (count + skipped[0] < limit && (message = consumer.receive(RECEIVE_TIMEOUT_MILLIS)) != null) {
+					if (!(message instanceof TextMessage)) {
+						LOGGER.warn("Cannot replay {}, which is not a text message. Leaving it in {}",
+								message.getJMSMessageID(), deadLetterQueue);
+						producer.send(session.createQueue(deadLetterQueue), message);
+						skipped[0]++;
+						continue;
+					}
+					String target = message.getStringProperty(QuarantineProcessor.QUEUE);
+					if (target == null) {
+						target = QuarantineProcessor.ENTRY_QUEUE;
+					}
+					producer.send(session.createQueue(target), copy(session, (TextMessage) message));
+					count++;
+				}
+				session.commit();
+				return count;
+			} finally {
+				producer.close();
+				consumer.close();
+			}
+		}, true);
+		LOGGER.info("Replayed {} messages from {} and skipped {}", replayed, deadLetterQueue, skipped[0]);
+		return replayed;
+	}
+
+	/**
+	 * @param queue only count messages that failed on this queue, or null for all
+	 *              of them
+	 * @return the number of messages in the dead-letter queue
+	 */
+	public int count(final String queue) {
+		String selector = getSelector(queue);
+		return getJmsTemplate().browseSelected(deadLetterQueue, selector, (session, browser) -> count(browser));
+	}
+
+	private static int count(final QueueBrowser browser) throws JMSException {
+		int count = 0;
+		for (Enumeration<?> messages = browser.getEnumeration(); messages.hasMoreElements(); messages.nextElement()) {
+			count++;
+		}
+		return count;
+	}
+
+	private static String getSelector(final String queue) {
+		if (queue == null) {
+			return null;
+		}
+		if (!QUEUE_NAME.matcher(queue).matches()) {
+			throw new IllegalArgumentException(String.format("Invalid queue name %s", queue));
+		}
+		return String.format("%s = '%s'", QuarantineProcessor.QUEUE, queue);
+	}
+
+	private static Message copy(final Session session, final TextMessage message) throws JMSException {
+		TextMessage copy = session.createTextMessage(message.getText());
+		for (Enumeration<?> names = message.getPropertyNames(); names.hasMoreElements();) {
+			String name = (String) names.nextElement();
+			// Leave out the attempt count, which is recorded afresh if it fails again, and the broker's properties.
+			if (!name.equals(QuarantineProcessor.ATTEMPTS) && !name.startsWith("JMSX")
+					&& !name.equals(ScheduledMessage.AMQ_SCHEDULED_ID) && !name.startsWith("AMQ_")) {
+				copy.setObjectProperty(name, message.getObjectProperty(name));
+			}
+		}
+		String groupId = message.getStringProperty(JMS_X_GROUP_ID);
+		if (groupId != null) {
+			copy.setStringProperty(JMS_X_GROUP_ID, groupId);
+		}
+		return copy;
+	}
+
+	// Replays and counts arrive on the admin server's threads.
+	private synchronized JmsTemplate getJmsTemplate() {
+		if (jmsTemplate == null) {
+			JmsComponent activemq = camelContext.getComponent("activemq", JmsComponent.class);
+			jmsTemplate = new JmsTemplate(activemq.getConfiguration().getOrCreateTemplateConnectionFactory());
+			jmsTemplate.setSessionTransacted(true);
+		}
+		return jmsTemplate;
+	}
+}
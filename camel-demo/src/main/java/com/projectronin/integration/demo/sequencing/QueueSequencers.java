@@ -0,0 +1,47 @@
+package com.projectronin.integration.demo.sequencing;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.QueueConfiguration;
+
+/**
+ * The {@link SequencingExecutor}s that process the messages consumed from each
+ * internal queue, kept per queue so a backlog on one does not hold up the
+ * other.
+ */
+@Component
+public class QueueSequencers {
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	private final SequencingExecutor fhir;
+	private final SequencingExecutor encounter;
+
+	@Autowired
+	public QueueSequencers(final QueueConfiguration queueConfiguration) {
+		this.fhir = create("fhir-sequencer", queueConfiguration.getFhir());
+		this.encounter = create("encounter-sequencer", queueConfiguration.getEncounter());
+	}
+
+	private static SequencingExecutor create(final String name, final QueueConfiguration.Consumer consumer) {
+		return new SequencingExecutor(name, consumer.getSequencerThreads(), consumer.getSequencerMaxPending());
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		fhir.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+		encounter.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+	}
+
+	public SequencingExecutor getFhir() {
+		return fhir;
+	}
+
+	public SequencingExecutor getEncounter() {
+		return encounter;
+	}
+}
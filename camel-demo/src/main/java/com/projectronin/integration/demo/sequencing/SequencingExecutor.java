@@ -0,0 +1,277 @@
+package com.projectronin.integration.demo.sequencing;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a shared pool of threads while keeping the tasks for any one
+ * key strictly in submission order. A task for a key does not start until the
+ * stage returned by the key's previous task has completed, so work that
+ * finishes asynchronously is still sequenced. Tasks for different keys run in
+ * parallel.
+ *
+ * Each key with outstanding work has a small queue that only exists while
+ * there is something in it, so the number of keys is bounded by the number of
+ * pending tasks rather than by the number of patients ever seen. At most
+ * {@code maxPending} tasks may be outstanding; beyond that {@link #submit}
+ * blocks, pushing back on whoever is feeding the executor.
+ */
+public class SequencingExecutor {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SequencingExecutor.class);
+
+	private final String name;
+	private final int maxPending;
+	private final ExecutorService workers;
+	private final Semaphore pending;
+	private final ConcurrentHashMap<String, KeyQueue> queues = new ConcurrentHashMap<>();
+
+	private final LongAdder startedTasks = new LongAdder();
+	private final LongAdder totalLagNanos = new LongAdder();
+	private final AtomicLong maxLagNanos = new AtomicLong();
+
+	private volatile boolean closed;
+
+	/**
+	 * @param name       prefix for the worker thread names
+	 * @param threads    the number of tasks that may run at once
+	 * @param maxPending the most tasks, running or waiting, before
+	 *                   {@link #submit} blocks
+	 */
+	public SequencingExecutor(final String name, final int threads, final int maxPending) {
+		this.name = name;
+		this.maxPending = maxPending;
+		this.pending = new Semaphore(maxPending);
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues a task behind any others for the same key, blocking while the
+	 * executor is full. The key is released for its next task once the stage the
+	 * task returns completes, whether normally or not. A task that throws releases
+	 * it immediately.
+	 *
+	 * @throws RejectedExecutionException if the executor has been shut down
+	 */
+	public void submit(final String key, final Supplier<? extends CompletionStage<?>> task)
+			throws InterruptedException {
+		if (closed) {
+			throw new RejectedExecutionException(String.format("%s has been shut down", name));
+		}
+		pending.acquire();
+
+		Task submitted = new Task(key, task);
+		boolean[] startNow = new boolean[1];
+		queues.compute(key, (k, queue) -> {
+			if (queue == null) {
+				queue = new KeyQueue();
+				startNow[0] = true;
+			} else {
+				queue.waiting.add(submitted);
+			}
+			queue.updateStats();
+			return queue;
+		});
+
+		if (startNow[0]) {
+			execute(submitted);
+		}
+	}
+
+	private void execute(final Task task) {
+		try {
+			workers.execute(() -> run(task));
+		} catch (RejectedExecutionException e) {
+			LOGGER.error("{} dropped a task for {} because it has been shut down", name, task.key);
+			complete(task.key);
+		}
+	}
+
+	private void run(final Task task) {
+		long lagNanos = System.nanoTime() - task.submittedNanos;
+		startedTasks.increment();
+		totalLagNanos.add(lagNanos);
+		maxLagNanos.accumulateAndGet(lagNanos, Math::max);
+
+		CompletionStage<?> stage;
+		try {
+			stage = task.work.get();
+		} catch (RuntimeException e) {
+			LOGGER.error("Task for {} failed", task.key, e);
+			stage = null;
+		}
+
+		if (stage == null) {
+			complete(task.key);
+		} else {
+			stage.whenComplete((result, e) -> complete(task.key));
+		}
+	}
+
+	private void complete(final String key) {
+		Task[] next = new Task[1];
+		queues.computeIfPresent(key, (k, queue) -> {
+			next[0] = queue.waiting.poll();
+			if (next[0] == null) {
+				// Nothing else for this key, so stop tracking it.
+				return null;
+			}
+			queue.updateStats();
+			return queue;
+		});
+		pending.release();
+
+		if (next[0] != null) {
+			execute(next[0]);
+		}
+	}
+
+	/**
+	 * Stops accepting tasks and waits up to {@code timeoutMillis} for the ones
+	 * already submitted to finish.
+	 *
+	 * @return true if every submitted task finished
+	 */
+	public boolean shutdown(final long timeoutMillis) throws InterruptedException {
+		closed = true;
+		try {
+			// Every permit is back only once every task has completed.
+			boolean drained = pending.tryAcquire(maxPending, timeoutMillis, TimeUnit.MILLISECONDS);
+			if (drained) {
+				pending.release(maxPending);
+			} else {
+				LOGGER.warn("{} shut down with {} tasks still pending", name, getPendingTasks());
+			}
+			return drained;
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the number of keys with a running or waiting task
+	 */
+	public int getActiveKeys() {
+		return queues.size();
+	}
+
+	/**
+	 * @return the number of tasks submitted but not yet completed
+	 */
+	public int getPendingTasks() {
+		return maxPending - pending.availablePermits();
+	}
+
+	/**
+	 * @return the number of running and waiting tasks for {@code key}
+	 */
+	public int getQueueDepth(final String key) {
+		KeyQueue queue = queues.get(key);
+		return queue == null ? 0 : queue.depth;
+	}
+
+	/**
+	 * @return a snapshot of the depth of every active key
+	 */
+	public Map<String, Integer> getQueueDepths() {
+		Map<String, Integer> depths = new HashMap<>();
+		queues.forEach((key, queue) -> depths.put(key, queue.depth));
+		return depths;
+	}
+
+	/**
+	 * @return the depth of the deepest key, which is how far behind its busiest
+	 *         patient is
+	 */
+	public int getMaxQueueDepth() {
+		int max = 0;
+		for (KeyQueue queue : queues.values()) {
+			max = Math.max(max, queue.depth);
+		}
+		return max;
+	}
+
+	/**
+	 * @return how long the oldest waiting task has waited so far, or 0 if none
+	 *         are waiting
+	 */
+	public long getOldestWaitingMillis() {
+		long now = System.nanoTime();
+		long oldest = 0;
+		for (KeyQueue queue : queues.values()) {
+			long submittedNanos = queue.oldestWaitingNanos;
+			if (submittedNanos != 0) {
+				oldest = Math.max(oldest, now - submittedNanos);
+			}
+		}
+		return TimeUnit.NANOSECONDS.toMillis(oldest);
+	}
+
+	public long getStartedTasks() {
+		return startedTasks.sum();
+	}
+
+	/**
+	 * @return the mean time between a task being submitted and it starting
+	 */
+	public double getAverageLagMillis() {
+		long started = startedTasks.sum();
+		return started == 0 ? 0 : totalLagNanos.sum() / (double) started / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * @return the longest time any task has waited between being submitted and
+	 *         starting
+	 */
+	public long getMaxLagMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get());
+	}
+
+	private static final class Task {
+		private final String key;
+		private final Supplier<? extends CompletionStage<?>> work;
+		private final long submittedNanos = System.nanoTime();
+
+		Task(final String key, final Supplier<? extends CompletionStage<?>> work) {
+			this.key = key;
+			this.work = work;
+		}
+	}
+
+	/**
+	 * The tasks waiting behind the running task for one key. Only modified
+	 * inside {@link ConcurrentHashMap#compute}, so the map's per-bin locking
+	 * guards it; the stats are volatile so metrics can read them without locking.
+	 */
+	private static final class KeyQueue {
+		private final ArrayDeque<Task> waiting = new ArrayDeque<>(2);
+		private volatile int depth;
+		private volatile long oldestWaitingNanos;
+
+		void updateStats() {
+			depth = waiting.size() + 1;
+			Task oldest = waiting.peek();
+			oldestWaitingNanos = oldest == null ? 0 : oldest.submittedNanos;
+		}
+	}
+}
@@ -0,0 +1,491 @@
+package com.projectronin.integration.demo.spool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of records on local disk, used to take responsibility
+ * for a message before it is acknowledged and before it has reached the broker.
+ *
+ * Records are appended to fixed-size, memory-mapped segment files, each record
+ * as its length, a CRC32 of its payload, and the payload. A single flush thread
+ * forces the mapped pages to disk and completes the futures of every record
+ * written before it started, so appends arriving while a flush is in progress
+ * share the next one. A record is only handed to {@link #read} once it is on
+ * disk.
+ *
+ * The reader consumes records from the checkpoint and advances it with
+ * {@link #commit}, which is itself written atomically. Segments wholly before
+ * the checkpoint are deleted. When reopened, the spool resumes from the
+ * checkpoint and finds the end of the journal by scanning for the first record
+ * that is missing or fails its CRC; anything after that was never acknowledged
+ * and is discarded. Records read but not committed before a crash are read
+ * again, so delivery is at least once. The directory is forced too whenever a
+ * segment is created or the checkpoint replaced, so neither is lost to a power
+ * failure after the records in it have been acknowledged.
+ */
+public class MessageSpool implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MessageSpool.class);
+
+	private static final int HEADER_BYTES = 8;
+	/** Marks the rest of a segment as unused; the next record is in the next segment. */
+	private static final int ROLL = -1;
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+
+	private final Path directory;
+	private final int segmentBytes;
+	private final long flushDelayNanos;
+	private final ConcurrentHashMap<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition appended = lock.newCondition();
+	private final Condition flushed = lock.newCondition();
+	private final ArrayDeque<CompletableFuture<Void>> pendingFlushes = new ArrayDeque<>();
+	private final Thread flusher;
+
+	// Guarded by lock.
+	private long writePosition;
+	private long writeSegment;
+	private ByteBuffer writeBuffer;
+	private long appendedRecords;
+	private boolean closed;
+
+	private volatile long flushedPosition;
+	private volatile long committedPosition;
+	private volatile long committedRecords;
+
+	/**
+	 * @param directory        where segments and the checkpoint are kept;
+	 *                         created if missing
+	 * @param segmentBytes     the size of each segment file, which bounds the
+	 *                         largest record
+	 * @param flushDelayMillis how long the flush thread waits after an append for
+	 *                         others to share its flush, or 0 to flush as soon as
+	 *                         the previous flush completes
+	 */
+	public MessageSpool(final Path directory, final int segmentBytes, final long flushDelayMillis)
+			throws IOException {
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.flushDelayNanos = TimeUnit.MILLISECONDS.toNanos(flushDelayMillis);
+
+		Files.createDirectories(directory);
+		recover();
+
+		flusher = new Thread(this::flushLoop, "message-spool-flush");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Appends a record to the journal.
+	 *
+	 * @return a future completed once the record is on disk, or completed
+	 *         exceptionally if it could not be written there
+	 */
+	public CompletableFuture<Void> append(final byte[] record) throws IOException {
+		if (record.length == 0) {
+			// A zero length marks the end of the journal when it is recovered.
+			throw new IllegalArgumentException("An empty record cannot be spooled");
+		}
+		if (record.length > segmentBytes - HEADER_BYTES) {
+			throw new IllegalArgumentException(
+					String.format("A %d byte record does not fit in a %d byte segment", record.length, segmentBytes));
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, record.length);
+
+		CompletableFuture<Void> onDisk = new CompletableFuture<>();
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IOException("Spool is closed");
+			}
+
+			long segment = segment(writePosition);
+			int offset = offset(writePosition);
+			if (offset + HEADER_BYTES + record.length > segmentBytes) {
+				if (offset + HEADER_BYTES <= segmentBytes) {
+					writeBuffer.putInt(offset, ROLL);
+				}
+				segment++;
+				writePosition = segment * segmentBytes;
+				offset = 0;
+			}
+			// Also true when the last record ended exactly at the end of its segment, leaving the position at
+			// the start of the next one.
+			if (segment != writeSegment) {
+				writeBuffer = map(segment).duplicate();
+				writeSegment = segment;
+			}
+
+			writeBuffer.position(offset);
+			writeBuffer.putInt(record.length);
+			writeBuffer.putInt((int) crc.getValue());
+			writeBuffer.put(record);
+			writePosition += HEADER_BYTES + record.length;
+			appendedRecords++;
+
+			pendingFlushes.add(onDisk);
+			appended.signal();
+		} finally {
+			lock.unlock();
+		}
+		return onDisk;
+	}
+
+	/**
+	 * Reads up to {@code maxRecords} of the records after the checkpoint that are
+	 * already on disk, waiting up to {@code timeoutMillis} for one if there are
+	 * none. The same records are returned again until they are
+	 * {@link #commit committed}.
+	 */
+	public Batch read(final int maxRecords, final long timeoutMillis) throws InterruptedException {
+		if (flushedPosition == committedPosition) {
+			lock.lock();
+			try {
+				long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+				while (flushedPosition == committedPosition && remainingNanos > 0) {
+					remainingNanos = flushed.awaitNanos(remainingNanos);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		long end = flushedPosition;
+		long position = committedPosition;
+		List<byte[]> records = new ArrayList<>(Math.min(maxRecords, 64));
+
+		while (records.size() < maxRecords && position < end) {
+			ByteBuffer buffer = segments.get(segment(position));
+			int offset = offset(position);
+			int length = offset + HEADER_BYTES <= segmentBytes ? buffer.getInt(offset) : ROLL;
+			if (length == ROLL) {
+				position = (segment(position) + 1) * segmentBytes;
+				continue;
+			}
+
+			byte[] record = new byte[length];
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset + HEADER_BYTES);
+			view.get(record);
+			records.add(record);
+			position += HEADER_BYTES + length;
+		}
+		return new Batch(records, position);
+	}
+
+	/**
+	 * Moves the checkpoint past {@code batch}, so its records are not read again,
+	 * even after a restart.
+	 */
+	public void commit(final Batch batch) throws IOException {
+		writeCheckpoint(batch.endPosition);
+		committedPosition = batch.endPosition;
+		committedRecords += batch.records.size();
+
+		// Segments before the checkpoint's are never read again.
+		long firstLiveSegment = segment(batch.endPosition);
+		for (Long segment : new ArrayList<>(segments.keySet())) {
+			if (segment < firstLiveSegment) {
+				// The mapping is released once it is garbage collected; until then the
+				// deleted file's space stays allocated.
+				segments.remove(segment);
+				Files.deleteIfExists(segmentFile(segment));
+			}
+		}
+	}
+
+	/**
+	 * @return the records appended but not yet committed
+	 */
+	public long getBacklogRecords() {
+		lock.lock();
+		try {
+			return appendedRecords - committedRecords;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the bytes of journal between the checkpoint and the end
+	 */
+	public long getBacklogBytes() {
+		lock.lock();
+		try {
+			return writePosition - committedPosition;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes anything appended so far and stops the flush thread. Appends after
+	 * this fail.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			closed = true;
+			appended.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			flusher.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void flushLoop() {
+		while (true) {
+			long target;
+			List<CompletableFuture<Void>> flushing = new ArrayList<>();
+			lock.lock();
+			try {
+				while (pendingFlushes.isEmpty() && !closed) {
+					appended.awaitUninterruptibly();
+				}
+				if (pendingFlushes.isEmpty()) {
+					return;
+				}
+
+				long deadline = System.nanoTime() + flushDelayNanos;
+				long remainingNanos;
+				while (!closed && (remainingNanos = deadline - System.nanoTime()) > 0) {
+					appended.awaitNanos(remainingNanos);
+				}
+
+				target = writePosition;
+				flushing.addAll(pendingFlushes);
+				pendingFlushes.clear();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				for (long segment = segment(flushedPosition); segment <= segment(target - 1); segment++) {
+					MappedByteBuffer buffer = segments.get(segment);
+					if (buffer != null) {
+						buffer.force();
+					}
+				}
+				flushedPosition = target;
+				for (CompletableFuture<Void> future : flushing) {
+					future.complete(null);
+				}
+
+				lock.lock();
+				try {
+					flushed.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			} catch (RuntimeException e) {
+				LOGGER.error("Unable to flush spool up to {}", target, e);
+				for (CompletableFuture<Void> future : flushing) {
+					future.completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	private void recover() throws IOException {
+		committedPosition = readCheckpoint();
+		long position = committedPosition;
+		long records = 0;
+
+		// Walk the records from the checkpoint to find the end of the journal.
+		while (true) {
+			long segment = segment(position);
+			if (!Files.exists(segmentFile(segment))) {
+				break;
+			}
+
+			ByteBuffer buffer = map(segment);
+			int offset = offset(position);
+			int length = offset + HEADER_BYTES <= segmentBytes ? buffer.getInt(offset) : ROLL;
+			if (length == ROLL) {
+				position = (segment + 1) * segmentBytes;
+				continue;
+			}
+			if (length <= 0 || length > segmentBytes - offset - HEADER_BYTES
+					|| !crcMatches(buffer, offset, length)) {
+				break;
+			}
+			position += HEADER_BYTES + length;
+			records++;
+		}
+
+		writePosition = position;
+		flushedPosition = position;
+		appendedRecords = records;
+		writeSegment = segment(position);
+		writeBuffer = map(writeSegment).duplicate();
+
+		// Clear whatever a torn write left past the end, and any segments after it,
+		// so it cannot be mistaken for records later. Only the dirty range is
+		// written, so the unused part of a sparse segment stays unallocated.
+		int garbageEnd = offset(position);
+		for (int offset = garbageEnd; offset < segmentBytes; offset++) {
+			if (writeBuffer.get(offset) != 0) {
+				garbageEnd = offset + 1;
+			}
+		}
+		if (garbageEnd > offset(position)) {
+			writeBuffer.position(offset(position));
+			writeBuffer.put(new byte[garbageEnd - offset(position)]);
+			segments.get(segment(position)).force();
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Long segment = parseSegment(file);
+				if (segment != null && (segment > segment(position) || segment < segment(committedPosition))) {
+					segments.remove(segment);
+					Files.delete(file);
+				}
+			}
+		}
+
+		if (records > 0) {
+			LOGGER.info("Recovered {} spooled records not yet forwarded", records);
+		}
+	}
+
+	private boolean crcMatches(final ByteBuffer buffer, final int offset, final int length) {
+		byte[] record = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset + HEADER_BYTES);
+		view.get(record);
+
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, length);
+		return (int) crc.getValue() == buffer.getInt(offset + 4);
+	}
+
+	private MappedByteBuffer map(final long segment) throws IOException {
+		MappedByteBuffer buffer = segments.get(segment);
+		if (buffer == null) {
+			Path file = segmentFile(segment);
+			boolean created = !Files.exists(file);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				// The mapping stays valid after the channel is closed.
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+			}
+			if (created) {
+				// Forcing the segment's pages does not persist its entry in the directory.
+				syncDirectory();
+			}
+			segments.put(segment, buffer);
+		}
+		return buffer;
+	}
+
+	private long readCheckpoint() throws IOException {
+		Path file = directory.resolve(CHECKPOINT_FILE);
+		if (!Files.exists(file)) {
+			return 0;
+		}
+		return ByteBuffer.wrap(Files.readAllBytes(file)).getLong();
+	}
+
+	private void writeCheckpoint(final long position) throws IOException {
+		Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, position);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		// Otherwise the rename can be lost, and the checkpoint revert, even though the new one is on disk.
+		syncDirectory();
+	}
+
+	private void syncDirectory() throws IOException {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	private Path segmentFile(final long segment) {
+		return directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+	}
+
+	private static Long parseSegment(final Path file) {
+		String name = file.getFileName().toString();
+		if (!name.endsWith(SEGMENT_SUFFIX)) {
+			return null;
+		}
+		try {
+			return Long.valueOf(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private long segment(final long position) {
+		return position / segmentBytes;
+	}
+
+	private int offset(final long position) {
+		return (int) (position % segmentBytes);
+	}
+
+	/**
+	 * Records read from the spool, and the position to commit once they have been
+	 * handled.
+	 */
+	public static final class Batch {
+		private final List<byte[]> records;
+		private final long endPosition;
+
+		Batch(final List<byte[]> records, final long endPosition) {
+			this.records = Collections.unmodifiableList(records);
+			this.endPosition = endPosition;
+		}
+
+		public List<byte[]> getRecords() {
+			return records;
+		}
+
+		public boolean isEmpty() {
+			return records.isEmpty();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.projectronin.integration.demo.spool;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.component.jms.JmsComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.SpoolConfiguration;
+
+/**
+ * Forwards spooled messages to the FHIR queue in order, one JMS transaction
+ * per batch, and moves the spool's checkpoint past each batch once it is
+ * committed. While the broker is unavailable the batch is retried, and
+ * messages keep accumulating in the spool.
+ */
+@Component
+public class SpoolDrainer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SpoolDrainer.class);
+	private static final String QUEUE_NAME = "fhir";
+	private static final long READ_TIMEOUT_MILLIS = 100;
+
+	private final CamelContext camelContext;
+	private final MessageSpool messageSpool;
+	private final int batchSize;
+	private final long retryIntervalMillis;
+
+	private volatile boolean running;
+	private Thread drainer;
+	private JmsTemplate jmsTemplate;
+
+	@Autowired
+	public SpoolDrainer(final CamelContext camelContext, final MessageSpool messageSpool,
+			final SpoolConfiguration spoolConfiguration) {
+		this.camelContext = camelContext;
+		this.messageSpool = messageSpool;
+		this.batchSize = spoolConfiguration.getDrainBatchSize();
+		this.retryIntervalMillis = spoolConfiguration.getRetryIntervalMillis();
+	}
+
+	@PostConstruct
+	public void startDraining() {
+		running = true;
+		drainer = new Thread(this::drain, "message-spool-drainer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	@PreDestroy
+	public void stopDraining() throws InterruptedException {
+		// Whatever has not been forwarded stays in the spool for the next start.
+		running = false;
+		drainer.interrupt();
+		drainer.join(TimeUnit.SECONDS.toMillis(10));
+	}
+
+	private void drain() {
+		while (running) {
+			try {
+				MessageSpool.Batch batch = messageSpool.read(batchSize, READ_TIMEOUT_MILLIS);
+				if (batch.isEmpty()) {
+					continue;
+				}
+
+				try {
+					send(batch);
+					messageSpool.commit(batch);
+				} catch (IOException | RuntimeException e) {
+					// The batch is read again, so anything the broker already has is sent twice.
+					LOGGER.error("Unable to forward {} spooled messages to {}. Retrying in {} ms",
+							batch.getRecords().size(), QUEUE_NAME, retryIntervalMillis, e);
+					Thread.sleep(retryIntervalMillis);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+		}
+	}
+
+	private void send(final MessageSpool.Batch batch) {
+		getJmsTemplate().execute((Session session) -> {
+			MessageProducer producer = session.createProducer(session.createQueue(QUEUE_NAME));
+			try {
+				for (byte[] record : batch.getRecords()) {
+					producer.send(createMessage(session, SpooledMessage.decode(record)));
+				}
+				session.commit();
+			} finally {
+				producer.close();
+			}
+			return null;
+		}, true);
+		LOGGER.debug("Forwarded {} spooled messages to {}", batch.getRecords().size(), QUEUE_NAME);
+	}
+
+	private TextMessage createMessage(final Session session, final SpooledMessage spooledMessage)
+			throws JMSException {
+		TextMessage message = session.createTextMessage(spooledMessage.getBody());
+		for (Map.Entry<String, String> header : spooledMessage.getHeaders().entrySet()) {
+			message.setStringProperty(header.getKey(), header.getValue());
+		}
+		return message;
+	}
+
+	private JmsTemplate getJmsTemplate() {
+		if (jmsTemplate == null) {
+			// Send over the activemq component's pooled connections, like the routes do.
+			JmsComponent activemq = camelContext.getComponent("activemq", JmsComponent.class);
+			jmsTemplate = new JmsTemplate(activemq.getConfiguration().getOrCreateTemplateConnectionFactory());
+			jmsTemplate.setSessionTransacted(true);
+		}
+		return jmsTemplate;
+	}
+}
@@ -0,0 +1,68 @@
+package com.projectronin.integration.demo.spool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An HL7 message and the headers it carries onto the FHIR queue, in the form
+ * it is kept in the {@link MessageSpool}: the header count, each header's name
+ * and value, then the UTF-8 body.
+ */
+public final class SpooledMessage {
+	private final Map<String, String> headers;
+	private final String body;
+
+	public SpooledMessage(final Map<String, String> headers, final String body) {
+		this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+		this.body = body;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	public byte[] encode() {
+		byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(bodyBytes.length + 128);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeShort(headers.size());
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				out.writeUTF(header.getKey());
+				out.writeUTF(header.getValue());
+			}
+			out.write(bodyBytes);
+		} catch (IOException e) {
+			// Writing to memory does not fail.
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	public static SpooledMessage decode(final byte[] record) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+			int headerCount = in.readUnsignedShort();
+			Map<String, String> headers = new LinkedHashMap<>(headerCount * 2);
+			for (int i = 0; i < headerCount; i++) {
+				headers.put(in.readUTF(), in.readUTF());
+			}
+
+			int bodyOffset = record.length - in.available();
+			return new SpooledMessage(headers,
+					new String(record, bodyOffset, record.length - bodyOffset, StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Spooled record is not a message", e);
+		}
+	}
+}
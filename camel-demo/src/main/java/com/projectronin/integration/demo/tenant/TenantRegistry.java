@@ -0,0 +1,167 @@
+package com.projectronin.integration.demo.tenant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.projectronin.integration.demo.configuration.TenantConfiguration;
+
+/**
+ * Resolves HL7 sending facilities to tenants. The mapping is read from a
+ * properties file into an immutable snapshot, and lookups only read the
+ * current snapshot, so they never lock. When the file changes, a new snapshot
+ * is built off to the side and swapped in, letting tenants be added without a
+ * restart.
+ */
+@Component
+public class TenantRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TenantRegistry.class);
+	private static final String DEFAULT_RESOURCE = "tenants.properties";
+
+	private final Path file;
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+	private final ScheduledExecutorService reloader;
+
+	@Autowired
+	public TenantRegistry(final TenantConfiguration tenantConfiguration) throws IOException {
+		this(tenantConfiguration.getFile() == null ? null : Paths.get(tenantConfiguration.getFile()),
+				tenantConfiguration.getReloadIntervalMillis());
+	}
+
+	/**
+	 * @param file                 the properties file to load, or null for the
+	 *                             bundled tenants.properties
+	 * @param reloadIntervalMillis how often to check the file for changes, or 0
+	 *                             to never reload
+	 */
+	public TenantRegistry(final Path file, final long reloadIntervalMillis) throws IOException {
+		this.file = file;
+		snapshot.set(file == null ? loadResource() : loadFile(file));
+		LOGGER.info("Loaded {} tenants from {}", snapshot.get().tenantIdsByFacility.size(),
+				file == null ? DEFAULT_RESOURCE : file);
+
+		if (file != null && reloadIntervalMillis > 0) {
+			reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "tenant-registry-reload");
+				thread.setDaemon(true);
+				return thread;
+			});
+			reloader.scheduleWithFixedDelay(this::reloadIfChanged, reloadIntervalMillis, reloadIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		} else {
+			reloader = null;
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		if (reloader != null) {
+			reloader.shutdownNow();
+		}
+	}
+
+	public Optional<Integer> getTenantId(final String hl7FacilityId) {
+		if (hl7FacilityId == null) {
+			return Optional.empty();
+		}
+		return Optional.ofNullable(snapshot.get().tenantIdsByFacility.get(hl7FacilityId));
+	}
+
+	/**
+	 * Replaces the snapshot if the file has changed since it was last read. A
+	 * file that cannot be read or parsed leaves the current snapshot in place.
+	 *
+	 * @return true if a new snapshot was loaded
+	 */
+	public boolean reloadIfChanged() {
+		if (file == null) {
+			return false;
+		}
+
+		Snapshot current = snapshot.get();
+		try {
+			if (Files.getLastModifiedTime(file).equals(current.lastModified) && Files.size(file) == current.size) {
+				return false;
+			}
+
+			Snapshot updated = loadFile(file);
+			snapshot.set(updated);
+			LOGGER.info("Reloaded {} tenants from {}", updated.tenantIdsByFacility.size(), file);
+			return true;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Unable to reload tenants from {}. Keeping the {} already loaded", file,
+					current.tenantIdsByFacility.size(), e);
+			return false;
+		}
+	}
+
+	private static Snapshot loadFile(final Path file) throws IOException {
+		// Read the file's stamp before its contents, so a write that lands in between
+		// is caught by the next check.
+		FileTime lastModified = Files.getLastModifiedTime(file);
+		long size = Files.size(file);
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return new Snapshot(parse(reader), lastModified, size);
+		}
+	}
+
+	private static Snapshot loadResource() throws IOException {
+		try (InputStream in = TenantRegistry.class.getClassLoader().getResourceAsStream(DEFAULT_RESOURCE)) {
+			if (in == null) {
+				throw new IOException(String.format("%s not found on the classpath", DEFAULT_RESOURCE));
+			}
+			return new Snapshot(parse(new InputStreamReader(in, StandardCharsets.UTF_8)), null, -1);
+		}
+	}
+
+	private static Map<String, Integer> parse(final Reader reader) throws IOException {
+		Properties properties = new Properties();
+		properties.load(reader);
+
+		Map<String, Integer> tenantIdsByFacility = new HashMap<>();
+		for (String facility : properties.stringPropertyNames()) {
+			String tenantId = properties.getProperty(facility).trim();
+			try {
+				tenantIdsByFacility.put(facility, Integer.valueOf(tenantId));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(
+						String.format("Tenant ID %s for facility %s is not a number", tenantId, facility), e);
+			}
+		}
+		return Collections.unmodifiableMap(tenantIdsByFacility);
+	}
+
+	private static final class Snapshot {
+		private final Map<String, Integer> tenantIdsByFacility;
+		private final FileTime lastModified;
+		private final long size;
+
+		Snapshot(final Map<String, Integer> tenantIdsByFacility, final FileTime lastModified, final long size) {
+			this.tenantIdsByFacility = tenantIdsByFacility;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.projectronin.integration.demo.camel.extractor;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+
+import com.projectronin.integration.demo.configuration.MdaOcConfiguration;
+import com.projectronin.integration.demo.mdaoc.MdaOcClient;
+import com.projectronin.integration.demo.mdaoc.model.ImmutablePatientIdentifier;
+import com.projectronin.integration.demo.mdaoc.model.ImmutablePatientIdentifiers;
+import com.projectronin.integration.demo.mdaoc.model.PatientIdentifiers;
+
+public class FhirIdExtractorTest {
+	private static final String KNOWN_PATH = "/oc/patient/0MRN123/identifiers/type/MRN";
+	private static final String UNKNOWN_PATH = "/oc/patient/0MRN999/identifiers/type/MRN";
+
+	private final CamelContext camelContext = new DefaultCamelContext();
+	private MdaOcClient mdaOcClient;
+	private FhirIdExtractor fhirIdExtractor;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		mdaOcClient = mock(MdaOcClient.class);
+		PatientIdentifiers identifiers = ImmutablePatientIdentifiers.builder()
+				.identifiers(asList(ImmutablePatientIdentifier.builder().id("MRN123").idType("MRN").build(),
+						ImmutablePatientIdentifier.builder().id("fhir12345").idType("FHIR STU3").build()))
+				.build();
+		when(mdaOcClient.get(eq(KNOWN_PATH), eq(PatientIdentifiers.class))).thenAnswer(invocation -> {
+			Thread.sleep(50);
+			return ResponseEntity.ok(identifiers);
+		});
+		when(mdaOcClient.get(eq(UNKNOWN_PATH), eq(PatientIdentifiers.class)))
+				.thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null));
+
+		fhirIdExtractor = new FhirIdExtractor(mdaOcClient, new HeaderExtractor(), new MdaOcConfiguration());
+	}
+
+	@Test
+	public void repeatedPatientsAreServedFromCache() throws Exception {
+		assertEquals("fhir12345", evaluate("1", "MRN123"));
+		assertEquals("fhir12345", evaluate("1", "MRN123"));
+
+		verify(mdaOcClient, times(1)).get(anyString(), eq(PatientIdentifiers.class));
+		assertEquals(1, fhirIdExtractor.getCacheStats().hitCount());
+		assertEquals(1, fhirIdExtractor.getCacheStats().missCount());
+	}
+
+	@Test
+	public void cacheIsKeyedPerTenant() throws Exception {
+		evaluate("1", "MRN123");
+		evaluate("2", "MRN123");
+
+		verify(mdaOcClient, times(2)).get(anyString(), eq(PatientIdentifiers.class));
+	}
+
+	@Test
+	public void unknownMrnsAreCached() throws Exception {
+		assertNull(evaluate("1", "MRN999"));
+		assertNull(evaluate("1", "MRN999"));
+
+		verify(mdaOcClient, times(1)).get(anyString(), eq(PatientIdentifiers.class));
+	}
+
+	@Test
+	public void concurrentMissesShareOneLookup() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<String>> fhirIds = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				fhirIds.add(executor.submit(() -> {
+					start.await();
+					return evaluate("1", "MRN123");
+				}));
+			}
+			start.countDown();
+
+			for (Future<String> fhirId : fhirIds) {
+				assertEquals("fhir12345", fhirId.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		verify(mdaOcClient, times(1)).get(anyString(), eq(PatientIdentifiers.class));
+	}
+
+	private String evaluate(final String tenant, final String mrn) {
+		Exchange exchange = new DefaultExchange(camelContext);
+		exchange.getIn().setHeader("tenant", tenant);
+		exchange.getIn().setBody(String.format(
+				"MSH|^~\\&|EPIC|MDA|RONIN|RONIN|20210708120000||ADT^A08|1|P|2.8.1\rPID|1||%s^^^MDA^MR||Doe^John\r",
+				mrn));
+		return fhirIdExtractor.evaluate(exchange, String.class);
+	}
+}
@@ -0,0 +1,72 @@
+package com.projectronin.integration.demo.camel.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.model.v26.message.ACK;
+import ca.uhn.hl7v2.model.v26.datatype.CWE;
+import ca.uhn.hl7v2.model.v26.segment.MSH;
+import ca.uhn.hl7v2.parser.CanonicalModelClassFactory;
+import ca.uhn.hl7v2.parser.PipeParser;
+
+public class HL7AckTest {
+	private static final String ORU_R01 = "MSH|^~\\&|LAB|MDA&1.2.3&ISO|RONIN|RONIN|20210708120000||ORU^R01^ORU_R01|MSG00001|P|2.6\r"
+			+ "PID|1||MRN123^^^MDA^MR||Doe^John\r"
+			+ "OBX|1|ST|GLU||broken|field|with\\F\\escapes\r";
+
+	@Test
+	public void acknowledgesFromMsh() throws Exception {
+		String ack = HL7Ack.ack(ORU_R01, "AA");
+
+		try (HapiContext context = new DefaultHapiContext()) {
+			ACK parsed = (ACK) new PipeParser(context).parse(ack);
+			MSH msh = parsed.getMSH();
+			assertEquals("RONIN", msh.getSendingApplication().encode());
+			assertEquals("MDA&1.2.3&ISO", msh.getReceivingFacility().encode());
+			assertEquals("ACK^R01^ACK", msh.getMessageType().encode());
+			assertNotEquals("MSG00001", msh.getMessageControlID().getValue());
+			assertEquals("P", msh.getProcessingID().encode());
+			assertEquals("2.6", msh.getVersionID().encode());
+			assertEquals("AA", parsed.getMSA().getAcknowledgmentCode().getValue());
+			assertEquals("MSG00001", parsed.getMSA().getMessageControlID().getValue());
+		}
+	}
+
+	@Test
+	public void addsErrorText() {
+		String ack = HL7Ack.ack("MSH|^~\\&|LAB|MDA|RONIN|RONIN|20210708120000||ZZZ|42|P|2.8.1\n", "AE",
+				"Message quarantined");
+
+		String[] segments = ack.split("\r");
+		assertEquals(3, segments.length);
+		assertEquals("ACK", segments[0].split("\\|")[8]);
+		assertEquals("MSA|AE|42", segments[1]);
+		assertEquals("ERR|||207^Application internal error^HL70357|E||||Message quarantined", segments[2]);
+	}
+
+	@Test
+	public void putsErrorInErrorLocationBeforeVersion25() throws Exception {
+		String ack = HL7Ack.ack("MSH|^~\\&|LAB|MDA|RONIN|RONIN|20210708120000||ADT^A01|42|P|2.3.1\r", "AE",
+				"Message quarantined");
+
+		assertEquals("ERR|^^^207&Message quarantined&HL70357", ack.split("\r")[2]);
+		// Read through the v2.6 model, which keeps ERR-1 for backward compatibility.
+		try (HapiContext context = new DefaultHapiContext(new CanonicalModelClassFactory("2.6"))) {
+			ACK parsed = (ACK) new PipeParser(context).parse(ack);
+			CWE code = parsed.getERR(0).getErrorCodeAndLocation(0).getCodeIdentifyingError();
+			assertEquals("207", code.getIdentifier().getValue());
+			assertEquals("Message quarantined", code.getText().getValue());
+			assertEquals("2.3.1", parsed.getMSH().getVersionID().encode());
+		}
+	}
+
+	@Test
+	public void rejectsMessagesWithoutMsh() {
+		assertThrows(IllegalArgumentException.class, () -> HL7Ack.ack("PID|1", "AA"));
+	}
+}
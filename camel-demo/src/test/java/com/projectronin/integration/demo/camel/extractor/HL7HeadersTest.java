@@ -0,0 +1,75 @@
+package com.projectronin.integration.demo.camel.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class HL7HeadersTest {
+	private static final String ADT_A01 = "MSH|^~\\&|EPIC|MDA&1.2.3&ISO|RONIN|RONIN|20210708120000||ADT^A01^ADT_A01|MSG00001|P|2.8.1\r"
+			+ "EVN|A01|20210708120000\r"
+			+ "PID|1|PID2^^^MDA^PI|MRN123^^^MDA^MR~555-55-5555^^^SSA^SS|ALT1^^^MDA^PN|Doe^John||19700101|M||||||||||ACCT1^^^MDA^AN\r"
+			+ "PV1|1|I\r";
+
+	@Test
+	public void readsMshValues() {
+		HL7Headers headers = HL7Headers.parse(ADT_A01);
+
+		assertEquals("MDA", headers.getSendingFacility());
+		assertEquals("ADT^A01", headers.getMessageType());
+	}
+
+	@Test
+	public void readsIdentifiersFromAllPidFields() {
+		Map<String, String> identifiers = HL7Headers.parse(ADT_A01).getIdentifiersByType();
+
+		assertEquals(5, identifiers.size());
+		assertEquals("PID2", identifiers.get("PI"));
+		assertEquals("MRN123", identifiers.get("MR"));
+		assertEquals("555-55-5555", identifiers.get("SS"));
+		assertEquals("ALT1", identifiers.get("PN"));
+		assertEquals("ACCT1", identifiers.get("AN"));
+	}
+
+	@Test
+	public void ignoresIdentifiersWithoutType() {
+		String message = "MSH|^~\\&|EPIC|MDA|RONIN|RONIN|20210708120000||ADT^A08|1|P|2.8.1\nPID|1||MRN123^^^MDA||Doe^John\n";
+
+		HL7Headers headers = HL7Headers.parse(message);
+
+		assertTrue(headers.getIdentifiersByType().isEmpty());
+		assertEquals("ADT^A08", headers.getMessageType());
+	}
+
+	@Test
+	public void handlesMissingFieldsAndCustomEncodingCharacters() {
+		HL7Headers headers = HL7Headers.parse("MSH#$%!*#EPIC\r");
+
+		assertNull(headers.getSendingFacility());
+		assertNull(headers.getMessageType());
+		assertTrue(headers.getIdentifiersByType().isEmpty());
+	}
+
+	@Test
+	public void messageTypeWithoutTriggerEventIsJustTheCode() {
+		HL7Headers headers = HL7Headers.parse("MSH|^~\\&|EPIC|MDA|RONIN|RONIN|20210708120000||ACK|1|P|2.3\r");
+
+		assertEquals("ACK", headers.getMessageType());
+	}
+
+	@Test
+	public void unescapesValues() {
+		String message = "MSH|^~\\&|EPIC|M\\T\\D|RONIN|RONIN|20210708120000||ADT^A01|1|P|2.8.1\r";
+
+		assertEquals("M&D", HL7Headers.parse(message).getSendingFacility());
+	}
+
+	@Test
+	public void rejectsNonEr7Messages() {
+		assertThrows(IllegalArgumentException.class, () -> HL7Headers.parse("<ClinicalDocument/>"));
+	}
+}
@@ -0,0 +1,132 @@
+package com.projectronin.integration.demo.camel.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.netty.NettyConstants;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class AckSequencerTest {
+	private final AckSequencer ackSequencer = new AckSequencer();
+	private final DefaultCamelContext camelContext = new DefaultCamelContext();
+
+	@Test
+	public void acksAreWrittenInArrivalOrder() {
+		EmbeddedChannel channel = new EmbeddedChannel(ackSequencer.newChannelHandler());
+		Exchange first = arrive(channel, "ACK1");
+		Exchange second = arrive(channel, "ACK2");
+		Exchange third = arrive(channel, "ACK3");
+
+		// The third completes straight away, the others later and out of order.
+		ChannelFuture thirdWrite = channel.writeAndFlush(wrap(third));
+		assertNull(channel.readOutbound());
+		assertFalse(thirdWrite.isDone());
+
+		channel.writeAndFlush(wrap(second));
+		assertNull(channel.readOutbound());
+
+		channel.writeAndFlush(wrap(first));
+		assertEquals("ACK1", channel.readOutbound());
+		assertEquals("ACK2", channel.readOutbound());
+		assertEquals("ACK3", channel.readOutbound());
+		assertTrue(thirdWrite.isSuccess());
+	}
+
+	@Test
+	public void exchangesWithoutAResponseDoNotHoldUpLaterOnes() {
+		EmbeddedChannel channel = new EmbeddedChannel(ackSequencer.newChannelHandler());
+		Exchange first = arrive(channel, null);
+		Exchange second = arrive(channel, "ACK2");
+
+		channel.writeAndFlush(wrap(second));
+		channel.writeAndFlush(wrap(first));
+		assertEquals("ACK2", channel.readOutbound());
+		assertNull(channel.readOutbound());
+	}
+
+	@Test
+	public void failuresHandledByTheRouteAreSequencedWithoutAnAck() throws Exception {
+		camelContext.addRoutes(new RouteBuilder() {
+			@Override
+			public void configure() {
+				from("direct:listener")
+					.onException(Exception.class)
+						.handled(true)
+						.setBody(constant(null))
+						.end()
+					.onCompletion().modeBeforeConsumer()
+						.process(ackSequencer::wrap)
+						.end()
+					.process(ackSequencer::assign)
+					.process(exchange -> {
+						throw new IOException("Not spooled");
+					});
+			}
+		});
+		camelContext.start();
+
+		EmbeddedChannel channel = new EmbeddedChannel(ackSequencer.newChannelHandler());
+		Exchange failed = camelContext.createProducerTemplate().send("direct:listener", exchange -> {
+			exchange.getIn().setHeader(NettyConstants.NETTY_CHANNEL_HANDLER_CONTEXT,
+					channel.pipeline().firstContext());
+			exchange.getIn().setBody("MSH");
+		});
+		Exchange second = arrive(channel, "ACK2");
+		camelContext.stop();
+
+		// The consumer writes the exception of a failed exchange rather than its body.
+		assertNull(failed.getException());
+		channel.writeAndFlush(wrap(second));
+		channel.writeAndFlush(failed.getMessage().getBody());
+		assertEquals("ACK2", channel.readOutbound());
+		assertNull(channel.readOutbound());
+	}
+
+	@Test
+	public void eachConnectionIsNumberedSeparately() {
+		EmbeddedChannel one = new EmbeddedChannel(ackSequencer.newChannelHandler());
+		EmbeddedChannel two = new EmbeddedChannel(ackSequencer.newChannelHandler());
+		arrive(one, "ONE1");
+		Exchange onTwo = arrive(two, "TWO1");
+
+		two.writeAndFlush(wrap(onTwo));
+		assertEquals("TWO1", two.readOutbound());
+	}
+
+	@Test
+	public void pendingAcksFailWhenTheConnectionCloses() {
+		EmbeddedChannel channel = new EmbeddedChannel(ackSequencer.newChannelHandler());
+		arrive(channel, "ACK1");
+		Exchange second = arrive(channel, "ACK2");
+
+		ChannelFuture write = channel.writeAndFlush(wrap(second));
+		channel.close();
+		assertTrue(write.isDone() && !write.isSuccess());
+	}
+
+	private Exchange arrive(final EmbeddedChannel channel, final String ack) {
+		Exchange exchange = new DefaultExchange(camelContext);
+		ChannelHandlerContext context = channel.pipeline().firstContext();
+		exchange.getIn().setHeader(NettyConstants.NETTY_CHANNEL_HANDLER_CONTEXT, context);
+		ackSequencer.assign(exchange);
+		exchange.getMessage().setBody(ack);
+		return exchange;
+	}
+
+	private Object wrap(final Exchange exchange) {
+		ackSequencer.wrap(exchange);
+		return exchange.getMessage().getBody();
+	}
+}
@@ -0,0 +1,72 @@
+package com.projectronin.integration.demo.camel.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedExchange;
+import org.apache.camel.component.jms.JmsBinding;
+import org.apache.camel.component.jms.JmsMessage;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.spi.Synchronization;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+
+public class JmsAcknowledgeProcessorTest {
+	private final JmsAcknowledgeProcessor jmsAcknowledgeProcessor = new JmsAcknowledgeProcessor();
+	private final DefaultCamelContext camelContext = new DefaultCamelContext();
+	private final AtomicInteger acknowledged = new AtomicInteger();
+
+	@Test
+	public void acknowledgesOnlyOnceTheExchangeCompletes() {
+		Exchange exchange = consumed();
+		jmsAcknowledgeProcessor.process(exchange);
+		assertEquals(0, acknowledged.get());
+
+		// Replacing the message on the way doesn't lose the one to acknowledge.
+		exchange.getMessage().setBody("replaced");
+		complete(exchange);
+		assertEquals(1, acknowledged.get());
+	}
+
+	@Test
+	public void failedExchangesAreNotAcknowledged() {
+		Exchange exchange = consumed();
+		jmsAcknowledgeProcessor.process(exchange);
+
+		exchange.setException(new IllegalStateException("Failed"));
+		complete(exchange);
+		assertEquals(0, acknowledged.get());
+	}
+
+	@Test
+	public void ignoresExchangesNotConsumedFromJms() {
+		Exchange exchange = new DefaultExchange(camelContext);
+		jmsAcknowledgeProcessor.process(exchange);
+
+		assertNull(exchange.adapt(ExtendedExchange.class).handoverCompletions());
+	}
+
+	private Exchange consumed() {
+		ActiveMQTextMessage message = new ActiveMQTextMessage();
+		message.setAcknowledgeCallback(acknowledged::incrementAndGet);
+		Exchange exchange = new DefaultExchange(camelContext);
+		exchange.setIn(new JmsMessage(exchange, message, null, new JmsBinding()));
+		return exchange;
+	}
+
+	private static void complete(final Exchange exchange) {
+		List<Synchronization> completions = exchange.adapt(ExtendedExchange.class).handoverCompletions();
+		for (Synchronization completion : completions) {
+			if (exchange.isFailed()) {
+				completion.onFailure(exchange);
+			} else {
+				completion.onComplete(exchange);
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.projectronin.integration.demo.camel.processor;
+
+import static org.apache.camel.component.jms.JmsConstants.JMS_DESTINATION_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.apache.activemq.ScheduledMessage;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+
+import com.projectronin.integration.demo.configuration.QuarantineConfiguration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class QuarantineProcessorTest {
+	private final QuarantineConfiguration configuration = new QuarantineConfiguration();
+	private final QuarantineProcessor processor = new QuarantineProcessor(configuration, new SimpleMeterRegistry());
+
+	@Test
+	public void backsOffExponentiallyUpToTheMaximum() {
+		configuration.setInitialDelayMillis(1000);
+		configuration.setBackoffMultiplier(4);
+		configuration.setMaxDelayMillis(30000);
+
+		assertEquals(1000, processor.getDelayMillis(1));
+		assertEquals(4000, processor.getDelayMillis(2));
+		assertEquals(16000, processor.getDelayMillis(3));
+		assertEquals(30000, processor.getDelayMillis(4));
+	}
+
+	@Test
+	public void deadLettersMessagesRetriedOnTheirQueue() throws Exception {
+		Exchange exchange = failedOn("encounter");
+		exchange.setProperty(QuarantineProcessor.REDELIVERIES, 4);
+
+		processor.process(exchange);
+		assertEquals(5, exchange.getIn().getHeader(QuarantineProcessor.ATTEMPTS));
+		assertEquals("encounter", exchange.getIn().getHeader(QuarantineProcessor.QUEUE));
+		assertEquals(configuration.getDeadLetterQueue(), exchange.getIn().getHeader(JMS_DESTINATION_NAME));
+		assertNull(exchange.getIn().getHeader(ScheduledMessage.AMQ_SCHEDULED_DELAY));
+		assertEquals("java.lang.IllegalStateException: bad PID",
+				exchange.getIn().getHeader(QuarantineProcessor.REASON));
+	}
+
+	@Test
+	public void sendsMessagesThatFailedBeforeAQueueToTheEntryQueue() throws Exception {
+		Exchange exchange = failedOn(null);
+		// As on a message the broker's scheduler delivered before.
+		exchange.getIn().setHeader(ScheduledMessage.AMQ_SCHEDULED_ID, "ID:1");
+
+		processor.process(exchange);
+		assertEquals(1, exchange.getIn().getHeader(QuarantineProcessor.ATTEMPTS));
+		assertEquals(QuarantineProcessor.ENTRY_QUEUE, exchange.getIn().getHeader(QuarantineProcessor.QUEUE));
+		assertEquals(QuarantineProcessor.ENTRY_QUEUE, exchange.getIn().getHeader(JMS_DESTINATION_NAME));
+		assertEquals(1000L, exchange.getIn().getHeader(ScheduledMessage.AMQ_SCHEDULED_DELAY));
+		assertNull(exchange.getIn().getHeader(ScheduledMessage.AMQ_SCHEDULED_ID));
+	}
+
+	private static Exchange failedOn(final String queue) {
+		Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+		if (queue != null) {
+			exchange.getIn().setHeader("JMSDestination", new ActiveMQQueue(queue));
+		}
+		exchange.setProperty(Exchange.EXCEPTION_CAUGHT, new IllegalStateException("bad PID"));
+		exchange.setProperty(Exchange.FAILURE_ROUTE_ID, "encounterLookup");
+		return exchange;
+	}
+}
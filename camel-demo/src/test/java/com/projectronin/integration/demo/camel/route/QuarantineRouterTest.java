@@ -0,0 +1,94 @@
+package com.projectronin.integration.demo.camel.route;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.projectronin.integration.demo.camel.processor.QuarantineProcessor;
+import com.projectronin.integration.demo.camel.processor.SequencingProcessor;
+import com.projectronin.integration.demo.configuration.QuarantineConfiguration;
+import com.projectronin.integration.demo.sequencing.SequencingExecutor;
+
+public class QuarantineRouterTest {
+	private final QuarantineConfiguration configuration = new QuarantineConfiguration();
+	private final SequencingExecutor sequencingExecutor = new SequencingExecutor("test", 4, 100);
+	private final List<String> processed = new CopyOnWriteArrayList<>();
+	private final List<Exchange> quarantined = new CopyOnWriteArrayList<>();
+	private final DefaultCamelContext camelContext = new DefaultCamelContext();
+
+	@BeforeEach
+	public void start() throws Exception {
+		configuration.setMaxAttempts(3);
+		configuration.setInitialDelayMillis(100);
+		configuration.setBackoffMultiplier(2);
+
+		camelContext.addRoutes(new RouteBuilder() {
+			@Override
+			public void configure() {
+				errorHandler(QuarantineRouter.quarantine(configuration));
+
+				from("direct:queue")
+					.process(new SequencingProcessor(getContext(), sequencingExecutor, header("patient"),
+							"direct:process"));
+
+				from("direct:process")
+					.process(exchange -> {
+						String body = exchange.getIn().getBody(String.class);
+						processed.add(body);
+						if (body.startsWith("bad")) {
+							throw new IllegalStateException("bad PID");
+						}
+						exchange.getIn().setBody("changed");
+					});
+
+				from(QuarantineRouter.QUARANTINE_URI)
+					.errorHandler(noErrorHandler())
+					.process(exchange -> quarantined.add(exchange.copy()));
+			}
+		});
+		camelContext.start();
+	}
+
+	@AfterEach
+	public void stop() throws Exception {
+		camelContext.stop();
+		sequencingExecutor.shutdown(1000);
+	}
+
+	@Test
+	public void laterMessagesForAPatientWaitForItsRetries() throws Exception {
+		ProducerTemplate producer = camelContext.createProducerTemplate();
+		CompletableFuture<Object> bad = producer.asyncRequestBodyAndHeader("direct:queue", "bad1", "patient", "A");
+		// The sends race each other, so wait for the first to be under way.
+		while (processed.isEmpty()) {
+			Thread.sleep(1);
+		}
+		CompletableFuture<Object> later = producer.asyncRequestBodyAndHeader("direct:queue", "good2", "patient", "A");
+		CompletableFuture<Object> other = producer.asyncRequestBodyAndHeader("direct:queue", "good3", "patient", "B");
+		CompletableFuture.allOf(bad, later, other).get(10, TimeUnit.SECONDS);
+
+		List<String> patientA = new CopyOnWriteArrayList<>(processed);
+		patientA.remove("good3");
+		assertEquals(Arrays.asList("bad1", "bad1", "bad1", "good2"), patientA);
+		// Other patients carry on while the retries wait.
+		assertTrue(processed.indexOf("good3") < processed.lastIndexOf("bad1"), processed.toString());
+
+		assertEquals(1, quarantined.size());
+		Exchange exchange = quarantined.get(0);
+		assertEquals("bad1", exchange.getIn().getBody());
+		assertEquals(2, exchange.getProperty(QuarantineProcessor.REDELIVERIES, Integer.class));
+	}
+}
@@ -0,0 +1,172 @@
+package com.projectronin.integration.demo.camel.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Encounter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
+import com.projectronin.integration.demo.configuration.MdaOcConfiguration;
+import com.projectronin.integration.demo.configuration.QueueConfiguration;
+import com.projectronin.integration.demo.mdaoc.BearerTokenManager;
+import com.projectronin.integration.demo.mdaoc.MdaOcClient;
+import com.projectronin.integration.demo.metrics.PipelineMetrics;
+
+import ca.uhn.fhir.context.FhirContext;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class EncounterServiceTest {
+	private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+	private final StubMdaOcClient client = new StubMdaOcClient();
+	private final EncounterService encounterService = new EncounterService(client, FHIR_CONTEXT,
+			new QueueConfiguration());
+
+	@AfterEach
+	public void shutdown() {
+		encounterService.shutdown();
+	}
+
+	@Test
+	public void followsNextLinksAcrossPages() throws Exception {
+		client.page("page1", "page2", "e1", "e2");
+		client.page("page2", "page3", "e3", "e4");
+		client.page("page3", null, "e5");
+
+		List<String> ids = new ArrayList<>();
+		encounterService.loadEncountersFromUrl("page1", encounter -> ids.add(id(encounter)));
+
+		assertEquals(Arrays.asList("e1", "e2", "e3", "e4", "e5"), ids);
+		assertEquals(Arrays.asList("page1", "page2", "page3"), client.requested);
+		// The first page is fetched without handing off to the prefetch pool.
+		assertEquals(Thread.currentThread().getName(), client.requestThreads.get(0));
+		assertTrue(client.requestThreads.get(1).startsWith("encounter-prefetch-"));
+	}
+
+	@Test
+	public void errorPageStopsTheLoadAfterEarlierPages() {
+		client.page("page1", "page2", "e1");
+		client.error("page2", HttpStatus.INTERNAL_SERVER_ERROR);
+		client.page("page3", null, "e3");
+
+		List<String> ids = new ArrayList<>();
+		RuntimeException e = assertThrows(RuntimeException.class,
+				() -> encounterService.loadEncountersFromUrl("page1", encounter -> ids.add(id(encounter))));
+
+		assertTrue(e.getMessage().contains("500"), e.getMessage());
+		assertEquals(Arrays.asList("e1"), ids);
+		assertFalse(client.requested.contains("page3"));
+	}
+
+	@Test
+	public void consumerFailureStopsPaging() {
+		client.page("page1", "page2", "e1", "e2");
+		client.page("page2", "page3", "e3");
+		client.page("page3", null, "e4");
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> encounterService.loadEncountersFromUrl("page1", encounter -> {
+					throw new IllegalArgumentException("Bad encounter " + id(encounter));
+				}));
+
+		assertEquals("Bad encounter e1", e.getMessage());
+		assertFalse(client.requested.contains("page3"));
+	}
+
+	@Test
+	public void interruptedConsumerStopsPaging() {
+		client.page("page1", "page2", "e1");
+		client.page("page2", "page3", "e2");
+		client.page("page3", null, "e3");
+
+		List<String> ids = new ArrayList<>();
+		try {
+			assertThrows(IllegalStateException.class,
+					() -> encounterService.loadEncountersFromUrl("page1", encounter -> {
+						ids.add(id(encounter));
+						Thread.currentThread().interrupt();
+					}));
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+
+		assertEquals(Arrays.asList("e1"), ids);
+		assertFalse(client.requested.contains("page3"));
+	}
+
+	private static String id(final Encounter encounter) {
+		return encounter.getIdElement().getIdPart();
+	}
+
+	/**
+	 * Serves canned Bundle pages by URL and records which were requested, and on
+	 * what thread.
+	 */
+	private static class StubMdaOcClient extends MdaOcClient {
+		private final Map<String, MockClientHttpResponse> responses = new HashMap<>();
+		private final List<String> requested = new CopyOnWriteArrayList<>();
+		private final List<String> requestThreads = new CopyOnWriteArrayList<>();
+
+		StubMdaOcClient() {
+			super(new RestTemplate(), new BearerTokenManager(new RestTemplate(), configuration()), configuration(),
+					new PipelineMetrics(new SimpleMeterRegistry(),
+					new SupportedMessageTypes(new IngestConfiguration())));
+		}
+
+		private static MdaOcConfiguration configuration() {
+			MdaOcConfiguration configuration = new MdaOcConfiguration();
+			configuration.setApiEndpoint("http://localhost/api");
+			return configuration;
+		}
+
+		void page(final String url, final String nextUrl, final String... encounterIds) {
+			Bundle bundle = new Bundle();
+			if (nextUrl != null) {
+				bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl(nextUrl);
+			}
+			for (String encounterId : encounterIds) {
+				Encounter encounter = new Encounter();
+				encounter.setId(encounterId);
+				bundle.addEntry().setResource(encounter);
+			}
+			String json = FHIR_CONTEXT.newJsonParser().encodeResourceToString(bundle);
+			responses.put(url, new MockClientHttpResponse(json.getBytes(StandardCharsets.UTF_8), HttpStatus.OK));
+		}
+
+		void error(final String url, final HttpStatus status) {
+			responses.put(url, new MockClientHttpResponse(new byte[0], status));
+		}
+
+		@Override
+		public <T> T get(final String path, final ResponseExtractor<T> responseExtractor) {
+			requested.add(path);
+			requestThreads.add(Thread.currentThread().getName());
+			try {
+				return responseExtractor.extractData(responses.get(path));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
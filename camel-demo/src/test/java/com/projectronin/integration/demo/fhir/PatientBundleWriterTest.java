@@ -0,0 +1,123 @@
+package com.projectronin.integration.demo.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.projectronin.integration.demo.camel.service.SupportedMessageTypes;
+import com.projectronin.integration.demo.configuration.FhirServerConfiguration;
+import com.projectronin.integration.demo.configuration.HttpClientConfiguration;
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
+import com.projectronin.integration.demo.http.AsyncRestClient;
+import com.projectronin.integration.demo.http.PooledHttpClientFactory;
+import com.projectronin.integration.demo.http.RequestBufferPool;
+import com.projectronin.integration.demo.metrics.PipelineMetrics;
+import com.sun.net.httpserver.HttpServer;
+
+import ca.uhn.fhir.context.FhirContext;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PatientBundleWriterTest {
+	private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+	private final LinkedBlockingQueue<Bundle> received = new LinkedBlockingQueue<>();
+	private volatile int responseStatus = 200;
+
+	private HttpServer server;
+	private CloseableHttpAsyncClient httpAsyncClient;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/fhir", exchange -> {
+			try (InputStream body = exchange.getRequestBody()) {
+				received.add(FHIR_CONTEXT.newJsonParser().parseResource(Bundle.class, body));
+			}
+			exchange.sendResponseHeaders(responseStatus, -1);
+			exchange.close();
+		});
+		server.start();
+
+		httpAsyncClient = PooledHttpClientFactory.createHttpAsyncClient(new HttpClientConfiguration());
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		httpAsyncClient.close();
+		server.stop(0);
+	}
+
+	@Test
+	public void writesFullBatchAsOneTransaction() throws Exception {
+		PatientBundleWriter writer = newWriter(3, 60_000);
+
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			futures.add(writer.write(1, new Patient()));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+		Bundle bundle = received.poll(5, TimeUnit.SECONDS);
+		assertEquals(BundleType.TRANSACTION, bundle.getType());
+		assertEquals(3, bundle.getEntry().size());
+		assertEquals("Patient", bundle.getEntryFirstRep().getRequest().getUrl());
+	}
+
+	@Test
+	public void writesPartialBatchAfterWindowPerTenant() throws Exception {
+		PatientBundleWriter writer = newWriter(50, 100);
+
+		CompletableFuture<Void> tenant1 = writer.write(1, new Patient());
+		CompletableFuture<Void> tenant2 = writer.write(2, new Patient());
+		assertFalse(tenant1.isDone());
+
+		CompletableFuture.allOf(tenant1, tenant2).get(5, TimeUnit.SECONDS);
+		assertEquals(1, received.poll(5, TimeUnit.SECONDS).getEntry().size());
+		assertEquals(1, received.poll(5, TimeUnit.SECONDS).getEntry().size());
+	}
+
+	@Test
+	public void failedTransactionFailsEveryPatient() {
+		responseStatus = 500;
+		PatientBundleWriter writer = newWriter(2, 60_000);
+
+		CompletableFuture<Void> first = writer.write(1, new Patient());
+		CompletableFuture<Void> second = writer.write(1, new Patient());
+
+		assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+		assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+	}
+
+	private PatientBundleWriter newWriter(final int batchSize, final long batchWindowMillis) {
+		FhirServerConfiguration configuration = new FhirServerConfiguration();
+		configuration.setBaseUrl(String.format("http://localhost:%d/fhir", server.getAddress().getPort()));
+		configuration.setUsername("root");
+		configuration.setPassword("secret");
+		configuration.setBatchSize(batchSize);
+		configuration.setBatchWindowMillis(batchWindowMillis);
+		AsyncRestClient asyncRestClient = new AsyncRestClient(httpAsyncClient,
+				new PipelineMetrics(new SimpleMeterRegistry(),
+				new SupportedMessageTypes(new IngestConfiguration())));
+		return new PatientBundleWriter(asyncRestClient, new RequestBufferPool(new HttpClientConfiguration()),
+				FHIR_CONTEXT, configuration);
+	}
+}
@@ -0,0 +1,75 @@
+package com.projectronin.integration.demo.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.util.List;
+
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import com.projectronin.integration.demo.fhir.model.IdentifierType;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.model.v26.message.ADT_A01;
+import ca.uhn.hl7v2.model.v26.segment.PID;
+
+public class PatientMapperTest {
+	private static final String ADT_A01 = "MSH|^~\\&|EPIC|MDA|RONIN|RONIN|20210708120000||ADT^A01^ADT_A01|1|P|2.6\r"
+			+ "EVN|A01|20210708120000\r"
+			+ "PID|1||MRN123^^^MDA^MR~999^^^MDA^XX~111223333^^^SSA^SS||Doe^John^Q^^Dr~Roe^Johnny||19700101|M||||||||||ACCT1^^^MDA^AN\r"
+			+ "PV1|1|I\r";
+
+	private final PatientMapper patientMapper = new PatientMapper();
+
+	@Test
+	public void mapsKnownIdentifiersAndTenant() throws Exception {
+		List<Identifier> identifiers = patientMapper.map(parsePid(), 1001).getIdentifier();
+
+		assertEquals(4, identifiers.size());
+		assertEquals("MRN123", identifiers.get(0).getValue());
+		assertEquals("MR", identifiers.get(0).getType().getCodingFirstRep().getCode());
+		assertEquals("111223333", identifiers.get(1).getValue());
+		assertEquals(IdentifierType.SS_SYSTEM, identifiers.get(1).getSystem());
+		assertEquals("ACCT1", identifiers.get(2).getValue());
+		assertEquals("1001", identifiers.get(3).getValue());
+	}
+
+	@Test
+	public void mapsOnlyPopulatedNameParts() throws Exception {
+		List<HumanName> names = patientMapper.map(parsePid(), 1001).getName();
+
+		assertEquals(2, names.size());
+		assertEquals("Doe", names.get(0).getFamily());
+		assertEquals("John Q", names.get(0).getGivenAsSingleString());
+		assertEquals("Dr", names.get(0).getPrefixAsSingleString());
+		assertFalse(names.get(0).hasSuffix());
+		assertEquals(1, names.get(1).getGiven().size());
+	}
+
+	@Test
+	public void eachIdentifierHasItsOwnType() throws Exception {
+		PID pid = parsePid();
+		Patient first = patientMapper.map(pid, 1001);
+		Patient second = patientMapper.map(pid, 1001);
+
+		assertNotSame(first.getIdentifierFirstRep().getType(), second.getIdentifierFirstRep().getType());
+		assertNotSame(first.getIdentifierFirstRep().getType().getCodingFirstRep(),
+				second.getIdentifierFirstRep().getType().getCodingFirstRep());
+		assertEquals("Medical Record Number", first.getIdentifierFirstRep().getType().getText());
+
+		// Changing one Patient's identifier type leaves every other Patient's alone.
+		first.getIdentifierFirstRep().getType().setText("Changed");
+		assertEquals("Medical Record Number", patientMapper.map(pid, 1001).getIdentifierFirstRep().getType().getText());
+	}
+
+	private PID parsePid() throws Exception {
+		try (HapiContext hapiContext = new DefaultHapiContext()) {
+			return ((ADT_A01) hapiContext.getPipeParser().parse(ADT_A01)).getPID();
+		}
+	}
+}
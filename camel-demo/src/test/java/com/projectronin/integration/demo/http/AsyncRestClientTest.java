@@ -0,0 +1,132 @@
+package com.projectronin.integration.demo.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import com.projectronin.integration.demo.camel.service.SupportedMessageTypes;
+import com.projectronin.integration.demo.configuration.HttpClientConfiguration;
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
+import com.projectronin.integration.demo.metrics.PipelineMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class AsyncRestClientTest {
+	private HttpServer server;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private AsyncRestClient client;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/echo", exchange -> {
+			byte[] body = readAll(exchange.getRequestBody());
+			exchange.getResponseHeaders().add("Content-Type", exchange.getRequestHeaders().getFirst("Content-Type"));
+			respond(exchange, 201, body);
+		});
+		server.createContext("/missing", exchange -> respond(exchange, 404, "nope".getBytes(StandardCharsets.UTF_8)));
+		server.createContext("/down", exchange -> respond(exchange, 503, new byte[0]));
+		server.start();
+
+		httpAsyncClient = PooledHttpClientFactory.createHttpAsyncClient(new HttpClientConfiguration());
+		client = new AsyncRestClient(httpAsyncClient, new PipelineMetrics(new SimpleMeterRegistry(),
+				new SupportedMessageTypes(new IngestConfiguration())));
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		httpAsyncClient.close();
+		server.stop(0);
+	}
+
+	@Test
+	public void postsBodyAndHeaders() throws Exception {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+
+		ResponseEntity<String> response = client.post(uri("/echo"), "{\"resourceType\":\"Patient\"}", headers)
+				.get(5, TimeUnit.SECONDS);
+
+		assertEquals(HttpStatus.CREATED, response.getStatusCode());
+		assertEquals("{\"resourceType\":\"Patient\"}", response.getBody());
+		assertEquals(MediaType.APPLICATION_JSON, response.getHeaders().getContentType());
+	}
+
+	@Test
+	public void postsPooledBufferAndReleasesIt() throws Exception {
+		RequestBufferPool pool = new RequestBufferPool(new HttpClientConfiguration());
+		RequestBufferPool.Buffer buffer = pool.acquire();
+		buffer.write("{\"resourceType\":\"Bundle\"}".getBytes(StandardCharsets.UTF_8));
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+
+		ResponseEntity<String> response = client.post(uri("/echo"), buffer, headers).get(5, TimeUnit.SECONDS);
+
+		assertEquals("{\"resourceType\":\"Bundle\"}", response.getBody());
+		RequestBufferPool.Buffer reused = pool.acquire();
+		assertSame(buffer, reused);
+		assertEquals(0, reused.size());
+	}
+
+	@Test
+	public void clientErrorsFailTheFuture() {
+		ExecutionException e = assertThrows(ExecutionException.class,
+				() -> client.get(uri("/missing"), new HttpHeaders()).get(5, TimeUnit.SECONDS));
+
+		assertTrue(e.getCause() instanceof HttpClientErrorException.NotFound);
+		assertEquals("nope", ((HttpClientErrorException) e.getCause()).getResponseBodyAsString());
+	}
+
+	@Test
+	public void serverErrorsFailTheFuture() {
+		ExecutionException e = assertThrows(ExecutionException.class,
+				() -> client.get(uri("/down"), new HttpHeaders()).get(5, TimeUnit.SECONDS));
+
+		assertTrue(e.getCause() instanceof HttpServerErrorException.ServiceUnavailable);
+	}
+
+	private URI uri(final String path) {
+		return URI.create(String.format("http://localhost:%d%s", server.getAddress().getPort(), path));
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static void respond(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package com.projectronin.integration.demo.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Replays HL7 messages over MLLP to measure sustained ACK throughput. Each
+ * connection keeps up to {@code --window} un-ACKed messages in flight, which
+ * mimics a sender blasting a backlog rather than waiting for every ACK.
+ *
+ * Usage:
+ *
+ * <pre>
+ * MllpLoadGenerator [--host localhost] [--port 8889] [--connections 4]
+ *                   [--messages 10000] [--window 32] [--file messages.hl7]
+ *                   [--patients 1000]
+ * </pre>
+ *
+ * When {@code --file} is given, messages are read from it, each starting with
+ * an {@code MSH} line. Otherwise a sample ADT^A01 is used. With
+ * {@code --patients}, each message's MRN is replaced with one of
+ * {@code MRN0} to {@code MRN<patients - 1>} in turn, matching the patients of
+ * the MDAOC simulator.
+ */
+public final class MllpLoadGenerator {
+	private static final byte START_BLOCK = 0x0b;
+	private static final byte END_BLOCK = 0x1c;
+	private static final byte CARRIAGE_RETURN = 0x0d;
+
+	static final String SAMPLE_ADT_A01 = "MSH|^~\\&|EPIC|MDA|RONIN|RONIN|20210708120000||ADT^A01^ADT_A01|MSG00001|P|2.8.1\r"
+			+ "EVN|A01|20210708120000\r"
+			+ "PID|1||MRN123^^^MDA^MR||Doe^John^Q||19700101|M||||||||||ACCT1^^^MDA^AN\r"
+			+ "PV1|1|I\r";
+
+	private final String host;
+	private final int port;
+	private final int window;
+	private final List<String> messages;
+	private final int patients;
+	private volatile ObjLongConsumer<String> sendListener = (controlId, sentNanos) -> {
+	};
+
+	private final AtomicLong controlIds = new AtomicLong();
+	private final LongAdder acked = new LongAdder();
+	private final LongAdder outOfOrder = new LongAdder();
+	private final Map<String, LongAdder> ackCodes = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param patients how many MRNs to spread the messages across, or 0 to send
+	 *                 them with their own
+	 */
+	public MllpLoadGenerator(final String host, final int port, final int window, final List<String> messages,
+			final int patients) {
+		this.host = host;
+		this.port = port;
+		this.window = window;
+		this.messages = messages;
+		this.patients = patients;
+	}
+
+	/**
+	 * Calls {@code sendListener} with the control ID and {@link System#nanoTime()}
+	 * of each message as it is sent, so it can be followed through the pipeline.
+	 */
+	public void setSendListener(final ObjLongConsumer<String> sendListener) {
+		this.sendListener = sendListener;
+	}
+
+	public static void main(final String[] args) throws Exception {
+		String host = "localhost";
+		int port = 8889;
+		int connections = 4;
+		int messagesPerConnection = 10000;
+		int window = 32;
+		int patients = 0;
+		List<String> messages = Collections.singletonList(SAMPLE_ADT_A01);
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--host":
+				host = value;
+				break;
+			case "--port":
+				port = Integer.parseInt(value);
+				break;
+			case "--connections":
+				connections = Integer.parseInt(value);
+				break;
+			case "--messages":
+				messagesPerConnection = Integer.parseInt(value);
+				break;
+			case "--window":
+				window = Integer.parseInt(value);
+				break;
+			case "--file":
+				messages = readMessages(value);
+				break;
+			case "--patients":
+				patients = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		Result result = new MllpLoadGenerator(host, port, window, messages, patients).run(connections, messagesPerConnection);
+		System.out.println(result);
+	}
+
+	static List<String> readMessages(final String file) throws IOException {
+		String contents = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+		List<String> messages = new ArrayList<>();
+		for (String message : contents.split("\\r?\\n(?=MSH)")) {
+			String trimmed = message.trim();
+			if (!trimmed.isEmpty()) {
+				messages.add(trimmed.replaceAll("\\r?\\n", "\r") + "\r");
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Sends {@code messagesPerConnection} messages on each of
+	 * {@code connections} connections and waits for every ACK.
+	 */
+	public Result run(final int connections, final int messagesPerConnection) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(connections * 2);
+		try {
+			long start = System.nanoTime();
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < connections; i++) {
+				futures.add(executor.submit(() -> {
+					runConnection(executor, messagesPerConnection);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			long elapsed = System.nanoTime() - start;
+
+			return new Result(acked.sum(), elapsed, sortedLatencies(), ackCodes, outOfOrder.sum());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void runConnection(final ExecutorService executor, final int messageCount) throws Exception {
+		try (Socket socket = new Socket(host, port)) {
+			socket.setTcpNoDelay(true);
+			Semaphore inFlight = new Semaphore(window);
+			// ACKs come back in send order, so the oldest send time matches the next ACK.
+			ConcurrentLinkedQueue<Long> sendTimes = new ConcurrentLinkedQueue<>();
+			ConcurrentLinkedQueue<String> sentControlIds = new ConcurrentLinkedQueue<>();
+			AtomicInteger remaining = new AtomicInteger(messageCount);
+
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			Future<?> reader = executor.submit(() -> {
+				while (remaining.get() > 0) {
+					String ack = readFrame(in);
+					long latency = System.nanoTime() - sendTimes.remove();
+					if (!sentControlIds.remove().equals(getAckedControlId(ack))) {
+						outOfOrder.increment();
+					}
+					latencies.add(latency);
+					ackCodes.computeIfAbsent(getAckCode(ack), k -> new LongAdder()).increment();
+					acked.increment();
+					remaining.decrementAndGet();
+					inFlight.release();
+				}
+				return null;
+			});
+
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			for (int i = 0; i < messageCount; i++) {
+				inFlight.acquire();
+				long controlId = controlIds.incrementAndGet();
+				String message = withControlId(messages.get(i % messages.size()), "LOAD" + controlId);
+				if (patients > 0) {
+					message = withMrn(message, "MRN" + controlId % patients);
+				}
+				long sentNanos = System.nanoTime();
+				sendListener.accept("LOAD" + controlId, sentNanos);
+				sendTimes.add(sentNanos);
+				sentControlIds.add("LOAD" + controlId);
+				out.write(START_BLOCK);
+				out.write(message.getBytes(StandardCharsets.UTF_8));
+				out.write(END_BLOCK);
+				out.write(CARRIAGE_RETURN);
+				// Only flush when the window is full or we're done, letting frames coalesce.
+				if (inFlight.availablePermits() == 0 || i == messageCount - 1) {
+					out.flush();
+				}
+			}
+			out.flush();
+			reader.get();
+		}
+	}
+
+	private static String readFrame(final InputStream in) throws IOException {
+		int b = in.read();
+		while (b != START_BLOCK) {
+			if (b == -1) {
+				throw new IOException("Connection closed while waiting for ACK");
+			}
+			b = in.read();
+		}
+
+		ByteArrayOutputStream frame = new ByteArrayOutputStream(256);
+		while ((b = in.read()) != END_BLOCK) {
+			if (b == -1) {
+				throw new IOException("Connection closed mid-frame");
+			}
+			frame.write(b);
+		}
+		in.read(); // trailing carriage return
+		return new String(frame.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String withControlId(final String message, final String controlId) {
+		int segmentEnd = message.indexOf('\r');
+		String[] msh = message.substring(0, segmentEnd).split("\\|", -1);
+		if (msh.length > 9) {
+			msh[9] = controlId;
+		}
+		return String.join("|", msh) + message.substring(segmentEnd);
+	}
+
+	private static String withMrn(final String message, final String mrn) {
+		String[] segments = message.split("\r", -1);
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i].startsWith("PID|")) {
+				String[] pid = segments[i].split("\\|", -1);
+				if (pid.length > 3) {
+					int componentEnd = pid[3].indexOf('^');
+					pid[3] = componentEnd < 0 ? mrn : mrn + pid[3].substring(componentEnd);
+					segments[i] = String.join("|", pid);
+				}
+			}
+		}
+		return String.join("\r", segments);
+	}
+
+	private static String getAckCode(final String ack) {
+		return getMsaField(ack, 1, "NONE");
+	}
+
+	private static String getAckedControlId(final String ack) {
+		return getMsaField(ack, 2, "");
+	}
+
+	private static String getMsaField(final String ack, final int field, final String missing) {
+		for (String segment : ack.split("\r")) {
+			if (segment.startsWith("MSA|")) {
+				String[] fields = segment.split("\\|");
+				return fields.length > field ? fields[field] : "";
+			}
+		}
+		return missing;
+	}
+
+	private long[] sortedLatencies() {
+		return latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+	}
+
+	/**
+	 * Summary of a load run.
+	 */
+	public static final class Result {
+		private final long messages;
+		private final long elapsedNanos;
+		private final long[] sortedLatencyNanos;
+		private final Map<String, LongAdder> ackCodes;
+		private final long outOfOrder;
+
+		Result(final long messages, final long elapsedNanos, final long[] sortedLatencyNanos,
+				final Map<String, LongAdder> ackCodes, final long outOfOrder) {
+			this.messages = messages;
+			this.elapsedNanos = elapsedNanos;
+			this.sortedLatencyNanos = sortedLatencyNanos;
+			this.ackCodes = ackCodes;
+			this.outOfOrder = outOfOrder;
+		}
+
+		public long getMessages() {
+			return messages;
+		}
+
+		/**
+		 * How many ACKs were not for the oldest message still waiting for one.
+		 */
+		public long getOutOfOrder() {
+			return outOfOrder;
+		}
+
+		public double getMessagesPerSecond() {
+			return messages / (elapsedNanos / 1_000_000_000.0);
+		}
+
+		/**
+		 * Returns the ACK latency at the given percentile (0-100) in milliseconds.
+		 */
+		public double getLatencyMillis(final double percentile) {
+			if (sortedLatencyNanos.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile / 100.0 * sortedLatencyNanos.length) - 1;
+			index = Math.max(0, Math.min(index, sortedLatencyNanos.length - 1));
+			return sortedLatencyNanos[index] / 1_000_000.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d messages in %.2fs: %.1f msgs/sec, ACK latency p50 %.2fms p99 %.2fms, ACK codes %s, %d out of order",
+					messages, elapsedNanos / 1_000_000_000.0, getMessagesPerSecond(), getLatencyMillis(50),
+					getLatencyMillis(99), ackCodes, outOfOrder);
+		}
+	}
+}
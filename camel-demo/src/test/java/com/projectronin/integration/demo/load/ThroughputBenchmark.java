@@ -0,0 +1,280 @@
+package com.projectronin.integration.demo.load;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.CamelEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeCompletedEvent;
+import org.apache.camel.support.EventNotifierSupport;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.projectronin.integration.demo.CamelDemo;
+
+/**
+ * Starts camel-demo in this JVM, with its embedded ActiveMQ broker and the
+ * MDAOC simulator, drives a mix of ADT^A01 and ADT^A08 messages at it over
+ * MLLP with {@link MllpLoadGenerator}, and reports:
+ *
+ * <ul>
+ * <li>ACK latency and throughput, as seen by the sender</li>
+ * <li>end-to-end latency, from a message being sent to its encounter lookup
+ * completing, and the throughput of those completions</li>
+ * </ul>
+ *
+ * A warm-up run is made and discarded first. When any of the {@code --max-*}
+ * or {@code --min-*} limits are given, the process exits with status 1 if a
+ * result falls outside them, so the numbers can gate a build.
+ *
+ * Usage:
+ *
+ * <pre>
+ * ThroughputBenchmark [--port 8888] [--connections 4] [--messages 5000] [--window 32]
+ *                     [--warmup 1000] [--a08-ratio 0.5] [--patients 1000]
+ *                     [--drain-timeout-seconds 120]
+ *                     [--min-throughput 500] [--max-ack-p99-millis 50]
+ *                     [--max-end-to-end-p99-millis 2000]
+ *                     [--ronin.mdaoc-simulator.latency-millis=20 ...]
+ * </pre>
+ *
+ * Options containing {@code =} are passed to the application as properties,
+ * for example to tune the simulator, queues or sequencers. The application
+ * logs at WARN unless overridden, so logging doesn't dominate the results.
+ */
+public final class ThroughputBenchmark {
+	private static final String ENCOUNTER_ROUTE = "encounterQueue";
+
+	private final ConcurrentHashMap<String, Long> sentNanos = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<Long> endToEndLatencies = new ConcurrentLinkedQueue<>();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final AtomicLong lastCompletedNanos = new AtomicLong();
+
+	public static void main(final String[] args) throws Exception {
+		int port = 8888;
+		int connections = 4;
+		int messagesPerConnection = 5000;
+		int window = 32;
+		int warmup = 1000;
+		double a08Ratio = 0.5;
+		int patients = 1000;
+		long drainTimeoutSeconds = 120;
+		double minThroughput = 0;
+		double maxAckP99Millis = 0;
+		double maxEndToEndP99Millis = 0;
+		List<String> applicationArgs = new ArrayList<>(Arrays.asList("--logging.level.root=WARN",
+				"--ronin.mdaoc-simulator.enabled=true",
+				"--ronin.spool.directory=" + Files.createTempDirectory("benchmark-spool")));
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].contains("=")) {
+				applicationArgs.add(args[i]);
+				continue;
+			}
+			String option = args[i];
+			String value = args[++i];
+			switch (option) {
+			case "--port":
+				port = Integer.parseInt(value);
+				break;
+			case "--connections":
+				connections = Integer.parseInt(value);
+				break;
+			case "--messages":
+				messagesPerConnection = Integer.parseInt(value);
+				break;
+			case "--window":
+				window = Integer.parseInt(value);
+				break;
+			case "--warmup":
+				warmup = Integer.parseInt(value);
+				break;
+			case "--a08-ratio":
+				a08Ratio = Double.parseDouble(value);
+				break;
+			case "--patients":
+				patients = Integer.parseInt(value);
+				break;
+			case "--drain-timeout-seconds":
+				drainTimeoutSeconds = Long.parseLong(value);
+				break;
+			case "--min-throughput":
+				minThroughput = Double.parseDouble(value);
+				break;
+			case "--max-ack-p99-millis":
+				maxAckP99Millis = Double.parseDouble(value);
+				break;
+			case "--max-end-to-end-p99-millis":
+				maxEndToEndP99Millis = Double.parseDouble(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+
+		ThroughputBenchmark benchmark = new ThroughputBenchmark();
+		List<String> messages = messageMix(a08Ratio);
+		List<String> failures = new ArrayList<>();
+
+		try (ConfigurableApplicationContext context = benchmark.start(applicationArgs)) {
+			if (warmup > 0) {
+				benchmark.run(port, 1, warmup, window, messages, patients, drainTimeoutSeconds);
+				System.out.println("Warm-up: " + benchmark.getEndToEndSummary(0));
+			}
+
+			long start = System.nanoTime();
+			MllpLoadGenerator.Result result = benchmark.run(port, connections, messagesPerConnection, window, messages,
+					patients, drainTimeoutSeconds);
+			System.out.println("ACK: " + result);
+			System.out.println("End to end: " + benchmark.getEndToEndSummary(start));
+
+			if (minThroughput > 0 && result.getMessagesPerSecond() < minThroughput) {
+				failures.add(String.format("throughput %.1f msgs/sec is below %.1f", result.getMessagesPerSecond(),
+						minThroughput));
+			}
+			if (maxAckP99Millis > 0 && result.getLatencyMillis(99) > maxAckP99Millis) {
+				failures.add(String.format("ACK p99 %.2fms is above %.2fms", result.getLatencyMillis(99),
+						maxAckP99Millis));
+			}
+			if (maxEndToEndP99Millis > 0 && benchmark.getEndToEndLatencyMillis(99) > maxEndToEndP99Millis) {
+				failures.add(String.format("end-to-end p99 %.2fms is above %.2fms",
+						benchmark.getEndToEndLatencyMillis(99), maxEndToEndP99Millis));
+			}
+			if (result.getOutOfOrder() > 0) {
+				failures.add(String.format("%d ACKs were returned out of order", result.getOutOfOrder()));
+			}
+			if (benchmark.completed.sum() < result.getMessages()) {
+				failures.add(String.format("only %d of %d messages completed their encounter lookup",
+						benchmark.completed.sum(), result.getMessages()));
+			}
+		}
+
+		failures.forEach(failure -> System.out.println("FAILED: " + failure));
+		System.exit(failures.isEmpty() ? 0 : 1);
+	}
+
+	private ConfigurableApplicationContext start(final List<String> applicationArgs) {
+		// Registered before the context starts, so Camel enables exchange events for it.
+		EventNotifierSupport notifier = new EventNotifierSupport() {
+			@Override
+			public boolean isEnabled(final CamelEvent event) {
+				return event instanceof ExchangeCompletedEvent;
+			}
+
+			@Override
+			public void notify(final CamelEvent event) {
+				Exchange exchange = ((ExchangeCompletedEvent) event).getExchange();
+				if (ENCOUNTER_ROUTE.equals(exchange.getFromRouteId())) {
+					completed(exchange);
+				}
+			}
+		};
+		return new SpringApplicationBuilder(CamelDemo.class)
+				.initializers(context -> context.getBeanFactory().registerSingleton("benchmarkNotifier", notifier))
+				.run(applicationArgs.toArray(new String[0]));
+	}
+
+	/**
+	 * Sends the messages, then waits for every one that was accepted to complete
+	 * its encounter lookup. Statistics from any previous run are discarded.
+	 */
+	private MllpLoadGenerator.Result run(final int port, final int connections, final int messagesPerConnection,
+			final int window, final List<String> messages, final int patients, final long drainTimeoutSeconds)
+			throws Exception {
+		sentNanos.clear();
+		endToEndLatencies.clear();
+		completed.reset();
+		failed.reset();
+		lastCompletedNanos.set(0);
+
+		MllpLoadGenerator generator = new MllpLoadGenerator("localhost", port, window, messages, patients);
+		generator.setSendListener(sentNanos::put);
+		MllpLoadGenerator.Result result = generator.run(connections, messagesPerConnection);
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeoutSeconds);
+		while (completed.sum() + failed.sum() < result.getMessages() && System.nanoTime() < deadline) {
+			Thread.sleep(100);
+		}
+		return result;
+	}
+
+	private void completed(final Exchange exchange) {
+		long now = System.nanoTime();
+		Long sent = sentNanos.remove(getControlId(exchange.getMessage().getBody(String.class)));
+		if (sent == null) {
+			// A redelivery of a message that has already been counted, or one from an earlier run.
+			return;
+		}
+		if (exchange.getException() != null || exchange.getProperty(Exchange.EXCEPTION_CAUGHT) != null) {
+			failed.increment();
+			return;
+		}
+		endToEndLatencies.add(now - sent);
+		lastCompletedNanos.accumulateAndGet(now, Math::max);
+		completed.increment();
+	}
+
+	/**
+	 * Returns the end-to-end latency at the given percentile (0-100) in
+	 * milliseconds.
+	 */
+	double getEndToEndLatencyMillis(final double percentile) {
+		long[] sorted = endToEndLatencies.stream().mapToLong(Long::longValue).sorted().toArray();
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0;
+	}
+
+	/**
+	 * @param startNanos when the run started, or 0 to leave out the throughput
+	 */
+	private String getEndToEndSummary(final long startNanos) {
+		String summary = String.format("%d encounter lookups completed (%d failed), latency p50 %.2fms p99 %.2fms",
+				completed.sum(), failed.sum(), getEndToEndLatencyMillis(50), getEndToEndLatencyMillis(99));
+		if (startNanos == 0) {
+			return summary;
+		}
+		double elapsedSeconds = (lastCompletedNanos.get() - startNanos) / 1_000_000_000.0;
+		return String.format("%s, %.1f msgs/sec", summary, completed.sum() / elapsedSeconds);
+	}
+
+	/**
+	 * @return {@code a08Ratio} of 100 messages as ADT^A08 updates, the rest as
+	 *         ADT^A01 admits, interleaved evenly
+	 */
+	static List<String> messageMix(final double a08Ratio) {
+		String a08 = MllpLoadGenerator.SAMPLE_ADT_A01.replace("ADT^A01^ADT_A01", "ADT^A08^ADT_A01").replace("EVN|A01",
+				"EVN|A08");
+		List<String> messages = new ArrayList<>();
+		double owed = 0;
+		for (int i = 0; i < 100; i++) {
+			owed += a08Ratio;
+			if (owed >= 1) {
+				messages.add(a08);
+				owed -= 1;
+			} else {
+				messages.add(MllpLoadGenerator.SAMPLE_ADT_A01);
+			}
+		}
+		return messages;
+	}
+
+	private static String getControlId(final String message) {
+		if (message == null) {
+			return "";
+		}
+		int segmentEnd = message.indexOf('\r');
+		String[] msh = (segmentEnd < 0 ? message : message.substring(0, segmentEnd)).split("\\|", -1);
+		return msh.length > 9 ? msh[9] : "";
+	}
+}
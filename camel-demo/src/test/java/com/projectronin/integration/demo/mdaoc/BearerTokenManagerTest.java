@@ -0,0 +1,189 @@
+package com.projectronin.integration.demo.mdaoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.projectronin.integration.demo.configuration.MdaOcConfiguration;
+
+public class BearerTokenManagerTest {
+	private static final Instant NOW = Instant.parse("2021-07-08T12:00:00Z");
+
+	@Test
+	public void concurrentCallersShareOneRequest() throws Exception {
+		StubSts sts = new StubSts(200);
+		BearerTokenManager manager = newManager(sts);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<String>> tokens = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				tokens.add(executor.submit(() -> {
+					start.await();
+					return manager.getToken();
+				}));
+			}
+			start.countDown();
+
+			for (Future<String> token : tokens) {
+				assertEquals("token1", token.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, sts.requests.get());
+		assertEquals(1, manager.getRefreshCount());
+	}
+
+	@Test
+	public void rejectedTokenIsReplacedOnce() {
+		StubSts sts = new StubSts(0);
+		BearerTokenManager manager = newManager(sts);
+
+		String rejected = manager.getToken();
+		String replacement = manager.refreshAfterRejection(rejected);
+
+		assertNotEquals(rejected, replacement);
+		// A second caller holding the same rejected token gets the replacement without another request.
+		assertEquals(replacement, manager.refreshAfterRejection(rejected));
+		assertEquals(2, sts.requests.get());
+	}
+
+	@Test
+	public void expiredJwtIsRefreshed() {
+		String jwt = jwtExpiringAt(NOW.getEpochSecond() - 1);
+		StubSts sts = new StubSts(0) {
+			@Override
+			String nextToken(final int request) {
+				return jwt;
+			}
+		};
+		BearerTokenManager manager = newManager(sts);
+
+		manager.getToken();
+		manager.getToken();
+
+		assertEquals(2, sts.requests.get());
+	}
+
+	@Test
+	public void refreshIsScheduledBeforeExpiry() {
+		BearerTokenManager manager = newManager(new StubSts(0));
+
+		assertEquals(3_540_000, manager.getRefreshDelayMillis(3_600_000));
+		// Tokens living no longer than the 60s skew are refreshed half way through, and never immediately.
+		assertEquals(15_000, manager.getRefreshDelayMillis(30_000));
+		assertEquals(1_000, manager.getRefreshDelayMillis(500));
+	}
+
+	@Test
+	public void shortLivedTokenIsNotRefreshedInALoop() throws Exception {
+		String jwt = jwtExpiringAt(NOW.getEpochSecond() + 30);
+		StubSts sts = new StubSts(0) {
+			@Override
+			String nextToken(final int request) {
+				return jwt;
+			}
+		};
+		BearerTokenManager manager = newManager(sts);
+		manager.startRefreshing();
+		try {
+			manager.getToken();
+			Thread.sleep(500);
+		} finally {
+			manager.stopRefreshing();
+		}
+
+		assertEquals(1, sts.requests.get());
+	}
+
+	@Test
+	public void serverErrorsAreRetried() {
+		StubSts sts = new StubSts(0) {
+			@Override
+			String nextToken(final int request) {
+				if (request < 3) {
+					throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+				}
+				return "token" + request;
+			}
+		};
+		BearerTokenManager manager = newManager(sts);
+
+		assertEquals("token3", manager.getToken());
+		assertEquals(1, manager.getRefreshCount());
+	}
+
+	@Test
+	public void failuresAreCounted() {
+		StubSts sts = new StubSts(0) {
+			@Override
+			String nextToken(final int request) {
+				throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+			}
+		};
+		BearerTokenManager manager = newManager(sts);
+
+		assertThrows(HttpServerErrorException.class, manager::getToken);
+		assertEquals(5, sts.requests.get());
+		assertEquals(1, manager.getRefreshFailureCount());
+	}
+
+	private static String jwtExpiringAt(final long exp) {
+		return "header." + Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(String.format("{\"exp\":%d}", exp).getBytes(StandardCharsets.UTF_8)) + ".signature";
+	}
+
+	private BearerTokenManager newManager(final RestTemplate restTemplate) {
+		MdaOcConfiguration configuration = new MdaOcConfiguration();
+		configuration.setStsEndpoint("http://localhost/auth/token");
+		return new BearerTokenManager(restTemplate, configuration, Clock.fixed(NOW, ZoneOffset.UTC), 1);
+	}
+
+	private static class StubSts extends RestTemplate {
+		private final AtomicInteger requests = new AtomicInteger();
+		private final long delayMillis;
+
+		StubSts(final long delayMillis) {
+			this.delayMillis = delayMillis;
+		}
+
+		String nextToken(final int request) {
+			return "token" + request;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> ResponseEntity<T> postForEntity(final String url, final Object request,
+				final Class<T> responseType, final Object... uriVariables) {
+			int count = requests.incrementAndGet();
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return (ResponseEntity<T>) ResponseEntity.ok(nextToken(count));
+		}
+	}
+}
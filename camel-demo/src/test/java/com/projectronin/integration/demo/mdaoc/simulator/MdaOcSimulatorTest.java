@@ -0,0 +1,110 @@
+package com.projectronin.integration.demo.mdaoc.simulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Encounter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.projectronin.integration.demo.camel.service.EncounterService;
+import com.projectronin.integration.demo.camel.service.SupportedMessageTypes;
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
+import com.projectronin.integration.demo.configuration.MdaOcConfiguration;
+import com.projectronin.integration.demo.configuration.MdaOcSimulatorConfiguration;
+import com.projectronin.integration.demo.configuration.QueueConfiguration;
+import com.projectronin.integration.demo.mdaoc.BearerTokenManager;
+import com.projectronin.integration.demo.mdaoc.MdaOcClient;
+import com.projectronin.integration.demo.metrics.PipelineMetrics;
+
+import ca.uhn.fhir.context.FhirContext;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MdaOcSimulatorTest {
+	private static final String SEARCH = "/oc/api/FHIR/STU3/Encounter?patient=fhir3&date=ge2021-07-01&date=le2021-07-08";
+
+	private final MdaOcSimulatorConfiguration simulatorConfiguration = new MdaOcSimulatorConfiguration();
+	private MdaOcSimulator simulator;
+	private MdaOcClient client;
+	private EncounterService encounterService;
+
+	@BeforeEach
+	public void startSimulator() throws Exception {
+		simulatorConfiguration.setPort(0);
+		simulatorConfiguration.setPatientCount(10);
+		simulatorConfiguration.setEncountersPerPatient(5);
+		simulatorConfiguration.setPageSize(2);
+		simulator = new MdaOcSimulator(simulatorConfiguration);
+
+		MdaOcConfiguration mdaOcConfiguration = new MdaOcConfiguration();
+		mdaOcConfiguration.setApiEndpoint(String.format("http://localhost:%d/api", simulator.getPort()));
+		mdaOcConfiguration.setStsEndpoint(String.format("http://localhost:%d/auth/token", simulator.getPort()));
+
+		RestTemplate restTemplate = new RestTemplate();
+		client = new MdaOcClient(restTemplate, new BearerTokenManager(restTemplate, mdaOcConfiguration),
+				mdaOcConfiguration, new PipelineMetrics(new SimpleMeterRegistry(),
+				new SupportedMessageTypes(new IngestConfiguration())));
+		encounterService = new EncounterService(client, FhirContext.forR4(), new QueueConfiguration());
+	}
+
+	@AfterEach
+	public void stopSimulator() {
+		encounterService.shutdown();
+		simulator.close();
+	}
+
+	@Test
+	public void encountersArePagedAndRepeatable() throws Exception {
+		List<Encounter> encounters = new ArrayList<>();
+		encounterService.loadEncountersFromUrl(SEARCH, encounters::add);
+
+		assertEquals(5, encounters.size());
+		assertEquals(5, new HashSet<>(ids(encounters)).size());
+		for (Encounter encounter : encounters) {
+			assertEquals("Patient/fhir3", encounter.getSubject().getReference());
+			Date start = encounter.getPeriod().getStart();
+			assertTrue(!start.toInstant().isBefore(Instant.parse("2021-07-01T00:00:00Z"))
+					&& start.toInstant().isBefore(Instant.parse("2021-07-09T00:00:00Z")), start.toString());
+		}
+
+		List<Encounter> again = new ArrayList<>();
+		encounterService.loadEncountersFromUrl(SEARCH, again::add);
+		assertEquals(ids(encounters), ids(again));
+	}
+
+	@Test
+	public void onlyConfiguredPatientsAreFound() throws Exception {
+		String identifiers = client.get("/oc/patient/0MRN003/identifiers/type/MRN", String.class).getBody();
+		assertTrue(identifiers.contains("\"fhir3\""), identifiers);
+
+		assertThrows(HttpClientErrorException.NotFound.class,
+				() -> client.get("/oc/patient/0MRN123/identifiers/type/MRN", String.class));
+	}
+
+	@Test
+	public void failsAtTheConfiguredRate() {
+		simulatorConfiguration.setErrorRate(1);
+
+		assertThrows(HttpServerErrorException.InternalServerError.class,
+				() -> encounterService.loadEncountersFromUrl(SEARCH, encounter -> {
+				}));
+	}
+
+	private static List<String> ids(final List<Encounter> encounters) {
+		List<String> ids = new ArrayList<>();
+		encounters.forEach(encounter -> ids.add(encounter.getIdElement().getIdPart()));
+		return ids;
+	}
+}
@@ -0,0 +1,82 @@
+package com.projectronin.integration.demo.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+
+import com.projectronin.integration.demo.camel.service.SupportedMessageTypes;
+import com.projectronin.integration.demo.configuration.IngestConfiguration;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PipelineMetricsTest {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final PipelineMetrics pipelineMetrics = new PipelineMetrics(meterRegistry,
+			new SupportedMessageTypes(new IngestConfiguration()));
+	private final CamelContext camelContext = new DefaultCamelContext();
+
+	@Test
+	public void tagsStageWithHeadersSetDuringIt() throws Exception {
+		Exchange exchange = new DefaultExchange(camelContext);
+		pipelineMetrics.timed("tenant", (Exchange e) -> {
+			e.getIn().setHeader("tenant", "1");
+			e.getIn().setHeader("messageType", "ADT^A01");
+		}).process(exchange);
+
+		Timer timer = meterRegistry.find(PipelineMetrics.STAGE_TIMER).tags("stage", "tenant", "tenant", "1",
+				"messageType", "ADT^A01").timer();
+		assertNotNull(timer);
+		assertEquals(1, timer.count());
+	}
+
+	@Test
+	public void tagsHttpRequestWithMessageOnCallingThread() throws Exception {
+		Exchange exchange = new DefaultExchange(camelContext);
+		exchange.getIn().setHeader("tenant", "2");
+		exchange.getIn().setHeader("messageType", "ADT^A04");
+
+		AtomicReference<PipelineMetrics.HttpSample> sample = new AtomicReference<>();
+		pipelineMetrics.timed("lookup", (Exchange e) -> sample.set(pipelineMetrics.startHttp("mdaoc", "GET")))
+				.process(exchange);
+		// Completes outside the stage, as it would on an I/O thread.
+		sample.get().stop(200);
+		pipelineMetrics.startHttp("mdaoc", "GET").stop(null);
+
+		Timer tagged = meterRegistry.find(PipelineMetrics.HTTP_TIMER).tags("tenant", "2", "messageType", "ADT^A04",
+				"status", "200").timer();
+		assertNotNull(tagged);
+		assertEquals(1, tagged.count());
+		Timer untagged = meterRegistry.find(PipelineMetrics.HTTP_TIMER).tags("tenant", "unknown", "status", "IO_ERROR")
+				.timer();
+		assertNotNull(untagged);
+		assertEquals(1, untagged.count());
+	}
+
+	@Test
+	public void unsupportedAndSurplusMessageTypesAreTaggedOther() throws Exception {
+		for (int i = 0; i < PipelineMetrics.MAX_MESSAGE_TYPES + 10; i++) {
+			Exchange exchange = new DefaultExchange(camelContext);
+			exchange.getIn().setHeader("messageType", String.format("ADT^Z%02d", i));
+			pipelineMetrics.timed("parse", (Exchange e) -> {
+			}).process(exchange);
+
+			exchange.getIn().setHeader("messageType", "ORU^R" + i);
+			pipelineMetrics.timed("parse", (Exchange e) -> {
+			}).process(exchange);
+		}
+
+		assertEquals(PipelineMetrics.MAX_MESSAGE_TYPES + 1,
+				meterRegistry.find(PipelineMetrics.STAGE_TIMER).timers().size());
+		Timer other = meterRegistry.find(PipelineMetrics.STAGE_TIMER).tags("messageType", "other").timer();
+		assertNotNull(other);
+		assertEquals(PipelineMetrics.MAX_MESSAGE_TYPES + 20, other.count());
+	}
+}
@@ -0,0 +1,92 @@
+package com.projectronin.integration.demo.sequencing;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class SequencingExecutorTest {
+	private final SequencingExecutor executor = new SequencingExecutor("test-sequencer", 4, 100);
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		executor.shutdown(TimeUnit.SECONDS.toMillis(5));
+	}
+
+	@Test
+	public void tasksForOneKeyRunInOrderEvenWhenTheyCompleteAsynchronously() throws Exception {
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		CompletableFuture<Void> first = new CompletableFuture<>();
+		CountDownLatch done = new CountDownLatch(3);
+
+		executor.submit("1002:MRN1", () -> {
+			order.add(1);
+			return first.whenComplete((result, e) -> done.countDown());
+		});
+		for (int i = 2; i <= 3; i++) {
+			int task = i;
+			executor.submit("1002:MRN1", () -> {
+				order.add(task);
+				done.countDown();
+				return CompletableFuture.completedFuture(null);
+			});
+		}
+
+		assertEquals(3, executor.getQueueDepth("1002:MRN1"));
+		Thread.sleep(50);
+		assertEquals(Collections.singletonList(1), order);
+
+		first.complete(null);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(asList(1, 2, 3), order);
+	}
+
+	@Test
+	public void differentKeysRunInParallel() throws Exception {
+		CountDownLatch bothStarted = new CountDownLatch(2);
+		List<Boolean> sawOther = Collections.synchronizedList(new ArrayList<>());
+
+		for (String key : asList("1002:MRN1", "1002:MRN2")) {
+			executor.submit(key, () -> {
+				bothStarted.countDown();
+				try {
+					// Only passes if the other key's task is running at the same time.
+					sawOther.add(bothStarted.await(5, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return CompletableFuture.completedFuture(null);
+			});
+		}
+
+		assertTrue(executor.shutdown(TimeUnit.SECONDS.toMillis(10)));
+		assertEquals(asList(true, true), sawOther);
+	}
+
+	@Test
+	public void failedTasksReleaseTheirKey() throws Exception {
+		CountDownLatch ran = new CountDownLatch(1);
+		executor.submit("1002:MRN1", () -> {
+			throw new IllegalStateException("Expected");
+		});
+		executor.submit("1002:MRN1", () -> {
+			ran.countDown();
+			return CompletableFuture.completedFuture(null);
+		});
+
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertTrue(executor.shutdown(TimeUnit.SECONDS.toMillis(5)));
+		assertEquals(0, executor.getActiveKeys());
+		assertEquals(0, executor.getPendingTasks());
+		assertEquals(2, executor.getStartedTasks());
+	}
+}
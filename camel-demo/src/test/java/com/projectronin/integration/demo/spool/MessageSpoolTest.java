@@ -0,0 +1,229 @@
+package com.projectronin.integration.demo.spool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MessageSpoolTest {
+	// Small segments, so records regularly cross into the next one.
+	private static final int SEGMENT_BYTES = 4096;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void committedRecordsAreNotReadAgainAfterReopening() throws Exception {
+		MessageSpool spool = new MessageSpool(directory, SEGMENT_BYTES, 0);
+		for (int i = 0; i < 500; i++) {
+			spool.append(record(i));
+		}
+		spool.append(record(500)).get(5, TimeUnit.SECONDS);
+
+		MessageSpool.Batch batch = spool.read(200, 0);
+		assertRecords(0, 200, batch);
+		spool.commit(batch);
+		assertEquals(301, spool.getBacklogRecords());
+		spool.close();
+
+		spool = new MessageSpool(directory, SEGMENT_BYTES, 0);
+		assertEquals(301, spool.getBacklogRecords());
+		assertRecords(200, 301, spool.read(1000, 0));
+		spool.close();
+
+		// Segments wholly before the checkpoint have been removed.
+		assertTrue(segmentCount() < 500 * record(499).length / SEGMENT_BYTES);
+	}
+
+	@Test
+	public void tornWriteAtTheEndIsDiscarded() throws Exception {
+		MessageSpool spool = new MessageSpool(directory, SEGMENT_BYTES, 0);
+		spool.append(record(0));
+		spool.append(record(1)).get(5, TimeUnit.SECONDS);
+		spool.close();
+
+		// A record whose payload never made it to disk.
+		long end = 2 * (8 + record(0).length);
+		try (RandomAccessFile file = new RandomAccessFile(lastSegment(), "rw")) {
+			file.seek(end);
+			file.writeInt(100);
+			file.writeInt(12345);
+			file.write("garbage".getBytes(StandardCharsets.UTF_8));
+		}
+
+		spool = new MessageSpool(directory, SEGMENT_BYTES, 0);
+		assertEquals(2, spool.getBacklogRecords());
+		spool.append(record(2)).get(5, TimeUnit.SECONDS);
+		assertRecords(0, 3, spool.read(10, 0));
+		spool.close();
+	}
+
+	@Test
+	public void recordsThatExactlyFillASegmentAreFollowedByTheNextOne() throws Exception {
+		// Two 32 byte records fill each segment, leaving no room for a roll marker.
+		MessageSpool spool = new MessageSpool(directory, 64, 0);
+		for (int i = 0; i < 4; i++) {
+			spool.append(payload(i, 24));
+		}
+		spool.append(payload(4, 24)).get(5, TimeUnit.SECONDS);
+		assertPayloads(0, 5, 24, spool.read(10, 0));
+		spool.close();
+
+		spool = new MessageSpool(directory, 64, 0);
+		assertEquals(5, spool.getBacklogRecords());
+		assertPayloads(0, 5, 24, spool.read(10, 0));
+		spool.close();
+	}
+
+	@Test
+	public void appendsAfterCommittingUpToASegmentBoundaryGoToTheNextSegment() throws Exception {
+		MessageSpool spool = new MessageSpool(directory, 64, 0);
+		spool.append(payload(0, 24));
+		spool.append(payload(1, 24)).get(5, TimeUnit.SECONDS);
+		MessageSpool.Batch batch = spool.read(10, 0);
+		assertPayloads(0, 2, 24, batch);
+		// Deletes the full segment.
+		spool.commit(batch);
+
+		spool.append(payload(2, 24)).get(5, TimeUnit.SECONDS);
+		assertPayloads(2, 1, 24, spool.read(10, 0));
+		spool.close();
+
+		spool = new MessageSpool(directory, 64, 0);
+		assertPayloads(2, 1, 24, spool.read(10, 0));
+		spool.close();
+	}
+
+	@Test
+	public void recordsOfEverySizeRollIntoTheNextSegment() throws Exception {
+		// Covers segments ending with room for a roll marker, without it, and exactly full.
+		for (int length = 1; length <= 56; length++) {
+			Path sizeDirectory = directory.resolve(Integer.toString(length));
+			MessageSpool spool = new MessageSpool(sizeDirectory, 64, 0);
+			for (int i = 0; i < 9; i++) {
+				spool.append(payload(i, length));
+			}
+			spool.append(payload(9, length)).get(5, TimeUnit.SECONDS);
+			assertPayloads(0, 10, length, spool.read(100, 0));
+			spool.close();
+
+			spool = new MessageSpool(sizeDirectory, 64, 0);
+			assertPayloads(0, 10, length, spool.read(100, 0));
+			spool.close();
+		}
+	}
+
+	@Test
+	public void emptyRecordsAreRejected() throws Exception {
+		MessageSpool spool = new MessageSpool(directory, SEGMENT_BYTES, 0);
+		spool.append(record(0));
+		// Recovery stops at a zero length, so an empty record would lose every record after it.
+		assertThrows(IllegalArgumentException.class, () -> spool.append(new byte[0]));
+		spool.append(record(1)).get(5, TimeUnit.SECONDS);
+		spool.close();
+
+		MessageSpool reopened = new MessageSpool(directory, SEGMENT_BYTES, 0);
+		assertRecords(0, 2, reopened.read(10, 0));
+		reopened.close();
+	}
+
+	/**
+	 * Covers a crash of the process only. The operating system still writes out
+	 * everything it has cached, so this does not show that the spool's forces,
+	 * including those of its directory, survive a power failure.
+	 */
+	@Test
+	public void acknowledgedRecordsSurviveTheProcessBeingKilled() throws Exception {
+		Process writer = new ProcessBuilder(
+				Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp",
+				System.getProperty("java.class.path"), SpoolCrashWriter.class.getName(), directory.toString(),
+				Integer.toString(SEGMENT_BYTES)).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+		int lastAcknowledged = -1;
+		try (BufferedReader acknowledged = new BufferedReader(
+				new InputStreamReader(writer.getInputStream(), StandardCharsets.UTF_8))) {
+			// Kill it mid-stream, once plenty of records have been acknowledged.
+			while (lastAcknowledged < 5000) {
+				String line = acknowledged.readLine();
+				if (line == null) {
+					break;
+				}
+				lastAcknowledged = Math.max(lastAcknowledged, Integer.parseInt(line));
+			}
+			writer.destroyForcibly();
+			writer.waitFor(10, TimeUnit.SECONDS);
+		}
+		assertTrue(lastAcknowledged >= 5000, "The writer stopped before it was killed");
+
+		MessageSpool spool = new MessageSpool(directory, SEGMENT_BYTES, 0);
+		List<byte[]> records = spool.read(Integer.MAX_VALUE, 0).getRecords();
+		spool.close();
+
+		// Every acknowledged record is there, in order, with nothing missing in between.
+		assertTrue(records.size() > lastAcknowledged);
+		for (int i = 0; i < records.size(); i++) {
+			assertArrayEquals(record(i), records.get(i));
+		}
+	}
+
+	static byte[] record(final int i) {
+		return String.format("MSH|^~\\&|EPIC|MDA|||20210708||ADT^A01|%08d|P|2.6\rPID|||MRN%08d^^^^MR", i, i)
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return {@code length} bytes, all {@code i}, so records of any length can
+	 *         be told apart
+	 */
+	private static byte[] payload(final int i, final int length) {
+		byte[] payload = new byte[length];
+		Arrays.fill(payload, (byte) ('A' + i));
+		return payload;
+	}
+
+	private void assertPayloads(final int from, final int count, final int length, final MessageSpool.Batch batch) {
+		assertEquals(count, batch.getRecords().size());
+		for (int i = 0; i < count; i++) {
+			assertArrayEquals(payload(from + i, length), batch.getRecords().get(i));
+		}
+	}
+
+	private void assertRecords(final int from, final int count, final MessageSpool.Batch batch) {
+		assertEquals(count, batch.getRecords().size());
+		for (int i = 0; i < count; i++) {
+			assertArrayEquals(record(from + i), batch.getRecords().get(i));
+		}
+	}
+
+	private long segmentCount() throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.toString().endsWith(".seg")).count();
+		}
+	}
+
+	private File lastSegment() throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			List<Path> segments = files.filter(file -> file.toString().endsWith(".seg")).sorted()
+					.collect(Collectors.toCollection(ArrayList::new));
+			return segments.get(segments.size() - 1).toFile();
+		}
+	}
+}
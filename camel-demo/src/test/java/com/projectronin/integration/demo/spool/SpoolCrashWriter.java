@@ -0,0 +1,31 @@
+package com.projectronin.integration.demo.spool;
+
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Appends numbered records to a spool as fast as it can, printing each
+ * record's number once the spool reports it is on disk, until the process is
+ * killed. Run in a separate JVM by {@link MessageSpoolTest}. Killing the
+ * process does not drop the operating system's cache, so this cannot show
+ * what survives a power failure.
+ */
+public class SpoolCrashWriter {
+	public static void main(final String[] args) throws Exception {
+		MessageSpool spool = new MessageSpool(Paths.get(args[0]), Integer.parseInt(args[1]), 0);
+		for (int i = 0;; i++) {
+			int record = i;
+			CompletableFuture<Void> onDisk = spool.append(MessageSpoolTest.record(record)).thenRun(() -> {
+				synchronized (System.out) {
+					System.out.println(record);
+					System.out.flush();
+				}
+			});
+
+			// Keep a few flushes' worth in flight, rather than racing arbitrarily far ahead.
+			if (i % 64 == 63) {
+				onDisk.join();
+			}
+		}
+	}
+}
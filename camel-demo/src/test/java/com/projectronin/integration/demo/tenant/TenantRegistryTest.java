@@ -0,0 +1,60 @@
+package com.projectronin.integration.demo.tenant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TenantRegistryTest {
+	@TempDir
+	Path directory;
+
+	@Test
+	public void bundledTenantsAreLoadedWhenNoFileIsConfigured() throws Exception {
+		TenantRegistry registry = new TenantRegistry((Path) null, 0);
+
+		assertEquals(Optional.of(1001), registry.getTenantId("1"));
+		assertEquals(Optional.of(1002), registry.getTenantId("MDA"));
+		assertEquals(Optional.empty(), registry.getTenantId("UNKNOWN"));
+		assertEquals(Optional.empty(), registry.getTenantId(null));
+	}
+
+	@Test
+	public void changedFileReplacesTenants() throws Exception {
+		Path file = write("MDA=1002\n", 1_000);
+		TenantRegistry registry = new TenantRegistry(file, 0);
+		assertFalse(registry.reloadIfChanged());
+
+		write("MDA=1002\nPSJ=1003\n", 2_000);
+		assertTrue(registry.reloadIfChanged());
+
+		assertEquals(Optional.of(1003), registry.getTenantId("PSJ"));
+	}
+
+	@Test
+	public void invalidFileKeepsCurrentTenants() throws Exception {
+		Path file = write("MDA=1002\n", 1_000);
+		TenantRegistry registry = new TenantRegistry(file, 0);
+
+		write("MDA=not-a-number\n", 2_000);
+		assertFalse(registry.reloadIfChanged());
+
+		assertEquals(Optional.of(1002), registry.getTenantId("MDA"));
+	}
+
+	private Path write(final String contents, final long lastModifiedMillis) throws Exception {
+		Path file = directory.resolve("tenants.properties");
+		Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+		// Pin the timestamp so back-to-back writes are always seen as a change.
+		Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedMillis));
+		return file;
+	}
+}
@@ -12,4 +12,6 @@ dependencies {
 
     implementation(libs.commons.text)
     implementation(libs.mockk)
+
+    testImplementation("org.jetbrains.kotlin:kotlin-test")
 }
@@ -8,12 +8,18 @@ import com.projectronin.interop.dataloader.oci.ExperimentationOCIClient
 import com.projectronin.interop.fhir.r4.resource.Patient
 import com.projectronin.interop.fhir.r4.resource.Resource
 import com.projectronin.interop.tenant.config.model.Tenant
+import io.ktor.client.plugins.HttpSend
+import io.ktor.client.plugins.plugin
+import io.ktor.http.Url
 import io.mockk.mockk
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import mu.KotlinLogging
 import java.io.BufferedWriter
 import java.io.File
 import java.io.FileWriter
 import java.nio.file.Paths
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.io.path.createDirectory
 
 /**
@@ -26,6 +32,7 @@ abstract class BaseLoader() {
     val expOCIClient = ExperimentationOCIClient.fromEnvironmentVariables()
     val logger = KotlinLogging.logger { }
     val httpClient = HttpSpringConfig().getHttpClient()
+    private val requestLimits = ConcurrentHashMap<String, RequestLimit>()
 
     init {
         runCatching { Paths.get("loaded").createDirectory() }
@@ -61,12 +68,17 @@ abstract class BaseLoader() {
         timeStamp: String,
     ) = expOCIClient.uploadExport(tenant, resourceType, fileName, timeStamp)
 
+    /**
+     * Writes [resources] to a file named for [fileName] and uploads it to OCI. When [checkpoints] are given, the result
+     * of the upload is recorded, so a failed upload can be retried by [retryFailedUploads].
+     */
     fun <T : Resource<*>> writeAndUploadResources(
         tenant: Tenant,
         fileName: String,
         resources: List<T>,
         timeStamp: String,
         dryRun: Boolean = true,
+        checkpoints: CheckpointJournal? = null,
     ) {
         if (resources.isEmpty()) return
         val resourceType = resources.first().resourceType.lowercase()
@@ -84,12 +96,70 @@ abstract class BaseLoader() {
         }
         if (!dryRun) {
             // logger.info { "Uploading $pathName to OCI" }
-            expOCIClient.uploadExport(tenant, resourceType, pathName, timeStamp)
+            val uploaded = expOCIClient.uploadExport(tenant, resourceType, pathName, timeStamp)
+            checkpoints?.recordUpload(resourceType, pathName, uploaded)
         } else {
             logger.info { "Not uploading $pathName to OCI, mark dryRun = false to upload" }
         }
     }
 
+    /**
+     * Reads back the resources that [writeAndUploadResources] wrote for [fileName], or nothing if there weren't any.
+     */
+    fun <T : Resource<T>> readResources(
+        fileName: String,
+        resourceType: Class<T>,
+    ): List<T> {
+        val file = File("loaded/${resourceType.simpleName.lowercase()}/$fileName.json")
+        if (!file.exists()) return emptyList()
+
+        val objectMapper = JacksonManager.objectMapper
+        val listType = objectMapper.typeFactory.constructCollectionType(List::class.java, resourceType)
+        return objectMapper.readValue(file, listType)
+    }
+
+    /**
+     * Loads, writes and uploads the [resourceType] resources for [fileName], unless an earlier attempt at this run
+     * already did. In that case they are read back from the file written then, so the EHR calls aren't repeated.
+     */
+    inline fun <T : Resource<T>> loadCheckpointed(
+        tenant: Tenant,
+        fileName: String,
+        resourceType: Class<T>,
+        checkpoints: CheckpointJournal,
+        dryRun: Boolean = true,
+        load: () -> List<T>,
+    ): List<T> {
+        if (checkpoints.isCompleted(fileName, resourceType.simpleName)) {
+            return readResources(fileName, resourceType)
+        }
+
+        val resources = load()
+        writeAndUploadResources(tenant, fileName, resources, checkpoints.timestamp, dryRun, checkpoints)
+        checkpoints.markCompleted(fileName, resourceType.simpleName)
+        return resources
+    }
+
+    /**
+     * Uploads again the files whose upload failed during an earlier attempt at this run.
+     */
+    fun retryFailedUploads(
+        tenant: Tenant,
+        checkpoints: CheckpointJournal,
+        dryRun: Boolean = true,
+    ) {
+        val failedUploads = checkpoints.failedUploads()
+        if (failedUploads.isEmpty() || dryRun) return
+
+        logger.info { "Retrying ${failedUploads.size} failed uploads" }
+        failedUploads.forEach { (pathName, resourceType) ->
+            val uploaded =
+                File(pathName).exists() &&
+                    expOCIClient.uploadExport(tenant, resourceType, pathName, checkpoints.timestamp)
+            checkpoints.recordUpload(resourceType, pathName, uploaded)
+        }
+    }
+
     fun uploadString(
         tenant: Tenant,
         fileName: String,
@@ -98,6 +168,39 @@ abstract class BaseLoader() {
     ) {
     }
 
+    /**
+     * Holds the requests made to [tenant]'s EHR through [httpClient] to an average of [permitsPerSecond], with bursts
+     * of up to [burst], and to at most [maxConcurrentRequests] at once, however many coroutines are making them.
+     * Calling it again for the same EHR replaces its limits.
+     */
+    @Synchronized
+    fun limitRequestRate(
+        tenant: Tenant,
+        permitsPerSecond: Double,
+        burst: Int,
+        maxConcurrentRequests: Int,
+    ) {
+        val host = Url(tenant.vendor.serviceEndpoint).host
+        val installed = requestLimits.isNotEmpty()
+        requestLimits[host] = RequestLimit(TokenBucket(permitsPerSecond, burst), Semaphore(maxConcurrentRequests))
+        if (installed) return
+
+        // One interceptor serves every limited host, so calling this again doesn't stack another on the client.
+        httpClient.plugin(HttpSend).intercept { request ->
+            val limit = requestLimits[request.url.host]
+            if (limit == null) {
+                execute(request)
+            } else {
+                limit.permits.withPermit {
+                    limit.tokenBucket.acquire()
+                    execute(request)
+                }
+            }
+        }
+    }
+
+    private class RequestLimit(val tokenBucket: TokenBucket, val permits: Semaphore)
+
     abstract fun main()
 
     // Often times we're getting MRNs, this is a way to
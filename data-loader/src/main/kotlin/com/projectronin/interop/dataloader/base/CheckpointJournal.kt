@@ -0,0 +1,147 @@
+package com.projectronin.interop.dataloader.base
+
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileWriter
+import java.io.RandomAccessFile
+
+/**
+ * Append-only record of a load's progress, so a run that dies part way can be resumed under the same [timestamp]
+ * rather than starting over. It records each (key, resource type) pair that has been loaded and written, and whether
+ * each file was uploaded. Every record is flushed as it is made, so nothing is lost if the process is killed.
+ *
+ * Keys are whatever the loader names its files by, usually an MRN or FHIR ID.
+ */
+class CheckpointJournal private constructor(val timestamp: String, private val file: File) {
+    private val completed = HashSet<Pair<String, String>>()
+    private val failedUploads = LinkedHashMap<String, String>()
+    private var finished = false
+
+    init {
+        if (file.exists()) {
+            val text = file.readText()
+            // A last line cut short by the process dying is cut off, even if it looks whole, so later records start on
+            // a line of their own. The work it recorded is simply done again.
+            val complete = text.substring(0, text.lastIndexOf('\n') + 1)
+            if (complete.length < text.length) {
+                RandomAccessFile(file, "rw").use { it.setLength(complete.toByteArray().size.toLong()) }
+            }
+            complete.lines().forEach { line ->
+                val fields = line.split("\t")
+                when {
+                    fields[0] == COMPLETED && fields.size == 3 -> completed.add(fields[1] to fields[2])
+                    fields[0] == UPLOADED && fields.size == 3 -> failedUploads.remove(fields[2])
+                    fields[0] == FAILED && fields.size == 3 -> failedUploads[fields[2]] = fields[1]
+                    fields[0] == FINISHED -> finished = true
+                }
+            }
+        }
+    }
+
+    private val writer = BufferedWriter(FileWriter(file, true))
+
+    /**
+     * True if this is an earlier, unfinished run being picked up again.
+     */
+    val resumed = completed.isNotEmpty() || failedUploads.isNotEmpty()
+
+    @Synchronized
+    fun isCompleted(
+        key: String,
+        resourceType: String,
+    ): Boolean = (key to resourceType) in completed
+
+    @Synchronized
+    fun markCompleted(
+        key: String,
+        resourceType: String,
+    ) {
+        if (completed.add(key to resourceType)) {
+            append(COMPLETED, key, resourceType)
+        }
+    }
+
+    /**
+     * Records whether the file at [path] was uploaded to OCI under [resourceType].
+     */
+    @Synchronized
+    fun recordUpload(
+        resourceType: String,
+        path: String,
+        succeeded: Boolean,
+    ) {
+        if (succeeded) {
+            failedUploads.remove(path)
+            append(UPLOADED, resourceType, path)
+        } else {
+            failedUploads[path] = resourceType
+            append(FAILED, resourceType, path)
+        }
+    }
+
+    /**
+     * The files whose last upload failed, mapped to the resource type they were uploaded under.
+     */
+    @Synchronized
+    fun failedUploads(): Map<String, String> = failedUploads.toMap()
+
+    /**
+     * Marks the run as finished, so the next run starts afresh, unless some files are still waiting to be uploaded.
+     * Returns whether the run was marked.
+     */
+    @Synchronized
+    fun finish(): Boolean {
+        if (failedUploads.isNotEmpty()) {
+            return false
+        }
+        append(FINISHED)
+        writer.close()
+        return true
+    }
+
+    private fun append(vararg fields: String) {
+        writer.write(fields.joinToString("\t"))
+        writer.newLine()
+        writer.flush()
+    }
+
+    companion object {
+        /**
+         * Resource type recorded for a key once every resource type has been loaded for it.
+         */
+        const val ALL_RESOURCE_TYPES = "*"
+
+        private const val COMPLETED = "COMPLETED"
+        private const val UPLOADED = "UPLOADED"
+        private const val FAILED = "FAILED"
+        private const val FINISHED = "FINISHED"
+
+        /**
+         * Resumes the latest run of [loaderName] if it didn't finish, otherwise starts a new run timestamped now.
+         * Journals are kept under [directory]/[loaderName], named by their run's timestamp.
+         */
+        fun resumeOrStart(
+            loaderName: String,
+            directory: File = File("loaded/checkpoints"),
+        ): CheckpointJournal {
+            val loaderDirectory = File(directory, loaderName)
+            loaderDirectory.mkdirs()
+
+            val latest =
+                loaderDirectory.listFiles { _, name -> name.endsWith(".journal") }
+                    ?.mapNotNull { journal -> journal.nameWithoutExtension.toLongOrNull()?.let { it to journal } }
+                    ?.maxByOrNull { it.first }
+            if (latest != null) {
+                val journal = CheckpointJournal(latest.first.toString(), latest.second)
+                if (!journal.finished) {
+                    return journal
+                }
+                journal.writer.close()
+            }
+
+            // Always later than the last run, so a run started within the same millisecond doesn't reopen its journal.
+            val timestamp = maxOf(System.currentTimeMillis(), (latest?.first ?: 0) + 1).toString()
+            return CheckpointJournal(timestamp, File(loaderDirectory, "$timestamp.journal"))
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.projectronin.interop.dataloader.base
+
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.TimeUnit
+import kotlin.math.min
+
+/**
+ * Limits requests to an average of [permitsPerSecond], allowing bursts of up to [burst] after a quiet spell. Callers
+ * that find the bucket empty reserve the next token and suspend until it is due, so waiting callers are served in the
+ * order they arrived.
+ */
+class TokenBucket(
+    private val permitsPerSecond: Double,
+    private val burst: Int,
+    private val nanoTime: () -> Long = System::nanoTime,
+) {
+    private val mutex = Mutex()
+    private var tokens = burst.toDouble()
+    private var refilledAt = nanoTime()
+
+    suspend fun acquire() {
+        val waitNanos = reserve()
+        if (waitNanos > 0) {
+            delay(TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1)
+        }
+    }
+
+    /**
+     * Takes the next token, returning how many nanoseconds from now it is due.
+     */
+    internal suspend fun reserve(): Long =
+        mutex.withLock {
+            val now = nanoTime()
+            tokens = min(burst.toDouble(), tokens + (now - refilledAt) * permitsPerSecond / 1_000_000_000)
+            refilledAt = now
+
+            // Going below zero reserves a token that hasn't been added yet.
+            tokens -= 1
+            if (tokens >= 0) 0 else (-tokens / permitsPerSecond * 1_000_000_000).toLong()
+        }
+}
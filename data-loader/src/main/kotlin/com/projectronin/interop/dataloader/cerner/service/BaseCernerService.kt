@@ -7,6 +7,10 @@ import com.projectronin.interop.fhir.r4.resource.Resource
 import com.projectronin.interop.tenant.config.model.Tenant
 import io.ktor.client.call.body
 import io.ktor.util.reflect.TypeInfo
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.flow.transform
 import kotlinx.coroutines.runBlocking
 
 abstract class BaseCernerService<T : Resource<T>>(val cernerClient: CernerClient) {
@@ -18,40 +22,60 @@ abstract class BaseCernerService<T : Resource<T>>(val cernerClient: CernerClient
         tenant: Tenant,
         parameters: Map<String, Any?>,
     ): List<T> {
-        return getBundleWithPaging(tenant, parameters).entry.mapNotNull { it.resource }
-            .filterIsInstance(fhirResourceType)
+        return getResourceSequenceFromSearch(tenant, parameters).toList()
     }
 
-    fun getBundleWithPaging(
+    /**
+     * Suspending form of [getResourceListFromSearch], so callers can overlap searches rather than blocking a thread on
+     * each.
+     */
+    suspend fun getResourceListFromSearchSuspending(
         tenant: Tenant,
         parameters: Map<String, Any?>,
-    ): Bundle {
-        val standardizedParameters = standardizeParameters(parameters)
+    ): List<T> {
+        return getResourceFlowFromSearch(tenant, parameters).toList()
+    }
 
-        val responses: MutableList<Bundle> = mutableListOf()
-        var nextURL: String? = null
-        do {
-            val bundle =
-                runBlocking {
-                    val httpResponse =
-                        if (nextURL == null) {
-                            cernerClient.get(tenant, fhirURLSearchPart, standardizedParameters)
-                        } else {
-                            cernerClient.get(tenant, nextURL!!)
-                        }
-                    httpResponse.body<Bundle>()
-                }
+    /**
+     * Lazily yields the resources found by the search. Each page is only requested once the previous one has been
+     * consumed, so no more than one page is held at a time however large the result is.
+     */
+    fun getResourceSequenceFromSearch(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Sequence<T> {
+        return getBundlePages(tenant, parameters).flatMap { resourcesIn(it) }
+    }
+
+    /**
+     * Emits the resources found by the search page by page, like [getResourceSequenceFromSearch], but without
+     * blocking the collecting coroutine while each page is requested.
+     */
+    fun getResourceFlowFromSearch(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Flow<T> {
+        return getBundlePageFlow(tenant, parameters)
+            .transform { page -> resourcesIn(page).forEach { emit(it) } }
+    }
 
-            responses.add(bundle)
-            nextURL = bundle.link.firstOrNull { it.relation?.value == "next" }?.url?.value
-        } while (nextURL != null)
-        return mergeResponses(responses)
+    fun getBundleWithPaging(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Bundle {
+        return mergeResponses(getBundlePages(tenant, parameters).toList())
     }
 
+    /**
+     * Merges the pages of a search into one Bundle. The entries are gathered once and merged in a single step, rather
+     * than page by page, which would copy the growing entry list for every page.
+     */
     fun mergeResponses(responses: List<Bundle>): Bundle {
-        var bundle = responses.first()
-        responses.subList(1, responses.size).forEach { bundle = mergeBundles(bundle, it) }
-        return bundle
+        if (responses.size == 1) {
+            return responses.first()
+        }
+        val remaining = responses[1].copy(entry = responses.subList(1, responses.size).flatMap { it.entry })
+        return mergeBundles(responses.first(), remaining)
     }
 
     fun standardizeParameters(parameters: Map<String, Any?>): Map<String, Any?> {
@@ -70,19 +94,77 @@ abstract class BaseCernerService<T : Resource<T>>(val cernerClient: CernerClient
         tenant: Tenant,
         resourceFHIRId: String,
     ): T {
-        return runBlocking {
-            cernerClient.get(tenant, "$fhirURLSearchPart?_id=$resourceFHIRId")
-                .body(TypeInfo(fhirResourceType.kotlin, fhirResourceType))
-        }
+        return runBlocking { searchByIDSuspending(tenant, resourceFHIRId) }
+    }
+
+    suspend fun searchByIDSuspending(
+        tenant: Tenant,
+        resourceFHIRId: String,
+    ): T {
+        return cernerClient.get(tenant, "$fhirURLSearchPart?_id=$resourceFHIRId")
+            .body(TypeInfo(fhirResourceType.kotlin, fhirResourceType))
     }
 
     fun getByID(
         tenant: Tenant,
         resourceFHIRId: String,
     ): T {
-        return runBlocking {
-            cernerClient.get(tenant, "$fhirURLSearchPart/$resourceFHIRId")
-                .body(TypeInfo(fhirResourceType.kotlin, fhirResourceType))
+        return runBlocking { getByIDSuspending(tenant, resourceFHIRId) }
+    }
+
+    suspend fun getByIDSuspending(
+        tenant: Tenant,
+        resourceFHIRId: String,
+    ): T {
+        return cernerClient.get(tenant, "$fhirURLSearchPart/$resourceFHIRId")
+            .body(TypeInfo(fhirResourceType.kotlin, fhirResourceType))
+    }
+
+    private fun getBundlePages(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Sequence<Bundle> {
+        val standardizedParameters = standardizeParameters(parameters)
+        return sequence {
+            var nextURL: String? = null
+            do {
+                val bundle = runBlocking { getPage(tenant, standardizedParameters, nextURL) }
+                yield(bundle)
+                nextURL = bundle.link.firstOrNull { it.relation?.value == "next" }?.url?.value
+            } while (nextURL != null)
         }
     }
+
+    private fun getBundlePageFlow(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Flow<Bundle> {
+        val standardizedParameters = standardizeParameters(parameters)
+        return flow {
+            var nextURL: String? = null
+            do {
+                val bundle = getPage(tenant, standardizedParameters, nextURL)
+                emit(bundle)
+                nextURL = bundle.link.firstOrNull { it.relation?.value == "next" }?.url?.value
+            } while (nextURL != null)
+        }
+    }
+
+    private suspend fun getPage(
+        tenant: Tenant,
+        standardizedParameters: Map<String, Any?>,
+        nextURL: String?,
+    ): Bundle {
+        val httpResponse =
+            if (nextURL == null) {
+                cernerClient.get(tenant, fhirURLSearchPart, standardizedParameters)
+            } else {
+                cernerClient.get(tenant, nextURL)
+            }
+        return httpResponse.body<Bundle>()
+    }
+
+    private fun resourcesIn(bundle: Bundle): Sequence<T> {
+        return bundle.entry.asSequence().mapNotNull { it.resource }.filterIsInstance(fhirResourceType)
+    }
 }
@@ -1,5 +1,6 @@
 package com.projectronin.interop.dataloader.epic
 
+import com.projectronin.interop.dataloader.base.CheckpointJournal
 import com.projectronin.interop.ehr.epic.EpicMedicationRequestService
 import com.projectronin.interop.ehr.epic.EpicMedicationService
 import com.projectronin.interop.ehr.epic.EpicMedicationStatementService
@@ -24,9 +25,17 @@ class MDAMedicationInfoDataLoader : BaseEpicDataLoader() {
     private val medicationStatementService = EpicMedicationStatementService(epicClient)
     private val medicationService = EpicMedicationService(epicClient, batchSize = 5)
 
+    // A run that dies part way is picked up where it left off by the next one, under the same timestamp.
+    private val checkpoints = CheckpointJournal.resumeOrStart(javaClass.simpleName)
+
     override fun main() {
+        val timeStamp = checkpoints.timestamp
+        if (checkpoints.resumed) {
+            logger.info { "Resuming the load started at $timeStamp" }
+            retryFailedUploads(tenant, checkpoints, dryRun = false)
+        }
+
         val patientsByMrn = getPatientsForMRNs()
-        val timeStamp = System.currentTimeMillis().toString()
         val today = LocalDate.now()
         val startDate = today.minusDays(30)
         val endDate = today
@@ -35,6 +44,7 @@ class MDAMedicationInfoDataLoader : BaseEpicDataLoader() {
         val totalMedicationIds = mutableListOf<String>()
         val totalMedStatements = mutableMapOf<String, List<MedicationStatement>>()
         val totalMedRequests = mutableMapOf<String, List<MedicationRequest>>()
+        var failedPatients = 0
         patientsByMrn.forEach { entry ->
             val patient = entry.value
             val mrn = entry.key
@@ -42,19 +52,24 @@ class MDAMedicationInfoDataLoader : BaseEpicDataLoader() {
             logger.info { "Loading Medications for $mrn" }
             val run =
                 runCatching {
+                    // Each patient's resources are uploaded as they are found, so a resumed run can skip them.
                     // discover medication references from patients
                     val requests =
-                        medicationRequestService.getMedicationRequestByPatient(
-                            tenant,
-                            fhirId,
-                        )
+                        loadCheckpointed(tenant, fhirId, MedicationRequest::class.java, checkpoints, dryRun = false) {
+                            medicationRequestService.getMedicationRequestByPatient(
+                                tenant,
+                                fhirId,
+                            )
+                        }
                     totalMedRequests[fhirId] = requests
                     logger.info { "Found ${requests.size} requests" }
                     val statements =
-                        medicationStatementService.getMedicationStatementsByPatientFHIRId(
-                            tenant,
-                            fhirId,
-                        )
+                        loadCheckpointed(tenant, fhirId, MedicationStatement::class.java, checkpoints, dryRun = false) {
+                            medicationStatementService.getMedicationStatementsByPatientFHIRId(
+                                tenant,
+                                fhirId,
+                            )
+                        }
                     totalMedStatements[fhirId] = statements
                     logger.info { "Found ${statements.size} statements" }
                     val medicationIdFromStatements =
@@ -81,18 +96,24 @@ class MDAMedicationInfoDataLoader : BaseEpicDataLoader() {
                     logger.info { "Found ${allMedicationIds.size} Medication IDs" }
                     val newMedicationsIds = allMedicationIds - totalMedicationIds
                     logger.info { "Of which ${newMedicationsIds.size} are new" }
-                    logger.info { "Searching for Medications" }
                     val medications =
-                        medicationService.getMedicationsByFhirId(
-                            tenant = tenant,
-                            newMedicationsIds,
-                        )
+                        if (checkpoints.isCompleted(fhirId, "Medication")) {
+                            newMedicationsIds.flatMap { readResources(it, Medication::class.java) }
+                        } else {
+                            logger.info { "Searching for Medications" }
+                            medicationService.getMedicationsByFhirId(
+                                tenant = tenant,
+                                newMedicationsIds,
+                            ).also { uploadMedications(it, timeStamp) }
+                        }
+                    checkpoints.markCompleted(fhirId, "Medication")
                     totalMedicationIds.addAll(newMedicationsIds)
                     logger.info { "Found ${medications.size} Medications" }
                     totalMedications.addAll(medications)
                 }
 
             if (run.isFailure) {
+                failedPatients += 1
                 val exception = run.exceptionOrNull()
                 logger.error(exception) { "Error processing $mrn: ${exception?.message}" }
             }
@@ -106,34 +127,48 @@ class MDAMedicationInfoDataLoader : BaseEpicDataLoader() {
             logger.info { "Starting to resolve references on loop $count" }
             val newIngredientIds = getNewReferences(totalMedications, totalMedicationIds)
             logger.info { "Found ${newIngredientIds.size} new ingredients" }
+            // Ingredients are checkpointed by their own ID, so those an earlier attempt loaded are read back instead.
+            val (loadedIngredientIds, unloadedIngredientIds) =
+                newIngredientIds.partition { checkpoints.isCompleted(it, "Medication") }
             val newMedications =
-                medicationService.getMedicationsByFhirId(
-                    tenant = tenant,
-                    newIngredientIds,
-                )
+                loadedIngredientIds.flatMap { readResources(it, Medication::class.java) } +
+                    medicationService.getMedicationsByFhirId(
+                        tenant = tenant,
+                        unloadedIngredientIds,
+                    ).also { uploadMedications(it, timeStamp) }
+            unloadedIngredientIds.forEach { checkpoints.markCompleted(it, "Medication") }
             totalMedicationIds.addAll(newIngredientIds)
             totalMedications.addAll(newMedications)
             logger.info { "There are currently ${totalMedicationIds.size} medications" }
         } while (newIngredientIds.isNotEmpty() && count < 4) // since this is a while loop, this is just a safety valve
 
         logger.info { "Found ${totalMedications.size} medications" }
-
-        totalMedications.forEach {
-            writeAndUploadResources(tenant, it.id?.value!!, listOf(it), timeStamp, dryRun = false)
-        }
-
         logger.info { "Found ${totalMedRequests.map { it.value }.flatten().size} medication requests" }
+        logger.info { "Found ${totalMedStatements.map { it.value }.flatten().size} medication statements" }
+        logger.info { "Done loading Medications" }
 
-        totalMedRequests.forEach {
-            writeAndUploadResources(tenant, it.key, it.value, timeStamp, dryRun = false)
+        // Patients that failed are left unfinished, so running again retries only them.
+        if (failedPatients > 0) {
+            logger.warn { "$failedPatients patients failed. Run again to retry them." }
+        } else if (!checkpoints.finish()) {
+            logger.warn { "Some files failed to upload. Run again to retry them." }
         }
+    }
 
-        logger.info { "Found ${totalMedStatements.map { it.value }.flatten().size} medication statements" }
-
-        totalMedStatements.forEach {
-            writeAndUploadResources(tenant, it.key, it.value, timeStamp, dryRun = false)
+    private fun uploadMedications(
+        medications: List<Medication>,
+        timeStamp: String,
+    ) {
+        medications.forEach {
+            writeAndUploadResources(
+                tenant,
+                it.id?.value!!,
+                listOf(it),
+                timeStamp,
+                dryRun = false,
+                checkpoints = checkpoints,
+            )
         }
-        logger.info { "Done loading Medications" }
     }
 
     private fun getNewReferences(
@@ -1,10 +1,12 @@
 package com.projectronin.interop.dataloader.epic
 
+import com.projectronin.interop.dataloader.base.CheckpointJournal
 import com.projectronin.interop.dataloader.epic.service.BinaryService
 import com.projectronin.interop.dataloader.epic.service.CarePlanCategory
 import com.projectronin.interop.dataloader.epic.service.CarePlanService
 import com.projectronin.interop.dataloader.epic.service.DocumentReferenceService
 import com.projectronin.interop.dataloader.epic.service.ImmunizationService
+import com.projectronin.interop.dataloader.epic.service.ObservationFetcher
 import com.projectronin.interop.dataloader.epic.service.ObservationService
 import com.projectronin.interop.dataloader.epic.service.ObservationViaConditionService
 import com.projectronin.interop.dataloader.epic.service.RequestGroupService
@@ -21,18 +23,24 @@ import com.projectronin.interop.fhir.r4.resource.Condition
 import com.projectronin.interop.fhir.r4.resource.DocumentReference
 import com.projectronin.interop.fhir.r4.resource.Encounter
 import com.projectronin.interop.fhir.r4.resource.Immunization
-import com.projectronin.interop.fhir.r4.resource.Medication
 import com.projectronin.interop.fhir.r4.resource.MedicationRequest
 import com.projectronin.interop.fhir.r4.resource.MedicationStatement
 import com.projectronin.interop.fhir.r4.resource.Observation
 import com.projectronin.interop.fhir.r4.resource.Patient
 import com.projectronin.interop.fhir.r4.resource.RequestGroup
 import com.projectronin.interop.fhir.r4.resource.Resource
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import java.io.BufferedWriter
 import java.io.File
 import java.io.FileOutputStream
@@ -41,6 +49,8 @@ import java.nio.file.Paths
 import java.time.Duration
 import java.time.LocalDate
 import java.util.Base64
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.io.path.createDirectories
 import kotlin.system.exitProcess
 import kotlin.system.measureTimeMillis
@@ -58,10 +68,27 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
 
     private val dryRun = false
 
+    // Most service calls still block while their request is made, so this is carved from the IO pool. On the default
+    // pool the limit would be capped at the number of CPUs.
     @OptIn(ExperimentalCoroutinesApi::class)
-    private val parallelDispatcher = Dispatchers.Default.limitedParallelism(20)
+    private val parallelDispatcher = Dispatchers.IO.limitedParallelism(20)
 
-    private val timestamp = System.currentTimeMillis().toString()
+    // How many patients are loaded at once. Each runs its independent resource types concurrently.
+    private val patientConcurrency = 8
+
+    // Kept under Epic's rate limit across all patients, including paging and authentication requests. The fan-outs
+    // within a patient, such as RequestGroups, Binaries and batched ID searches, are unbounded, so this also caps how
+    // many requests are in flight at once.
+    private val requestsPerSecond = 20.0
+    private val requestBurst = 20
+    private val maxConcurrentRequests = 20
+
+    // How many of a patient's Observation category and Condition searches run at once.
+    private val observationSearchConcurrency = 4
+
+    // A run that dies part way is picked up where it left off by the next one, under the same timestamp.
+    private val checkpoints = CheckpointJournal.resumeOrStart(javaClass.simpleName)
+    private val timestamp = checkpoints.timestamp
     private val today = LocalDate.now()
     private val startDate = today.minusDays(60)
     private val endDate = today
@@ -76,101 +103,156 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
 
     private val encounterService = EpicEncounterService(epicClient)
     private val conditionService = EpicConditionService(epicClient)
-    private val observationService = ObservationService(epicClient)
-    private val observationForConditionService = ObservationViaConditionService(epicClient)
+    private val observationFetcher =
+        ObservationFetcher(
+            ObservationService(epicClient),
+            ObservationViaConditionService(epicClient),
+            observationSearchConcurrency,
+        )
 
     private val documentReferenceService = DocumentReferenceService(epicClient)
     private val binaryService = BinaryService(epicClient, ehrAuthenticationBroker, httpClient)
 
     override fun main() {
+        limitRequestRate(tenant, requestsPerSecond, requestBurst, maxConcurrentRequests)
+
+        if (checkpoints.resumed) {
+            logger.info { "Resuming the load started at $timestamp" }
+            retryFailedUploads(tenant, checkpoints, dryRun)
+        }
+
+        val failedPatients = AtomicInteger()
         val duration =
             measureTimeMillis {
                 val patientsByMrn = loadPatients()
                 val totalPatients = patientsByMrn.size
 
-                val loadedMedicationIds = mutableSetOf<String>()
-
-                patientsByMrn.entries.forEachIndexed { index, (mrn, patient) ->
-                    uploadResource(mrn, patient)
-
-                    logger.info { "Loading CarePlans for patient ${index + 1} of $totalPatients" }
-                    val carePlans = loadCarePlans(patient)
-                    uploadResources(mrn, carePlans)
-
-                    logger.info { "Loading RequestGroups for patient ${index + 1} of $totalPatients" }
-                    val requestGroups = loadRequestGroups(carePlans)
-                    uploadResources(mrn, requestGroups)
-
-                    logger.info { "Loading MedicationRequests for patient ${index + 1} of $totalPatients" }
-                    val medicationRequests = loadMedicationRequests(patient)
-                    uploadResources(mrn, medicationRequests)
-
-                    logger.info { "Loading MedicationStatements for patient ${index + 1} of $totalPatients" }
-                    val medicationStatements = loadMedicationStatements(patient)
-                    uploadResources(mrn, medicationStatements)
+                val medicationLoads = ConcurrentHashMap<String, CompletableDeferred<Unit>>()
+                val completedPatients = AtomicInteger()
+                val patientPermits = Semaphore(patientConcurrency)
+
+                // The dispatcher only bounds the threads blocked in service calls. Requests in flight are bounded by
+                // limitRequestRate.
+                runBlocking(parallelDispatcher) {
+                    patientsByMrn.entries.forEach { (mrn, patient) ->
+                        launch {
+                            // A patient that fails is logged and left unfinished, without stopping the others.
+                            val run =
+                                runCatching {
+                                    patientPermits.withPermit {
+                                        loadPatient(mrn, patient, medicationLoads)
+                                    }
+                                }
+                            if (run.isSuccess) {
+                                checkpoints.markCompleted(mrn, CheckpointJournal.ALL_RESOURCE_TYPES)
+                                logger.info {
+                                    "Completed patient ${completedPatients.incrementAndGet()} of $totalPatients"
+                                }
+                            } else {
+                                failedPatients.incrementAndGet()
+                                val exception = run.exceptionOrNull()
+                                logger.error(exception) { "Error processing $mrn: ${exception?.message}" }
+                            }
+                        }
+                    }
+                }
+            }
+        logger.info { "Completed load in ${Duration.ofMillis(duration)}" }
 
-                    logger.info { "Loading Medications for patient ${index + 1} of $totalPatients" }
-                    val medications = loadMedications(medicationStatements, medicationRequests, loadedMedicationIds)
-                    medications.forEach { uploadResource(it.id!!.value!!, it) }
+        // Patients that failed are left unfinished, so running again retries only them.
+        if (failedPatients.get() > 0) {
+            logger.warn { "${failedPatients.get()} patients failed. Run again to retry them." }
+        } else if (!checkpoints.finish()) {
+            logger.warn { "Some files failed to upload. Run again to retry them." }
+        }
+    }
 
-                    logger.info { "Loading Immunizations for patient ${index + 1} of $totalPatients" }
-                    val immunizations = loadImmunizations(patient)
-                    uploadResources(mrn, immunizations)
+    /**
+     * Loads everything for one patient. Resource types that don't depend on each other are loaded concurrently, and
+     * any that an earlier attempt at this run already loaded are skipped.
+     */
+    private suspend fun loadPatient(
+        mrn: String,
+        patient: Patient,
+        medicationLoads: ConcurrentHashMap<String, CompletableDeferred<Unit>>,
+    ) = coroutineScope {
+        checkpointed(mrn, Patient::class.java) { listOf(patient) }
+
+        launch {
+            logger.info { "Loading CarePlans and RequestGroups for patient $mrn" }
+            val carePlans = checkpointed(mrn, CarePlan::class.java) { loadCarePlans(patient) }
+            checkpointed(mrn, RequestGroup::class.java) { loadRequestGroups(carePlans) }
+        }
 
-                    logger.info { "Loading Encounters for patient ${index + 1} of $totalPatients" }
-                    val encounters = loadEncounters(patient)
-                    uploadResources(mrn, encounters)
+        launch {
+            logger.info { "Loading MedicationRequests, MedicationStatements and Medications for patient $mrn" }
+            val medicationRequests =
+                async { checkpointed(mrn, MedicationRequest::class.java) { loadMedicationRequests(patient) } }
+            val medicationStatements =
+                async { checkpointed(mrn, MedicationStatement::class.java) { loadMedicationStatements(patient) } }
+
+            // Medications are written one per file, by their own ID, so they can't be read back by MRN.
+            if (!checkpoints.isCompleted(mrn, "Medication")) {
+                loadMedications(medicationStatements.await(), medicationRequests.await(), medicationLoads)
+                checkpoints.markCompleted(mrn, "Medication")
+            }
+        }
 
-                    logger.info { "Loading Conditions for patient ${index + 1} of $totalPatients" }
-                    val conditions = loadConditions(patient)
-                    uploadResources(mrn, conditions)
+        launch {
+            logger.info { "Loading Immunizations for patient $mrn" }
+            checkpointed(mrn, Immunization::class.java) { loadImmunizations(patient) }
+        }
 
-                    logger.info { "Loading Observations for patient ${index + 1} of $totalPatients" }
-                    val observations = loadObservations(patient, conditions)
-                    uploadResources(mrn, observations)
+        launch {
+            logger.info { "Loading Encounters for patient $mrn" }
+            checkpointed(mrn, Encounter::class.java) { loadEncounters(patient) }
+        }
 
-                    logger.info { "Loading DocumentReferences for patient ${index + 1} of $totalPatients" }
-                    val documentReferences = loadDocumentReferences(patient)
-                    uploadResources(mrn, documentReferences)
+        launch {
+            logger.info { "Loading Conditions and Observations for patient $mrn" }
+            val conditions = checkpointed(mrn, Condition::class.java) { loadConditions(patient) }
+            checkpointed(mrn, Observation::class.java) { loadObservations(patient, conditions) }
+        }
 
-                    logger.info { "Loading Binaries for patient ${index + 1} of $totalPatients" }
-                    loadBinaries(documentReferences)
+        launch {
+            logger.info { "Loading DocumentReferences and Binaries for patient $mrn" }
+            val documentReferences =
+                checkpointed(mrn, DocumentReference::class.java) { loadDocumentReferences(patient) }
 
-                    logger.info { "Completed patient ${index + 1} of $totalPatients" }
-                    logger.info { "" }
-                }
+            if (!checkpoints.isCompleted(mrn, "Binary")) {
+                loadBinaries(documentReferences)
+                checkpoints.markCompleted(mrn, "Binary")
             }
-        logger.info { "Completed load in ${Duration.ofMillis(duration)}" }
+        }
     }
 
-    private fun <R : Resource<*>> uploadResource(
-        key: String,
-        value: R,
-    ) {
-        uploadResources(key, listOf(value))
+    /**
+     * Loads and uploads the patient's [resourceType] resources, or reads them back if this run already has.
+     */
+    private inline fun <R : Resource<R>> checkpointed(
+        mrn: String,
+        resourceType: Class<R>,
+        load: () -> List<R>,
+    ): List<R> {
+        return loadCheckpointed(tenant, mrn, resourceType, checkpoints, dryRun, load)
     }
 
-    private fun <R : Resource<*>> uploadResources(
+    private fun <R : Resource<*>> uploadResource(
         key: String,
-        value: Collection<R>,
+        value: R,
     ) {
-        writeAndUploadResources(
-            tenant,
-            key,
-            value.toList(),
-            timestamp,
-            dryRun = dryRun,
-        )
+        writeAndUploadResources(tenant, key, listOf(value), timestamp, dryRun, checkpoints)
     }
 
     private fun loadPatients(): Map<String, Patient> {
         logger.info { "Loading Patients" }
-        val patientsByMrn = getPatientsForMRNs(getMRNs())
+        val mrns = getMRNs().filterNot { checkpoints.isCompleted(it, CheckpointJournal.ALL_RESOURCE_TYPES) }.toSet()
+        val patientsByMrn = getPatientsForMRNs(mrns)
         logger.info { "Done loading Patients" }
         return patientsByMrn
     }
 
-    private fun loadCarePlans(patient: Patient): List<CarePlan> {
+    private suspend fun loadCarePlans(patient: Patient): List<CarePlan> {
         val carePlans =
             carePlanService.getCarePlansByPatient(tenant, patient.id!!.value!!, CarePlanCategory.ONCOLOGY.code)
 
@@ -182,7 +264,7 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
                     carePlanReferences.mapNotNull { reference ->
                         val cycleCarePlanId = reference.decomposedId()
                         cycleCarePlanId?.let {
-                            carePlanService.getByID(tenant, it)
+                            carePlanService.getByIDSuspending(tenant, it)
                         }
                     }
                 }.flatten()
@@ -191,7 +273,7 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
         return carePlans + cycleCarePlans
     }
 
-    private fun loadRequestGroups(carePlans: List<CarePlan>): List<RequestGroup> {
+    private suspend fun loadRequestGroups(carePlans: List<CarePlan>): List<RequestGroup> {
         val requestGroupIds =
             carePlans.map { carePlan ->
                 carePlan.activity.mapNotNull { it.reference }
@@ -199,8 +281,10 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
                     .mapNotNull { it.decomposedId() }
             }.flatten()
 
-        return requestGroupIds.map { id ->
-            requestGroupService.getByID(tenant, id)
+        return coroutineScope {
+            requestGroupIds.map { id ->
+                async { requestGroupService.getByIDSuspending(tenant, id) }
+            }.awaitAll()
         }
     }
 
@@ -212,11 +296,16 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
         return medicationStatementService.getMedicationStatementsByPatientFHIRId(tenant, patient.id!!.value!!)
     }
 
-    private fun loadMedications(
+    /**
+     * Loads and uploads the Medications the patient's statements and requests refer to. Each Medication is loaded by
+     * the first patient to claim it, and this returns only once the ones claimed by other patients have been uploaded
+     * too, so a patient's Medications are never marked complete while some are still missing.
+     */
+    private suspend fun loadMedications(
         medicationStatements: List<MedicationStatement>,
         medicationRequests: List<MedicationRequest>,
-        loadedMedicationIds: MutableSet<String>,
-    ): List<Medication> {
+        medicationLoads: ConcurrentHashMap<String, CompletableDeferred<Unit>>,
+    ) {
         logger.info { "Loading Medications" }
 
         val medicationStatementMedicationIds =
@@ -239,11 +328,32 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
                 }
             }.toSet()
 
-        val medicationIds = medicationRequestMedicationIds + medicationStatementMedicationIds - loadedMedicationIds
-        val medications = medicationService.getMedicationsByFhirId(tenant, medicationIds.toList())
+        // Claimed up front, so patients being loaded concurrently don't load the same Medication twice.
+        val claimed = mutableMapOf<String, CompletableDeferred<Unit>>()
+        val claimedElsewhere = mutableListOf<Deferred<Unit>>()
+        (medicationRequestMedicationIds + medicationStatementMedicationIds).forEach { id ->
+            val load = CompletableDeferred<Unit>()
+            val existing = medicationLoads.putIfAbsent(id, load)
+            if (existing == null) {
+                claimed[id] = load
+            } else {
+                claimedElsewhere.add(existing)
+            }
+        }
 
-        loadedMedicationIds.addAll(medicationIds)
-        return medications
+        try {
+            val medications = medicationService.getMedicationsByFhirId(tenant, claimed.keys.toList())
+            medications.forEach { uploadResource(it.id!!.value!!, it) }
+            claimed.values.forEach { it.complete(Unit) }
+        } catch (e: Exception) {
+            // Released, so patients that come later load them again. Those already waiting fail with this one.
+            claimed.forEach { (id, load) ->
+                medicationLoads.remove(id, load)
+                load.completeExceptionally(e)
+            }
+            throw e
+        }
+        claimedElsewhere.awaitAll()
     }
 
     private fun loadImmunizations(patient: Patient): List<Immunization> {
@@ -265,10 +375,10 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
         return conditionService.findConditions(tenant, patient.id!!.value!!, category, "active")
     }
 
-    private fun loadObservations(
+    private suspend fun loadObservations(
         patient: Patient,
         conditions: List<Condition>,
-    ): Set<Observation> {
+    ): List<Observation> {
         val observationCategories =
             setOf(
                 "genomics",
@@ -280,55 +390,42 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
                 "smartdata",
                 "vital-signs",
             )
-        val categoryBasedObservations = observationCategories.flatMap { loadObservations(patient, it) }
-        val conditionBasedObservations =
-            conditions.flatMap {
-                observationForConditionService.findObservationsByCondition(tenant, it.id!!.value!!)
-            }
-        return (categoryBasedObservations + conditionBasedObservations).toSet()
-    }
-
-    private fun loadObservations(
-        patient: Patient,
-        category: String,
-    ): List<Observation> {
-        return observationService.findObservationsByPatient(
+        return observationFetcher.findObservations(
             tenant,
-            listOf(patient.id!!.value!!),
-            listOf(category),
+            patient.id!!.value!!,
+            observationCategories,
+            conditions.map { it.id!!.value!! },
             startDate,
-        )
+        ).toList()
     }
 
     private fun loadDocumentReferences(patient: Patient): List<DocumentReference> {
         return documentReferenceService.getDocumentReferences(tenant, patient.id!!.value!!)
     }
 
-    private fun loadBinaries(documentReferences: List<DocumentReference>) {
+    private suspend fun loadBinaries(documentReferences: List<DocumentReference>) {
         logger.info { "Loading binaries for ${documentReferences.size} document references" }
 
         runCatching { Paths.get("loaded/binary").createDirectories() }
 
-        runBlocking {
-            withContext(coroutineContext) {
-                documentReferences.forEach { documentReference ->
-                    documentReference.content.forEach { content ->
-                        val attachment = content.attachment!!
-                        attachment.url?.value?.let {
-                            if (it.startsWith("Binary/")) {
-                                when (attachment.contentType?.value) {
-                                    "text/plain" -> "txt"
-                                    "text/html" -> "html"
-                                    "application/pdf" -> "pdf"
-                                    "text/rtf" -> "rtf"
-                                    "image/jpeg" -> "jpg"
-                                    "application/octet-stream" -> null // Not totally sure what to do with this one
-                                    else -> null
-                                }?.let { extension ->
-                                    val binaryFhirId = it.removePrefix("Binary/")
-                                    async(parallelDispatcher) {
-                                        loadBinary(binaryFhirId, extension)
-                                    }
+        coroutineScope {
+            documentReferences.forEach { documentReference ->
+                documentReference.content.forEach { content ->
+                    val attachment = content.attachment!!
+                    attachment.url?.value?.let {
+                        if (it.startsWith("Binary/")) {
+                            when (attachment.contentType?.value) {
+                                "text/plain" -> "txt"
+                                "text/html" -> "html"
+                                "application/pdf" -> "pdf"
+                                "text/rtf" -> "rtf"
+                                "image/jpeg" -> "jpg"
+                                "application/octet-stream" -> null // Not totally sure what to do with this one
+                                else -> null
+                            }?.let { extension ->
+                                val binaryFhirId = it.removePrefix("Binary/")
+                                launch {
+                                    loadBinary(binaryFhirId, extension)
                                 }
                             }
                         }
@@ -338,28 +435,29 @@ class PSJFullDataLoader : BaseEpicDataLoader() {
         }
     }
 
-    private fun loadBinary(
+    private suspend fun loadBinary(
         binaryFhirId: String,
         extension: String,
     ) {
         val binaryFileName = "loaded/binary/$binaryFhirId.$extension"
         val file = File(binaryFileName)
         if (listOf("pdf", "jpg").contains(extension)) {
-            binaryService.getBinary(tenant, binaryFhirId)?.let { binary ->
+            binaryService.getBinarySuspending(tenant, binaryFhirId)?.let { binary ->
                 val binaryBytes = Base64.getDecoder().decode(binary.data!!.value!!)
                 FileOutputStream(file).use { writer ->
                     writer.write(binaryBytes)
                 }
             }
         } else {
-            val binary = binaryService.getBinaryData(tenant, binaryFhirId)
+            val binary = binaryService.getBinaryDataSuspending(tenant, binaryFhirId)
             BufferedWriter(FileWriter(file)).use { writer ->
                 writer.write(binary)
             }
         }
 
         if (file.exists() && !dryRun) {
-            expOCIClient.uploadExport(tenant, "binary", binaryFileName, timestamp)
+            val uploaded = expOCIClient.uploadExport(tenant, "binary", binaryFileName, timestamp)
+            checkpoints.recordUpload("binary", binaryFileName, uploaded)
         }
     }
 
@@ -25,6 +25,17 @@ class AppointmentService(epicClient: EpicClient) : BaseEpicService<Appointment>(
         departmentIdentifier: Identifier,
         minusDays: Int = 1,
         plusDays: Int = 1,
+    ): List<EpicAppointment> {
+        return runBlocking {
+            getEpicAppointmentsFromDepartmentIdentifierSuspending(tenant, departmentIdentifier, minusDays, plusDays)
+        }
+    }
+
+    suspend fun getEpicAppointmentsFromDepartmentIdentifierSuspending(
+        tenant: Tenant,
+        departmentIdentifier: Identifier,
+        minusDays: Int = 1,
+        plusDays: Int = 1,
     ): List<EpicAppointment> {
         val startDate = LocalDate.now().minusDays(minusDays.toLong())
         val endDate = LocalDate.now().plusDays(plusDays.toLong())
@@ -35,11 +46,8 @@ class AppointmentService(epicClient: EpicClient) : BaseEpicService<Appointment>(
                 startDate = dateFormat.format(startDate),
                 endDate = dateFormat.format(endDate),
             )
-        val res =
-            runBlocking {
-                val httpResponse = epicClient.post(tenant, urlPart, request)
-                httpResponse.body<GetAppointmentsResponse>()
-            }
+        val httpResponse = epicClient.post(tenant, urlPart, request)
+        val res = httpResponse.body<GetAppointmentsResponse>()
         return res.appointments ?: emptyList()
     }
 }
@@ -7,7 +7,16 @@ import com.projectronin.interop.fhir.r4.resource.Resource
 import com.projectronin.interop.fhir.stu3.resource.STU3Bundle
 import com.projectronin.interop.tenant.config.model.Tenant
 import io.ktor.util.reflect.TypeInfo
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.flow.transform
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 
 /**
  * Slightly modified form of the EpicFHIRService
@@ -22,74 +31,96 @@ abstract class BaseEpicService<T : Resource<T>>(val epicClient: EpicClient) {
         tenant: Tenant,
         parameters: Map<String, Any?>,
     ): List<T> {
-        return getBundleWithPaging(tenant, parameters).entry.mapNotNull { it.resource }
-            .filterIsInstance(fhirResourceType)
+        return getResourceSequenceFromSearch(tenant, parameters).toList()
     }
 
     fun getResourceListFromSearchSTU3(
         tenant: Tenant,
         parameters: Map<String, Any?>,
     ): List<T> {
-        return getBundleWithPagingSTU3(tenant, parameters).entry.mapNotNull { it.resource }
-            .filterIsInstance(fhirResourceType)
+        return getResourceSequenceFromSearchSTU3(tenant, parameters).toList()
     }
 
-    fun getBundleWithPaging(
+    /**
+     * Suspending form of [getResourceListFromSearch], so callers can overlap searches rather than blocking a thread on
+     * each.
+     */
+    suspend fun getResourceListFromSearchSuspending(
         tenant: Tenant,
         parameters: Map<String, Any?>,
-    ): Bundle {
-        val standardizedParameters = standardizeParameters(parameters)
+    ): List<T> {
+        return getResourceFlowFromSearch(tenant, parameters).toList()
+    }
 
-        val responses: MutableList<Bundle> = mutableListOf()
-        var nextURL: String? = null
-        do {
-            val bundle =
-                runBlocking {
-                    val httpResponse =
-                        if (nextURL == null) {
-                            epicClient.get(tenant, fhirURLSearchPart, standardizedParameters)
-                        } else {
-                            epicClient.get(tenant, nextURL!!)
-                        }
-                    httpResponse.body<Bundle>()
-                }
+    suspend fun getResourceListFromSearchSTU3Suspending(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): List<T> {
+        return getResourceFlowFromSearchSTU3(tenant, parameters).toList()
+    }
 
-            responses.add(bundle)
-            nextURL = bundle.link.firstOrNull { it.relation?.value == "next" }?.url?.value
-        } while (nextURL != null)
-        return mergeResponses(responses)
+    /**
+     * Lazily yields the resources found by the search. Each page is only requested once the previous one has been
+     * consumed, so no more than one page is held at a time however large the result is.
+     */
+    fun getResourceSequenceFromSearch(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Sequence<T> {
+        return getBundlePages(tenant, parameters, stu3 = false).flatMap { resourcesIn(it) }
     }
 
-    fun getBundleWithPagingSTU3(
+    fun getResourceSequenceFromSearchSTU3(
         tenant: Tenant,
         parameters: Map<String, Any?>,
-    ): Bundle {
-        val standardizedParameters = standardizeParameters(parameters)
+    ): Sequence<T> {
+        return getBundlePages(tenant, parameters, stu3 = true).flatMap { resourcesIn(it) }
+    }
 
-        val responses: MutableList<Bundle> = mutableListOf()
-        var nextURL: String? = null
-        do {
-            val bundle =
-                runBlocking {
-                    val httpResponse =
-                        if (nextURL == null) {
-                            epicClient.get(tenant, fhirURLSearchPart, standardizedParameters)
-                        } else {
-                            epicClient.get(tenant, nextURL!!)
-                        }
-                    httpResponse.body<STU3Bundle>()
-                }
+    /**
+     * Emits the resources found by the search page by page, like [getResourceSequenceFromSearch], but without
+     * blocking the collecting coroutine while each page is requested.
+     */
+    fun getResourceFlowFromSearch(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Flow<T> {
+        return getBundlePageFlow(tenant, parameters, stu3 = false)
+            .transform { page -> resourcesIn(page).forEach { emit(it) } }
+    }
 
-            responses.add(bundle.transformToR4())
-            nextURL = bundle.link.firstOrNull { it.relation?.value == "next" }?.url?.value
-        } while (nextURL != null)
-        return mergeResponses(responses)
+    fun getResourceFlowFromSearchSTU3(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Flow<T> {
+        return getBundlePageFlow(tenant, parameters, stu3 = true)
+            .transform { page -> resourcesIn(page).forEach { emit(it) } }
     }
 
+    fun getBundleWithPaging(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Bundle {
+        return mergeResponses(getBundlePages(tenant, parameters, stu3 = false).toList())
+    }
+
+    fun getBundleWithPagingSTU3(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+    ): Bundle {
+        return mergeResponses(getBundlePages(tenant, parameters, stu3 = true).toList())
+    }
+
+    /**
+     * Merges the pages of a search into one Bundle. The entries are gathered once and merged in a single step, rather
+     * than page by page, which would copy the growing entry list for every page.
+     */
     fun mergeResponses(responses: List<Bundle>): Bundle {
-        var bundle = responses.first()
-        responses.subList(1, responses.size).forEach { bundle = mergeBundles(bundle, it) }
-        return bundle
+        if (responses.size == 1) {
+            return responses.first()
+        }
+        val remaining = responses[1].copy(entry = responses.subList(1, responses.size).flatMap { it.entry })
+        return mergeBundles(responses.first(), remaining)
     }
 
     fun standardizeParameters(parameters: Map<String, Any?>): Map<String, Any?> {
@@ -108,34 +139,125 @@ abstract class BaseEpicService<T : Resource<T>>(val epicClient: EpicClient) {
         tenant: Tenant,
         resourceFHIRId: String,
     ): T {
-        return runBlocking {
-            epicClient.get(tenant, "$fhirURLSearchPart?_id=$resourceFHIRId")
-                .body(TypeInfo(fhirResourceType.kotlin, fhirResourceType))
-        }
+        return runBlocking { searchByIDSuspending(tenant, resourceFHIRId) }
+    }
+
+    suspend fun searchByIDSuspending(
+        tenant: Tenant,
+        resourceFHIRId: String,
+    ): T {
+        return epicClient.get(tenant, "$fhirURLSearchPart?_id=$resourceFHIRId")
+            .body(TypeInfo(fhirResourceType.kotlin, fhirResourceType))
     }
 
     fun getByID(
         tenant: Tenant,
         resourceFHIRId: String,
     ): T {
-        return runBlocking {
-            epicClient.get(tenant, "$fhirURLSearchPart/$resourceFHIRId")
-                .body(TypeInfo(fhirResourceType.kotlin, fhirResourceType))
-        }
+        return runBlocking { getByIDSuspending(tenant, resourceFHIRId) }
+    }
+
+    suspend fun getByIDSuspending(
+        tenant: Tenant,
+        resourceFHIRId: String,
+    ): T {
+        return epicClient.get(tenant, "$fhirURLSearchPart/$resourceFHIRId")
+            .body(TypeInfo(fhirResourceType.kotlin, fhirResourceType))
     }
 
     fun getByIDs(
         tenant: Tenant,
         resourceFHIRIds: List<String>,
     ): Map<String, T> {
-        return runBlocking {
-            val chunkedIds = resourceFHIRIds.toSet().chunked(batchSize)
-            val resource =
+        val chunkedIds = resourceFHIRIds.toSet().chunked(batchSize)
+        val resource =
+            chunkedIds.map { idSubset ->
+                val parameters = mapOf("_id" to idSubset)
+                getResourceListFromSearch(tenant, parameters)
+            }.flatten()
+        return resource.associateBy { it.id!!.value!! }
+    }
+
+    /**
+     * Searches for the IDs in batches, running up to [maxConcurrentBatches] of them at once.
+     */
+    suspend fun getByIDsSuspending(
+        tenant: Tenant,
+        resourceFHIRIds: List<String>,
+        maxConcurrentBatches: Int,
+    ): Map<String, T> {
+        val chunkedIds = resourceFHIRIds.toSet().chunked(batchSize)
+        val permits = Semaphore(maxConcurrentBatches)
+        val resource =
+            coroutineScope {
                 chunkedIds.map { idSubset ->
-                    val parameters = mapOf("_id" to idSubset)
-                    getResourceListFromSearch(tenant, parameters)
-                }.flatten()
-            resource.associateBy { it.id!!.value!! }
+                    async {
+                        permits.withPermit {
+                            val parameters = mapOf("_id" to idSubset)
+                            getResourceListFromSearchSuspending(tenant, parameters)
+                        }
+                    }
+                }.awaitAll().flatten()
+            }
+        return resource.associateBy { it.id!!.value!! }
+    }
+
+    private fun getBundlePages(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+        stu3: Boolean,
+    ): Sequence<Bundle> {
+        val standardizedParameters = standardizeParameters(parameters)
+        return sequence {
+            var nextURL: String? = null
+            do {
+                val page = runBlocking { getPage(tenant, standardizedParameters, nextURL, stu3) }
+                yield(page.bundle)
+                nextURL = page.nextURL
+            } while (nextURL != null)
+        }
+    }
+
+    private fun getBundlePageFlow(
+        tenant: Tenant,
+        parameters: Map<String, Any?>,
+        stu3: Boolean,
+    ): Flow<Bundle> {
+        val standardizedParameters = standardizeParameters(parameters)
+        return flow {
+            var nextURL: String? = null
+            do {
+                val page = getPage(tenant, standardizedParameters, nextURL, stu3)
+                emit(page.bundle)
+                nextURL = page.nextURL
+            } while (nextURL != null)
         }
     }
+
+    private suspend fun getPage(
+        tenant: Tenant,
+        standardizedParameters: Map<String, Any?>,
+        nextURL: String?,
+        stu3: Boolean,
+    ): Page {
+        val httpResponse =
+            if (nextURL == null) {
+                epicClient.get(tenant, fhirURLSearchPart, standardizedParameters)
+            } else {
+                epicClient.get(tenant, nextURL)
+            }
+        return if (stu3) {
+            val bundle = httpResponse.body<STU3Bundle>()
+            Page(bundle.transformToR4(), bundle.link.firstOrNull { it.relation?.value == "next" }?.url?.value)
+        } else {
+            val bundle = httpResponse.body<Bundle>()
+            Page(bundle, bundle.link.firstOrNull { it.relation?.value == "next" }?.url?.value)
+        }
+    }
+
+    private fun resourcesIn(bundle: Bundle): Sequence<T> {
+        return bundle.entry.asSequence().mapNotNull { it.resource }.filterIsInstance(fhirResourceType)
+    }
+
+    private class Page(val bundle: Bundle, val nextURL: String?)
 }
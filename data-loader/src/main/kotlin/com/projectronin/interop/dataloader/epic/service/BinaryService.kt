@@ -30,13 +30,18 @@ class BinaryService(
         tenant: Tenant,
         binaryFhirId: String,
     ): String {
-        return runBlocking {
-            epicClient.get(
-                tenant,
-                "/api/FHIR/R4/Binary/$binaryFhirId",
-                emptyMap(),
-            ).httpResponse.bodyAsText()
-        }
+        return runBlocking { getBinaryDataSuspending(tenant, binaryFhirId) }
+    }
+
+    suspend fun getBinaryDataSuspending(
+        tenant: Tenant,
+        binaryFhirId: String,
+    ): String {
+        return epicClient.get(
+            tenant,
+            "/api/FHIR/R4/Binary/$binaryFhirId",
+            emptyMap(),
+        ).httpResponse.bodyAsText()
     }
 
     fun getBinary(
@@ -46,6 +51,13 @@ class BinaryService(
         return get(tenant, "/api/FHIR/R4/Binary/$binaryFhirId", emptyMap())
     }
 
+    suspend fun getBinarySuspending(
+        tenant: Tenant,
+        binaryFhirId: String,
+    ): Binary? {
+        return getSuspending(tenant, "/api/FHIR/R4/Binary/$binaryFhirId", emptyMap())
+    }
+
     /**
      * Stolen from EpicClient and adjusted to use the FHIR JSON ContentType.
      */
@@ -53,6 +65,14 @@ class BinaryService(
         tenant: Tenant,
         urlPart: String,
         parameters: Map<String, Any?> = mapOf(),
+    ): Binary? {
+        return runBlocking { getSuspending(tenant, urlPart, parameters) }
+    }
+
+    suspend fun getSuspending(
+        tenant: Tenant,
+        urlPart: String,
+        parameters: Map<String, Any?> = mapOf(),
     ): Binary? {
         // Authenticate
         val authentication =
@@ -66,29 +86,25 @@ class BinaryService(
                 urlPart
             }
 
-        val resource: Resource<*> =
-            runBlocking {
-                val response: HttpResponse =
-                    client.get(requestUrl) {
-                        headers {
-                            append(HttpHeaders.Authorization, "Bearer ${authentication.accessToken}")
-                        }
-                        accept(ContentType.Application.FhirJson)
-                        parameters.map {
-                            val key = it.key
-                            val value = it.value
-                            if (value is List<*>) {
-                                value.forEach { repetition ->
-                                    parameter(key, repetition)
-                                }
-                            } else {
-                                value?.let { parameter(key, value) }
-                            }
+        val response: HttpResponse =
+            client.get(requestUrl) {
+                headers {
+                    append(HttpHeaders.Authorization, "Bearer ${authentication.accessToken}")
+                }
+                accept(ContentType.Application.FhirJson)
+                parameters.map {
+                    val key = it.key
+                    val value = it.value
+                    if (value is List<*>) {
+                        value.forEach { repetition ->
+                            parameter(key, repetition)
                         }
+                    } else {
+                        value?.let { parameter(key, value) }
                     }
-
-                response.body()
+                }
             }
+        val resource: Resource<*> = response.body()
 
         return if (resource is Binary) {
             resource
@@ -0,0 +1,61 @@
+package com.projectronin.interop.dataloader.epic.service
+
+import com.projectronin.interop.fhir.r4.resource.Observation
+import com.projectronin.interop.tenant.config.model.Tenant
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.time.LocalDate
+
+/**
+ * Finds a patient's Observations by category and through their Conditions, running up to [maxConcurrentSearches] of
+ * those searches at once.
+ */
+class ObservationFetcher(
+    private val observationService: ObservationService,
+    private val observationViaConditionService: ObservationViaConditionService,
+    private val maxConcurrentSearches: Int,
+) {
+    /**
+     * Searches each of [categories] and each of [conditionIds] concurrently, emitting Observations as their pages
+     * arrive. An Observation found by more than one search is only emitted the first time its FHIR id is seen.
+     */
+    fun findObservations(
+        tenant: Tenant,
+        patientFhirId: String,
+        categories: Collection<String>,
+        conditionIds: Collection<String>,
+        startDate: LocalDate?,
+    ): Flow<Observation> {
+        val searches =
+            categories.map {
+                observationService.findObservationsByPatientFlow(tenant, patientFhirId, listOf(it), startDate)
+            } + conditionIds.map { observationViaConditionService.findObservationsByConditionFlow(tenant, it) }
+
+        val merged =
+            channelFlow {
+                val permits = Semaphore(maxConcurrentSearches)
+                searches.forEach { search ->
+                    launch {
+                        permits.withPermit {
+                            search.collect { send(it) }
+                        }
+                    }
+                }
+            }
+
+        // Only the collector touches the ids seen, so they need no locking.
+        return flow {
+            val seenIds = HashSet<String>()
+            merged.collect { observation ->
+                val id = observation.id?.value
+                if (id == null || seenIds.add(id)) {
+                    emit(observation)
+                }
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.projectronin.interop.ehr.util.toOrParams
 import com.projectronin.interop.ehr.util.toSearchTokens
 import com.projectronin.interop.fhir.r4.resource.Observation
 import com.projectronin.interop.tenant.config.model.Tenant
+import kotlinx.coroutines.flow.Flow
 import java.time.LocalDate
 
 class ObservationService(epicClient: EpicClient) :
@@ -20,13 +21,32 @@ class ObservationService(epicClient: EpicClient) :
     ): List<Observation> {
         val observationResponses =
             patientFhirIds.chunked(1) {
-                val parameters =
-                    mapOf(
-                        "patient" to it.joinToString(separator = ","),
-                        "category" to observationCategoryCodes.toSearchTokens().toOrParams(),
-                    ) + if (startDate == null) emptyMap() else mapOf("date" to "ge$startDate")
+                val parameters = searchParameters(it.joinToString(separator = ","), observationCategoryCodes, startDate)
                 getResourceListFromSearch(tenant, parameters)
             }
         return observationResponses.flatten()
     }
+
+    /**
+     * Emits the patient's Observations in [observationCategoryCodes] page by page, without blocking the collector.
+     */
+    fun findObservationsByPatientFlow(
+        tenant: Tenant,
+        patientFhirId: String,
+        observationCategoryCodes: List<String>,
+        startDate: LocalDate?,
+    ): Flow<Observation> {
+        return getResourceFlowFromSearch(tenant, searchParameters(patientFhirId, observationCategoryCodes, startDate))
+    }
+
+    private fun searchParameters(
+        patient: String,
+        observationCategoryCodes: List<String>,
+        startDate: LocalDate?,
+    ): Map<String, Any?> {
+        return mapOf(
+            "patient" to patient,
+            "category" to observationCategoryCodes.toSearchTokens().toOrParams(),
+        ) + if (startDate == null) emptyMap() else mapOf("date" to "ge$startDate")
+    }
 }
@@ -3,6 +3,7 @@ package com.projectronin.interop.dataloader.epic.service
 import com.projectronin.interop.ehr.epic.client.EpicClient
 import com.projectronin.interop.fhir.r4.resource.Observation
 import com.projectronin.interop.tenant.config.model.Tenant
+import kotlinx.coroutines.flow.Flow
 
 class ObservationViaConditionService(epicClient: EpicClient) :
     BaseEpicService<Observation>(epicClient) {
@@ -13,11 +14,23 @@ class ObservationViaConditionService(epicClient: EpicClient) :
         tenant: Tenant,
         conditionId: String,
     ): List<Observation> {
-        val parameters =
-            mapOf(
-                "_id" to conditionId,
-                "_include" to "Condition:assessment",
-            )
-        return getResourceListFromSearch(tenant, parameters)
+        return getResourceListFromSearch(tenant, searchParameters(conditionId))
+    }
+
+    /**
+     * Emits the Observations included with the Condition page by page, without blocking the collector.
+     */
+    fun findObservationsByConditionFlow(
+        tenant: Tenant,
+        conditionId: String,
+    ): Flow<Observation> {
+        return getResourceFlowFromSearch(tenant, searchParameters(conditionId))
+    }
+
+    private fun searchParameters(conditionId: String): Map<String, Any?> {
+        return mapOf(
+            "_id" to conditionId,
+            "_include" to "Condition:assessment",
+        )
     }
 }
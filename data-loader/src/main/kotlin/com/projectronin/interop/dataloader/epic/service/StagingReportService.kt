@@ -15,6 +15,13 @@ class StagingReportService(private val epicClient: EpicClient) {
     fun getStagingReportsByPatient(
         tenant: Tenant,
         mrn: String,
+    ): GetPatientStagingResponse {
+        return runBlocking { getStagingReportsByPatientSuspending(tenant, mrn) }
+    }
+
+    suspend fun getStagingReportsByPatientSuspending(
+        tenant: Tenant,
+        mrn: String,
     ): GetPatientStagingResponse {
         val request =
             GetPatientStagingRequest(
@@ -31,10 +38,8 @@ class StagingReportService(private val epicClient: EpicClient) {
                     ),
             )
 
-        return runBlocking {
-            val httpResponse = epicClient.post(tenant, stagingSearchUrlPart, request)
-            httpResponse.body()
-        }
+        val httpResponse = epicClient.post(tenant, stagingSearchUrlPart, request)
+        return httpResponse.body()
     }
 }
 
@@ -0,0 +1,62 @@
+package com.projectronin.interop.dataloader.base
+
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotEquals
+import kotlin.test.assertTrue
+
+class CheckpointJournalTest {
+    @TempDir
+    lateinit var directory: File
+
+    private fun resumeOrStart() = CheckpointJournal.resumeOrStart("TestLoader", directory)
+
+    private fun journalFile(journal: CheckpointJournal) = File(directory, "TestLoader/${journal.timestamp}.journal")
+
+    @Test
+    fun `a run that dies part way is resumed until it finishes`() {
+        val first = resumeOrStart()
+        assertFalse(first.resumed)
+        first.markCompleted("MRN1", "Patient")
+        first.recordUpload("patient", "loaded/patient/MRN1.json", false)
+        first.markCompleted("MRN2", "Patient")
+        // The process dies while writing a record.
+        journalFile(first).appendText("FAILED\tpatient\tloaded/patient/MR")
+
+        val second = resumeOrStart()
+        assertTrue(second.resumed)
+        assertEquals(first.timestamp, second.timestamp)
+        assertTrue(second.isCompleted("MRN1", "Patient"))
+        assertTrue(second.isCompleted("MRN2", "Patient"))
+        assertEquals(mapOf("loaded/patient/MRN1.json" to "patient"), second.failedUploads())
+        second.recordUpload("patient", "loaded/patient/MRN1.json", true)
+        second.markCompleted("MRN3", "Patient")
+
+        // Dies again, this time between records.
+        val third = resumeOrStart()
+        assertEquals(first.timestamp, third.timestamp)
+        assertTrue(third.isCompleted("MRN3", "Patient"))
+        assertEquals(emptyMap(), third.failedUploads())
+        assertTrue(third.finish())
+
+        val next = resumeOrStart()
+        assertFalse(next.resumed)
+        assertNotEquals(first.timestamp, next.timestamp)
+        assertFalse(next.isCompleted("MRN1", "Patient"))
+    }
+
+    @Test
+    fun `a run is not finished while uploads are still failing`() {
+        val first = resumeOrStart()
+        first.markCompleted("MRN1", "Patient")
+        first.recordUpload("patient", "loaded/patient/MRN1.json", false)
+        assertFalse(first.finish())
+
+        val second = resumeOrStart()
+        assertEquals(first.timestamp, second.timestamp)
+        assertEquals(mapOf("loaded/patient/MRN1.json" to "patient"), second.failedUploads())
+    }
+}
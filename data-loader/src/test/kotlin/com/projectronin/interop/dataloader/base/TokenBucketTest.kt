@@ -0,0 +1,62 @@
+package com.projectronin.interop.dataloader.base
+
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+
+class TokenBucketTest {
+    private var now = 0L
+    private val tokenBucket = TokenBucket(permitsPerSecond = 4.0, burst = 2) { now }
+
+    private fun reserve() = runBlocking { tokenBucket.reserve() }
+
+    @Test
+    fun `a burst is served straight away`() {
+        assertEquals(0, reserve())
+        assertEquals(0, reserve())
+        assertEquals(250_000_000, reserve())
+    }
+
+    @Test
+    fun `waiting callers are given successive tokens`() {
+        reserve()
+        reserve()
+
+        assertEquals(250_000_000, reserve())
+        assertEquals(500_000_000, reserve())
+        assertEquals(750_000_000, reserve())
+    }
+
+    @Test
+    fun `tokens are added as time passes`() {
+        reserve()
+        reserve()
+
+        now += 250_000_000
+        assertEquals(0, reserve())
+        assertEquals(250_000_000, reserve())
+    }
+
+    @Test
+    fun `a quiet spell refills no more than the burst`() {
+        reserve()
+        reserve()
+
+        now += 60_000_000_000
+        assertEquals(0, reserve())
+        assertEquals(0, reserve())
+        assertEquals(250_000_000, reserve())
+    }
+
+    @Test
+    fun `reserved tokens are paid back before new ones are served`() {
+        reserve()
+        reserve()
+        reserve()
+        reserve()
+
+        // Two tokens have been added, but both were already reserved.
+        now += 500_000_000
+        assertEquals(250_000_000, reserve())
+    }
+}
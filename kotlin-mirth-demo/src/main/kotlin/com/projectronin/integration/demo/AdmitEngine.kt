@@ -0,0 +1,44 @@
+package com.projectronin.integration.demo
+
+import ca.uhn.fhir.context.FhirContext
+import ca.uhn.fhir.parser.IParser
+import ca.uhn.hl7v2.DefaultHapiContext
+import ca.uhn.hl7v2.parser.CanonicalModelClassFactory
+import ca.uhn.hl7v2.parser.PipeParser
+import ca.uhn.hl7v2.validation.impl.ValidationContextFactory
+
+/**
+ * Process-wide engine holding the expensive HL7 and FHIR parsing state. Everything is built lazily on first use and then
+ * shared by all Mirth channel threads, so a JavaScript transformer can simply call
+ * `Packages.com.projectronin.integration.demo.AdmitEngine.process(msg)`.
+ */
+object AdmitEngine {
+    private val hapiContext by lazy {
+        DefaultHapiContext(ValidationContextFactory.noValidation()).apply {
+            modelClassFactory = CanonicalModelClassFactory("2.8.1")
+        }
+    }
+
+    private val fhirContext by lazy { FhirContext.forR4() }
+
+    // FHIR parsers are not thread-safe, so each channel thread gets its own.
+    private val jsonParsers = ThreadLocal.withInitial { fhirContext.newJsonParser() }
+
+    /**
+     * The shared HL7 pipe parser. This is safe to use from multiple threads.
+     */
+    val pipeParser: PipeParser by lazy { hapiContext.pipeParser }
+
+    /**
+     * The FHIR JSON parser for the calling thread.
+     */
+    val jsonParser: IParser
+        get() = jsonParsers.get()
+
+    val identifiers = Identifiers()
+
+    val admitService by lazy { AdmitService(this) }
+
+    @JvmStatic
+    fun process(hl7Message: String): String = admitService.process(hl7Message)
+}
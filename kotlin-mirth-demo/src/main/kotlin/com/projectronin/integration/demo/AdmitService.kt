@@ -1,7 +1,5 @@
 package com.projectronin.integration.demo
 
-import ca.uhn.fhir.context.FhirContext
-import ca.uhn.hl7v2.DefaultHapiContext
 import ca.uhn.hl7v2.model.GenericSegment
 import ca.uhn.hl7v2.model.Message
 import ca.uhn.hl7v2.model.Varies
@@ -10,24 +8,20 @@ import ca.uhn.hl7v2.model.v281.datatype.XPN
 import ca.uhn.hl7v2.model.v281.message.ADT_A01
 import ca.uhn.hl7v2.model.v281.segment.MSH
 import ca.uhn.hl7v2.model.v281.segment.PID
-import ca.uhn.hl7v2.parser.CanonicalModelClassFactory
 import ca.uhn.hl7v2.util.Terser
-import ca.uhn.hl7v2.validation.impl.ValidationContextFactory
 import org.hl7.fhir.r4.model.HumanName
 import org.hl7.fhir.r4.model.Identifier
 import org.hl7.fhir.r4.model.Patient
+import org.slf4j.LoggerFactory
 
-class AdmitService {
-    private val identifiers = Identifiers()
+class AdmitService(private val engine: AdmitEngine = AdmitEngine) {
+    private val logger = LoggerFactory.getLogger(AdmitService::class.java)
+    private val identifiers = engine.identifiers
 
     fun process(hl7Message: String): String {
-        println("Parsing new message")
+        logger.debug("Parsing new message")
 
-        val hapiContext = DefaultHapiContext(ValidationContextFactory.noValidation())
-        hapiContext.modelClassFactory = CanonicalModelClassFactory("2.8.1")
-
-        val hl7Parser = hapiContext.pipeParser
-        val message = hl7Parser.parse(hl7Message)
+        val message = engine.pipeParser.parse(hl7Message)
 
         val tenant = getTenant(message)
 
@@ -50,12 +44,7 @@ class AdmitService {
                 Terser.getPrimitive(messageType.data, 1, 1).value
             }
 
-        return when (hl7FacilityId) {
-            "1" -> 1001
-            "MDA" -> 1002
-            "PSJ" -> 1003
-            else -> null
-        }
+        return TenantRegistry.getTenantId(hl7FacilityId)
     }
 
     private fun process(
@@ -65,9 +54,8 @@ class AdmitService {
         val pid = input.pid
         val patient = createPatient(pid, tenant)
 
-        val jsonParser = FhirContext.forR4().newJsonParser()
-        val jsonPatient = jsonParser.encodeResourceToString(patient)
-        println("JSON Patient = $jsonPatient")
+        val jsonPatient = engine.jsonParser.encodeResourceToString(patient)
+        logger.debug("JSON Patient = {}", jsonPatient)
         return jsonPatient
     }
 
@@ -6,50 +6,26 @@ import org.hl7.fhir.r4.model.Coding
 class Identifiers {
     private val identifierTypeCodeSystem = "http://terminology.hl7.org/CodeSystem/v2-0203"
 
-    private val mrn =
-        CodeableConcept().setText("Medical Record Number").setCoding(
-            listOf(
-                Coding().setCode("MR").setDisplay("Medical Record Number").setSystem(identifierTypeCodeSystem),
-            ),
-        )
-
-    private val ssn =
-        CodeableConcept().setText("Social Security Number").setCoding(
-            listOf(
-                Coding().setCode("SS").setDisplay("Social Security Number").setSystem(identifierTypeCodeSystem),
-            ),
-        )
-
-    private val driversLicense =
-        CodeableConcept().setText("Driver's License").setCoding(
-            listOf(Coding().setCode("DL").setDisplay("Driver's License").setSystem(identifierTypeCodeSystem)),
-        )
-
-    private val passport =
-        CodeableConcept().setText("Passport Number").setCoding(
-            listOf(Coding().setCode("PPN").setDisplay("Passport Number").setSystem(identifierTypeCodeSystem)),
-        )
-
-    private val accountNumber =
-        CodeableConcept().setText("Account Number").setCoding(
-            listOf(Coding().setCode("AN").setDisplay("Account Number").setSystem(identifierTypeCodeSystem)),
-        )
-
-    private val personNumber =
-        CodeableConcept().setText("Person Number").setCoding(
-            listOf(Coding().setCode("PN").setDisplay("Person Number").setSystem(identifierTypeCodeSystem)),
+    private val displaysByCode =
+        mapOf(
+            "MR" to "Medical Record Number",
+            "SS" to "Social Security Number",
+            "DL" to "Driver's License",
+            "PPN" to "Passport Number",
+            "AN" to "Account Number",
+            "PN" to "Person Number",
         )
 
+    /**
+     * Returns a new concept for [typeCode] on every call. HAPI's model types are mutable and this lookup is shared by
+     * every channel thread through [AdmitEngine], so only the codes and displays are kept here and each Identifier gets
+     * a concept of its own.
+     */
     fun getCodeableConcept(typeCode: String): CodeableConcept? {
-        return when (typeCode) {
-            "MR" -> mrn
-            "SS" -> ssn
-            "DL" -> driversLicense
-            "PPN" -> passport
-            "AN" -> accountNumber
-            "PN" -> personNumber
-            else -> null
-        }
+        val display = displaysByCode[typeCode] ?: return null
+        return CodeableConcept().setText(display).setCoding(
+            mutableListOf(Coding().setCode(typeCode).setDisplay(display).setSystem(identifierTypeCodeSystem)),
+        )
     }
 
     fun getSystem(systemCode: String): String? {
@@ -3,10 +3,9 @@ package com.projectronin.integration.demo
 class StaticClass {
     companion object {
         private var count = 1
-        private var admitService = null
     }
 
     fun getCount(): Int = StaticClass.count++
 
-    fun admitService(): String? = admitService
+    fun admitService(): AdmitService = AdmitEngine.admitService
 }
@@ -0,0 +1,121 @@
+package com.projectronin.integration.demo
+
+import org.slf4j.LoggerFactory
+import java.io.Reader
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.attribute.FileTime
+import java.util.Properties
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Process-wide mapping of HL7 sending facilities to tenants, read from the file named by the `ronin.tenants.file` system
+ * property or the bundled tenants.properties. Lookups only read an immutable snapshot and never lock. When a file is
+ * configured, a daemon thread checks it every `ronin.tenants.reloadIntervalMillis` (5 seconds by default) and swaps in a
+ * new snapshot when it changes; a file that cannot be read or parsed leaves the current snapshot in place.
+ */
+object TenantRegistry {
+    private val tenants =
+        TenantSnapshots(
+            System.getProperty("ronin.tenants.file")?.let { Paths.get(it) },
+            java.lang.Long.getLong("ronin.tenants.reloadIntervalMillis", 5000),
+        )
+
+    fun getTenantId(hl7FacilityId: String?): Int? = tenants.getTenantId(hl7FacilityId)
+
+    /**
+     * Replaces the snapshot if the file has changed since it was last read, returning whether it did.
+     */
+    fun reloadIfChanged(): Boolean = tenants.reloadIfChanged()
+}
+
+/**
+ * The snapshots behind [TenantRegistry]. A configured [file] that cannot be loaded at startup is logged rather than
+ * thrown, since an exception here would leave [TenantRegistry] unusable until the JVM restarts. No facility has a tenant
+ * until the file loads on a later reload check, rather than messages being mapped with the bundled sample tenants.
+ */
+internal class TenantSnapshots(private val file: Path?, reloadIntervalMillis: Long) {
+    private val logger = LoggerFactory.getLogger(TenantRegistry::class.java)
+
+    private class Snapshot(val tenantIdsByFacility: Map<String, Int>, val lastModified: FileTime?, val size: Long)
+
+    private val snapshot = AtomicReference(initialSnapshot())
+    private val reloader: ScheduledExecutorService? =
+        if (file != null && reloadIntervalMillis > 0) {
+            Executors.newSingleThreadScheduledExecutor { runnable ->
+                Thread(runnable, "tenant-registry-reload").apply { isDaemon = true }
+            }.apply {
+                scheduleWithFixedDelay(
+                    { reloadIfChanged() },
+                    reloadIntervalMillis,
+                    reloadIntervalMillis,
+                    TimeUnit.MILLISECONDS,
+                )
+            }
+        } else {
+            null
+        }
+
+    fun getTenantId(hl7FacilityId: String?): Int? = hl7FacilityId?.let { snapshot.get().tenantIdsByFacility[it] }
+
+    fun reloadIfChanged(): Boolean {
+        val file = file ?: return false
+        val current = snapshot.get()
+        return try {
+            if (Files.getLastModifiedTime(file) == current.lastModified && Files.size(file) == current.size) {
+                false
+            } else {
+                snapshot.set(load(file))
+                true
+            }
+        } catch (e: Exception) {
+            logger.error(
+                "Unable to reload tenants from {}. Keeping the {} already loaded",
+                file,
+                current.tenantIdsByFacility.size,
+                e,
+            )
+            false
+        }
+    }
+
+    fun close() {
+        reloader?.shutdownNow()
+    }
+
+    private fun initialSnapshot(): Snapshot {
+        val file = file ?: return loadResource()
+        return try {
+            load(file)
+        } catch (e: Exception) {
+            logger.error("Unable to load tenants from {}. No tenants are mapped until it can be read", file, e)
+            Snapshot(emptyMap(), null, -1)
+        }
+    }
+
+    private fun load(file: Path): Snapshot {
+        // Read the file's stamp before its contents, so a write that lands in between is caught by the next check.
+        val lastModified = Files.getLastModifiedTime(file)
+        val size = Files.size(file)
+        return Files.newBufferedReader(file).use { Snapshot(parse(it), lastModified, size) }
+    }
+
+    private fun loadResource(): Snapshot {
+        val resource =
+            TenantRegistry::class.java.classLoader.getResourceAsStream("tenants.properties")
+                ?: throw IllegalStateException("tenants.properties not found on the classpath")
+        return resource.bufferedReader().use { Snapshot(parse(it), null, -1) }
+    }
+
+    private fun parse(reader: Reader): Map<String, Int> {
+        val properties = Properties().apply { load(reader) }
+        return properties.stringPropertyNames().associateWith { facility ->
+            val tenantId = properties.getProperty(facility).trim()
+            requireNotNull(tenantId.toIntOrNull()) { "Tenant ID $tenantId for facility $facility is not a number" }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.projectronin.integration.demo
+
+import org.hl7.fhir.r4.model.Patient
+import org.junit.jupiter.api.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertTrue
+
+class AdmitEngineTest {
+    private fun admit(
+        mrn: String,
+        facility: String = "MDA",
+    ) = "MSH|^~\\&|EPIC|$facility|RONIN|RONIN|20210708120000||ADT^A01^ADT_A01|MSG$mrn|P|2.8.1\r" +
+        "EVN|A01|20210708120000\r" +
+        "PID|1||$mrn^^^MDA^MR~123-45-6789^^^SSA^SS||Doe^John^Q||19700101|M||||||||||ACCT$mrn^^^MDA^AN\r" +
+        "PV1|1|I\r"
+
+    private fun parse(json: String) = AdmitEngine.jsonParser.parseResource(Patient::class.java, json)
+
+    @Test
+    fun `maps the PID to a Patient for the sending facility's tenant`() {
+        val patient = parse(AdmitEngine.process(admit("MRN1")))
+
+        val identifiers = patient.identifier.associate { (it.type.codingFirstRep.code ?: it.system) to it.value }
+        assertEquals("MRN1", identifiers["MR"])
+        assertEquals("123-45-6789", identifiers["SS"])
+        assertEquals("ACCTMRN1", identifiers["AN"])
+        assertEquals("1002", identifiers["http://projectronin.com/fhir/tenant"])
+        assertEquals("Doe", patient.nameFirstRep.family)
+    }
+
+    @Test
+    fun `ignores messages from unknown facilities`() {
+        assertEquals("", AdmitEngine.process(admit("MRN1", facility = "UNKNOWN")))
+    }
+
+    @Test
+    fun `identifier types are not shared between lookups`() {
+        val first = AdmitEngine.identifiers.getCodeableConcept("MR")!!
+        first.text = "Changed"
+        first.codingFirstRep.code = "XX"
+
+        val second = AdmitEngine.identifiers.getCodeableConcept("MR")!!
+        assertNotSame(first, second)
+        assertEquals("Medical Record Number", second.text)
+        assertEquals("MR", second.codingFirstRep.code)
+    }
+
+    @Test
+    fun `messages processed concurrently keep their own identifiers`() {
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results =
+                (1..200).map { index ->
+                    executor.submit<Pair<String, Patient>> {
+                        "MRN$index" to parse(AdmitEngine.process(admit("MRN$index")))
+                    }
+                }
+
+            results.forEach { result ->
+                val (mrn, patient) = result.get(30, TimeUnit.SECONDS)
+                val mrnIdentifier = patient.identifier.single { it.type.codingFirstRep.code == "MR" }
+                assertEquals(mrn, mrnIdentifier.value)
+                assertEquals("Medical Record Number", mrnIdentifier.type.text)
+                assertTrue(patient.identifier.none { it.type.text == "Changed" })
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.projectronin.integration.demo
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class TenantRegistryTest {
+    @TempDir
+    lateinit var directory: Path
+
+    private val opened = mutableListOf<TenantSnapshots>()
+
+    @AfterEach
+    fun close() {
+        opened.forEach { it.close() }
+    }
+
+    private fun snapshots(file: Path?) = TenantSnapshots(file, 0).also { opened.add(it) }
+
+    private fun write(
+        file: Path,
+        contents: String,
+        modifiedMillis: Long,
+    ) {
+        Files.write(file, contents.toByteArray())
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedMillis))
+    }
+
+    @Test
+    fun `uses the bundled tenants when no file is configured`() {
+        val tenants = snapshots(null)
+
+        assertEquals(1002, tenants.getTenantId("MDA"))
+        assertNull(tenants.getTenantId("UNKNOWN"))
+        assertNull(tenants.getTenantId(null))
+        assertFalse(tenants.reloadIfChanged())
+    }
+
+    @Test
+    fun `picks up changes to the file`() {
+        val file = directory.resolve("tenants.properties")
+        write(file, "MDA=1\n", 1_000)
+        val tenants = snapshots(file)
+        assertEquals(1, tenants.getTenantId("MDA"))
+
+        assertFalse(tenants.reloadIfChanged())
+
+        write(file, "MDA=1\nNEW=2\n", 2_000)
+        assertTrue(tenants.reloadIfChanged())
+        assertEquals(2, tenants.getTenantId("NEW"))
+    }
+
+    @Test
+    fun `keeps the last good snapshot when the file cannot be parsed`() {
+        val file = directory.resolve("tenants.properties")
+        write(file, "MDA=1\n", 1_000)
+        val tenants = snapshots(file)
+
+        write(file, "MDA=not a number\n", 2_000)
+        assertFalse(tenants.reloadIfChanged())
+        assertEquals(1, tenants.getTenantId("MDA"))
+
+        Files.delete(file)
+        assertFalse(tenants.reloadIfChanged())
+        assertEquals(1, tenants.getTenantId("MDA"))
+    }
+
+    @Test
+    fun `maps no tenants until a broken file is fixed`() {
+        val file = directory.resolve("tenants.properties")
+        write(file, "MDA=not a number\n", 1_000)
+
+        val tenants = snapshots(file)
+        assertNull(tenants.getTenantId("MDA"))
+
+        write(file, "MDA=7\n", 2_000)
+        assertTrue(tenants.reloadIfChanged())
+        assertEquals(7, tenants.getTenantId("MDA"))
+    }
+
+    @Test
+    fun `maps no tenants until a missing file is created`() {
+        val file = directory.resolve("missing.properties")
+        val tenants = snapshots(file)
+
+        assertNull(tenants.getTenantId("PSJ"))
+        assertFalse(tenants.reloadIfChanged())
+
+        write(file, "PSJ=8\n", 1_000)
+        assertTrue(tenants.reloadIfChanged())
+        assertEquals(8, tenants.getTenantId("PSJ"))
+    }
+}
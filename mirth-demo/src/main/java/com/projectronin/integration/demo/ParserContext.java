@@ -0,0 +1,103 @@
+package com.projectronin.integration.demo;
+
+import java.io.IOException;
+import java.util.ResourceBundle;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.parser.CanonicalModelClassFactory;
+import ca.uhn.hl7v2.parser.PipeParser;
+import ca.uhn.hl7v2.validation.impl.ValidationContextFactory;
+
+/**
+ * Process-wide holder for the HL7 and FHIR parsing contexts. Building these is
+ * expensive (model class scanning and FHIR structure definitions), so a Mirth
+ * channel should call {@link #initialize()} from its deploy script and
+ * {@link #shutdown()} from its undeploy script, sharing the single instance
+ * across all channel threads in between.
+ *
+ * The {@link PipeParser} and {@link FhirContext} are thread-safe. FHIR
+ * {@link IParser}s are not, so callers should request a new one per use via
+ * {@link #newJsonParser()}, which is cheap once the context exists.
+ */
+public final class ParserContext {
+	private static final Object LOCK = new Object();
+	private static volatile ParserContext instance;
+
+	private final HapiContext hapiContext;
+	private final PipeParser pipeParser;
+	private final FhirContext fhirContext;
+
+	// Package-private so benchmarks can measure the cost of an unshared context.
+	ParserContext() {
+		// Loaded up front so the bundle is resolved against this class loader rather
+		// than whatever Mirth happens to have as the context class loader later.
+		ResourceBundle.getBundle("ca.uhn.fhir.i18n.hapi-messages");
+
+		hapiContext = new DefaultHapiContext(ValidationContextFactory.noValidation());
+		hapiContext.setModelClassFactory(new CanonicalModelClassFactory("2.8.1"));
+		pipeParser = hapiContext.getPipeParser();
+
+		fhirContext = FhirContext.forR4();
+	}
+
+	/**
+	 * Initializes the shared context if it has not already been initialized.
+	 * Calling this more than once is safe.
+	 */
+	public static ParserContext initialize() {
+		ParserContext current = instance;
+		if (current == null) {
+			synchronized (LOCK) {
+				current = instance;
+				if (current == null) {
+					current = new ParserContext();
+					instance = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Returns the shared context, initializing it on first use if the channel did
+	 * not do so explicitly.
+	 */
+	public static ParserContext getInstance() {
+		return initialize();
+	}
+
+	/**
+	 * Releases the shared context. A later call to {@link #initialize()} or
+	 * {@link #getInstance()} will build a new one.
+	 */
+	public static void shutdown() throws IOException {
+		ParserContext current;
+		synchronized (LOCK) {
+			current = instance;
+			instance = null;
+		}
+
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	void close() throws IOException {
+		hapiContext.close();
+	}
+
+	public PipeParser getPipeParser() {
+		return pipeParser;
+	}
+
+	public FhirContext getFhirContext() {
+		return fhirContext;
+	}
+
+	public IParser newJsonParser() {
+		return fhirContext.newJsonParser();
+	}
+}
@@ -1,7 +1,5 @@
 package com.projectronin.integration.demo;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
 
 import ca.uhn.hl7v2.HL7Exception;
@@ -17,22 +15,18 @@ import ca.uhn.hl7v2.util.Terser;
  * @author Josh Smith
  */
 public class TenantExtractor {
-	private Map<String, Integer> tenantIdsByFacility = new HashMap<>();
+	private final TenantRegistry tenantRegistry;
 
 	public TenantExtractor() {
-		tenantIdsByFacility.put("1", 1001);
-		tenantIdsByFacility.put("MDA", 1002);
-		tenantIdsByFacility.put("PSJ", 1003);
+		this(TenantRegistry.getInstance());
 	}
 
-	public Optional<Integer> getTenantId(Message message) throws HL7Exception {
-		String hl7FacilityId = getHL7Facility(message);
-		if (hl7FacilityId == null) {
-			return Optional.empty();
-		}
+	public TenantExtractor(TenantRegistry tenantRegistry) {
+		this.tenantRegistry = tenantRegistry;
+	}
 
-		Integer tenantId = tenantIdsByFacility.get(hl7FacilityId);
-		return Optional.ofNullable(tenantId);
+	public Optional<Integer> getTenantId(Message message) throws HL7Exception {
+		return tenantRegistry.getTenantId(getHL7Facility(message));
 	}
 
 	private String getHL7Facility(Message message) throws HL7Exception {
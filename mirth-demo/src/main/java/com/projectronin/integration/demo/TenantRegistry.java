@@ -0,0 +1,200 @@
+package com.projectronin.integration.demo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide mapping of HL7 sending facilities to tenants, shared across all
+ * channel threads the same way as {@link ParserContext}.
+ *
+ * The mapping is read from the file named by the {@code ronin.tenants.file}
+ * system property, or the bundled tenants.properties when it is not set. Each
+ * load produces an immutable snapshot; lookups only read the current snapshot
+ * and never lock. A daemon thread checks the file every
+ * {@code ronin.tenants.reloadIntervalMillis} (5 seconds by default) and swaps
+ * in a new snapshot when it changes. A file that cannot be read or parsed
+ * leaves the current snapshot in place.
+ */
+public final class TenantRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TenantRegistry.class);
+
+	static final String FILE_PROPERTY = "ronin.tenants.file";
+	static final String RELOAD_INTERVAL_PROPERTY = "ronin.tenants.reloadIntervalMillis";
+	private static final String DEFAULT_RESOURCE = "tenants.properties";
+
+	private static final Object LOCK = new Object();
+	private static volatile TenantRegistry instance;
+
+	private final Path file;
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+	private final ScheduledExecutorService reloader;
+
+	// Package-private so benchmarks can drive reloads themselves.
+	TenantRegistry(Path file, long reloadIntervalMillis) throws IOException {
+		this.file = file;
+		snapshot.set(file == null ? loadResource() : loadFile(file));
+
+		if (file != null && reloadIntervalMillis > 0) {
+			reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "tenant-registry-reload");
+				thread.setDaemon(true);
+				return thread;
+			});
+			reloader.scheduleWithFixedDelay(this::reloadIfChanged, reloadIntervalMillis, reloadIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		} else {
+			reloader = null;
+		}
+	}
+
+	/**
+	 * Returns the shared registry, loading it on first use.
+	 */
+	public static TenantRegistry getInstance() {
+		TenantRegistry current = instance;
+		if (current == null) {
+			synchronized (LOCK) {
+				current = instance;
+				if (current == null) {
+					String file = System.getProperty(FILE_PROPERTY);
+					try {
+						current = new TenantRegistry(file == null ? null : Paths.get(file),
+								Long.getLong(RELOAD_INTERVAL_PROPERTY, 5000));
+					} catch (IOException e) {
+						throw new IllegalStateException("Unable to load tenants", e);
+					}
+					instance = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Stops the shared registry's reload thread. A later call to
+	 * {@link #getInstance()} will load a new one.
+	 */
+	public static void shutdown() {
+		TenantRegistry current;
+		synchronized (LOCK) {
+			current = instance;
+			instance = null;
+		}
+
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	void close() {
+		if (reloader != null) {
+			reloader.shutdownNow();
+		}
+	}
+
+	public Optional<Integer> getTenantId(String hl7FacilityId) {
+		if (hl7FacilityId == null) {
+			return Optional.empty();
+		}
+		return Optional.ofNullable(snapshot.get().tenantIdsByFacility.get(hl7FacilityId));
+	}
+
+	/**
+	 * Replaces the snapshot if the file has changed since it was last read.
+	 *
+	 * @return true if a new snapshot was loaded
+	 */
+	boolean reloadIfChanged() {
+		if (file == null) {
+			return false;
+		}
+
+		Snapshot current = snapshot.get();
+		try {
+			if (Files.getLastModifiedTime(file).equals(current.lastModified) && Files.size(file) == current.size) {
+				return false;
+			}
+
+			snapshot.set(loadFile(file));
+			return true;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Unable to reload tenants from {}. Keeping the {} already loaded", file,
+					current.tenantIdsByFacility.size(), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the file into a new snapshot whether or not it has changed.
+	 */
+	void reload() throws IOException {
+		snapshot.set(loadFile(file));
+	}
+
+	private static Snapshot loadFile(Path file) throws IOException {
+		// Read the file's stamp before its contents, so a write that lands in between
+		// is caught by the next check.
+		FileTime lastModified = Files.getLastModifiedTime(file);
+		long size = Files.size(file);
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return new Snapshot(parse(reader), lastModified, size);
+		}
+	}
+
+	private static Snapshot loadResource() throws IOException {
+		try (InputStream in = TenantRegistry.class.getClassLoader().getResourceAsStream(DEFAULT_RESOURCE)) {
+			if (in == null) {
+				throw new IOException(String.format("%s not found on the classpath", DEFAULT_RESOURCE));
+			}
+			return new Snapshot(parse(new InputStreamReader(in, StandardCharsets.UTF_8)), null, -1);
+		}
+	}
+
+	private static Map<String, Integer> parse(Reader reader) throws IOException {
+		Properties properties = new Properties();
+		properties.load(reader);
+
+		Map<String, Integer> tenantIdsByFacility = new HashMap<>();
+		for (String facility : properties.stringPropertyNames()) {
+			String tenantId = properties.getProperty(facility).trim();
+			try {
+				tenantIdsByFacility.put(facility, Integer.valueOf(tenantId));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(
+						String.format("Tenant ID %s for facility %s is not a number", tenantId, facility), e);
+			}
+		}
+		return Collections.unmodifiableMap(tenantIdsByFacility);
+	}
+
+	private static final class Snapshot {
+		private final Map<String, Integer> tenantIdsByFacility;
+		private final FileTime lastModified;
+		private final long size;
+
+		Snapshot(Map<String, Integer> tenantIdsByFacility, FileTime lastModified, long size) {
+			this.tenantIdsByFacility = tenantIdsByFacility;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.projectronin.integration.demo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares messages/sec for {@link AdmitService} when the parsing contexts are
+ * built for every message versus shared through {@link ParserContext}.
+ *
+ * Run with {@code mvn -P benchmark test-compile exec:exec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AdmitServiceBenchmark {
+	static final String ADT_A01 = "MSH|^~\\&|EPIC|MDA|RONIN|RONIN|20210708120000||ADT^A01^ADT_A01|MSG00001|P|2.8.1\r"
+			+ "EVN|A01|20210708120000\r"
+			+ "PID|1||MRN123^^^MDA^MR||Doe^John^Q^^Dr^MD||19700101|M|||123 Main St^^Houston^TX^77001||5555555555|||||ACCT1^^^MDA^AN\r"
+			+ "PV1|1|I\r";
+
+	private AdmitService sharedAdmitService;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		sharedAdmitService = new AdmitService(ParserContext.initialize());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		ParserContext.shutdown();
+	}
+
+	/**
+	 * The original behavior: a new HAPI and FHIR context for every message.
+	 */
+	@Benchmark
+	public String perMessageContext() throws Exception {
+		ParserContext parserContext = new ParserContext();
+		try {
+			return new AdmitService(parserContext).process(ADT_A01);
+		} finally {
+			parserContext.close();
+		}
+	}
+
+	@Benchmark
+	public String sharedContext() throws Exception {
+		return sharedAdmitService.process(ADT_A01);
+	}
+}
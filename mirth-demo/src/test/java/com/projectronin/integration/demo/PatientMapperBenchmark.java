@@ -0,0 +1,197 @@
+package com.projectronin.integration.demo;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.v281.datatype.CX;
+import ca.uhn.hl7v2.model.v281.datatype.DTM;
+import ca.uhn.hl7v2.model.v281.datatype.XPN;
+import ca.uhn.hl7v2.model.v281.message.ADT_A01;
+import ca.uhn.hl7v2.model.v281.segment.PID;
+
+/**
+ * Measures the time and allocation of mapping a PID to a Patient with
+ * {@link PatientMapper} against the per-message ArrayList/Optional mapping it
+ * replaced, over the ADT messages in adt-a01-corpus.hl7. Messages are parsed
+ * up front, so only the mapping is measured; each operation maps the next
+ * message in the corpus.
+ *
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Dbenchmark.include=PatientMapperBenchmark}.
+ * The gc profiler's gc.alloc.rate.norm is the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PatientMapperBenchmark {
+	private static final int TENANT_ID = 1002;
+
+	private final PatientMapper patientMapper = new PatientMapper();
+	private final LegacyPatientMapper legacyPatientMapper = new LegacyPatientMapper();
+	private PID[] corpus;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		ParserContext parserContext = new ParserContext();
+		try {
+			List<PID> pids = new ArrayList<>();
+			for (String message : loadCorpus()) {
+				pids.add(((ADT_A01) parserContext.getPipeParser().parse(message)).getPID());
+			}
+			corpus = pids.toArray(new PID[0]);
+
+			// Comparing the two only means something if they produce the same Patients.
+			IParser jsonParser = parserContext.newJsonParser();
+			for (PID pid : corpus) {
+				String expected = jsonParser.encodeResourceToString(legacyPatientMapper.map(pid, TENANT_ID));
+				String actual = jsonParser.encodeResourceToString(patientMapper.map(pid, TENANT_ID));
+				if (!expected.equals(actual)) {
+					throw new IllegalStateException(
+							String.format("Mappings differ.%nLegacy: %s%nMapper: %s", expected, actual));
+				}
+			}
+		} finally {
+			parserContext.close();
+		}
+	}
+
+	@Benchmark
+	public Patient legacyMapping() throws HL7Exception {
+		return legacyPatientMapper.map(nextPid(), TENANT_ID);
+	}
+
+	@Benchmark
+	public Patient patientMapper() throws HL7Exception {
+		return patientMapper.map(nextPid(), TENANT_ID);
+	}
+
+	private PID nextPid() {
+		PID pid = corpus[next];
+		next = (next + 1) % corpus.length;
+		return pid;
+	}
+
+	static List<String> loadCorpus() throws IOException {
+		try (InputStream in = PatientMapperBenchmark.class.getClassLoader().getResourceAsStream("adt-a01-corpus.hl7");
+				Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name())) {
+			// Messages are separated by blank lines, with one segment per line.
+			scanner.useDelimiter("\\R\\R+");
+			List<String> messages = new ArrayList<>();
+			while (scanner.hasNext()) {
+				messages.add(scanner.next().trim().replaceAll("\\R", "\r") + "\r");
+			}
+			return messages;
+		}
+	}
+
+	/**
+	 * The mapping AdmitService used before {@link PatientMapper}, kept as the
+	 * baseline.
+	 */
+	static class LegacyPatientMapper {
+		private static final String IDENTIFIER_TYPE_CODE_SYSTEM = "http://terminology.hl7.org/CodeSystem/v2-0203";
+		private static final Map<String, CodeableConcept> CONCEPT_BY_CODE = new HashMap<>();
+		private static final Map<String, String> SYSTEM_BY_CODE = new HashMap<>();
+
+		static {
+			concept("MR", "Medical Record Number");
+			concept("SS", "Social Security Number");
+			concept("DL", "Driver's License");
+			concept("PPN", "Passport Number");
+			concept("AN", "Account Number");
+			concept("PN", "Person Number");
+			SYSTEM_BY_CODE.put("SS", "http://hl7.org/fhir/sid/us-ssn");
+		}
+
+		private static void concept(String code, String display) {
+			CONCEPT_BY_CODE.put(code, new CodeableConcept().setText(display).setCoding(
+					asList(new Coding().setCode(code).setDisplay(display).setSystem(IDENTIFIER_TYPE_CODE_SYSTEM))));
+		}
+
+		Patient map(PID pid, int tenantId) throws HL7Exception {
+			Patient patient = new Patient();
+			patient.setIdentifier(createIdentifiers(pid, tenantId));
+			patient.setName(createNames(pid.getPatientName()));
+			patient.setActive(true);
+			return patient;
+		}
+
+		private List<Identifier> createIdentifiers(PID pid, int tenantId) {
+			List<Identifier> identifiers = new ArrayList<>();
+			for (CX patientIdentifier : pid.getPatientIdentifierList()) {
+				createIdentifier(patientIdentifier).ifPresent(identifiers::add);
+			}
+			createIdentifier(pid.getPatientAccountNumber()).ifPresent(identifiers::add);
+			identifiers.add(new Identifier().setSystem("http://projectronin.com/fhir/tenant")
+					.setValue(Integer.toString(tenantId)));
+			return identifiers;
+		}
+
+		private Optional<Identifier> createIdentifier(CX hl7Identifier) {
+			String identifierTypeCode = hl7Identifier.getIdentifierTypeCode().getValue();
+			Optional<CodeableConcept> type = Optional.ofNullable(CONCEPT_BY_CODE.get(identifierTypeCode));
+			if (type.isPresent()) {
+				Optional<String> system = Optional.ofNullable(SYSTEM_BY_CODE.get(identifierTypeCode));
+				return Optional.of(new Identifier().setSystem(system.orElse(null))
+						.setValue(hl7Identifier.getIDNumber().getValue()).setType(type.get()));
+			}
+			return Optional.empty();
+		}
+
+		private List<HumanName> createNames(XPN[] hl7Names) throws HL7Exception {
+			List<HumanName> fhirNames = new ArrayList<>();
+			for (XPN hl7Name : hl7Names) {
+				HumanName fhirName = new HumanName();
+				fhirName.setFamily(hl7Name.getFamilyName().getSurname().getValue());
+				fhirName.addGiven(hl7Name.getGivenName().getValue());
+				fhirName.addGiven(hl7Name.getSecondAndFurtherGivenNamesOrInitialsThereof().getValue());
+				fhirName.addPrefix(hl7Name.getPrefixEgDR().getValue());
+				fhirName.addSuffix(hl7Name.getSuffixEgJRorIII().getValue());
+				fhirName.addSuffix(hl7Name.getProfessionalSuffix().getValue());
+				createPeriod(hl7Name.getEffectiveDate()).ifPresent(fhirName::setPeriod);
+				fhirNames.add(fhirName);
+			}
+			return fhirNames;
+		}
+
+		private Optional<Period> createPeriod(DTM beginDate) throws HL7Exception {
+			if (beginDate.isEmpty()) {
+				return Optional.empty();
+			}
+			return Optional.of(new Period().setStart(null));
+		}
+	}
+}
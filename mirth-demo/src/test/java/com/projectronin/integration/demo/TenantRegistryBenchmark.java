@@ -0,0 +1,121 @@
+package com.projectronin.integration.demo;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares tenant lookups per second from {@link TenantRegistry} against a
+ * synchronized map, with seven threads looking up tenants while one keeps
+ * reloading the mapping from disk.
+ *
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Dbenchmark.include=TenantRegistryBenchmark}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TenantRegistryBenchmark {
+	private static final String[] FACILITIES = { "1", "MDA", "PSJ", "UNKNOWN" };
+
+	private Path file;
+	private TenantRegistry registry;
+	private Map<String, Integer> synchronizedMap;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		file = Files.createTempFile("tenants", ".properties");
+		Files.write(file, "1=1001\nMDA=1002\nPSJ=1003\n".getBytes(StandardCharsets.UTF_8));
+
+		registry = new TenantRegistry(file, 0);
+		synchronizedMap = new HashMap<>(load());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		registry.close();
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	@Group("registry")
+	@GroupThreads(7)
+	public Optional<Integer> registryLookup() {
+		return registry.getTenantId(nextFacility());
+	}
+
+	@Benchmark
+	@Group("registry")
+	@GroupThreads(1)
+	public void registryReload() throws IOException {
+		registry.reload();
+	}
+
+	/**
+	 * The previous approach made safe for reloading: every lookup takes the same
+	 * lock as the reload.
+	 */
+	@Benchmark
+	@Group("synchronizedMap")
+	@GroupThreads(7)
+	public Integer synchronizedMapLookup() {
+		String facility = nextFacility();
+		synchronized (synchronizedMap) {
+			return synchronizedMap.get(facility);
+		}
+	}
+
+	@Benchmark
+	@Group("synchronizedMap")
+	@GroupThreads(1)
+	public void synchronizedMapReload() throws IOException {
+		Map<String, Integer> reloaded = load();
+		synchronized (synchronizedMap) {
+			synchronizedMap.clear();
+			synchronizedMap.putAll(reloaded);
+		}
+	}
+
+	// Racy on purpose; any spread across the facilities will do.
+	private String nextFacility() {
+		return FACILITIES[(next++ & Integer.MAX_VALUE) % FACILITIES.length];
+	}
+
+	private Map<String, Integer> load() throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+
+		Map<String, Integer> tenantIdsByFacility = new HashMap<>();
+		for (String facility : properties.stringPropertyNames()) {
+			tenantIdsByFacility.put(facility, Integer.valueOf(properties.getProperty(facility)));
+		}
+		return tenantIdsByFacility;
+	}
+}